@@ -73,6 +73,14 @@ class ActiveVmGroups {
         activeVmGroupsMap.put(0, vmGroupsList);
     }
 
+    List<String> getActiveVmGroups() {
+        final List<VmGroup> vmGroupList = activeVmGroupsMap.get(0);
+        final List<String> result = new ArrayList<>(vmGroupList.size());
+        for(VmGroup group: vmGroupList)
+            result.add(group.getName());
+        return result;
+    }
+
     long getLastSetAt() {
         return lastSetAt;
     }
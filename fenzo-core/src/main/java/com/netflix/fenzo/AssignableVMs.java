@@ -67,6 +67,9 @@ class AssignableVMs {
         }
     }
 
+    // the number of VMs in each partition of the work done in parallel while preparing VMs for an iteration; it is
+    // fixed, so that totals of resources are summed the same way regardless of the number of threads
+    private static final int PREPARE_PARTITION_SIZE = 256;
     private final VMCollection vmCollection;
     private static final Logger logger = LoggerFactory.getLogger(AssignableVMs.class);
     private final ConcurrentMap<String, String> leaseIdToHostnameMap = new ConcurrentHashMap<>();
@@ -76,6 +79,8 @@ class AssignableVMs {
     private final String attrNameToGroupMaxResources;
     private final Map<String, Map<VMResource, Double>> maxResourcesMap;
     private final Map<VMResource, Double> totalResourcesMap;
+    private final ScalarResourceIds scalarResourceIds = new ScalarResourceIds();
+    private final HostAttributeIds hostAttributeIds = new HostAttributeIds();
     private final VMRejectLimiter vmRejectLimiter;
     private final AssignableVirtualMachine dummyVM = new AssignableVirtualMachine(null, null, null, "", null, 0L, null) {
         @Override
@@ -94,7 +99,8 @@ class AssignableVMs {
         this.taskTracker = taskTracker;
         vmCollection = new VMCollection(
                 hostname -> new AssignableVirtualMachine(preferentialNamedConsumableResourceEvaluator, vmIdToHostnameMap, leaseIdToHostnameMap, hostname,
-                        leaseRejectAction, leaseOfferExpirySecs, taskTracker, singleLeaseMode),
+                        leaseRejectAction, leaseOfferExpirySecs, taskTracker, singleLeaseMode, scalarResourceIds,
+                        hostAttributeIds),
                 autoScaleByAttributeName
         );
         this.attrNameToGroupMaxResources = attrNameToGroupMaxResources;
@@ -108,8 +114,8 @@ class AssignableVMs {
         return vmCollection;
     }
 
-    Map<String, List<String>> createPseudoHosts(Map<String, Integer> groupCounts, Func1<String, AutoScaleRule> ruleGetter) {
-        return vmCollection.clonePseudoVMsForGroups(groupCounts, ruleGetter, lease ->
+    Map<String, List<VirtualMachineLease>> createPseudoHostLeases(Map<String, Integer> groupCounts, Func1<String, AutoScaleRule> ruleGetter) {
+        return vmCollection.clonePseudoVMLeasesForGroups(groupCounts, ruleGetter, lease ->
             lease != null &&
                     (lease.getAttributeMap() == null ||
                             lease.getAttributeMap().get(activeVmGroupAttributeName) == null ||
@@ -118,18 +124,6 @@ class AssignableVMs {
         );
     }
 
-    void removePseudoHosts(Map<String, List<String>> hostsMap) {
-        if (hostsMap != null && !hostsMap.isEmpty()) {
-            for (Map.Entry<String, List<String>> entry: hostsMap.entrySet()) {
-                for (String h: entry.getValue()) {
-                    final AssignableVirtualMachine avm = vmCollection.unsafeRemoveVm(h, entry.getKey());
-                    if (avm != null)
-                        avm.removeExpiredLeases(true, false);
-                }
-            }
-        }
-    }
-
     Map<String, Map<VMResource, Double[]>> getResourceStatus() {
         Map<String, Map<VMResource, Double[]>> result = new HashMap<>();
         for(AssignableVirtualMachine avm: vmCollection.getAllVMs())
@@ -150,16 +144,18 @@ class AssignableVMs {
             logger.warn("No VM for host " + host + " to unassign task " + taskId);
     }
 
-    private int addLeases(List<VirtualMachineLease> leases) {
+    int addLeases(List<VirtualMachineLease> leases) {
         if(logger.isDebugEnabled())
             logger.debug("Adding leases");
         for(AssignableVirtualMachine avm: vmCollection.getAllVMs())
             avm.resetResources();
+        // coalesce leases per host, so that each host is looked up and updated once, even for bursts of offers
+        final Map<String, List<VirtualMachineLease>> leasesByHost = new LinkedHashMap<>();
+        for(VirtualMachineLease l: leases)
+            leasesByHost.computeIfAbsent(l.hostname(), h -> new ArrayList<>(1)).add(l);
         int rejected=0;
-        for(VirtualMachineLease l: leases) {
-            if(vmCollection.addLease(l))
-                rejected++;
-        }
+        for(Map.Entry<String, List<VirtualMachineLease>> entry: leasesByHost.entrySet())
+            rejected += vmCollection.addLeases(entry.getKey(), entry.getValue());
         for(AssignableVirtualMachine avm: vmCollection.getAllVMs()) {
             if(logger.isDebugEnabled())
                 logger.debug("Updating total lease on " + avm.getHostname());
@@ -237,6 +233,10 @@ class AssignableVMs {
         return vmIdToHostnameMap.get(vmId);
     }
 
+    String getActiveVmGroupAttributeName() {
+        return activeVmGroupAttributeName;
+    }
+
     void setActiveVmGroupAttributeName(String attributeName) {
         this.activeVmGroupAttributeName = attributeName;
     }
@@ -264,7 +264,8 @@ class AssignableVMs {
         }
     }
 
-    List<AssignableVirtualMachine> prepareAndGetOrderedVMs(List<VirtualMachineLease> newLeases, AtomicInteger rejectedCount) {
+    List<AssignableVirtualMachine> prepareAndGetOrderedVMs(List<VirtualMachineLease> newLeases, AtomicInteger rejectedCount,
+                                                           ParallelAssignmentEvaluator evaluator) {
         disableVMs();
         removeExpiredLeases();
         rejectedCount.addAndGet(addLeases(newLeases));
@@ -273,21 +274,53 @@ class AssignableVMs {
         taskTracker.clearAssignedTasks();
         vmRejectLimiter.reset();
         resetTotalResources();
-        // ToDo make this parallel maybe?
-        for(AssignableVirtualMachine avm: vmCollection.getAllVMs()) {
+        final List<AssignableVirtualMachine> allVMs = vmCollection.getAllVMs();
+        // only the read-only half of the preparation runs in parallel. Preparing each VM for scheduling removes the
+        // previous iteration's assignments, which updates the task tracker, which isn't thread safe, so it stays
+        // sequential and is done for all VMs first
+        for(AssignableVirtualMachine avm: allVMs)
             avm.prepareForScheduling();
-            if(isInActiveVmGroup(avm) && avm.isAssignableNow()) {
+        // the rest only reads the VMs, so it runs in fixed size partitions of VMs on the evaluator's pool, each
+        // partition summing the total resources of its VMs into its own array
+        final int numVMs = allVMs.size();
+        final int numPartitions = (numVMs + PREPARE_PARTITION_SIZE - 1) / PREPARE_PARTITION_SIZE;
+        final boolean[] assignable = new boolean[numVMs];
+        final boolean[] counted = new boolean[numVMs];
+        final double[][] maxResources = new double[numVMs][];
+        final double[][] partitionTotals = new double[numPartitions][VMResource.values().length];
+        evaluator.runPartitions(numPartitions, p -> {
+            final int to = Math.min(numVMs, (p + 1) * PREPARE_PARTITION_SIZE);
+            for(int i = p * PREPARE_PARTITION_SIZE; i < to; i++) {
+                final AssignableVirtualMachine avm = allVMs.get(i);
+                final boolean active = isInActiveVmGroup(avm);
                 // for now, only add it if it is available right now
+                assignable[i] = active && avm.isAssignableNow();
+                final double[] max = new double[VMResource.values().length];
+                avm.addMaxResourcesTo(max);
+                maxResources[i] = max;
+                if (active && !avm.isDisabled()) {
+                    counted[i] = true;
+                    for (VMResource r: AssignableVirtualMachine.MAX_RESOURCES)
+                        partitionTotals[p][r.ordinal()] += max[r.ordinal()];
+                }
+            }
+        });
+        // merge in order of the VMs, so the results don't depend on the number of threads
+        boolean anyCounted = false;
+        for(int i = 0; i < numVMs; i++) {
+            final AssignableVirtualMachine avm = allVMs.get(i);
+            if(assignable[i]) {
                 if(logger.isDebugEnabled())
                     logger.debug("Host " + avm.getHostname() + " available for assignments");
                 vms.add(avm);
             }
             else if(logger.isDebugEnabled())
                 logger.debug("Host " + avm.getHostname() + " not available for assignments");
-            saveMaxResources(avm);
-            if (isInActiveVmGroup(avm) && !avm.isDisabled())
-                addTotalResources(avm);
+            saveMaxResources(avm, maxResources[i]);
+            anyCounted |= counted[i];
         }
+        if (anyCounted)
+            addTotalResources(partitionTotals);
         taskTracker.setTotalResources(totalResourcesMap);
         //Collections.sort(vms);
         return vms;
@@ -301,16 +334,12 @@ class AssignableVMs {
         totalResourcesMap.clear();
     }
 
-    private void addTotalResources(AssignableVirtualMachine avm) {
-        final Map<VMResource, Double> maxResources = avm.getMaxResources();
-        for (VMResource r: maxResources.keySet()) {
-            Double v = maxResources.get(r);
-            if (v != null) {
-                if (totalResourcesMap.get(r) == null)
-                    totalResourcesMap.put(r, v);
-                else
-                    totalResourcesMap.put(r, totalResourcesMap.get(r) + v);
-            }
+    private void addTotalResources(double[][] partitionTotals) {
+        for (VMResource r: AssignableVirtualMachine.MAX_RESOURCES) {
+            double total = 0.0;
+            for (double[] totals: partitionTotals)
+                total += totals[r.ordinal()];
+            totalResourcesMap.put(r, total);
         }
     }
 
@@ -353,31 +382,31 @@ class AssignableVMs {
         }
     }
 
-    private void saveMaxResources(AssignableVirtualMachine avm) {
+    private void saveMaxResources(AssignableVirtualMachine avm, double[] maxResources) {
         if(attrNameToGroupMaxResources!=null && !attrNameToGroupMaxResources.isEmpty()) {
             String attrValue = avm.getAttrValue(attrNameToGroupMaxResources);
             if(attrValue !=null) {
-                Map<VMResource, Double> maxResources = avm.getMaxResources();
                 Map<VMResource, Double> savedMaxResources = maxResourcesMap.get(attrValue);
                 if(savedMaxResources==null) {
                     savedMaxResources = new HashMap<>();
                     maxResourcesMap.put(attrValue, savedMaxResources);
                 }
-                for(VMResource r: VMResource.values()) {
-                    switch (r) {
-                        case CPU:
-                        case Disk:
-                        case Memory:
-                        case Ports:
-                        case Network:
-                            Double savedVal = savedMaxResources.get(r)==null? 0.0 : savedMaxResources.get(r);
-                            savedMaxResources.put(r, Math.max(savedVal, maxResources.get(r)));
-                    }
+                for(VMResource r: AssignableVirtualMachine.MAX_RESOURCES) {
+                    Double savedVal = savedMaxResources.get(r)==null? 0.0 : savedMaxResources.get(r);
+                    savedMaxResources.put(r, Math.max(savedVal, maxResources[r.ordinal()]));
                 }
             }
         }
     }
 
+    Map<VMResource, Double> getTotalResources() {
+        return Collections.unmodifiableMap(totalResourcesMap);
+    }
+
+    HostAttributeIds getHostAttributeIds() {
+        return hostAttributeIds;
+    }
+
     Map<VMResource, Double> getMaxResources(String attrValue) {
         return maxResourcesMap.get(attrValue);
     }
@@ -28,6 +28,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class represents a VM that contains resources that can be assigned to tasks.
@@ -36,6 +37,13 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
 
     /* package */ static final String PseuoHostNamePrefix = "FenzoPsueodHost-";
 
+    /**
+     * The resources whose amounts are given by {@link #getMaxResources()}.
+     */
+    /* package */ static final VMResource[] MAX_RESOURCES = {
+            VMResource.CPU, VMResource.Memory, VMResource.Network, VMResource.Ports, VMResource.Disk
+    };
+
     private static class PortRange {
         private final VirtualMachineLease.Range range;
         private PortRange(VirtualMachineLease.Range range) {
@@ -89,16 +97,6 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         }
     }
 
-    private static class ResAsgmntResult {
-        private final List<AssignmentFailure> failures;
-        private final double fitness;
-
-        public ResAsgmntResult(List<AssignmentFailure> failures, double fitness) {
-            this.failures = failures;
-            this.fitness = fitness;
-        }
-    }
-
     private final PreferentialNamedConsumableResourceEvaluator preferentialNamedConsumableResourceEvaluator;
     private final Map<String, VirtualMachineLease> leasesMap;
     private final BlockingQueue<String> workersToUnAssign;
@@ -107,8 +105,12 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
     private final Action1<VirtualMachineLease> leaseRejectAction;
     private final long leaseOfferExpirySecs;
     private final String hostname;
-    private final Map<String, Double> currTotalScalars = new HashMap<>();
-    private final Map<String, Double> currUsedScalars = new HashMap<>();
+    private final ScalarResourceIds scalarResourceIds;
+    private final HostAttributeIds hostAttributeIds;
+    // scalar resource amounts indexed by scalarResourceIds, with the set of scalars offered tracked separately
+    private double[] currTotalScalars = new double[0];
+    private double[] currUsedScalars = new double[0];
+    private final BitSet currOfferedScalars = new BitSet();
     private double currTotalCpus=0.0;
     private double currUsedCpus=0.0;
     private double currTotalMemory=0.0;
@@ -118,8 +120,14 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
     private double currTotalDisk=0.0;
     private double currUsedDisk=0.0;
     private VirtualMachineLease currTotalLease=null;
+    private boolean attributesPending=false;
+    private Map<String, Protos.Attribute> pendingAttributeMap=null;
+    private Map<String, Protos.Attribute> currAttributesSource=null;
     private PortRanges currPortRanges = new PortRanges();
     private volatile Map<String, Protos.Attribute> currAttributesMap = Collections.emptyMap();
+    // ids of attribute values from hostAttributeIds, by attribute name id, filled in from currAttributesMap as
+    // constraints query each attribute, UNKNOWN_ATTRIBUTE_VALUE_ID for names not looked up since the last change
+    private volatile int[] attributeValueIds = null;
     private final Map<String, PreferentialNamedConsumableResourceSet> resourceSets = new HashMap<>();
     // previouslyAssignedTasksMap contains tasks on this VM before current scheduling iteration started. This is
     // available for optimization of scheduling assignments for such things as locality with other similar tasks, etc.
@@ -127,6 +135,10 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
     // assignmentResults contains results of assignments on this VM from the current scheduling iteration; they
     // haven't been launched yet
     private final Map<TaskRequest, TaskAssignmentResult> assignmentResults;
+    // resources used by tasks in previouslyAssignedTasksMap and in assignmentResults, indexed by VMResource ordinal
+    private final double[] runningTasksUsage = new double[VMResource.values().length];
+    private final double[] assignedTasksUsage = new double[VMResource.values().length];
+    private static final int UNKNOWN_ATTRIBUTE_VALUE_ID = -2;
     private static final Logger logger = LoggerFactory.getLogger(AssignableVirtualMachine.class);
     private final ConcurrentMap<String, String> leaseIdToHostnameMap;
     private final ConcurrentMap<String, String> vmIdToHostnameMap;
@@ -140,6 +152,8 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
     private final boolean singleLeaseMode;
     private boolean firstLeaseAdded=false;
     private final List<TaskRequest> consumedResourcesToAssign = new ArrayList<>();
+    // incremented whenever resources may have become available on this VM, see getResourceGeneration()
+    private final AtomicLong resourceGeneration = new AtomicLong();
 
     public AssignableVirtualMachine(PreferentialNamedConsumableResourceEvaluator preferentialNamedConsumableResourceEvaluator,
                                     ConcurrentMap<String, String> vmIdToHostnameMap,
@@ -154,6 +168,17 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
                                     ConcurrentMap<String, String> leaseIdToHostnameMap,
                                     String hostname, Action1<VirtualMachineLease> leaseRejectAction,
                                     long leaseOfferExpirySecs, TaskTracker taskTracker, boolean singleLeaseMode) {
+        this(preferentialNamedConsumableResourceEvaluator, vmIdToHostnameMap, leaseIdToHostnameMap, hostname,
+                leaseRejectAction, leaseOfferExpirySecs, taskTracker, singleLeaseMode, new ScalarResourceIds(),
+                new HostAttributeIds());
+    }
+
+    AssignableVirtualMachine(PreferentialNamedConsumableResourceEvaluator preferentialNamedConsumableResourceEvaluator,
+                             ConcurrentMap<String, String> vmIdToHostnameMap,
+                             ConcurrentMap<String, String> leaseIdToHostnameMap,
+                             String hostname, Action1<VirtualMachineLease> leaseRejectAction,
+                             long leaseOfferExpirySecs, TaskTracker taskTracker, boolean singleLeaseMode,
+                             ScalarResourceIds scalarResourceIds, HostAttributeIds hostAttributeIds) {
         this.preferentialNamedConsumableResourceEvaluator = preferentialNamedConsumableResourceEvaluator;
         this.vmIdToHostnameMap = vmIdToHostnameMap;
         this.leaseIdToHostnameMap = leaseIdToHostnameMap;
@@ -168,6 +193,8 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         this.previouslyAssignedTasksMap = new HashMap<>();
         this.assignmentResults = new HashMap<>();
         this.singleLeaseMode = singleLeaseMode;
+        this.scalarResourceIds = scalarResourceIds;
+        this.hostAttributeIds = hostAttributeIds;
     }
 
     private Action1<VirtualMachineLease> getWrappedLeaseRejectAction(final Action1<VirtualMachineLease> leaseRejectAction) {
@@ -184,6 +211,8 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         return l != null && l.getOffer() != null;
     }
 
+    // Adds the resources of the lease to the totals, and leaves the attributes of the lease to be applied by
+    // applyPendingAttributes(), so that adding many leases of this host applies attributes only once.
     private void addToAvailableResources(VirtualMachineLease l) {
         if(singleLeaseMode && firstLeaseAdded)
             return; // ToDo should this be illegal state exception?
@@ -191,10 +220,9 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         final Map<String, Double> scalars = l.getScalarValues();
         if(scalars != null && !scalars.isEmpty()) {
             for(Map.Entry<String, Double> entry: scalars.entrySet()) {
-                Double currVal = currTotalScalars.get(entry.getKey());
-                if(currVal == null)
-                    currVal = 0.0;
-                currTotalScalars.put(entry.getKey(), currVal + entry.getValue());
+                final int id = getScalarIdForUpdate(entry.getKey());
+                currTotalScalars[id] += entry.getValue();
+                currOfferedScalars.set(id);
             }
         }
         currTotalCpus += l.cpuCores();
@@ -203,9 +231,25 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         currTotalDisk += l.diskMB();
         if (l.portRanges() != null)
             currPortRanges.addRanges(l.portRanges());
-        if (l.getAttributeMap() != null) {
-            // always replace attributes map with the latest
-            currAttributesMap = Collections.unmodifiableMap(new HashMap<>(l.getAttributeMap()));
+        // always replace attributes map with the latest
+        if (l.getAttributeMap() != null)
+            pendingAttributeMap = l.getAttributeMap();
+        attributesPending = true;
+    }
+
+    private void applyPendingAttributes() {
+        if(!attributesPending)
+            return;
+        attributesPending = false;
+        final Map<String, Protos.Attribute> attributeMap = pendingAttributeMap;
+        pendingAttributeMap = null;
+        if (attributeMap != null && attributeMap != currAttributesSource) {
+            // offers of a host usually have the same attributes, keep the map of the host for as long as they do
+            if (!attributeMap.equals(currAttributesMap)) {
+                currAttributesMap = Collections.unmodifiableMap(new HashMap<>(attributeMap));
+                attributeValueIds = null;
+            }
+            currAttributesSource = attributeMap;
         }
         for(Map.Entry<String, Protos.Attribute> entry: currAttributesMap.entrySet()) {
             switch (entry.getKey()) {
@@ -255,8 +299,35 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         }
     }
 
+    private int getScalarIdForUpdate(String name) {
+        final int id = scalarResourceIds.idOf(name);
+        if(id >= currTotalScalars.length) {
+            final int length = Math.max(id + 1, currTotalScalars.length * 2);
+            currTotalScalars = Arrays.copyOf(currTotalScalars, length);
+            currUsedScalars = Arrays.copyOf(currUsedScalars, length);
+        }
+        return id;
+    }
+
+    private double getTotalScalar(int id) {
+        return id >= 0 && id < currTotalScalars.length ? currTotalScalars[id] : 0.0;
+    }
+
+    private double getUsedScalar(int id) {
+        return id >= 0 && id < currUsedScalars.length ? currUsedScalars[id] : 0.0;
+    }
+
+    private Map<String, Double> getCurrTotalScalars() {
+        Map<String, Double> result = new HashMap<>();
+        for(int id = currOfferedScalars.nextSetBit(0); id >= 0; id = currOfferedScalars.nextSetBit(id + 1))
+            result.put(scalarResourceIds.nameOf(id), currTotalScalars[id]);
+        return result;
+    }
+
     void updateCurrTotalLease() {
-        currTotalLease = createTotaledLease();
+        // the totaled lease reads the current totals, it is created once and reused
+        if(currTotalLease == null)
+            currTotalLease = createTotaledLease();
     }
 
     void resetResources() {
@@ -266,23 +337,33 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
             currTotalNetworkMbps=0.0;
             currTotalDisk=0.0;
             currPortRanges.clear();
-            currTotalScalars.clear();
+            Arrays.fill(currTotalScalars, 0.0);
+            currOfferedScalars.clear();
         }
         currUsedCpus=0.0;
         currUsedMemory=0.0;
         currUsedNetworkMbps=0.0;
         currUsedDisk=0.0;
-        currUsedScalars.clear();
+        Arrays.fill(currUsedScalars, 0.0);
         // ToDo: in single offer mode, need to resolve used ports somehow
         // don't clear attribute map
         for(VirtualMachineLease l: leasesMap.values())
             addToAvailableResources(l);
+        applyPendingAttributes();
     }
 
     VirtualMachineLease getCurrTotalLease() {
         return currTotalLease;
     }
 
+    Collection<VirtualMachineLease> getCurrentLeases() {
+        return Collections.unmodifiableCollection(leasesMap.values());
+    }
+
+    Collection<TaskRequest> getPreviouslyAssignedTasks() {
+        return Collections.unmodifiableCollection(previouslyAssignedTasksMap.values());
+    }
+
     private VirtualMachineLease createTotaledLease() {
         return new VirtualMachineLease() {
             @Override
@@ -331,11 +412,12 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
             }
             @Override
             public Double getScalarValue(String name) {
-                return currTotalScalars.get(name);
+                final int id = scalarResourceIds.find(name);
+                return id >= 0 && currOfferedScalars.get(id) ? currTotalScalars[id] : null;
             }
             @Override
             public Map<String, Double> getScalarValues() {
-                return Collections.unmodifiableMap(currTotalScalars);
+                return Collections.unmodifiableMap(getCurrTotalScalars());
             }
         };
     }
@@ -395,11 +477,40 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
     }
 
     boolean addLease(VirtualMachineLease lease) {
+        final boolean added = addLeaseIntl(lease);
+        applyPendingAttributes();
+        return added;
+    }
+
+    /**
+     * Add the given leases of this host at once. This is the same as adding each lease with
+     * {@link #addLease(VirtualMachineLease)}, except that the attributes of the host are replaced only once, with
+     * those of the last lease that has attributes.
+     *
+     * @param leases The leases to add, all for this host.
+     * @return the number of leases for which {@link #addLease(VirtualMachineLease)} would have returned {@code true}.
+     */
+    int addLeases(List<VirtualMachineLease> leases) {
+        int added=0;
+        try {
+            for(VirtualMachineLease l: leases) {
+                if(addLeaseIntl(l))
+                    added++;
+            }
+        }
+        finally {
+            applyPendingAttributes();
+        }
+        return added;
+    }
+
+    private boolean addLeaseIntl(VirtualMachineLease lease) {
         if (logger.isDebugEnabled())
             logger.debug("{}: adding lease id {}", hostname, lease.getId());
         if(singleLeaseMode && firstLeaseAdded) {
             if (leasesMap.isEmpty()) {
                 leasesMap.put(lease.getId(), lease);
+                resourceGeneration.incrementAndGet();
                 return true;
             } else {
                 return false;
@@ -423,9 +534,21 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
             logger.debug(getHostname() + ": adding lease offer id " + lease.getId());
         leasesMap.put(lease.getId(), lease);
         addToAvailableResources(lease);
+        resourceGeneration.incrementAndGet();
         return true;
     }
 
+    /**
+     * Get a number that changes whenever resources may have become available on this VM, that is, when a lease is
+     * added, when a task is unassigned from it, or when it is enabled. A task that did not fit on this VM for lack of
+     * resources still does not fit as long as this number stays the same.
+     *
+     * @return the current resource generation of this VM.
+     */
+    long getResourceGeneration() {
+        return resourceGeneration.get();
+    }
+
     void setDisabledUntil(long disabledUntil) {
         this.disabledUntil = disabledUntil;
         if(logger.isDebugEnabled())
@@ -443,6 +566,7 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
 
     public void enable() {
         disabledUntil = 0;
+        resourceGeneration.incrementAndGet();
     }
 
     long getDisabledUntil() {
@@ -475,7 +599,10 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         }
         else
             logger.error("Unexpected to add duplicate task id=" + request.getId());
-        previouslyAssignedTasksMap.put(request.getId(), request);
+        final TaskRequest replaced = previouslyAssignedTasksMap.put(request.getId(), request);
+        if(replaced != null)
+            VMResourceAmounts.add(runningTasksUsage, replaced, -1.0);
+        VMResourceAmounts.add(runningTasksUsage, request, 1.0);
         setIfExclusive(request);
         if(singleLeaseMode && added) {
             removeResourcesOf(request);
@@ -529,17 +656,44 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
     void prepareForScheduling() {
         @SuppressWarnings("MismatchedQueryAndUpdateOfCollection") List<String> tasks = new ArrayList<>();
         workersToUnAssign.drainTo(tasks);
+        if(!tasks.isEmpty())
+            resourceGeneration.incrementAndGet();
         for(String t: tasks) {
             if(logger.isDebugEnabled())
                 logger.debug("{}: removing previously assigned task {}", hostname, t);
             taskTracker.removeRunningTask(t);
             TaskRequest r = previouslyAssignedTasksMap.remove(t);
+            if(r!=null)
+                removeRunningTaskUsage(r);
             if(singleLeaseMode && r!=null)
                 addBackResourcesOf(r);
             releaseResourceSets(r);
             clearIfExclusive(t);
         }
         assignmentResults.clear();
+        Arrays.fill(assignedTasksUsage, 0.0);
+    }
+
+    private void removeRunningTaskUsage(TaskRequest r) {
+        if(previouslyAssignedTasksMap.isEmpty())
+            Arrays.fill(runningTasksUsage, 0.0); // avoid accumulating rounding errors from repeated add and subtract
+        else
+            VMResourceAmounts.add(runningTasksUsage, r, -1.0);
+    }
+
+    private double getTotalResource(VMResource resource) {
+        switch (resource) {
+            case CPU:
+                return currTotalCpus + runningTasksUsage[resource.ordinal()];
+            case Memory:
+                return currTotalMemory + runningTasksUsage[resource.ordinal()];
+            case Network:
+                return currTotalNetworkMbps + runningTasksUsage[resource.ordinal()];
+            case Disk:
+                return currTotalDisk + runningTasksUsage[resource.ordinal()];
+            default:
+                return 0.0;
+        }
     }
 
     private void releaseResourceSets(TaskRequest r) {
@@ -562,22 +716,22 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         final Map<String, Double> scalarRequests = request.getScalarRequests();
         if(scalarRequests != null && !scalarRequests.isEmpty()) {
             for (Map.Entry<String, Double> entry : scalarRequests.entrySet()) {
-                Double oldVal = currTotalScalars.get(entry.getKey());
+                if (entry.getValue() == null)
+                    continue;
+                final int id = getScalarIdForUpdate(entry.getKey());
                 if (singleLeaseMode) {
                     // resources must be able to be negative in single lease mode
-                    if (oldVal == null) {
-                        oldVal = 0.0;
-                    }
-                    currTotalScalars.put(entry.getKey(), oldVal - entry.getValue());
+                    currTotalScalars[id] -= entry.getValue();
+                    currOfferedScalars.set(id);
                 } else {
-                    if (oldVal != null) {
-                        double newVal = oldVal - entry.getValue();
+                    if (currOfferedScalars.get(id)) {
+                        double newVal = currTotalScalars[id] - entry.getValue();
                         if (newVal < 0.0) {
                             logger.warn(hostname + ": Scalar resource " + entry.getKey() + " is " + newVal + " after removing " +
                                     entry.getValue() + " from task " + request.getId());
-                            currTotalScalars.put(entry.getKey(), 0.0);
+                            currTotalScalars[id] = 0.0;
                         } else {
-                            currTotalScalars.put(entry.getKey(), newVal);
+                            currTotalScalars[id] = newVal;
                         }
                     }
                 }
@@ -594,15 +748,61 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         final Map<String, Double> scalarRequests = r.getScalarRequests();
         if(scalarRequests != null && !scalarRequests.isEmpty()) {
             for(Map.Entry<String, Double> entry: scalarRequests.entrySet()) {
-                Double oldVal = currTotalScalars.get(entry.getKey());
-                if(oldVal == null)
-                    oldVal = 0.0;
-                currTotalScalars.put(entry.getKey(), oldVal + entry.getValue());
+                if(entry.getValue() == null)
+                    continue;
+                final int id = getScalarIdForUpdate(entry.getKey());
+                currTotalScalars[id] += entry.getValue();
+                currOfferedScalars.set(id);
             }
         }
         // ToDo queueTask back ports
     }
 
+    /**
+     * Get the identifier of the value of the given attribute on this VM. The value is interned when first looked up
+     * since the attributes last changed.
+     *
+     * @param attrNameId The identifier of the attribute name, from the {@link HostAttributeIds} of this VM's
+     *                   task scheduler.
+     * @return The identifier of the attribute value, or {@link HostAttributeIds#NONE} if this VM has no value.
+     */
+    int getAttributeValueId(int attrNameId) {
+        if(attrNameId < 0 || currTotalLease == null)
+            return HostAttributeIds.NONE;
+        final int[] ids = attributeValueIds;
+        if(ids != null && attrNameId < ids.length && ids[attrNameId] != UNKNOWN_ATTRIBUTE_VALUE_ID)
+            return ids[attrNameId];
+        final int valueId = createAttributeValueId(attrNameId);
+        // constraints are evaluated concurrently, a lookup racing with this one may drop this id, to be created again
+        final int length = ids == null ? 0 : ids.length;
+        final int[] updated = ids == null ? new int[attrNameId + 1] : Arrays.copyOf(ids, Math.max(length, attrNameId + 1));
+        Arrays.fill(updated, length, updated.length, UNKNOWN_ATTRIBUTE_VALUE_ID);
+        updated[attrNameId] = valueId;
+        attributeValueIds = updated;
+        return valueId;
+    }
+
+    private int createAttributeValueId(int attrNameId) {
+        final String attrName = hostAttributeIds.nameOf(attrNameId);
+        // the hostname takes the place of any attribute of the same name, as in VMAttributeIndex.getAttrValue(), and
+        // is not interned
+        if(HostAttributeConstraintEvaluator.HOSTNAME_ATTRIBUTE.equals(attrName))
+            return HostAttributeIds.NONE;
+        final Protos.Attribute attribute = currAttributesMap.get(attrName);
+        final String value = attribute == null ? null : attribute.getText().getValue();
+        return value == null || value.isEmpty() ? HostAttributeIds.NONE : hostAttributeIds.valueIdOf(attrNameId, value);
+    }
+
+    private boolean hasAttributeValue(String attrName, String value) {
+        if(attrName == null || value == null || value.isEmpty() || currTotalLease == null)
+            return false;
+        if(HostAttributeConstraintEvaluator.HOSTNAME_ATTRIBUTE.equals(attrName))
+            return value.equals(currTotalLease.hostname());
+        final int nameId = hostAttributeIds.nameIdOf(attrName);
+        final int valueId = getAttributeValueId(nameId);
+        return valueId != HostAttributeIds.NONE && valueId == hostAttributeIds.findValueId(nameId, value);
+    }
+
     String getAttrValue(String attrName) {
         if(getCurrTotalLease()==null)
             return null;
@@ -613,12 +813,7 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
     }
 
     Map<String, Double> getMaxScalars() {
-        Map<String, Double> result = new HashMap<>();
-        if (currTotalScalars != null) {
-            for (Map.Entry<String, Double> e : currTotalScalars.entrySet()) {
-                result.put(e.getKey(), e.getValue());
-            }
-        }
+        Map<String, Double> result = getCurrTotalScalars();
         if (hasPreviouslyAssignedTasks()) {
             for (TaskRequest t: previouslyAssignedTasksMap.values()) {
                 final Map<String, Double> scalarRequests = t.getScalarRequests();
@@ -636,6 +831,23 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
     }
 
     Map<VMResource, Double> getMaxResources() {
+        final double[] amounts = new double[VMResource.values().length];
+        addMaxResourcesTo(amounts);
+        Map<VMResource, Double> result = new HashMap<>();
+        for(VMResource r: MAX_RESOURCES)
+            result.put(r, amounts[r.ordinal()]);
+        return result;
+    }
+
+    /**
+     * Add the amounts of {@link #getMaxResources()} to the given array indexed by {@link VMResource} ordinal,
+     * without creating a map. Elements of resources other than {@link #MAX_RESOURCES} are not changed. This only
+     * reads the state of this VM, so it may be called for different VMs concurrently, once no more leases or tasks
+     * are being added to or removed from them.
+     *
+     * @param amounts The array to add the amounts to.
+     */
+    void addMaxResourcesTo(double[] amounts) {
         double cpus=0.0;
         double memory=0.0;
         double network=0.0;
@@ -655,13 +867,11 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         for(VirtualMachineLease.Range r: ranges)
             ports += r.getEnd()-r.getBeg();
         disk += getCurrTotalLease().diskMB();
-        Map<VMResource, Double> result = new HashMap<>();
-        result.put(VMResource.CPU, cpus);
-        result.put(VMResource.Memory, memory);
-        result.put(VMResource.Network, network);
-        result.put(VMResource.Ports, ports);
-        result.put(VMResource.Disk, disk);
-        return result;
+        amounts[VMResource.CPU.ordinal()] += cpus;
+        amounts[VMResource.Memory.ordinal()] += memory;
+        amounts[VMResource.Network.ordinal()] += network;
+        amounts[VMResource.Ports.ordinal()] += ports;
+        amounts[VMResource.Disk.ordinal()] += disk;
     }
 
     /**
@@ -697,17 +907,17 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
                 logger.debug("Host {}: task {} failed hard constraint: ", hostname, request.getId(), failedHardConstraint);
             return new TaskAssignmentResult(this, request, false, null, failedHardConstraint, 0.0);
         }
-        final ResAsgmntResult resAsgmntResult = evalAndGetResourceAssignmentFailures(request);
-        if(!resAsgmntResult.failures.isEmpty()) {
+        final double resAsgmntFitness = hasCapacityFor(request) ? getResourceSetsFitness(request) : -1.0;
+        if(resAsgmntFitness < 0.0) {
             if(logger.isDebugEnabled()) {
                 StringBuilder b = new StringBuilder();
-                for(AssignmentFailure f: resAsgmntResult.failures)
+                for(AssignmentFailure f: getResourceAssignmentFailures(request))
                     b.append(f.toString()).append(" ; ");
                 logger.debug("{}: task {} failed assignment: {}", hostname, request.getId(), b.toString());
             }
-            return new TaskAssignmentResult(this, request, false, resAsgmntResult.failures, null, 0.0);
+            // failure details are created only if this result gets reported
+            return TaskAssignmentResult.withDeferredFailures(this, request);
         }
-        final double resAsgmntFitness = resAsgmntResult.fitness;
         double fitness = fitnessCalculator.calculateFitness(request, vmCurrentState, taskTrackerState);
         if(fitness == 0.0) {
             if(logger.isDebugEnabled())
@@ -744,17 +954,94 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         return sum/n;
     }
 
-    private ResAsgmntResult evalAndGetResourceAssignmentFailures(TaskRequest request) {
+    /**
+     * Check, without creating any assignment failure objects, whether this VM has enough of the scalar resources and
+     * ports remaining for the given task. This uses the same comparisons as the resource assignment evaluation in
+     * {@link #tryRequest(TaskRequest, VMTaskFitnessCalculator)}, so a {@code false} return here guarantees that
+     * {@code tryRequest} would not succeed for the task.
+     *
+     * @param request The task request to check.
+     * @return {@code true} if the task's scalar resources and ports fit on this VM, {@code false} otherwise.
+     */
+    boolean hasCapacityFor(TaskRequest request) {
+        if((currUsedCpus+request.getCPUs()) > currTotalCpus)
+            return false;
+        if((currUsedMemory+request.getMemory()) > currTotalMemory)
+            return false;
+        if((currUsedNetworkMbps+request.getNetworkMbps()) > currTotalNetworkMbps)
+            return false;
+        if((currUsedDisk+request.getDisk()) > currTotalDisk)
+            return false;
+        if(!currPortRanges.hasPorts(request.getPorts()))
+            return false;
+        final Map<String, Double> scalarRequests = request.getScalarRequests();
+        if(scalarRequests != null && !scalarRequests.isEmpty()) {
+            for(Map.Entry<String, Double> entry: scalarRequests.entrySet()) {
+                if(entry.getValue() == null)
+                    continue;
+                final int id = scalarResourceIds.find(entry.getKey());
+                if(getUsedScalar(id) + entry.getValue() > getTotalScalar(id))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    double getCurrAvailableCpus() {
+        return currTotalCpus - currUsedCpus;
+    }
+
+    double getCurrAvailableMemory() {
+        return currTotalMemory - currUsedMemory;
+    }
+
+    /**
+     * Get the fitness of the resource sets for the given task, without creating any failure objects. Call this only
+     * after {@link #hasCapacityFor(TaskRequest)} succeeds for the task, resource sets are checked only then.
+     *
+     * @param request The task request to check.
+     * @return The fitness of the resource sets, or a negative value if the resource sets can not be assigned.
+     */
+    private double getResourceSetsFitness(TaskRequest request) {
+        double rSetFitness=0.0;
+        int numRSets=0;
+        for (PreferentialNamedConsumableResourceSet rSet : resourceSets.values()) {
+            final double fitness = rSet.getFitness(request, preferentialNamedConsumableResourceEvaluator);
+            if (fitness == 0.0)
+                return -1.0;
+            rSetFitness += fitness;
+            numRSets++;
+        }
+        final Map<String, TaskRequest.NamedResourceSetRequest> customNamedResources = request.getCustomNamedResources();
+        if(customNamedResources != null && !customNamedResources.isEmpty()) {
+            for (String name : customNamedResources.keySet()) {
+                if (!resourceSets.containsKey(name))
+                    return -1.0; // task requested resourceSets that aren't available on this host
+            }
+        }
+        if (numRSets > 1)
+            rSetFitness /= numRSets;
+        return rSetFitness;
+    }
+
+    /**
+     * Get the reasons why resources can not be assigned to the given task. This creates the failure objects that
+     * {@link #hasCapacityFor(TaskRequest)} and {@link #getResourceSetsFitness(TaskRequest)} avoid, call it only when
+     * the failures are needed.
+     *
+     * @param request The task request to check.
+     * @return List of resource assignment failures, empty if resources can be assigned to the task.
+     */
+    List<AssignmentFailure> getResourceAssignmentFailures(TaskRequest request) {
         List<AssignmentFailure> failures = new ArrayList<>();
         final Map<String, Double> scalarRequests = request.getScalarRequests();
         if(scalarRequests != null && !scalarRequests.isEmpty()) {
             for(Map.Entry<String, Double> entry: scalarRequests.entrySet()) {
                 if(entry.getValue() == null)
                     continue;
-                Double u = currUsedScalars.get(entry.getKey());
-                if(u == null)  u = 0.0;
-                Double t = currTotalScalars.get(entry.getKey());
-                if(t == null)  t=0.0;
+                final int id = scalarResourceIds.find(entry.getKey());
+                final double u = getUsedScalar(id);
+                final double t = getTotalScalar(id);
                 if(u + entry.getValue() > t) {
                     failures.add(new AssignmentFailure(
                             VMResource.Other, entry.getValue(), u, t, entry.getKey()
@@ -795,8 +1082,6 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
             //logger.info(hostname+":"+request.getId()+" Insufficient ports: " + failure.toString());
             failures.add(failure);
         }
-        double rSetFitness=0.0;
-        int numRSets=0;
         final Set<String> requestedNamedResNames = new HashSet<>(request.getCustomNamedResources()==null? Collections.<String>emptySet() :
                 request.getCustomNamedResources().keySet());
         if(failures.isEmpty()) {
@@ -810,9 +1095,6 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
                             "ResourceSet " + entry.getValue().getName() + " unavailable"
                     );
                     failures.add(failure);
-                } else {
-                    rSetFitness += fitness;
-                    numRSets++;
                 }
             }
             if (!requestedNamedResNames.isEmpty()) {
@@ -821,28 +1103,13 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
                         "UnavailableResourceSets: " + requestedNamedResNames
                 );
                 failures.add(failure);
-            } else {
-                if (!failures.isEmpty()) {
-                    rSetFitness = 0.0;
-                } else if (numRSets > 1)
-                    rSetFitness /= numRSets;
             }
         }
-        return new ResAsgmntResult(failures, rSetFitness);
+        return failures;
     }
 
     private TaskTrackerState taskTrackerState() {
-        return new TaskTrackerState() {
-            @Override
-            public Map<String, TaskTracker.ActiveTask> getAllRunningTasks() {
-                return taskTracker.getAllRunningTasks();
-            }
-
-            @Override
-            public Map<String, TaskTracker.ActiveTask> getAllCurrentlyAssignedTasks() {
-                return taskTracker.getAllAssignedTasks();
-            }
-        };
+        return taskTracker.getTaskTrackerState();
     }
 
     public VirtualMachineCurrentState getVmCurrentState() {
@@ -886,10 +1153,25 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
                 return Collections.unmodifiableCollection(previouslyAssignedTasksMap.values());
             }
 
+            @Override
+            public double getTotalResource(VMResource resource) {
+                return AssignableVirtualMachine.this.getTotalResource(resource);
+            }
+
+            @Override
+            public double getUsedResource(VMResource resource) {
+                return runningTasksUsage[resource.ordinal()];
+            }
+
             @Override
             public long getDisabledUntil() {
                 return disabledUntil;
             }
+
+            @Override
+            public boolean hasAttributeValue(String attributeName, String value) {
+                return AssignableVirtualMachine.this.hasAttributeValue(attributeName, value);
+            }
         };
     }
 
@@ -934,10 +1216,25 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
                 return Collections.unmodifiableCollection(previouslyAssignedTasksMap.values());
             }
 
+            @Override
+            public double getTotalResource(VMResource resource) {
+                return AssignableVirtualMachine.this.getTotalResource(resource);
+            }
+
+            @Override
+            public double getUsedResource(VMResource resource) {
+                return runningTasksUsage[resource.ordinal()] + assignedTasksUsage[resource.ordinal()];
+            }
+
             @Override
             public long getDisabledUntil() {
                 return disabledUntil;
             }
+
+            @Override
+            public boolean hasAttributeValue(String attributeName, String value) {
+                return AssignableVirtualMachine.this.hasAttributeValue(attributeName, value);
+            }
         };
     }
 
@@ -973,9 +1270,7 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
             for(Map.Entry<String, Double> entry: scalarRequests.entrySet()) {
                 if(entry.getValue() == null)
                     continue;
-                Double u = currUsedScalars.get(entry.getKey());
-                if(u == null)  u = 0.0;
-                currUsedScalars.put(entry.getKey(), u + entry.getValue());
+                currUsedScalars[getScalarIdForUpdate(entry.getKey())] += entry.getValue();
             }
         }
         currUsedCpus += result.getRequest().getCPUs();
@@ -991,6 +1286,7 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
         if(!taskTracker.addAssignedTask(result.getRequest(), this))
             logger.error("Unexpected to re-add task to assigned state, id=" + result.getRequest().getId());
         assignmentResults.put(result.getRequest(), result);
+        VMResourceAmounts.add(assignedTasksUsage, result.getRequest(), 1.0);
     }
 
     /**
@@ -1016,6 +1312,7 @@ public class AssignableVirtualMachine implements Comparable<AssignableVirtualMac
             leasesMap.clear();
         }
         assignmentResults.clear();
+        Arrays.fill(assignedTasksUsage, 0.0);
         return vmar;
     }
 
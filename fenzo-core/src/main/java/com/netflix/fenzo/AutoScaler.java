@@ -57,10 +57,12 @@ class AutoScaler {
             new ThreadPoolExecutor(1, 1, Long.MAX_VALUE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(10),
                     new ThreadPoolExecutor.DiscardPolicy());
     private final AtomicBoolean isShutdown = new AtomicBoolean();
+    private final AtomicBoolean isAutoscaling = new AtomicBoolean();
     private final ConcurrentMap<String, ScalingActivity> scalingActivityMap = new ConcurrentHashMap<>();
     private final ScaleDownConstraintExecutor scaleDownConstraintExecutor;
     private volatile Action1<AutoScaleAction> callback = null;
     private ShortfallEvaluator shortfallEvaluator;
+    private volatile boolean asyncShortfallEvaluation = false;
     private long delayScaleUpBySecs = 0L;
     private long delayScaleDownBySecs = 0L;
     private long disabledVmDurationInSecs = 0L;
@@ -90,6 +92,10 @@ class AutoScaler {
         shortfallEvaluator.setTaskSchedulingService(service);
     }
 
+    /* package */ void useAsyncShortfallEvaluation() {
+        asyncShortfallEvaluation = true;
+    }
+
     Collection<AutoScaleRule> getRules() {
         return Collections.unmodifiableCollection(autoScaleRules.getRules());
     }
@@ -129,16 +135,37 @@ class AutoScaler {
         if (isShutdown.get()) {
             return;
         }
-
+        // shortfall may be evaluated asynchronously, skip autoscaling until a previous evaluation completes
+        if (!isAutoscaling.compareAndSet(false, true)) {
+            logger.debug("Skipping autoscale, shortfall evaluation in progress");
+            return;
+        }
         try {
             shortfallEvaluator.setTaskToClustersGetter(taskToClustersGetter);
             autoScaleRules.prepare();
             Map<String, HostAttributeGroup> hostAttributeGroupMap = setupHostAttributeGroupMap(autoScaleRules, scalingActivityMap);
-            if (!disableShortfallEvaluation) {
-                Map<String, Integer> shortfall = shortfallEvaluator.getShortfall(hostAttributeGroupMap.keySet(), autoScalerInput.getFailures(), autoScaleRules);
-                for (Map.Entry<String, Integer> entry : shortfall.entrySet()) {
-                    hostAttributeGroupMap.get(entry.getKey()).shortFall = entry.getValue() == null ? 0 : entry.getValue();
-                }
+            if (disableShortfallEvaluation) {
+                completeAutoscale(autoScalerInput, hostAttributeGroupMap, Collections.emptyMap());
+            } else {
+                // an asynchronous evaluation completes after the iteration, once the idle hosts' leases may change
+                final AutoScalerInput input = asyncShortfallEvaluation ? autoScalerInput.copyLeases() : autoScalerInput;
+                shortfallEvaluator.getShortfall(hostAttributeGroupMap.keySet(), input.getFailures(), autoScaleRules,
+                        shortfall -> completeAutoscale(input, hostAttributeGroupMap, shortfall));
+            }
+        } catch (Exception e) {
+            logger.error("Autoscaler failure: ", e);
+            isAutoscaling.set(false);
+        }
+    }
+
+    private void completeAutoscale(AutoScalerInput autoScalerInput, Map<String, HostAttributeGroup> hostAttributeGroupMap,
+                                   Map<String, Integer> shortfall) {
+        try {
+            if (isShutdown.get()) {
+                return;
+            }
+            for (Map.Entry<String, Integer> entry : shortfall.entrySet()) {
+                hostAttributeGroupMap.get(entry.getKey()).shortFall = entry.getValue() == null ? 0 : entry.getValue();
             }
             populateIdleResources(autoScalerInput.getIdleResourcesList(), autoScalerInput.getIdleInactiveResourceList(), hostAttributeGroupMap);
             List<Runnable> callbacks = new ArrayList<>();
@@ -158,6 +185,8 @@ class AutoScaler {
             });
         } catch (Exception e) {
             logger.error("Autoscaler failure: ", e);
+        } finally {
+            isAutoscaling.set(false);
         }
     }
 
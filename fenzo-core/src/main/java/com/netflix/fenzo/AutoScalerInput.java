@@ -16,6 +16,7 @@
 
 package com.netflix.fenzo;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -30,6 +31,21 @@ class AutoScalerInput {
         this.failedTasks = failedTasks;
     }
 
+    /**
+     * Copy this input with immutable copies of the leases, for use after the scheduling iteration that created it,
+     * which may change the totaled leases of the hosts.
+     */
+    AutoScalerInput copyLeases() {
+        return new AutoScalerInput(copyLeases(idleResourcesList), copyLeases(idleInactiveResources), failedTasks);
+    }
+
+    private static List<VirtualMachineLease> copyLeases(List<VirtualMachineLease> leases) {
+        final List<VirtualMachineLease> copies = new ArrayList<>(leases.size());
+        for (VirtualMachineLease l : leases)
+            copies.add(LeaseCopy.of(l));
+        return copies;
+    }
+
     public List<VirtualMachineLease> getIdleResourcesList() {
         return idleResourcesList;
     }
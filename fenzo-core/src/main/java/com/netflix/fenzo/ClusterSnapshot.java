@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.sla.ResAllocs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the hosts known to a {@link TaskScheduler}, with their current leases and the tasks running
+ * on them, along with the active VM groups and resource allocation limits. The snapshot may also have pseudo hosts,
+ * cloned from the hosts of their VM groups. A pseudo scheduling iteration for shortfall analysis runs on a separate
+ * task scheduler set up from a snapshot, so that it does not change the state of the original task scheduler and can
+ * run concurrently with its scheduling iterations.
+ * <P>
+ * The snapshot copies only the collections; the lease and task request objects are shared, since the task scheduler
+ * replaces them instead of changing them. The snapshot must be created from the scheduling iteration's thread, or
+ * while holding the task scheduler's state monitor.
+ */
+class ClusterSnapshot {
+
+    private static class Host {
+        private final String hostname;
+        private final List<VirtualMachineLease> leases;
+        private final List<TaskRequest> runningTasks;
+        private final long disabledUntil;
+
+        private Host(String hostname, List<VirtualMachineLease> leases, List<TaskRequest> runningTasks,
+                     long disabledUntil) {
+            this.hostname = hostname;
+            this.leases = leases;
+            this.runningTasks = runningTasks;
+            this.disabledUntil = disabledUntil;
+        }
+    }
+
+    private final List<Host> hosts;
+    private final String activeVmGroupAttributeName;
+    private final List<String> activeVmGroups;
+    private final Map<String, ResAllocs> resAllocs;
+    private final Map<String, List<VirtualMachineLease>> pseudoHostLeases;
+
+    /**
+     * @param assignments The assignments of the current scheduling iteration, by hostname, whose tasks are taken as
+     *                    running on their hosts, since they are not yet launched.
+     */
+    ClusterSnapshot(Collection<AssignableVirtualMachine> avms, Map<String, VMAssignmentResult> assignments,
+                    String activeVmGroupAttributeName, List<String> activeVmGroups, Map<String, ResAllocs> resAllocs,
+                    Map<String, List<VirtualMachineLease>> pseudoHostLeases) {
+        final List<Host> hostList = new ArrayList<>(avms.size());
+        final long now = System.currentTimeMillis();
+        for (AssignableVirtualMachine avm : avms) {
+            final List<TaskRequest> runningTasks = new ArrayList<>(avm.getPreviouslyAssignedTasks());
+            final VMAssignmentResult assigned = assignments.get(avm.getHostname());
+            if (assigned != null) {
+                for (TaskAssignmentResult r : assigned.getTasksAssigned()) {
+                    runningTasks.add(r.getRequest());
+                }
+            }
+            hostList.add(new Host(
+                    avm.getHostname(),
+                    new ArrayList<>(avm.getCurrentLeases()),
+                    runningTasks,
+                    avm.getDisabledUntil() > now ? avm.getDisabledUntil() : 0L
+            ));
+        }
+        this.hosts = Collections.unmodifiableList(hostList);
+        this.activeVmGroupAttributeName = activeVmGroupAttributeName;
+        this.activeVmGroups = Collections.unmodifiableList(new ArrayList<>(activeVmGroups));
+        this.resAllocs = resAllocs == null ? null : Collections.unmodifiableMap(new HashMap<>(resAllocs));
+        this.pseudoHostLeases = Collections.unmodifiableMap(new HashMap<>(pseudoHostLeases));
+    }
+
+    Map<String, ResAllocs> getResAllocs() {
+        return resAllocs;
+    }
+
+    /**
+     * @return a map with keys containing VM group names and values containing the hostnames of the pseudo hosts
+     * created for the group
+     */
+    Map<String, List<String>> getPseudoHosts() {
+        final Map<String, List<String>> result = new HashMap<>();
+        for (Map.Entry<String, List<VirtualMachineLease>> entry : pseudoHostLeases.entrySet()) {
+            final List<String> hostnames = new ArrayList<>(entry.getValue().size());
+            for (VirtualMachineLease l : entry.getValue()) {
+                hostnames.add(l.hostname());
+            }
+            result.put(entry.getKey(), hostnames);
+        }
+        return result;
+    }
+
+    /**
+     * Set up the given VMs with the hosts and pseudo hosts of this snapshot. The leases are added first and the running tasks are
+     * then set as assigned, the same way a restarted task scheduler learns of the tasks it had assigned before. This
+     * must be called before the first scheduling iteration with the given VMs.
+     *
+     * @param assignableVMs The VMs of a new task scheduler.
+     */
+    void restoreTo(AssignableVMs assignableVMs) {
+        if (activeVmGroupAttributeName != null) {
+            assignableVMs.setActiveVmGroupAttributeName(activeVmGroupAttributeName);
+        }
+        if (!activeVmGroups.isEmpty()) {
+            assignableVMs.setActiveVmGroups(activeVmGroups);
+        }
+        final List<VirtualMachineLease> leases = new ArrayList<>();
+        for (Host h : hosts) {
+            leases.addAll(h.leases);
+        }
+        for (List<VirtualMachineLease> l : pseudoHostLeases.values()) {
+            leases.addAll(l);
+        }
+        assignableVMs.addLeases(leases);
+        for (Host h : hosts) {
+            for (TaskRequest t : h.runningTasks) {
+                assignableVMs.setTaskAssigned(t, h.hostname);
+            }
+            if (h.disabledUntil > 0L) {
+                assignableVMs.disableUntil(h.hostname, h.disabledUntil);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts of a group of co-tasks by the value of a host attribute, for the co-tasks that are running or are assigned
+ * to a host in the current scheduling iteration. Constraint evaluators get this from
+ * {@link TaskTrackerState#getCoTaskAttributeCounts(String, com.netflix.fenzo.functions.Func1, String)} once per
+ * host evaluation instead of looking up each co-task. Fenzo computes the counts once per co-task group and scheduling
+ * iteration, and updates them as co-tasks are assigned during the iteration.
+ */
+public class CoTaskAttributeCounts {
+    private final String hostAttributeName;
+    private final Map<String, Integer> counts = new HashMap<>();
+    private final Map<String, String> valueCoTasks = new HashMap<>();
+    private int minCount = 0;
+    private int maxCount = 0;
+    private String missingAttributeHost = null;
+    private String missingAttributeCoTask = null;
+
+    CoTaskAttributeCounts(Set<String> coTasks, String hostAttributeName, TaskTrackerState taskTrackerState) {
+        this.hostAttributeName = hostAttributeName;
+        for (String coTask : coTasks) {
+            TaskTracker.ActiveTask activeTask = taskTrackerState.getAllRunningTasks().get(coTask);
+            if (activeTask == null)
+                activeTask = taskTrackerState.getAllCurrentlyAssignedTasks().get(coTask);
+            if (activeTask != null)
+                add(coTask, activeTask.getTotalLease());
+        }
+        updateMinMax();
+    }
+
+    /**
+     * Count a co-task that was assigned to a host with the given lease.
+     */
+    void addAssignedTask(String coTask, VirtualMachineLease lease) {
+        add(coTask, lease);
+        updateMinMax();
+    }
+
+    private void add(String coTask, VirtualMachineLease lease) {
+        final String value = VMAttributeIndex.getAttrValue(lease, hostAttributeName);
+        if (value == null || value.isEmpty()) {
+            if (missingAttributeCoTask == null) {
+                missingAttributeCoTask = coTask;
+                missingAttributeHost = lease == null ? null : lease.hostname();
+            }
+            return;
+        }
+        final Integer count = counts.get(value);
+        counts.put(value, count == null ? 1 : count + 1);
+        if (count == null)
+            valueCoTasks.put(value, coTask);
+    }
+
+    private void updateMinMax() {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (Integer c : counts.values()) {
+            min = Math.min(min, c);
+            max = Math.max(max, c);
+        }
+        minCount = counts.isEmpty() ? 0 : min;
+        maxCount = max;
+    }
+
+    /**
+     * Get the number of co-tasks on hosts with each value of the host attribute.
+     *
+     * @return an unmodifiable map of host attribute values to the number of co-tasks on hosts with that value
+     */
+    public Map<String, Integer> getCounts() {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Get the number of co-tasks on hosts with the given value of the host attribute.
+     *
+     * @param value the value of the host attribute
+     * @return the number of co-tasks, which is 0 if no co-tasks are on hosts with the value
+     */
+    public int getCount(String value) {
+        final Integer count = counts.get(value);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Get the ID of one of the co-tasks on hosts with the given value of the host attribute, for example, to report
+     * which co-task a host conflicts with.
+     *
+     * @param value the value of the host attribute
+     * @return the ID of such a co-task, or {@code null} if no co-tasks are on hosts with the value
+     */
+    public String getCoTask(String value) {
+        return valueCoTasks.get(value);
+    }
+
+    /**
+     * Get the smallest count among the host attribute values that have co-tasks.
+     *
+     * @return the smallest count, or 0 if no co-tasks are running or assigned
+     */
+    public int getMinCount() {
+        return minCount;
+    }
+
+    /**
+     * Get the largest count among the host attribute values that have co-tasks.
+     *
+     * @return the largest count, or 0 if no co-tasks are running or assigned
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Get the ID of a co-task running or assigned on a host that does not have the host attribute.
+     *
+     * @return the ID of such a co-task, or {@code null} if all co-tasks are on hosts with the attribute
+     */
+    public String getMissingAttributeCoTask() {
+        return missingAttributeCoTask;
+    }
+
+    /**
+     * Get the name of the host of the co-task returned by {@link #getMissingAttributeCoTask()}.
+     *
+     * @return the name of the host without the attribute, or {@code null} if all co-tasks are on hosts with the
+     * attribute
+     */
+    public String getMissingAttributeHost() {
+        return missingAttributeHost;
+    }
+}
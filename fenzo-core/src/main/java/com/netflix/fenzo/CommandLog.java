@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * A log of commands that are appended from any thread and taken, in the order they were appended, by a single
+ * consumer thread. The log is a pair of ring buffers: commands are appended to one of them while the consumer applies
+ * the commands of the other, and the two are swapped when the consumer takes the commands. Appending holds a lock only
+ * while adding to the buffer, and taking holds it only while swapping the buffers. The buffers keep their capacity
+ * between swaps, so that commands are appended without allocating once the buffers have grown to the usual load.
+ *
+ * @param <T> The type of the commands.
+ */
+class CommandLog<T> {
+
+    private ArrayDeque<T> appendBuffer = new ArrayDeque<>();
+    private ArrayDeque<T> takeBuffer = new ArrayDeque<>();
+    private volatile boolean empty = true;
+
+    void append(T command) {
+        synchronized (this) {
+            appendBuffer.addLast(command);
+            empty = false;
+        }
+    }
+
+    /**
+     * Take all commands appended since the previous call. This must be called from one thread at a time.
+     *
+     * @return The commands in the order they were appended. The returned collection is valid only until the next call.
+     */
+    Collection<T> takeAll() {
+        takeBuffer.clear();
+        if (empty)
+            return Collections.emptyList();
+        synchronized (this) {
+            final ArrayDeque<T> taken = appendBuffer;
+            appendBuffer = takeBuffer;
+            takeBuffer = taken;
+            empty = true;
+        }
+        return takeBuffer;
+    }
+}
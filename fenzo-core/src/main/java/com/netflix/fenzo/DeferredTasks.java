@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tasks that could not be assigned in the previous scheduling iteration, with the VMs on which they failed only
+ * for lack of resources. This is used for incremental scheduling by {@link TaskSchedulingService}, where the same
+ * queued tasks are tried again in every iteration. Such a task is evaluated again only on VMs that may have gained
+ * resources since the previous iteration, as found by {@link VMResourceGenerations}, and on VMs where it failed for
+ * other reasons, such as constraints. The failures from the previous iteration are reported for the rest of the VMs.
+ * New tasks are evaluated on all VMs.
+ * <P>
+ * Tasks are tracked by identity. A task not seen in a scheduling iteration, for example because it was removed from
+ * the queue or it wasn't ready, is forgotten and evaluated on all VMs the next time. This is not thread safe; it is
+ * meant to be used from the scheduling iteration's thread only.
+ */
+class DeferredTasks {
+
+    private Map<TaskRequest, Map<AssignableVirtualMachine, TaskAssignmentResult>> previous = new IdentityHashMap<>();
+    private Map<TaskRequest, Map<AssignableVirtualMachine, TaskAssignmentResult>> current = new IdentityHashMap<>();
+    private List<AssignableVirtualMachine> vms = null;
+    private BitSet changedVMs = null;
+
+    /**
+     * Start a new scheduling iteration with the given VMs, in the order used by {@link VMCapacityIndex}. The tasks
+     * deferred in the iteration before become the ones whose failures may be reused in this one.
+     *
+     * @param vms The VMs available for assignments in this iteration.
+     * @param changedVMs Positions in {@code vms} of the VMs that may have gained resources since the previous
+     *                   iteration.
+     */
+    void startIteration(List<AssignableVirtualMachine> vms, BitSet changedVMs) {
+        this.vms = vms;
+        this.changedVMs = changedVMs;
+        previous = current;
+        current = new IdentityHashMap<>();
+    }
+
+    /**
+     * Forget all tasks, so that they are evaluated on all VMs in the next iteration.
+     */
+    void clear() {
+        previous.clear();
+        current.clear();
+    }
+
+    /**
+     * Get the VMs on which the given task needs to be evaluated in this iteration.
+     *
+     * @param task The task request.
+     * @return Positions of the VMs to evaluate the task on, in the list of VMs of this iteration, or {@code null} if
+     * the task is to be evaluated on all VMs.
+     */
+    BitSet getVMsToEvaluate(TaskRequest task) {
+        final Map<AssignableVirtualMachine, TaskAssignmentResult> failures = previous.get(task);
+        if (failures == null)
+            return null;
+        final BitSet result = new BitSet(vms.size());
+        for (int i = 0; i < vms.size(); i++) {
+            if (changedVMs.get(i) || !failures.containsKey(vms.get(i)))
+                result.set(i);
+        }
+        return result;
+    }
+
+    /**
+     * Record that the given task could not be assigned in this iteration. The failures from the previous iteration on
+     * the VMs that were not evaluated, as returned by {@link #getVMsToEvaluate(TaskRequest)}, are added to the given
+     * failures.
+     *
+     * @param task The task that could not be assigned.
+     * @param failures The results of evaluating the task in this iteration, to which previous failures are added.
+     */
+    void defer(TaskRequest task, List<TaskAssignmentResult> failures) {
+        final Map<AssignableVirtualMachine, TaskAssignmentResult> previousFailures = previous.get(task);
+        if (previousFailures != null) {
+            for (int i = 0; i < vms.size(); i++) {
+                final AssignableVirtualMachine avm = vms.get(i);
+                if (!changedVMs.get(i) && previousFailures.containsKey(avm))
+                    failures.add(previousFailures.get(avm));
+            }
+        }
+        final Map<AssignableVirtualMachine, TaskAssignmentResult> reusable = new IdentityHashMap<>();
+        for (TaskAssignmentResult r : failures) {
+            if (r.isResourceShortfall())
+                reusable.put(r.getAssignableVirtualMachine(), r);
+        }
+        current.put(task, reusable);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memo of the resource requests, or shapes, of tasks that did not fit on any VM. A task that failed on every VM
+ * only for lack of resources leaves each VM either short of its resources or failing its constraints. Another task
+ * with the same shape fails on all of the VMs too, whatever its constraints, as long as no VM gains resources. So
+ * the memo holds for a capacity epoch, which ends when a scheduling iteration starts with any VM that may have gained
+ * resources, as found by {@link VMResourceGenerations}. Within an epoch, a task with a memoized shape is not evaluated
+ * on the VMs; it gets a single summarized failure instead of a failure for each VM.
+ * <P>
+ * Tasks that request named resource sets are not memoized. This is not thread safe; it is meant to be used from the
+ * scheduling iteration's thread only.
+ */
+class FailedTaskShapes {
+
+    private final AssignableVirtualMachine dummyVM;
+    private final Map<TaskResourceShape, List<AssignmentFailure>> failures = new HashMap<>();
+    private long epoch = 0L;
+
+    FailedTaskShapes(AssignableVirtualMachine dummyVM) {
+        this.dummyVM = dummyVM;
+    }
+
+    /**
+     * Start a new scheduling iteration, which starts a new capacity epoch if any VM may have gained resources.
+     *
+     * @param capacityGained Whether any VM may have gained resources since the previous iteration.
+     */
+    void startIteration(boolean capacityGained) {
+        if (capacityGained) {
+            failures.clear();
+            epoch++;
+        }
+    }
+
+    /**
+     * Forget all shapes and start a new capacity epoch.
+     */
+    void clear() {
+        startIteration(true);
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    private static boolean isMemoizable(TaskRequest request) {
+        final Map<String, TaskRequest.NamedResourceSetRequest> namedResources = request.getCustomNamedResources();
+        return namedResources == null || namedResources.isEmpty();
+    }
+
+    /**
+     * Get the summarized failure for the given task, if a task with the same shape did not fit on any VM in the
+     * current capacity epoch.
+     *
+     * @param request The task request.
+     * @return The summarized failure, or {@code null} if the task needs to be evaluated on the VMs.
+     */
+    TaskAssignmentResult getFailure(TaskRequest request) {
+        if (failures.isEmpty() || !isMemoizable(request))
+            return null;
+        final List<AssignmentFailure> shapeFailures = failures.get(new TaskResourceShape(request));
+        return shapeFailures == null ? null : new TaskAssignmentResult(dummyVM, request, false, shapeFailures, null, 0.0);
+    }
+
+    /**
+     * Memoize the shape of the given task if it failed on every VM only for lack of resources. The summarized failure
+     * has one {@link AssignmentFailure} for each resource that VMs were short of, with the number of such VMs and the
+     * largest amount available on any one of them.
+     *
+     * @param request The task that could not be assigned.
+     * @param results The results of evaluating the task on all VMs.
+     */
+    void add(TaskRequest request, List<TaskAssignmentResult> results) {
+        if (!results.isEmpty() && isMemoizable(request))
+            add(request, TaskFailureSummary.of(request, results, 0));
+    }
+
+    /**
+     * Memoize the shape of the given task if it failed on every VM only for lack of resources, as summarized with
+     * compact failure reporting.
+     *
+     * @param request The task that could not be assigned.
+     * @param failureSummary The summary of the results of evaluating the task on all VMs.
+     */
+    void add(TaskRequest request, TaskFailureSummary failureSummary) {
+        if (!failureSummary.isResourceShortfall() || !isMemoizable(request))
+            return;
+        final Map<VMResource, Integer> numVMs = failureSummary.getResourceFailureCounts();
+        final Map<VMResource, AssignmentFailure> largest = failureSummary.getLargestResourceFailures();
+        final List<AssignmentFailure> summary = new ArrayList<>(largest.size());
+        for (Map.Entry<VMResource, AssignmentFailure> entry : largest.entrySet()) {
+            final AssignmentFailure l = entry.getValue();
+            summary.add(new AssignmentFailure(entry.getKey(), l.getAsking(), 0.0, l.getAvailable() - l.getUsed(),
+                    "Short on " + numVMs.get(entry.getKey()) + " of " + failureSummary.getNumResults() +
+                            " hosts for task " + request.getId() + " of the same resource requests" +
+                            (l.getMessage() == null || l.getMessage().isEmpty() ? "" : ": " + l.getMessage())));
+        }
+        failures.put(new TaskResourceShape(request), Collections.unmodifiableList(summary));
+    }
+}
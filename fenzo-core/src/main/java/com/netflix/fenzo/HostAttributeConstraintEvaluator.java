@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.functions.Func1;
+
+/**
+ * A {@link ConstraintEvaluator} that can only be satisfied by hosts whose value of a given host attribute meets a
+ * predicate. Fenzo keeps an index of hosts by their attribute values during a scheduling iteration, and uses the
+ * predicate to look up the hosts that can possibly satisfy this constraint for a task. The task is then evaluated
+ * only on those hosts, instead of evaluating this constraint on every host.
+ * <P>
+ * The predicate must only reject attribute values of hosts on which {@link #evaluate(TaskRequest,
+ * VirtualMachineCurrentState, TaskTrackerState)} would fail. The constraint is still evaluated on the hosts whose
+ * attribute value is accepted by the predicate, and on all hosts when reporting failures of a task that could not be
+ * assigned. Hosts that do not have the attribute are assumed to not satisfy the constraint.
+ */
+public interface HostAttributeConstraintEvaluator extends ConstraintEvaluator {
+
+    /**
+     * The attribute name that refers to the name of the host instead of to an attribute in its leases.
+     */
+    String HOSTNAME_ATTRIBUTE = "HOSTNAME";
+
+    /**
+     * Get the name of the host attribute that this constraint depends on.
+     *
+     * @return the name of the host attribute, or {@link #HOSTNAME_ATTRIBUTE} for the name of the host
+     */
+    String getHostAttributeName();
+
+    /**
+     * Get a predicate on values of the host attribute, for hosts that may satisfy this constraint for the given task.
+     * This is called once per task at the time the task is considered for assignment, so the predicate may be based
+     * on the current state of the tasks in {@code taskTrackerState}.
+     *
+     * @param taskRequest the task to be assigned
+     * @param taskTrackerState the current status of tasks and task assignments in the system at large
+     * @return a predicate that returns {@code false} for attribute values of hosts that can not satisfy this
+     * constraint, or {@code null} if the hosts can't be determined up front
+     */
+    Func1<String, Boolean> getHostAttributeValuePredicate(TaskRequest taskRequest, TaskTrackerState taskTrackerState);
+}
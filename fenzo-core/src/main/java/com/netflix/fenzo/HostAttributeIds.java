@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A dictionary of host attribute names and values that interns them into small integer identifiers. Each host keeps
+ * the identifiers of its attribute values in an array indexed by the identifier of the attribute name, so that
+ * constraints can match a host's attribute value by comparing identifiers, via
+ * {@link VirtualMachineCurrentState#hasAttributeValue(String, String)}, instead of looking up the attribute in the
+ * host's attribute map and comparing strings. Identifiers are assigned in the order names and values are first seen
+ * and are never reused.
+ * <P>
+ * Only the attributes that {@link HostAttributeConstraintEvaluator}s query are interned, when first queried, since
+ * the dictionary only grows. It is meant for attributes with a few distinct values, such as zones and instance types.
+ * Hostnames are not interned, constraints on {@link HostAttributeConstraintEvaluator#HOSTNAME_ATTRIBUTE} compare the
+ * hostname itself. Each task scheduler has its own dictionary, shared by its hosts, the same as
+ * {@link ScalarResourceIds}, so that the values seen by one task scheduler are released with it.
+ */
+final class HostAttributeIds {
+
+    /**
+     * The identifier returned for an attribute name or value that has no identifier.
+     */
+    static final int NONE = -1;
+
+    private final ConcurrentMap<String, Integer> nameIds = new ConcurrentHashMap<>();
+    private final List<String> names = new CopyOnWriteArrayList<>();
+    private final List<ConcurrentMap<String, Integer>> valueIdsByName = new CopyOnWriteArrayList<>();
+    // values by identifier, appended to under the lock of this dictionary; the array is replaced when it grows
+    private volatile String[] values = new String[64];
+    private int numValues = 0;
+
+    /**
+     * Get the identifier for the given attribute name, assigning a new one if the name hasn't been seen before.
+     *
+     * @param name The name of the attribute.
+     * @return The identifier of the attribute name.
+     */
+    int nameIdOf(String name) {
+        Integer id = nameIds.get(name);
+        if (id != null)
+            return id;
+        synchronized (this) {
+            id = nameIds.get(name);
+            if (id == null) {
+                id = names.size();
+                valueIdsByName.add(new ConcurrentHashMap<>());
+                names.add(name);
+                nameIds.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Get the attribute name of the given identifier.
+     *
+     * @param nameId The identifier of an attribute name.
+     * @return The attribute name.
+     */
+    String nameOf(int nameId) {
+        return names.get(nameId);
+    }
+
+    /**
+     * Get the identifier for the given value of the attribute with the given name identifier, assigning a new one if
+     * the value hasn't been seen before. Identifiers of values are unique across all attribute names.
+     *
+     * @param nameId The identifier of the attribute name.
+     * @param value The value of the attribute.
+     * @return The identifier of the attribute value.
+     */
+    int valueIdOf(int nameId, String value) {
+        final ConcurrentMap<String, Integer> ids = valueIdsByName.get(nameId);
+        Integer id = ids.get(value);
+        if (id != null)
+            return id;
+        synchronized (this) {
+            id = ids.get(value);
+            if (id == null) {
+                id = numValues;
+                if (id == values.length)
+                    values = Arrays.copyOf(values, id * 2);
+                values[id] = value;
+                numValues++;
+                ids.put(value, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Get the identifier for the given value of the attribute with the given name identifier, without assigning one.
+     * A value that no host has had yet has no identifier, so no host's attribute value matches it.
+     *
+     * @param nameId The identifier of the attribute name.
+     * @param value The value of the attribute.
+     * @return The identifier of the attribute value, or {@link #NONE} if the value hasn't been seen before.
+     */
+    int findValueId(int nameId, String value) {
+        if (nameId == NONE || value == null)
+            return NONE;
+        final Integer id = valueIdsByName.get(nameId).get(value);
+        return id == null ? NONE : id;
+    }
+
+    /**
+     * Get the attribute value of the given identifier.
+     *
+     * @param valueId The identifier of an attribute value.
+     * @return The attribute value.
+     */
+    String valueOf(int valueId) {
+        return values[valueId];
+    }
+}
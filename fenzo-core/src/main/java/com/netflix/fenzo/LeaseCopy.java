@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import org.apache.mesos.Protos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable copy of a lease, for snapshots read by other threads while scheduling iterations go on. The totaled
+ * lease of a VM reads the VM's current resources and is reused across iterations, so it can't be shared with such
+ * readers. The copy has the lease's values at the time it was created.
+ */
+final class LeaseCopy implements VirtualMachineLease {
+    private final String id;
+    private final long offeredTime;
+    private final String hostname;
+    private final String vmId;
+    private final double cpuCores;
+    private final double memoryMB;
+    private final double networkMbps;
+    private final double diskMB;
+    private final List<Range> portRanges;
+    private final Protos.Offer offer;
+    private final Map<String, Protos.Attribute> attributeMap;
+    private final Map<String, Double> scalarValues;
+
+    private LeaseCopy(VirtualMachineLease lease) {
+        id = lease.getId();
+        offeredTime = lease.getOfferedTime();
+        hostname = lease.hostname();
+        vmId = lease.getVMID();
+        cpuCores = lease.cpuCores();
+        memoryMB = lease.memoryMB();
+        networkMbps = lease.networkMbps();
+        diskMB = lease.diskMB();
+        portRanges = lease.portRanges() == null || lease.portRanges().isEmpty() ?
+                Collections.emptyList() :
+                Collections.unmodifiableList(new ArrayList<>(lease.portRanges()));
+        offer = lease.getOffer();
+        attributeMap = lease.getAttributeMap() == null || lease.getAttributeMap().isEmpty() ?
+                Collections.emptyMap() :
+                Collections.unmodifiableMap(new HashMap<>(lease.getAttributeMap()));
+        scalarValues = lease.getScalarValues() == null || lease.getScalarValues().isEmpty() ?
+                Collections.emptyMap() :
+                Collections.unmodifiableMap(new HashMap<>(lease.getScalarValues()));
+    }
+
+    /**
+     * Copy the given lease. This must be called from the thread that changes the lease, if any.
+     *
+     * @param lease The lease to copy, may be {@code null}.
+     * @return the copy of the lease, or {@code null} if the lease is {@code null}.
+     */
+    static VirtualMachineLease of(VirtualMachineLease lease) {
+        return lease == null || lease instanceof LeaseCopy ? lease : new LeaseCopy(lease);
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public long getOfferedTime() {
+        return offeredTime;
+    }
+
+    @Override
+    public String hostname() {
+        return hostname;
+    }
+
+    @Override
+    public String getVMID() {
+        return vmId;
+    }
+
+    @Override
+    public double cpuCores() {
+        return cpuCores;
+    }
+
+    @Override
+    public double memoryMB() {
+        return memoryMB;
+    }
+
+    @Override
+    public double networkMbps() {
+        return networkMbps;
+    }
+
+    @Override
+    public double diskMB() {
+        return diskMB;
+    }
+
+    @Override
+    public List<Range> portRanges() {
+        return portRanges;
+    }
+
+    @Override
+    public Protos.Offer getOffer() {
+        return offer;
+    }
+
+    @Override
+    public Map<String, Protos.Attribute> getAttributeMap() {
+        return attributeMap;
+    }
+
+    @Override
+    public Double getScalarValue(String name) {
+        return scalarValues.get(name);
+    }
+
+    @Override
+    public Map<String, Double> getScalarValues() {
+        return scalarValues;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.netflix.fenzo;
 
+import com.netflix.fenzo.functions.Action1;
 import com.netflix.fenzo.queues.InternalTaskQueue;
 import com.netflix.fenzo.queues.InternalTaskQueues;
 import com.netflix.fenzo.queues.QueuableTask;
@@ -40,10 +41,12 @@ import java.util.Set;
  * for each group.
  * <P>
  * The pseudo scheduling run performs an entire scheduling iteration using the cloned queue and pseudo VMs in addition
- * to any new VM leases that have been added since previous scheduling iteration. This will invoke any and all task
- * constraints as well as fitness function setup in the scheduler. The scheduling result is used to determine the
- * number of VMs in each group and then the results are discarded. As expected, the pseudo scheduling run has no impact
- * on the real scheduling assignments made.
+ * to a snapshot of the VMs and their running tasks, taken at the end of the scheduling iteration that requested it.
+ * This will invoke any and all task constraints as well as fitness function setup in the scheduler. The scheduling
+ * result is used to determine the number of VMs in each group and then the results are discarded. The pseudo
+ * scheduling run is made on a separate task scheduler set up from the snapshot, so it has no impact on the real
+ * scheduling assignments made. With {@link TaskSchedulingService.Builder#withAsyncShortfallEvaluation()}, it runs on
+ * a separate thread and the shortfall is given to the autoscaler once it completes.
  * <P>
  * Tasks for which scale up is requested by this evaluator are remembered and not requested again until certain delay.
  */
@@ -66,6 +69,25 @@ class OptimizingShortfallEvaluator extends BaseShortfallEvaluator {
         return schedulingService.requestPseudoScheduling(taskQueue, shortfallTasksPerGroup);
     }
 
+    @Override
+    public void getShortfall(Set<String> vmGroupNames, Set<TaskRequest> failures, AutoScaleRules autoScaleRules,
+                             Action1<Map<String, Integer>> callback) {
+        if (schedulingService == null || failures == null || failures.isEmpty()) {
+            callback.call(Collections.emptyMap());
+            return;
+        }
+
+        final List<TaskRequest> filteredTasks = filterFailedTasks(failures);
+        final Map<String, Integer> shortfallTasksPerGroup = fillShortfallMap(vmGroupNames, filteredTasks);
+        if (shortfallTasksPerGroup.isEmpty() || schedulingService.isShutdown()) {
+            callback.call(Collections.emptyMap());
+            return;
+        }
+
+        final InternalTaskQueue taskQueue = createAndFillAlternateQueue(filteredTasks);
+        schedulingService.requestPseudoScheduling(taskQueue, shortfallTasksPerGroup, callback);
+    }
+
     private InternalTaskQueue createAndFillAlternateQueue(List<TaskRequest> shortfallTasks) {
         final InternalTaskQueue taskQueue = InternalTaskQueues.createQueueOf(schedulingService.getQueue());
         for (TaskRequest t: shortfallTasks) {
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.functions.Func1;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Evaluates the assignment of a task on a list of VMs using a persistent work-stealing pool. The list of VMs is split
+ * into range segments which the pool's workers evaluate, stealing segments from each other as they finish. Once an
+ * assignment is found whose fitness is good enough, segments not yet started are skipped and the ones in progress stop
+ * at their next VM. Each thread accumulates assignment results into a buffer that it reuses across tasks, so that
+ * evaluating a task does not allocate per-thread lists, queues, or futures. There is one buffer for each worker of the
+ * pool, indexed by {@link ForkJoinWorkerThread#getPoolIndex()}, and one for the calling thread, and all of them are
+ * cleared at the start of each evaluation. With a parallelism of one, there is no pool, and all of the work runs on
+ * the calling thread.
+ * <P>
+ * With a number of failure samples set, failed results are not kept in the buffers. Each of them is folded into a
+ * {@link TaskFailureSummary} of its buffer as soon as it is produced, keeping only the given number of samples, so that
+ * the results held for a task that fails on all VMs do not grow with the number of VMs.
+ * <P>
+ * This is not thread safe, only one task may be evaluated at a time. Calling {@code evaluate()} or
+ * {@link #runPartitions(int, IntConsumer)} while another such call is in progress throws an
+ * {@link IllegalStateException}. The {@link Evaluation} returned from {@link #evaluate(TaskRequest, List)} is reused
+ * and is valid only until the next call to {@code evaluate()}.
+ */
+class ParallelAssignmentEvaluator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelAssignmentEvaluator.class);
+
+    /**
+     * The results of evaluating a task's assignment on a list of VMs.
+     */
+    class Evaluation {
+        private TaskAssignmentResult successfulResult;
+        private int numAllocationTrials;
+        private final List<Exception> exceptions = new ArrayList<>();
+
+        private void reset() {
+            successfulResult = null;
+            numAllocationTrials = 0;
+            exceptions.clear();
+        }
+
+        /**
+         * @return the successful assignment with the highest fitness, or {@code null} if the task could not be
+         * assigned on any of the VMs
+         */
+        TaskAssignmentResult getSuccessfulResult() {
+            return successfulResult;
+        }
+
+        int getNumAllocationTrials() {
+            return numAllocationTrials;
+        }
+
+        List<Exception> getExceptions() {
+            return exceptions;
+        }
+
+        /**
+         * Copy the results of all assignment trials of this evaluation into the given list, creating any failures
+         * that were deferred by the VMs. With failure samples set, only the successful results are kept, use
+         * {@link #addFailuresTo(TaskFailureSummary)} for the failed ones. Call this before assigning any task to the
+         * VMs evaluated.
+         *
+         * @param results The list to add the assignment results to.
+         */
+        void addAssignmentResultsTo(List<TaskAssignmentResult> results) {
+            for (WorkerBuffer b : buffers) {
+                for (TaskAssignmentResult r : b.results) {
+                    r.createDeferredFailures();
+                    results.add(r);
+                }
+            }
+        }
+
+        /**
+         * Add the failed results of all assignment trials of this evaluation to the given summary, creating any
+         * failures that were deferred by the VMs. With failure samples set, these are the summaries of the buffers,
+         * since failed results are not kept. Call this before assigning any task to the VMs evaluated.
+         *
+         * @param summary The summary to add the failed results to.
+         */
+        void addFailuresTo(TaskFailureSummary summary) {
+            for (WorkerBuffer b : buffers) {
+                if (b.failures != null) {
+                    summary.merge(b.failures);
+                }
+                for (TaskAssignmentResult r : b.results) {
+                    if (!r.isSuccessful()) {
+                        summary.add(r);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add the successful results of all assignment trials of this evaluation to the given collection.
+         *
+         * @param results The collection to add the successful assignment results to.
+         */
+        void addSuccessfulResultsTo(Collection<TaskAssignmentResult> results) {
+            for (WorkerBuffer b : buffers) {
+                for (TaskAssignmentResult r : b.results) {
+                    if (r.isSuccessful()) {
+                        results.add(r);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class WorkerBuffer {
+        private final List<TaskAssignmentResult> results = new ArrayList<>();
+        private TaskFailureSummary failures;
+        private int numTrials;
+        private TaskAssignmentResult best;
+        private Exception exception;
+
+        private void reset() {
+            results.clear();
+            failures = null;
+            numTrials = 0;
+            best = null;
+            exception = null;
+        }
+    }
+
+    private class SegmentEvaluator extends RecursiveAction {
+        private final TaskRequest task;
+        private final List<AssignableVirtualMachine> vms;
+        private final int from;
+        private final int to;
+
+        private SegmentEvaluator(TaskRequest task, List<AssignableVirtualMachine> vms, int from, int to) {
+            this.task = task;
+            this.vms = vms;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (goodEnoughFound) {
+                return;
+            }
+            if (to - from <= segmentSize) {
+                evalSegment(task, vms, from, to, getBuffer());
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new SegmentEvaluator(task, vms, from, mid), new SegmentEvaluator(task, vms, mid, to));
+            }
+        }
+    }
+
+    private static class PartitionRunner extends RecursiveAction {
+        private final IntConsumer partition;
+        private final int from;
+        private final int to;
+
+        private PartitionRunner(IntConsumer partition, int from, int to) {
+            this.partition = partition;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                partition.accept(from);
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new PartitionRunner(partition, from, mid), new PartitionRunner(partition, mid, to));
+            }
+        }
+    }
+
+    private final int segmentSize;
+    private final int failureSampleResults;
+    private final VMTaskFitnessCalculator fitnessCalculator;
+    private final Func1<Double, Boolean> isFitnessGoodEnoughFunction;
+    // null with a parallelism of one
+    private final ForkJoinPool pool;
+    // the buffer of the calling thread at index 0, followed by those of the pool's workers by their pool index
+    private volatile WorkerBuffer[] buffers;
+    private final AtomicBoolean inUse = new AtomicBoolean(false);
+    private final Evaluation evaluation = new Evaluation();
+    private volatile boolean goodEnoughFound = false;
+    private volatile boolean stopWhenGoodEnough = true;
+
+    ParallelAssignmentEvaluator(int parallelism, int segmentSize, VMTaskFitnessCalculator fitnessCalculator,
+                                Func1<Double, Boolean> isFitnessGoodEnoughFunction) {
+        this(parallelism, segmentSize, -1, fitnessCalculator, isFitnessGoodEnoughFunction);
+    }
+
+    /**
+     * @param failureSampleResults The number of failed results of a task to keep as samples in each buffer's
+     *                             {@link TaskFailureSummary}, or a negative number to keep all failed results.
+     */
+    ParallelAssignmentEvaluator(int parallelism, int segmentSize, int failureSampleResults,
+                                VMTaskFitnessCalculator fitnessCalculator,
+                                Func1<Double, Boolean> isFitnessGoodEnoughFunction) {
+        this.segmentSize = Math.max(1, segmentSize);
+        this.failureSampleResults = failureSampleResults;
+        this.fitnessCalculator = fitnessCalculator;
+        this.isFitnessGoodEnoughFunction = isFitnessGoodEnoughFunction;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.pool = parallelism <= 1 ? null : new ForkJoinPool(
+                parallelism,
+                p -> {
+                    final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                    t.setName("fenzo-worker-" + threadCount.getAndIncrement());
+                    return t;
+                },
+                null,
+                false
+        );
+        this.buffers = newBuffers(new WorkerBuffer[0], pool == null ? 1 : pool.getParallelism() + 1);
+    }
+
+    private static WorkerBuffer[] newBuffers(WorkerBuffer[] buffers, int size) {
+        final WorkerBuffer[] result = Arrays.copyOf(buffers, size);
+        for (int i = buffers.length; i < size; i++) {
+            result[i] = new WorkerBuffer();
+        }
+        return result;
+    }
+
+    private WorkerBuffer getBuffer() {
+        final Thread thread = Thread.currentThread();
+        final int index = thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool ?
+                ((ForkJoinWorkerThread) thread).getPoolIndex() + 1 : 0;
+        final WorkerBuffer[] b = buffers;
+        return index < b.length ? b[index] : growBuffers(index + 1)[index];
+    }
+
+    // pool indices are bounded by the pool, but may exceed its parallelism while it compensates for blocked workers
+    private synchronized WorkerBuffer[] growBuffers(int size) {
+        if (buffers.length < size) {
+            buffers = newBuffers(buffers, size);
+        }
+        return buffers;
+    }
+
+    private void acquire() {
+        if (!inUse.compareAndSet(false, true)) {
+            throw new IllegalStateException("Concurrent or re-entrant use of " + getClass().getSimpleName());
+        }
+    }
+
+    private void release() {
+        inUse.set(false);
+    }
+
+    /**
+     * Evaluate assignment of the given task on the given VMs. Lists of VMs no longer than the segment size are
+     * evaluated on the calling thread, avoiding any hand off to the pool.
+     *
+     * @param task The task to evaluate.
+     * @param vms The VMs to evaluate the task on.
+     * @return The evaluation, valid until the next call to this method.
+     */
+    Evaluation evaluate(TaskRequest task, List<AssignableVirtualMachine> vms) {
+        return evaluate(task, vms, true);
+    }
+
+    /**
+     * Evaluate assignment of the given task on all of the given VMs, without stopping once an assignment with good
+     * enough fitness is found.
+     *
+     * @param task The task to evaluate.
+     * @param vms The VMs to evaluate the task on.
+     * @return The evaluation, valid until the next call to {@code evaluate()}.
+     */
+    Evaluation evaluateAll(TaskRequest task, List<AssignableVirtualMachine> vms) {
+        return evaluate(task, vms, false);
+    }
+
+    private Evaluation evaluate(TaskRequest task, List<AssignableVirtualMachine> vms, boolean stopWhenGoodEnough) {
+        acquire();
+        try {
+            return evaluateIntl(task, vms, stopWhenGoodEnough);
+        } finally {
+            release();
+        }
+    }
+
+    private Evaluation evaluateIntl(TaskRequest task, List<AssignableVirtualMachine> vms, boolean stopWhenGoodEnough) {
+        evaluation.reset();
+        for (WorkerBuffer b : buffers) {
+            b.reset();
+        }
+        goodEnoughFound = false;
+        this.stopWhenGoodEnough = stopWhenGoodEnough;
+        if (!vms.isEmpty()) {
+            if (vms.size() <= segmentSize || pool == null) {
+                evalSegment(task, vms, 0, vms.size(), buffers[0]);
+            } else {
+                pool.invoke(new SegmentEvaluator(task, vms, 0, vms.size()));
+            }
+        }
+        for (WorkerBuffer b : buffers) {
+            evaluation.numAllocationTrials += b.numTrials;
+            if (b.exception != null) {
+                evaluation.exceptions.add(b.exception);
+            }
+            if (b.best != null && isBetter(b.best, evaluation.successfulResult)) {
+                evaluation.successfulResult = b.best;
+            }
+        }
+        return evaluation;
+    }
+
+    private void evalSegment(TaskRequest task, List<AssignableVirtualMachine> vms, int from, int to, WorkerBuffer buffer) {
+        if (buffer.exception != null) {
+            return;
+        }
+        try {
+            for (int i = from; i < to && !goodEnoughFound; i++) {
+                final AssignableVirtualMachine avm = vms.get(i);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Evaluating task assignment on host " + avm.getHostname());
+                    logger.debug("CurrTotalRes on host {}: {}", avm.getHostname(), avm.getCurrTotalLease());
+                }
+                TaskAssignmentResult result = avm.tryRequest(task, fitnessCalculator);
+                buffer.numTrials++;
+                if (result.isSuccessful() || failureSampleResults < 0) {
+                    buffer.results.add(result);
+                } else {
+                    if (buffer.failures == null) {
+                        buffer.failures = new TaskFailureSummary(task, failureSampleResults);
+                    }
+                    buffer.failures.add(result);
+                }
+                if (result.isSuccessful()) {
+                    if (isBetter(result, buffer.best)) {
+                        buffer.best = result;
+                    }
+                    if (stopWhenGoodEnough && isFitnessGoodEnoughFunction.call(result.getFitness())) {
+                        // nobody needs to do more work
+                        goodEnoughFound = true;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            buffer.exception = e;
+        }
+    }
+
+    // higher fitness wins, ties go to the lexicographically smaller hostname
+    private static boolean isBetter(TaskAssignmentResult result, TaskAssignmentResult best) {
+        return best == null || result.getFitness() > best.getFitness() ||
+                (result.getFitness() == best.getFitness() && result.getHostname().compareTo(best.getHostname()) < 0);
+    }
+
+    /**
+     * Run partitions of other per VM work of a scheduling iteration, such as preparing the VMs, on the workers of the
+     * pool, and return once all of them are done. Partitions must be independent of each other. They run on the
+     * calling thread if there is only one of them, or if there is no pool. This must not be called while
+     * a task is being evaluated.
+     *
+     * @param numPartitions The number of partitions.
+     * @param partition The work of a partition, given the index of the partition, from 0.
+     */
+    void runPartitions(int numPartitions, IntConsumer partition) {
+        acquire();
+        try {
+            if (numPartitions <= 1 || pool == null) {
+                for (int i = 0; i < numPartitions; i++) {
+                    partition.accept(i);
+                }
+            } else {
+                pool.invoke(new PartitionRunner(partition, 0, numPartitions));
+            }
+        } finally {
+            release();
+        }
+    }
+
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Interns names of scalar resources into small, dense integer identifiers, so that per VM amounts of scalar resources
+ * can be kept in {@code double} arrays indexed by the identifier instead of in maps keyed by name. Identifiers are
+ * assigned in the order names are first seen and are never reused. The number of distinct scalar resource names is
+ * expected to be small.
+ * <P>
+ * Each task scheduler has its own identifiers, shared by its VMs, so that the names seen by one task scheduler are
+ * released with it and do not grow the arrays of the VMs of another.
+ */
+final class ScalarResourceIds {
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> names = new CopyOnWriteArrayList<>();
+
+    /**
+     * Get the identifier for the given scalar resource name, assigning a new one if the name hasn't been seen before.
+     *
+     * @param name The name of the scalar resource.
+     * @return The identifier of the scalar resource.
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        synchronized (this) {
+            id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                names.add(name);
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Get the identifier for the given scalar resource name, without assigning one.
+     *
+     * @param name The name of the scalar resource.
+     * @return The identifier of the scalar resource, or -1 if the name hasn't been seen before.
+     */
+    int find(String name) {
+        final Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    String nameOf(int id) {
+        return names.get(id);
+    }
+}
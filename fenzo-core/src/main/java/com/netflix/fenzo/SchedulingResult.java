@@ -17,6 +17,7 @@
 package com.netflix.fenzo;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,11 +31,15 @@ import java.util.Map;
  * <p>
  * You can also use the list of task assignment failures that is available through this object to make an
  * additional attempt to launch those tasks on your next scheduling loop or to modify the state of the system
- * to make it more amenable to the failed tasks.
+ * to make it more amenable to the failed tasks. With compact failure reporting, set with
+ * {@link TaskScheduler.Builder#withCompactFailureReporting(int)}, only a summary of the failures of each task is
+ * available, through {@link #getFailureSummaries()}.
  */
 public class SchedulingResult {
     private final Map<String, VMAssignmentResult> resultMap;
     private final Map<TaskRequest, List<TaskAssignmentResult>> failures;
+    private final Map<TaskRequest, TaskFailureSummary> failureSummaries;
+    private final int maxSampleResults;
     private final List<Exception> exceptions;
     private int leasesAdded;
     private int leasesRejected;
@@ -44,8 +49,19 @@ public class SchedulingResult {
     private int idleVMsCount;
 
     public SchedulingResult(Map<String, VMAssignmentResult> resultMap) {
+        this(resultMap, -1);
+    }
+
+    /**
+     * @param maxSampleResults The number of failed results of each task to keep as samples in its
+     *                         {@link TaskFailureSummary} with compact failure reporting, or a negative number to keep
+     *                         all failed results.
+     */
+    SchedulingResult(Map<String, VMAssignmentResult> resultMap, int maxSampleResults) {
         this.resultMap = resultMap;
+        this.maxSampleResults = maxSampleResults;
         failures = new HashMap<>();
+        failureSummaries = maxSampleResults < 0 ? null : new HashMap<>();
         exceptions = new ArrayList<>();
     }
 
@@ -65,8 +81,20 @@ public class SchedulingResult {
         return resultMap;
     }
 
+    // the failures are created from the state of the VMs now, before any more tasks are assigned to them, instead of
+    // whenever they are read
     void addFailures(TaskRequest request, List<TaskAssignmentResult> f) {
-        failures.put(request, f);
+        for (TaskAssignmentResult r : f)
+            r.createDeferredFailures();
+        if (failureSummaries == null)
+            failures.put(request, f);
+        else
+            failureSummaries.put(request, TaskFailureSummary.of(request, f, maxSampleResults));
+    }
+
+    // with compact failure reporting, for a summary built while the task was evaluated
+    void addFailureSummary(TaskRequest request, TaskFailureSummary summary) {
+        failureSummaries.put(request, summary);
     }
 
     public void addException(Exception e) {
@@ -80,7 +108,9 @@ public class SchedulingResult {
     /**
      * Get the unsuccessful task assignment result map. The map keys are the task requests that the task
      * scheduler was unable to assign. The map values are a List of all of the failures that prevented the
-     * task scheduler from assigning the task.
+     * task scheduler from assigning the task. The failures are created during the scheduling iteration, from the
+     * state of the hosts at the time, and do not change afterwards. The map is empty with compact failure reporting,
+     * use {@link #getFailureSummaries()} instead.
      *
      * @return a Map of the tasks the task scheduler failed to assign in this scheduling round
      */
@@ -88,6 +118,23 @@ public class SchedulingResult {
         return failures;
     }
 
+    /**
+     * Get a summary of the failures of each task that the task scheduler was unable to assign. With compact failure
+     * reporting, these summaries are all that is kept of the failures. Otherwise, they are created from
+     * {@link #getFailures()} on each call, with {@link TaskFailureSummary#DEFAULT_MAX_SAMPLE_RESULTS} sample results.
+     *
+     * @return a Map of the failure summaries of the tasks the task scheduler failed to assign, by task
+     */
+    public Map<TaskRequest, TaskFailureSummary> getFailureSummaries() {
+        if (failureSummaries != null)
+            return Collections.unmodifiableMap(failureSummaries);
+        final Map<TaskRequest, TaskFailureSummary> summaries = new HashMap<>();
+        for (Map.Entry<TaskRequest, List<TaskAssignmentResult>> entry : failures.entrySet())
+            summaries.put(entry.getKey(), TaskFailureSummary.of(
+                    entry.getKey(), entry.getValue(), TaskFailureSummary.DEFAULT_MAX_SAMPLE_RESULTS));
+        return summaries;
+    }
+
     /**
      * Get the number of leases (resource offers) added during this scheduling trial.
      *
@@ -171,7 +218,7 @@ public class SchedulingResult {
     public String toString() {
         return "SchedulingResult{" +
                 "resultMap=" + resultMap +
-                ", failures=" + failures +
+                ", failures=" + (failureSummaries == null ? failures : failureSummaries) +
                 ", leasesAdded=" + leasesAdded +
                 ", leasesRejected=" + leasesRejected +
                 ", runtime=" + runtime +
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.common.ThreadFactoryBuilder;
+import com.netflix.fenzo.functions.Action1;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The downstream stage of a pipelined scheduling loop, which calls the scheduling result callback on its own thread,
+ * so that the next scheduling iteration can run while the callback handles the result of the previous one, for example,
+ * by launching its tasks. Results are handed to the callback in the order they were submitted. At most the given
+ * number of results wait for the callback; submitting another one blocks until the callback catches up, so that a slow
+ * callback slows down the scheduling loop instead of piling up results.
+ * <P>
+ * A submitted result is never dropped, since its tasks are already assigned and its leases used. Results waiting when
+ * the stage is shut down are handed to the callback by the stage's thread before it exits, and results submitted
+ * after that, or while the submitting thread is interrupted, are handed to the callback on the submitting thread. The
+ * callback is called by one thread at a time.
+ */
+class SchedulingResultStage {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulingResultStage.class);
+    private static final long shutdownCheckMillis = 100L;
+    private final Action1<SchedulingResult> callback;
+    private final BlockingQueue<SchedulingResult> results;
+    // held while handing results to the callback, fair so that a submitting thread isn't starved by the stage's thread
+    private final ReentrantLock deliveryLock = new ReentrantLock(true);
+    private volatile Thread thread = null;
+    private volatile boolean shutdown = false;
+
+    SchedulingResultStage(Action1<SchedulingResult> callback, int maxPendingResults) {
+        this.callback = callback;
+        this.results = new ArrayBlockingQueue<>(Math.max(1, maxPendingResults));
+    }
+
+    /**
+     * Start the thread that hands submitted results to the callback.
+     */
+    void start() {
+        thread = ThreadFactoryBuilder.newBuilder().withNameFormat("fenzo-results").withDaemon(true).build()
+                .newThread(this::run);
+        thread.start();
+    }
+
+    /**
+     * Hand the given result to the callback. This blocks while the maximum number of results are waiting for the
+     * callback. Once this stage is shut down, or if interrupted while waiting, the result is handed to the callback
+     * on the calling thread, after the results submitted before it.
+     *
+     * @param result The result to hand to the callback.
+     */
+    void submit(SchedulingResult result) {
+        try {
+            while (!shutdown) {
+                if (results.offer(result, shutdownCheckMillis, TimeUnit.MILLISECONDS)) {
+                    // the stage's thread may have drained the results already if shut down just now
+                    if (shutdown)
+                        drain();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted handing scheduling result to the result stage, handing it to the callback directly");
+            Thread.currentThread().interrupt();
+        }
+        deliveryLock.lock();
+        try {
+            drain();
+            deliver(result);
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    /**
+     * Stop this stage once the results already submitted are handed to the callback.
+     */
+    void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * @return {@code true} if called from the thread that hands results to the callback, for example, from within
+     * the callback.
+     */
+    boolean isStageThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void run() {
+        try {
+            while (!shutdown) {
+                deliveryLock.lock();
+                try {
+                    final SchedulingResult result = results.poll(shutdownCheckMillis, TimeUnit.MILLISECONDS);
+                    if (result != null)
+                        deliver(result);
+                } finally {
+                    deliveryLock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Scheduling result stage interrupted, handing remaining results to the callback");
+        }
+        drain();
+    }
+
+    private void drain() {
+        deliveryLock.lock();
+        try {
+            SchedulingResult result;
+            while ((result = results.poll()) != null)
+                deliver(result);
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    private void deliver(SchedulingResult result) {
+        try {
+            callback.call(result);
+        } catch (Exception e) {
+            logger.warn("Unexpected exception from scheduling result callback: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.queues.QueuableTask;
+import com.netflix.fenzo.queues.TaskQueue;
+import org.apache.mesos.Protos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the state of a {@link TaskSchedulingService}, published at the end of its scheduling
+ * iterations. The snapshot has the current state and resource status of all known hosts, and, optionally, all tasks of
+ * the queue. Any number of threads may read the latest snapshot, from
+ * {@link TaskSchedulingService#getStateSnapshot()}, without interfering with scheduling iterations.
+ * <P>
+ * Snapshots are versioned, with each published snapshot's version one more than the previous one's. The state of a
+ * host that did not change since the previous snapshot is shared with it. Pollers that keep the version of the last
+ * snapshot they read may fetch only the hosts that changed since then, with {@link #getChangesSince(long)}.
+ * <P>
+ * The leases offered and the task objects of the snapshot are shared with the scheduler, which replaces them instead
+ * of changing them. The totaled lease of each host, from {@link VirtualMachineCurrentState#getCurrAvailableResources()},
+ * is copied, since the scheduler changes and reuses it. The resource sets of {@link VirtualMachineCurrentState#getResourceSets()} are shared as well and reflect the
+ * scheduler's current use of them; their use at the time of the snapshot is in {@link #getResourceStatus()}.
+ */
+public class SchedulingStateSnapshot {
+
+    /**
+     * The number of versions of a snapshot for which {@link #getChangesSince(long)} can tell the hosts removed.
+     */
+    public static final int MAX_DELTA_VERSIONS = 1000;
+
+    /**
+     * The changes to the hosts between two snapshots.
+     */
+    public static class Delta {
+        private final long fromVersion;
+        private final long toVersion;
+        private final List<VirtualMachineCurrentState> changedVmStates;
+        private final Map<String, Map<VMResource, Double[]>> changedResourceStatus;
+        private final Collection<String> removedHosts;
+
+        private Delta(long fromVersion, long toVersion, List<VirtualMachineCurrentState> changedVmStates,
+                      Map<String, Map<VMResource, Double[]>> changedResourceStatus, Collection<String> removedHosts) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.changedVmStates = changedVmStates;
+            this.changedResourceStatus = changedResourceStatus;
+            this.removedHosts = removedHosts;
+        }
+
+        /**
+         * @return the version of the snapshot that the changes are from
+         */
+        public long getFromVersion() {
+            return fromVersion;
+        }
+
+        /**
+         * @return the version of the snapshot that the changes are to
+         */
+        public long getToVersion() {
+            return toVersion;
+        }
+
+        /**
+         * @return the states of the hosts that are new or changed
+         */
+        public List<VirtualMachineCurrentState> getChangedVmStates() {
+            return changedVmStates;
+        }
+
+        /**
+         * @return the resource status of the hosts that are new or changed, in the form of
+         * {@link #getResourceStatus()}
+         */
+        public Map<String, Map<VMResource, Double[]>> getChangedResourceStatus() {
+            return changedResourceStatus;
+        }
+
+        /**
+         * @return the names of the hosts that were removed
+         */
+        public Collection<String> getRemovedHosts() {
+            return removedHosts;
+        }
+    }
+
+    private static class HostState implements VirtualMachineCurrentState {
+        private final String hostname;
+        private final String vmId;
+        private final Map<String, PreferentialNamedConsumableResourceSet> resourceSets;
+        private final VirtualMachineLease currAvailableResources;
+        private final List<VirtualMachineLease> leases;
+        private final List<Protos.Offer> offers;
+        private final List<TaskRequest> runningTasks;
+        private final double[] totalResources;
+        private final double[] usedResources;
+        private final long disabledUntil;
+        private final Map<VMResource, Double[]> resourceStatus;
+        private final long changedAtVersion;
+
+        private HostState(AssignableVirtualMachine avm, long version) {
+            final VirtualMachineCurrentState state = avm.getVmCurrentState();
+            hostname = state.getHostname();
+            vmId = state.getVMId();
+            resourceSets = state.getResourceSets().isEmpty() ?
+                    Collections.emptyMap() :
+                    Collections.unmodifiableMap(new HashMap<>(state.getResourceSets()));
+            currAvailableResources = LeaseCopy.of(state.getCurrAvailableResources());
+            leases = new ArrayList<>(avm.getCurrentLeases());
+            offers = Collections.unmodifiableList(new ArrayList<>(state.getAllCurrentOffers()));
+            runningTasks = new ArrayList<>(avm.getPreviouslyAssignedTasks());
+            final VMResource[] resources = VMResource.values();
+            totalResources = new double[resources.length];
+            usedResources = new double[resources.length];
+            for (VMResource r : resources) {
+                totalResources[r.ordinal()] = state.getTotalResource(r);
+                usedResources[r.ordinal()] = state.getUsedResource(r);
+            }
+            disabledUntil = state.getDisabledUntil();
+            resourceStatus = Collections.unmodifiableMap(avm.getResourceStatus());
+            changedAtVersion = version;
+        }
+
+        // whether the given VM is in the same state as this, without creating its state
+        private boolean isUnchanged(AssignableVirtualMachine avm) {
+            return disabledUntil == avm.getDisabledUntil() &&
+                    (vmId == null ? avm.getCurrVMId() == null : vmId.equals(avm.getCurrVMId())) &&
+                    sameElements(leases, avm.getCurrentLeases()) &&
+                    sameElements(runningTasks, avm.getPreviouslyAssignedTasks());
+        }
+
+        private static boolean sameElements(List<?> list, Collection<?> collection) {
+            if (list.size() != collection.size())
+                return false;
+            final Iterator<?> it = collection.iterator();
+            for (Object o : list) {
+                if (o != it.next())
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String getHostname() {
+            return hostname;
+        }
+
+        @Override
+        public String getVMId() {
+            return vmId;
+        }
+
+        @Override
+        public Map<String, PreferentialNamedConsumableResourceSet> getResourceSets() {
+            return resourceSets;
+        }
+
+        @Override
+        public VirtualMachineLease getCurrAvailableResources() {
+            return currAvailableResources;
+        }
+
+        @Override
+        public Collection<Protos.Offer> getAllCurrentOffers() {
+            return offers;
+        }
+
+        @Override
+        public Collection<TaskAssignmentResult> getTasksCurrentlyAssigned() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Collection<TaskRequest> getRunningTasks() {
+            return Collections.unmodifiableList(runningTasks);
+        }
+
+        @Override
+        public double getTotalResource(VMResource resource) {
+            return totalResources[resource.ordinal()];
+        }
+
+        @Override
+        public double getUsedResource(VMResource resource) {
+            return usedResources[resource.ordinal()];
+        }
+
+        @Override
+        public long getDisabledUntil() {
+            return disabledUntil;
+        }
+    }
+
+    private final long version;
+    private final long createdAt;
+    private final Map<String, HostState> hosts;
+    private final List<VirtualMachineCurrentState> vmStates;
+    private final Map<String, Map<VMResource, Double[]>> resourceStatus;
+    private final Map<TaskQueue.TaskState, Collection<QueuableTask>> allTasks;
+    private final Map<String, Long> removedHosts;
+    private final long oldestDeltaVersion;
+
+    /**
+     * Create the snapshot following the given one. This must be called from the scheduling iteration's thread, or
+     * while holding the task scheduler's state monitor.
+     *
+     * @param previous The previous snapshot, or {@code null} for the first one.
+     * @param avms The VMs of the task scheduler.
+     * @param allTasks The tasks of the queue, or {@code null} if not included.
+     */
+    SchedulingStateSnapshot(SchedulingStateSnapshot previous, Collection<AssignableVirtualMachine> avms,
+                            Map<TaskQueue.TaskState, Collection<QueuableTask>> allTasks) {
+        version = previous == null ? 1L : previous.version + 1L;
+        createdAt = System.currentTimeMillis();
+        hosts = new HashMap<>();
+        final List<VirtualMachineCurrentState> states = new ArrayList<>(avms.size());
+        final Map<String, Map<VMResource, Double[]>> status = new HashMap<>();
+        for (AssignableVirtualMachine avm : avms) {
+            HostState h = previous == null ? null : previous.hosts.get(avm.getHostname());
+            if (h == null || !h.isUnchanged(avm))
+                h = new HostState(avm, version);
+            hosts.put(h.hostname, h);
+            states.add(h);
+            status.put(h.hostname, h.resourceStatus);
+        }
+        vmStates = Collections.unmodifiableList(states);
+        resourceStatus = Collections.unmodifiableMap(status);
+        if (allTasks == null) {
+            this.allTasks = null;
+        } else {
+            final Map<TaskQueue.TaskState, Collection<QueuableTask>> tasks = new HashMap<>();
+            for (Map.Entry<TaskQueue.TaskState, Collection<QueuableTask>> entry : allTasks.entrySet())
+                tasks.put(entry.getKey(), Collections.unmodifiableCollection(entry.getValue()));
+            this.allTasks = Collections.unmodifiableMap(tasks);
+        }
+        oldestDeltaVersion = previous == null ?
+                version :
+                Math.max(previous.oldestDeltaVersion, version - MAX_DELTA_VERSIONS);
+        removedHosts = new HashMap<>();
+        if (previous != null) {
+            for (Map.Entry<String, Long> entry : previous.removedHosts.entrySet()) {
+                if (entry.getValue() > oldestDeltaVersion && !hosts.containsKey(entry.getKey()))
+                    removedHosts.put(entry.getKey(), entry.getValue());
+            }
+            for (String hostname : previous.hosts.keySet()) {
+                if (!hosts.containsKey(hostname))
+                    removedHosts.put(hostname, version);
+            }
+        }
+    }
+
+    /**
+     * @return the version of this snapshot, starting from 1 for the first snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the wall clock time in millis when this snapshot was created
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Get the state of all known hosts, the same as {@link TaskScheduler#getVmCurrentStates()}.
+     *
+     * @return the states of all known hosts
+     */
+    public List<VirtualMachineCurrentState> getVmCurrentStates() {
+        return vmStates;
+    }
+
+    /**
+     * Get the state of resources on all known hosts, in the form of {@link TaskScheduler#getResourceStatus()}. The
+     * arrays of the map are shared by all readers and must not be changed.
+     *
+     * @return a map of the resource status of each host, by hostname
+     */
+    public Map<String, Map<VMResource, Double[]>> getResourceStatus() {
+        return resourceStatus;
+    }
+
+    /**
+     * Get all tasks of the queue, in the form of
+     * {@link TaskSchedulingService#requestAllTasks(com.netflix.fenzo.functions.Action1)}. The tasks are included only
+     * if the scheduling service was built with them included in snapshots.
+     *
+     * @return the tasks of the queue, or {@code null} if tasks are not included in snapshots
+     */
+    public Map<TaskQueue.TaskState, Collection<QueuableTask>> getAllTasks() {
+        return allTasks;
+    }
+
+    /**
+     * Get the changes to the hosts since the snapshot of the given version. Hosts are compared by their leases,
+     * running tasks, VM Id, and the time until which they are disabled.
+     *
+     * @param sinceVersion The version of a previous snapshot.
+     * @return the changes since the given version, or {@code null} if the given version is more than
+     * {@link #MAX_DELTA_VERSIONS} behind, or is not a version before this snapshot's. The full snapshot must then
+     * be read instead.
+     */
+    public Delta getChangesSince(long sinceVersion) {
+        if (sinceVersion < oldestDeltaVersion || sinceVersion > version)
+            return null;
+        final List<VirtualMachineCurrentState> changedStates = new ArrayList<>();
+        final Map<String, Map<VMResource, Double[]>> changedStatus = new HashMap<>();
+        for (HostState h : hosts.values()) {
+            if (h.changedAtVersion > sinceVersion) {
+                changedStates.add(h);
+                changedStatus.put(h.hostname, h.resourceStatus);
+            }
+        }
+        final List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : removedHosts.entrySet()) {
+            if (entry.getValue() > sinceVersion)
+                removed.add(entry.getKey());
+        }
+        return new Delta(sinceVersion, version, Collections.unmodifiableList(changedStates),
+                Collections.unmodifiableMap(changedStatus), Collections.unmodifiableList(removed));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Triggers scheduling iterations on events, such as new tasks and new leases, instead of at fixed intervals. The first
+ * event after an iteration starts a micro-batching window, and the iteration runs once no more events arrive for the
+ * length of the window, or once the maximum latency has passed since the first event, whichever comes first. A burst
+ * of events is this way handled by a single iteration, while an isolated event is handled after at most the window.
+ * <P>
+ * Events may be signaled from any thread. The iteration runs on the given executor, which is expected to have a
+ * single thread.
+ */
+class SchedulingTrigger {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulingTrigger.class);
+    private final ScheduledExecutorService executorService;
+    private final Runnable iteration;
+    private final long batchWindowMillis;
+    private final long maxLatencyMillis;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile long firstEventAt;
+    private volatile long lastEventAt;
+
+    SchedulingTrigger(ScheduledExecutorService executorService, Runnable iteration, long batchWindowMillis,
+                      long maxLatencyMillis) {
+        this.executorService = executorService;
+        this.iteration = iteration;
+        this.batchWindowMillis = Math.max(0L, batchWindowMillis);
+        this.maxLatencyMillis = Math.max(this.batchWindowMillis, maxLatencyMillis);
+    }
+
+    /**
+     * Signal an event that needs a scheduling iteration. This returns right away; the iteration runs later, on the
+     * executor.
+     */
+    void signal() {
+        final long now = System.currentTimeMillis();
+        lastEventAt = now;
+        if (pending.compareAndSet(false, true)) {
+            firstEventAt = now;
+            schedule(batchWindowMillis);
+        }
+    }
+
+    private void fire() {
+        final long due = Math.min(lastEventAt + batchWindowMillis, firstEventAt + maxLatencyMillis);
+        final long wait = due - System.currentTimeMillis();
+        if (wait > 0L) {
+            // more events arrived during the window, wait for them to quiet down
+            schedule(wait);
+            return;
+        }
+        // events signaled from here on start a new window, the iteration may or may not pick them up
+        pending.set(false);
+        iteration.run();
+    }
+
+    private void schedule(long delayMillis) {
+        try {
+            executorService.schedule(this::fire, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Scheduling iteration not triggered: " + e.getMessage());
+        }
+    }
+}
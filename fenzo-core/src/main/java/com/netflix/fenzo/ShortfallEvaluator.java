@@ -16,6 +16,7 @@
 
 package com.netflix.fenzo;
 
+import com.netflix.fenzo.functions.Action1;
 import com.netflix.fenzo.functions.Func1;
 import com.netflix.fenzo.queues.QueuableTask;
 
@@ -37,5 +38,18 @@ import java.util.Set;
      */
     Map<String, Integer> getShortfall(Set<String> vmGroupNames, Set<TaskRequest> failures, AutoScaleRules autoScaleRules);
 
+    /**
+     * Get number of VMs of shortfall for each VM Group, as with {@link #getShortfall(Set, Set, AutoScaleRules)}, and
+     * give it to the given callback. The callback may be called after this method returns, from another thread.
+     * @param vmGroupNames VM Group names for which autoscale rules are setup, same as the autoscale rule name.
+     * @param failures The tasks that failed assignment due to which VM shortfall must be evaluated.
+     * @param autoScaleRules The current set of autoscale rules.
+     * @param callback The action to call with a map of VM group names to the number of VMs that may be added.
+     */
+    default void getShortfall(Set<String> vmGroupNames, Set<TaskRequest> failures, AutoScaleRules autoScaleRules,
+                              Action1<Map<String, Integer>> callback) {
+        callback.call(getShortfall(vmGroupNames, failures, autoScaleRules));
+    }
+
     void setTaskSchedulingService(TaskSchedulingService schedulingService);
 }
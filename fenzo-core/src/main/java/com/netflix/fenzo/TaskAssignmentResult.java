@@ -38,7 +38,11 @@ public class TaskAssignmentResult {
     private final List<Integer> assignedPorts;
     private final List<PreferentialNamedConsumableResourceSet.ConsumeResult> rSets;
     private final boolean successful;
-    private final List<AssignmentFailure> failures;
+    private List<AssignmentFailure> failures;
+    @JsonIgnore
+    private boolean failuresDeferred = false;
+    @JsonIgnore
+    private boolean resourceShortfall = false;
     private final ConstraintFailure constraintFailure;
     private final double fitness;
 
@@ -63,6 +67,30 @@ public class TaskAssignmentResult {
         rSets = new ArrayList<>();
     }
 
+    /**
+     * Create a failed result for insufficient resources whose {@link AssignmentFailure}s are created from the VM's
+     * state only when {@link #createDeferredFailures()} is called. Most failed results are discarded once the task
+     * is assigned to another host, so this avoids creating failures that are never read. The failures of the results
+     * reported in a {@link SchedulingResult} are created as they are added to it, during the scheduling iteration.
+     */
+    static TaskAssignmentResult withDeferredFailures(AssignableVirtualMachine avm, TaskRequest request) {
+        final TaskAssignmentResult result = new TaskAssignmentResult(avm, request, false, null, null, 0.0);
+        result.failuresDeferred = true;
+        result.resourceShortfall = true;
+        return result;
+    }
+
+    /**
+     * Create the deferred failures of this result, if any. This must be called before any more tasks are assigned
+     * to the VM, so that the failures reflect the VM's resources at the time this result was created.
+     */
+    void createDeferredFailures() {
+        if (failuresDeferred) {
+            failures = avm.getResourceAssignmentFailures(request);
+            failuresDeferred = false;
+        }
+    }
+
     /**
      * Returns the string identifier of the task request for the task whose assignment result this is.
      *
@@ -91,10 +119,25 @@ public class TaskAssignmentResult {
         return vmId;
     }
 
+    /**
+     * Whether this is a failed result only because the VM did not have enough resources for the task, after the task
+     * satisfied the VM's hard constraints. The task can not be assigned to the VM until resources become available
+     * on it.
+     *
+     * @return {@code true} if the task failed for lack of resources only, {@code false} otherwise.
+     */
+    boolean isResourceShortfall() {
+        return resourceShortfall;
+    }
+
     void assignResult() {
         avm.assignResult(this);
     }
 
+    AssignableVirtualMachine getAssignableVirtualMachine() {
+        return avm;
+    }
+
     void addPort(int port) {
         assignedPorts.add(port);
     }
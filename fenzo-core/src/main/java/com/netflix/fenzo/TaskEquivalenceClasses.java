@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Equivalence classes of the tasks of a scheduling iteration that have the same resource requests and no constraints,
+ * such as the many instances of a batch job. Such tasks fit the same hosts with the same fitness, as long as the
+ * fitness calculator depends only on the host and on the task's resource requests. Instead of evaluating each task on
+ * all hosts, the hosts are evaluated once for a class and ranked by fitness, and the tasks of the class are assigned
+ * by walking the ranked hosts. After each assignment, only the hosts consumed since are evaluated again for a class.
+ * <P>
+ * A class is created when the second task of its resource requests is seen; the first task is evaluated on the hosts
+ * as usual, so that tasks with unique resource requests don't pay for ranking all hosts. Tasks with hard or soft
+ * constraints or with named resource set requests are not grouped, since constraints depend on the task and on the
+ * placement of other tasks. This is not thread safe; an instance is meant for a single scheduling iteration.
+ */
+class TaskEquivalenceClasses {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskEquivalenceClasses.class);
+
+    private static class RankedHost {
+        private final AssignableVirtualMachine avm;
+        private final double fitness;
+
+        private RankedHost(AssignableVirtualMachine avm, double fitness) {
+            this.avm = avm;
+            this.fitness = fitness;
+        }
+    }
+
+    // higher fitness first, ties go to the lexicographically smaller hostname, as with the assignment evaluator
+    private static final Comparator<RankedHost> rankOrder = (h1, h2) -> {
+        final int c = Double.compare(h2.fitness, h1.fitness);
+        return c != 0 ? c : h1.avm.getHostname().compareTo(h2.avm.getHostname());
+    };
+
+    private static class EquivalenceClass {
+        private final TreeSet<RankedHost> ranked = new TreeSet<>(rankOrder);
+        private final Map<AssignableVirtualMachine, RankedHost> entries = new IdentityHashMap<>();
+        private int nextConsumed;
+
+        private EquivalenceClass(int nextConsumed) {
+            this.nextConsumed = nextConsumed;
+        }
+
+        private void remove(AssignableVirtualMachine avm) {
+            final RankedHost entry = entries.remove(avm);
+            if (entry != null) {
+                ranked.remove(entry);
+            }
+        }
+
+        private void put(TaskAssignmentResult result) {
+            final RankedHost entry = new RankedHost(result.getAssignableVirtualMachine(), result.getFitness());
+            ranked.add(entry);
+            entries.put(entry.avm, entry);
+        }
+    }
+
+    private final ParallelAssignmentEvaluator assignmentEvaluator;
+    private final VMTaskFitnessCalculator fitnessCalculator;
+    private final VMCapacityIndex capacityIndex;
+    private final Set<TaskResourceShape> seenOnce = new HashSet<>();
+    private final Map<TaskResourceShape, EquivalenceClass> classes = new HashMap<>();
+    private final List<AssignableVirtualMachine> consumedVMs = new ArrayList<>();
+    private final List<Exception> exceptions = new ArrayList<>();
+    private int numAllocationTrials = 0;
+
+    TaskEquivalenceClasses(ParallelAssignmentEvaluator assignmentEvaluator, VMTaskFitnessCalculator fitnessCalculator,
+                           VMCapacityIndex capacityIndex) {
+        this.assignmentEvaluator = assignmentEvaluator;
+        this.fitnessCalculator = fitnessCalculator;
+        this.capacityIndex = capacityIndex;
+    }
+
+    private static boolean isEligible(TaskRequest request) {
+        return (request.getHardConstraints() == null || request.getHardConstraints().isEmpty()) &&
+                (request.getSoftConstraints() == null || request.getSoftConstraints().isEmpty()) &&
+                (request.getCustomNamedResources() == null || request.getCustomNamedResources().isEmpty());
+    }
+
+    /**
+     * Find the best host for the given task from the ranked hosts of its equivalence class. If any exceptions occur,
+     * they are available from {@link #getExceptions()} and {@code null} is returned.
+     *
+     * @param task The task to assign.
+     * @return The successful assignment result, or {@code null} if the task is not in a class, or no host in its
+     * class fits it. The task is then to be evaluated on the hosts as usual.
+     */
+    TaskAssignmentResult getAssignment(TaskRequest task) {
+        if (!isEligible(task)) {
+            return null;
+        }
+        final TaskResourceShape shape = new TaskResourceShape(task);
+        EquivalenceClass equivalenceClass = classes.get(shape);
+        try {
+            if (equivalenceClass == null) {
+                if (seenOnce.add(shape)) {
+                    return null;
+                }
+                equivalenceClass = createClass(task);
+                if (equivalenceClass == null) {
+                    return null;
+                }
+                classes.put(shape, equivalenceClass);
+            } else {
+                refresh(equivalenceClass, task);
+            }
+            while (!equivalenceClass.ranked.isEmpty()) {
+                final RankedHost best = equivalenceClass.ranked.first();
+                final TaskAssignmentResult result = tryRequest(best.avm, task);
+                if (result != null && result.isSuccessful() && result.getFitness() == best.fitness) {
+                    return result;
+                }
+                // not the fitness the host was ranked by, rank it again
+                equivalenceClass.remove(best.avm);
+                if (result != null && result.isSuccessful()) {
+                    equivalenceClass.put(result);
+                }
+            }
+        } catch (Exception e) {
+            exceptions.add(e);
+        }
+        return null;
+    }
+
+    private EquivalenceClass createClass(TaskRequest task) {
+        final ParallelAssignmentEvaluator.Evaluation evaluation =
+                assignmentEvaluator.evaluateAll(task, capacityIndex.getFittingVMs(task));
+        numAllocationTrials += evaluation.getNumAllocationTrials();
+        if (!evaluation.getExceptions().isEmpty()) {
+            exceptions.addAll(evaluation.getExceptions());
+            return null;
+        }
+        final List<TaskAssignmentResult> results = new ArrayList<>();
+        evaluation.addSuccessfulResultsTo(results);
+        final EquivalenceClass equivalenceClass = new EquivalenceClass(consumedVMs.size());
+        for (TaskAssignmentResult r : results) {
+            equivalenceClass.put(r);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Task {}: ranked {} hosts for tasks of the same resource requests", task.getId(),
+                    results.size());
+        }
+        return equivalenceClass;
+    }
+
+    private void refresh(EquivalenceClass equivalenceClass, TaskRequest task) {
+        final int numConsumed = consumedVMs.size();
+        for (int i = equivalenceClass.nextConsumed; i < numConsumed; i++) {
+            final AssignableVirtualMachine avm = consumedVMs.get(i);
+            equivalenceClass.remove(avm);
+            final TaskAssignmentResult result = tryRequest(avm, task);
+            if (result != null && result.isSuccessful()) {
+                equivalenceClass.put(result);
+            }
+        }
+        equivalenceClass.nextConsumed = numConsumed;
+    }
+
+    private TaskAssignmentResult tryRequest(AssignableVirtualMachine avm, TaskRequest task) {
+        numAllocationTrials++;
+        return avm.tryRequest(task, fitnessCalculator);
+    }
+
+    /**
+     * Record that a task was assigned to the given host, so that it is evaluated again for each class.
+     *
+     * @param avm The host a task was assigned to.
+     */
+    void assigned(AssignableVirtualMachine avm) {
+        consumedVMs.add(avm);
+    }
+
+    int getNumAllocationTrials() {
+        return numAllocationTrials;
+    }
+
+    List<Exception> getExceptions() {
+        return exceptions;
+    }
+}
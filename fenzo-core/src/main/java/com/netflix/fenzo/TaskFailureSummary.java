@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A summary of the reasons why a task could not be assigned in a scheduling iteration, as returned by
+ * {@link SchedulingResult#getFailureSummaries()}. Instead of a {@link TaskAssignmentResult} for each host, the
+ * summary counts the hosts that failed the task for each resource and for each constraint, and keeps the results of
+ * a few of the hosts as samples. Its size does not depend on the number of hosts.
+ */
+public class TaskFailureSummary {
+
+    /**
+     * The number of hosts whose results are kept as samples, unless set with
+     * {@link TaskScheduler.Builder#withCompactFailureReporting(int)}.
+     */
+    public static final int DEFAULT_MAX_SAMPLE_RESULTS = 3;
+
+    private final TaskRequest task;
+    private final int maxSampleResults;
+    private int numResults = 0;
+    private int numResourceShortfalls = 0;
+    private final Map<VMResource, Integer> resourceFailureCounts = new EnumMap<>(VMResource.class);
+    private final Map<VMResource, AssignmentFailure> largestResourceFailures = new EnumMap<>(VMResource.class);
+    private final Map<String, Integer> constraintFailureCounts = new HashMap<>();
+    private final List<TaskAssignmentResult> sampleResults = new ArrayList<>();
+
+    TaskFailureSummary(TaskRequest task, int maxSampleResults) {
+        this.task = task;
+        this.maxSampleResults = maxSampleResults;
+    }
+
+    static TaskFailureSummary of(TaskRequest task, List<TaskAssignmentResult> results, int maxSampleResults) {
+        final TaskFailureSummary summary = new TaskFailureSummary(task, maxSampleResults);
+        for (TaskAssignmentResult r : results)
+            summary.add(r);
+        return summary;
+    }
+
+    // creates the deferred failures of the result, so this must be called before more tasks are assigned to its VM
+    void add(TaskAssignmentResult result) {
+        result.createDeferredFailures();
+        numResults++;
+        if (result.isResourceShortfall())
+            numResourceShortfalls++;
+        final ConstraintFailure constraintFailure = result.getConstraintFailure();
+        if (constraintFailure != null)
+            constraintFailureCounts.merge(constraintFailure.getName(), 1, Integer::sum);
+        final List<AssignmentFailure> failures = result.getFailures();
+        if (failures != null) {
+            for (AssignmentFailure f : failures) {
+                resourceFailureCounts.merge(f.getResource(), 1, Integer::sum);
+                addLargestResourceFailure(f);
+            }
+        }
+        if (sampleResults.size() < maxSampleResults)
+            sampleResults.add(result);
+    }
+
+    /**
+     * Add the counts and samples of another summary of the same task, such as one of the summaries that the
+     * evaluation of the task on a part of the hosts produced.
+     */
+    void merge(TaskFailureSummary other) {
+        numResults += other.numResults;
+        numResourceShortfalls += other.numResourceShortfalls;
+        for (Map.Entry<VMResource, Integer> entry : other.resourceFailureCounts.entrySet())
+            resourceFailureCounts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        for (Map.Entry<String, Integer> entry : other.constraintFailureCounts.entrySet())
+            constraintFailureCounts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        for (AssignmentFailure f : other.largestResourceFailures.values())
+            addLargestResourceFailure(f);
+        for (TaskAssignmentResult r : other.sampleResults) {
+            if (sampleResults.size() >= maxSampleResults)
+                break;
+            sampleResults.add(r);
+        }
+    }
+
+    private void addLargestResourceFailure(AssignmentFailure f) {
+        final AssignmentFailure l = largestResourceFailures.get(f.getResource());
+        if (l == null || (f.getAvailable() - f.getUsed()) > (l.getAvailable() - l.getUsed()))
+            largestResourceFailures.put(f.getResource(), f);
+    }
+
+    /**
+     * @return whether every result summarized failed only for lack of resources, and there is at least one
+     */
+    boolean isResourceShortfall() {
+        return numResults > 0 && numResourceShortfalls == numResults;
+    }
+
+    /**
+     * @return the failure with the most of each resource left, among the results that lacked the resource
+     */
+    Map<VMResource, AssignmentFailure> getLargestResourceFailures() {
+        return largestResourceFailures;
+    }
+
+    /**
+     * @return the task that could not be assigned
+     */
+    public TaskRequest getTask() {
+        return task;
+    }
+
+    /**
+     * Get the number of failed results summarized, which is the number of hosts the task failed on. A failure that
+     * applies to all hosts, such as a resource allocation limit, counts as a single result.
+     *
+     * @return the number of failed results
+     */
+    public int getNumResults() {
+        return numResults;
+    }
+
+    /**
+     * Get the number of results that failed for lack of each resource. A result that lacks more than one resource is
+     * counted for each of them.
+     *
+     * @return a map of the number of failed results by resource
+     */
+    public Map<VMResource, Integer> getResourceFailureCounts() {
+        return Collections.unmodifiableMap(resourceFailureCounts);
+    }
+
+    /**
+     * Get the number of results that failed each hard constraint.
+     *
+     * @return a map of the number of failed results by constraint name
+     */
+    public Map<String, Integer> getConstraintFailureCounts() {
+        return Collections.unmodifiableMap(constraintFailureCounts);
+    }
+
+    /**
+     * Get the first few failed results, with the hosts they are for and their full failure details.
+     *
+     * @return a list of sample failed results
+     */
+    public List<TaskAssignmentResult> getSampleResults() {
+        return Collections.unmodifiableList(sampleResults);
+    }
+
+    @Override
+    public String toString() {
+        return "TaskFailureSummary{" +
+                "taskId=" + task.getId() +
+                ", numResults=" + numResults +
+                ", resourceFailureCounts=" + resourceFailureCounts +
+                ", constraintFailureCounts=" + constraintFailureCounts +
+                ", sampleResults=" + sampleResults +
+                '}';
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The resources requested by a task, for use as a key of tasks with the same resource requests. Named resource sets
+ * requested by the task are not part of the shape.
+ */
+class TaskResourceShape {
+    private final double cpus;
+    private final double memory;
+    private final double networkMbps;
+    private final double disk;
+    private final int ports;
+    private final Map<String, Double> scalarRequests;
+
+    TaskResourceShape(TaskRequest request) {
+        cpus = request.getCPUs();
+        memory = request.getMemory();
+        networkMbps = request.getNetworkMbps();
+        disk = request.getDisk();
+        ports = request.getPorts();
+        final Map<String, Double> scalars = request.getScalarRequests();
+        scalarRequests = scalars == null || scalars.isEmpty() ? Collections.emptyMap() : new HashMap<>(scalars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        final TaskResourceShape shape = (TaskResourceShape) o;
+        return Double.compare(shape.cpus, cpus) == 0 &&
+                Double.compare(shape.memory, memory) == 0 &&
+                Double.compare(shape.networkMbps, networkMbps) == 0 &&
+                Double.compare(shape.disk, disk) == 0 &&
+                ports == shape.ports &&
+                scalarRequests.equals(shape.scalarRequests);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cpus, memory, networkMbps, disk, ports, scalarRequests);
+    }
+}
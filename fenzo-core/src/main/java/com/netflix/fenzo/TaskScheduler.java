@@ -16,8 +16,8 @@
 
 package com.netflix.fenzo;
 
-import com.netflix.fenzo.common.ThreadFactoryBuilder;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,13 +26,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
@@ -44,6 +37,7 @@ import com.netflix.fenzo.functions.Func1;
 import com.netflix.fenzo.plugins.NoOpScaleDownOrderEvaluator;
 import com.netflix.fenzo.queues.Assignable;
 import com.netflix.fenzo.queues.QueuableTask;
+import com.netflix.fenzo.queues.TaskQueue;
 import com.netflix.fenzo.sla.ResAllocs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -110,6 +104,9 @@ public class TaskScheduler {
         private int maxConcurrent = Runtime.getRuntime().availableProcessors();
         private Supplier<Long> taskBatchSizeSupplier = () -> Long.MAX_VALUE;
         private Func1<List<AssignableVirtualMachine>, List<AssignableVirtualMachine>> assignableVMsEvaluator = null;
+        private boolean failedTaskShapeMemo = false;
+        private boolean taskEquivalenceClasses = false;
+        private int compactFailureSampleResults = -1;
 
         /**
          * (Required) Call this method to establish a method that your task scheduler will call to notify you
@@ -488,6 +485,64 @@ public class TaskScheduler {
             return this;
         }
 
+        /**
+         * Remember the resource requests of tasks that could not be assigned to any host for lack of resources, and
+         * don't evaluate other tasks with the same resource requests until a host gains resources, for example, from
+         * a new resource offer or from a task being unassigned. Such tasks can't be assigned to any host either. This
+         * saves evaluating many identical tasks, such as those of one job, on every host when the cluster is full.
+         * <P>
+         * Instead of a failure for each host, the {@link SchedulingResult} has a single summarized failure for such
+         * a task, with one {@link AssignmentFailure} for each resource that hosts were short of. Tasks requesting
+         * named resource sets are always evaluated on the hosts.
+         *
+         * @return this same {@code Builder}, suitable for further chaining or to build the {@link TaskScheduler}
+         */
+        public Builder withFailedTaskShapeMemo() {
+            this.failedTaskShapeMemo = true;
+            return this;
+        }
+
+        /**
+         * Assign tasks that have the same resource requests and no constraints, such as the instances of a batch job,
+         * from a list of hosts ranked by fitness once for all such tasks in a scheduling iteration, instead of
+         * evaluating each task on all hosts. After each assignment, only the hosts that were assigned tasks are
+         * evaluated again. Tasks with hard or soft constraints or with named resource set requests are evaluated on
+         * all hosts as usual.
+         * <P>
+         * The fitness calculator must return the same fitness for tasks with the same resource requests on the same
+         * host, and a host's fitness must not change with assignments to other hosts. Ties in fitness go to the host
+         * with the lexicographically smaller hostname, and a host with good enough fitness, as given by
+         * {@link #withFitnessGoodEnoughFunction(Func1)}, does not end the search early.
+         *
+         * @return this same {@code Builder}, suitable for further chaining or to build the {@link TaskScheduler}
+         */
+        public Builder withTaskEquivalenceClasses() {
+            this.taskEquivalenceClasses = true;
+            return this;
+        }
+
+        /**
+         * Report the failures of tasks that could not be assigned as a {@link TaskFailureSummary} for each task,
+         * available from {@link SchedulingResult#getFailureSummaries()}, instead of a list of
+         * {@link TaskAssignmentResult}s for each task, one for each host. The summary counts the hosts that failed
+         * the task by resource and by constraint, and keeps the given number of results as samples. Failed results are
+         * folded into the summary as the task is evaluated on each host, and only the samples are kept, so neither
+         * the scheduling iteration nor the {@link SchedulingResult} holds a result for each host.
+         * {@link SchedulingResult#getFailures()} is empty with compact failure reporting. Since the failures of a task
+         * on each host are not kept, this disables incremental scheduling, set with
+         * {@link TaskSchedulingService.Builder#withIncrementalScheduling()}.
+         *
+         * @param maxSampleResults the number of failed results of each task to keep in its summary, for example,
+         *                         {@link TaskFailureSummary#DEFAULT_MAX_SAMPLE_RESULTS}
+         * @return this same {@code Builder}, suitable for further chaining or to build the {@link TaskScheduler}
+         */
+        public Builder withCompactFailureReporting(int maxSampleResults) {
+            if (maxSampleResults < 0)
+                throw new IllegalArgumentException("Invalid number of sample results: " + maxSampleResults);
+            this.compactFailureSampleResults = maxSampleResults;
+            return this;
+        }
+
         /**
          * Creates a {@link TaskScheduler} based on the various builder methods you have chained.
          *
@@ -508,20 +563,6 @@ public class TaskScheduler {
         }
     }
 
-    private static class EvalResult {
-        List<TaskAssignmentResult> assignmentResults;
-        TaskAssignmentResult result;
-        int numAllocationTrials;
-        Exception exception;
-
-        private EvalResult(List<TaskAssignmentResult> assignmentResults, TaskAssignmentResult result, int numAllocationTrials, Exception e) {
-            this.assignmentResults = assignmentResults;
-            this.result = result;
-            this.numAllocationTrials = numAllocationTrials;
-            this.exception = e;
-        }
-    }
-
     private final AssignableVMs assignableVMs;
     private static final Logger logger = LoggerFactory.getLogger(TaskScheduler.class);
     private static final long purgeVMsIntervalSecs = 60;
@@ -530,12 +571,16 @@ public class TaskScheduler {
     private final StateMonitor stateMonitor;
     private final SchedulingEventListener schedulingEventListener;
     private final AutoScaler autoScaler;
-    private final int maxConcurrent;
-    private final ExecutorService executorService;
+    private final ParallelAssignmentEvaluator assignmentEvaluator;
     private final AtomicBoolean isShutdown = new AtomicBoolean();
     private final ResAllocsEvaluater resAllocsEvaluator;
     private final TaskTracker taskTracker;
     private volatile boolean usingSchedulingService = false;
+    private volatile DeferredTasks deferredTasks = null;
+    private final FailedTaskShapes failedTaskShapes;
+    private final VMResourceGenerations vmResourceGenerations = new VMResourceGenerations();
+    // the assignments of the current scheduling iteration, by hostname, while it runs the autoscaler
+    private Map<String, VMAssignmentResult> iterationAssignments = Collections.emptyMap();
     private final String usingSchedSvcMesg = "Invalid call when using task scheduling service";
     private final Func1<List<AssignableVirtualMachine>, List<AssignableVirtualMachine>> assignableVMsEvaluator;
 
@@ -544,9 +589,9 @@ public class TaskScheduler {
             throw new IllegalArgumentException("Lease reject action must be non-null");
         }
         this.builder = builder;
-        this.maxConcurrent = builder.maxConcurrent;
-        ThreadFactory threadFactory = ThreadFactoryBuilder.newBuilder().withNameFormat("fenzo-worker-%d").build();
-        this.executorService = Executors.newFixedThreadPool(maxConcurrent, threadFactory);
+        this.assignmentEvaluator = new ParallelAssignmentEvaluator(builder.maxConcurrent,
+                PARALLEL_SCHED_EVAL_MIN_BATCH_SIZE, builder.compactFailureSampleResults, builder.fitnessCalculator,
+                builder.isFitnessGoodEnoughFunction);
         this.stateMonitor = new StateMonitor();
         this.schedulingEventListener = CompositeSchedulingEventListener.of(builder.schedulingEventListeners);
         taskTracker = new TaskTracker();
@@ -579,6 +624,29 @@ public class TaskScheduler {
             autoScaler = null;
         }
         assignableVMsEvaluator = builder.assignableVMsEvaluator == null ? avms -> avms : builder.assignableVMsEvaluator;
+        failedTaskShapes = builder.failedTaskShapeMemo ? new FailedTaskShapes(assignableVMs.getDummyVM()) : null;
+    }
+
+    // a task scheduler for pseudo scheduling iterations on the given snapshot, with no autoscaler or scheduling event
+    // listeners, and that never rejects leases
+    private TaskScheduler(Builder builder, ClusterSnapshot snapshot) {
+        this.builder = builder;
+        // a pseudo scheduler is created for each pseudo iteration, evaluate on its caller's thread instead of
+        // starting a pool of workers each time
+        this.assignmentEvaluator = new ParallelAssignmentEvaluator(1,
+                PARALLEL_SCHED_EVAL_MIN_BATCH_SIZE, builder.compactFailureSampleResults, builder.fitnessCalculator,
+                builder.isFitnessGoodEnoughFunction);
+        this.stateMonitor = new StateMonitor();
+        this.schedulingEventListener = NoOpSchedulingEventListener.INSTANCE;
+        taskTracker = new TaskTracker();
+        resAllocsEvaluator = new ResAllocsEvaluater(taskTracker, snapshot.getResAllocs());
+        assignableVMs = new AssignableVMs(taskTracker, lease -> {}, builder.preferentialNamedConsumableResourceEvaluator,
+                builder.leaseOfferExpirySecs, builder.maxOffersToReject, builder.autoScaleByAttributeName,
+                builder.singleOfferMode, builder.autoScaleByAttributeName);
+        autoScaler = null;
+        assignableVMsEvaluator = builder.assignableVMsEvaluator == null ? avms -> avms : builder.assignableVMsEvaluator;
+        failedTaskShapes = null;
+        snapshot.restoreTo(assignableVMs);
     }
 
     void checkIfShutdown() throws IllegalStateException {
@@ -609,23 +677,6 @@ public class TaskScheduler {
         return taskTracker;
     }
 
-    private TaskAssignmentResult getSuccessfulResult(List<TaskAssignmentResult> results) {
-        double bestFitness = 0.0;
-        TaskAssignmentResult bestResult = null;
-        for (int r = results.size() - 1; r >= 0; r--) {
-            // change to using fitness value from assignment result
-            TaskAssignmentResult res = results.get(r);
-            if (res != null && res.isSuccessful()) {
-                if (bestResult == null || res.getFitness() > bestFitness ||
-                        (res.getFitness() == bestFitness && res.getHostname().compareTo(bestResult.getHostname()) < 0)) {
-                    bestFitness = res.getFitness();
-                    bestResult = res;
-                }
-            }
-        }
-        return bestResult;
-    }
-
     private boolean isGoodEnough(TaskAssignmentResult result) {
         return builder.isFitnessGoodEnoughFunction.call(result.getFitness());
     }
@@ -701,6 +752,13 @@ public class TaskScheduler {
         usingSchedulingService = b;
     }
 
+    /* package */ void useIncrementalScheduling() {
+        // deferring tasks needs the failed result of each VM, which compact failure reporting does not keep
+        if (builder.compactFailureSampleResults < 0) {
+            deferredTasks = new DeferredTasks();
+        }
+    }
+
     /* package */ void setTaskToClusterAutoScalerMapGetter(Func1<QueuableTask, List<String>> getter) {
         if (autoScaler != null) {
             autoScaler.setTaskToClustersGetter(getter);
@@ -796,7 +854,7 @@ public class TaskScheduler {
             List<VirtualMachineLease> newLeases) throws IllegalStateException {
         checkIfShutdown();
         try (AutoCloseable ignored = stateMonitor.enter()) {
-            return doScheduling(taskIterator, newLeases);
+            return doScheduling(taskIterator, newLeases, false);
         } catch (Exception e) {
             logger.error("Error with scheduling run: " + e.getMessage(), e);
             if (e instanceof IllegalStateException) {
@@ -816,13 +874,14 @@ public class TaskScheduler {
      * @return a {@link SchedulingResult} object that contains a task assignment results map and other summaries
      */
     /* package */ SchedulingResult pseudoScheduleOnce(TaskIterator taskIterator) throws Exception {
-        return doScheduling(taskIterator, Collections.emptyList());
+        return doScheduling(taskIterator, Collections.emptyList(), true);
     }
 
     private SchedulingResult doScheduling(TaskIterator taskIterator,
-                                          List<VirtualMachineLease> newLeases) throws Exception {
+                                          List<VirtualMachineLease> newLeases,
+                                          boolean pseudoScheduling) throws Exception {
         long start = System.currentTimeMillis();
-        final SchedulingResult schedulingResult = doSchedule(taskIterator, newLeases);
+        final SchedulingResult schedulingResult = doSchedule(taskIterator, newLeases, pseudoScheduling);
         if ((lastVMPurgeAt + purgeVMsIntervalSecs * 1000) < System.currentTimeMillis()) {
             lastVMPurgeAt = System.currentTimeMillis();
             logger.debug("Purging inactive VMs");
@@ -838,9 +897,11 @@ public class TaskScheduler {
 
     private SchedulingResult doSchedule(
             TaskIterator taskIterator,
-            List<VirtualMachineLease> newLeases) throws Exception {
+            List<VirtualMachineLease> newLeases,
+            boolean pseudoScheduling) throws Exception {
         AtomicInteger rejectedCount = new AtomicInteger();
-        List<AssignableVirtualMachine> originalVms = assignableVMs.prepareAndGetOrderedVMs(newLeases, rejectedCount);
+        List<AssignableVirtualMachine> originalVms = assignableVMs.prepareAndGetOrderedVMs(newLeases, rejectedCount,
+                assignmentEvaluator);
         List<AssignableVirtualMachine> avms = assignableVMsEvaluator.call(originalVms);
         if (logger.isDebugEnabled()) {
             logger.debug("Original VMs: {}", originalVms);
@@ -853,9 +914,22 @@ public class TaskScheduler {
         int totalNumAllocations = 0;
         Set<TaskRequest> failedTasksForAutoScaler = new HashSet<>();
         Map<String, VMAssignmentResult> resultMap = new HashMap<>(avms.size());
-        final SchedulingResult schedulingResult = new SchedulingResult(resultMap);
+        final SchedulingResult schedulingResult = new SchedulingResult(resultMap, builder.compactFailureSampleResults);
         long taskBatchSize = builder.taskBatchSizeSupplier.get();
         long tasksIterationCount = 0;
+        TaskEquivalenceClasses equivalenceClasses = null;
+        // results from previous iterations don't apply to pseudo hosts
+        final DeferredTasks deferredTasks = pseudoScheduling ? null : this.deferredTasks;
+        final FailedTaskShapes failedTaskShapes = pseudoScheduling ? null : this.failedTaskShapes;
+        if (deferredTasks != null || failedTaskShapes != null) {
+            final BitSet changedVMs = vmResourceGenerations.getChangedVMs(avms);
+            if (deferredTasks != null) {
+                deferredTasks.startIteration(avms, changedVMs);
+            }
+            if (failedTaskShapes != null) {
+                failedTaskShapes.startIteration(!changedVMs.isEmpty());
+            }
+        }
         if (avms.isEmpty()) {
             while (true) {
                 final Assignable<? extends TaskRequest> taskOrFailure = taskIterator.next();
@@ -866,6 +940,11 @@ public class TaskScheduler {
             }
         } else {
             schedulingEventListener.onScheduleStart();
+            final VMCapacityIndex capacityIndex = new VMCapacityIndex(avms);
+            final VMAttributeIndex attributeIndex = new VMAttributeIndex(avms, taskTracker,
+                    assignableVMs.getHostAttributeIds());
+            equivalenceClasses = builder.taskEquivalenceClasses ?
+                    new TaskEquivalenceClasses(assignmentEvaluator, builder.fitnessCalculator, capacityIndex) : null;
             try {
                 while (true) {
                     if (tasksIterationCount >= taskBatchSize) {
@@ -923,65 +1002,98 @@ public class TaskScheduler {
                         }
                         continue;
                     }
-                    // create batches of VMs to evaluate assignments concurrently across the batches
-                    final BlockingQueue<AssignableVirtualMachine> virtualMachines = new ArrayBlockingQueue<>(avms.size(), false, avms);
-                    int nThreads = (int) Math.ceil((double) avms.size() / PARALLEL_SCHED_EVAL_MIN_BATCH_SIZE);
-                    List<Future<EvalResult>> futures = new ArrayList<>();
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Launching {} threads for evaluating assignments for task {}", nThreads, task.getId());
+                    final TaskAssignmentResult shapeFailure =
+                            failedTaskShapes == null ? null : failedTaskShapes.getFailure(task);
+                    if (shapeFailure != null) {
+                        schedulingResult.addFailures(task, Collections.singletonList(shapeFailure));
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Task {}: resource requests failed on all hosts in capacity epoch {}",
+                                    task.getId(), failedTaskShapes.getEpoch());
+                        }
+                        continue;
                     }
-                    for (int b = 0; b < nThreads && b < maxConcurrent; b++) {
-                        futures.add(executorService.submit(() -> evalAssignments(task, virtualMachines)));
+                    final TaskAssignmentResult classResult =
+                            equivalenceClasses == null ? null : equivalenceClasses.getAssignment(task);
+                    if (equivalenceClasses != null && !equivalenceClasses.getExceptions().isEmpty()) {
+                        addExceptions(equivalenceClasses.getExceptions(), schedulingResult);
+                        break;
                     }
-                    List<EvalResult> results = new ArrayList<>();
-                    List<TaskAssignmentResult> bestResults = new ArrayList<>();
-                    for (Future<EvalResult> f : futures) {
-                        try {
-                            EvalResult evalResult = f.get();
-                            if (evalResult.exception != null) {
-                                logger.warn("Error during concurrent task assignment eval - " + evalResult.exception.getMessage(),
-                                        evalResult.exception);
-                                schedulingResult.addException(evalResult.exception);
-                            } else {
-                                results.add(evalResult);
-                                bestResults.add(evalResult.result);
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug("Task {}: best result so far: {}", task.getId(), evalResult.result);
-                                }
-                                totalNumAllocations += evalResult.numAllocationTrials;
-                            }
-                        } catch (InterruptedException | ExecutionException e) {
-                            logger.error("Unexpected during concurrent task assignment eval - " + e.getMessage(), e);
+                    if (classResult != null) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Task {}: found assignment on host {} from hosts ranked for its resource requests",
+                                    task.getId(), classResult.getHostname());
                         }
+                        assignSuccessfulResult(classResult, capacityIndex, equivalenceClasses);
+                        tasksIterationCount++;
+                        failedTasksForAutoScaler.remove(task);
+                        continue;
                     }
-                    if (!schedulingResult.getExceptions().isEmpty()) {
+                    // evaluate assignments only on the VMs that have enough resources left for the task and may
+                    // satisfy its host attribute constraints, and, for a task that failed in the previous
+                    // iteration, that may have gained resources since
+                    final BitSet candidateVMs = attributeIndex.getCandidateVMs(task);
+                    final BitSet vmsToEvaluate = deferredTasks == null ? null : deferredTasks.getVMsToEvaluate(task);
+                    ParallelAssignmentEvaluator.Evaluation evaluation = assignmentEvaluator.evaluate(task,
+                            capacityIndex.getFittingVMs(task, intersect(candidateVMs, vmsToEvaluate)));
+                    totalNumAllocations += evaluation.getNumAllocationTrials();
+                    if (addExceptions(evaluation, schedulingResult)) {
                         break;
                     }
-                    TaskAssignmentResult successfulResult = getSuccessfulResult(bestResults);
-                    List<TaskAssignmentResult> failures = new ArrayList<>();
+                    TaskAssignmentResult successfulResult = evaluation.getSuccessfulResult();
                     if (successfulResult == null) {
                         if (logger.isDebugEnabled()) {
                             logger.debug("Task {}: no successful results", task.getId());
                         }
-                        for (EvalResult er : results) {
-                            failures.addAll(er.assignmentResults);
+                        // with compact failure reporting, the failures were summarized as the VMs were evaluated
+                        final TaskFailureSummary failureSummary = builder.compactFailureSampleResults < 0 ?
+                                null : new TaskFailureSummary(task, builder.compactFailureSampleResults);
+                        final List<TaskAssignmentResult> failures = failureSummary == null ? new ArrayList<>() : null;
+                        addFailures(evaluation, failures, failureSummary);
+                        // evaluate the VMs skipped by the indexes so that failures are reported for all VMs
+                        evaluation = assignmentEvaluator.evaluate(task,
+                                capacityIndex.getNonFittingVMs(task, candidateVMs, vmsToEvaluate));
+                        totalNumAllocations += evaluation.getNumAllocationTrials();
+                        if (addExceptions(evaluation, schedulingResult)) {
+                            break;
+                        }
+                        addFailures(evaluation, failures, failureSummary);
+                        if (failureSummary != null) {
+                            if (failedTaskShapes != null) {
+                                failedTaskShapes.add(task, failureSummary);
+                            }
+                            schedulingResult.addFailureSummary(task, failureSummary);
+                        } else {
+                            if (deferredTasks != null) {
+                                deferredTasks.defer(task, failures);
+                            }
+                            if (failedTaskShapes != null) {
+                                failedTaskShapes.add(task, failures);
+                            }
+                            schedulingResult.addFailures(task, failures);
                         }
-                        schedulingResult.addFailures(task, failures);
                     } else {
                         if (logger.isDebugEnabled()) {
                             logger.debug("Task {}: found successful assignment on host {}", task.getId(),
                                     successfulResult.getHostname());
                         }
-                        successfulResult.assignResult();
+                        assignSuccessfulResult(successfulResult, capacityIndex, equivalenceClasses);
                         tasksIterationCount++;
                         failedTasksForAutoScaler.remove(task);
-                        schedulingEventListener.onAssignment(successfulResult);
                     }
                 }
             } finally {
                 schedulingEventListener.onScheduleFinish();
             }
         }
+        if (!schedulingResult.getExceptions().isEmpty() && (deferredTasks != null || failedTaskShapes != null)) {
+            vmResourceGenerations.clear();
+            if (deferredTasks != null) {
+                deferredTasks.clear();
+            }
+            if (failedTaskShapes != null) {
+                failedTaskShapes.clear();
+            }
+        }
         List<VirtualMachineLease> idleResourcesList = new ArrayList<>();
         if (schedulingResult.getExceptions().isEmpty()) {
             List<VirtualMachineLease> expirableLeases = new ArrayList<>();
@@ -1006,27 +1118,82 @@ public class TaskScheduler {
             rejectedCount.addAndGet(assignableVMs.removeLimitedLeases(expirableLeases));
             if (autoScaler != null) {
                 AutoScalerInput autoScalerInput = new AutoScalerInput(idleResourcesList, idleInactiveAVMs, failedTasksForAutoScaler);
-                autoScaler.doAutoscale(autoScalerInput);
+                // the tasks assigned in this iteration are not launched yet, pseudo iterations need them as running
+                iterationAssignments = resultMap;
+                try {
+                    autoScaler.doAutoscale(autoScalerInput);
+                } finally {
+                    iterationAssignments = Collections.emptyMap();
+                }
             }
         }
         schedulingResult.setLeasesAdded(newLeases.size());
         schedulingResult.setLeasesRejected(rejectedCount.get());
+        if (equivalenceClasses != null) {
+            totalNumAllocations += equivalenceClasses.getNumAllocationTrials();
+        }
         schedulingResult.setNumAllocations(totalNumAllocations);
         schedulingResult.setTotalVMsCount(assignableVMs.getTotalNumVMs());
         schedulingResult.setIdleVMsCount(idleResourcesList.size());
         return schedulingResult;
     }
 
-    /* package */ Map<String, List<String>> createPseudoHosts(Map<String, Integer> groupCounts) {
-        return assignableVMs.createPseudoHosts(groupCounts, autoScaler == null ? name -> null : autoScaler::getRule);
+    private static BitSet intersect(BitSet a, BitSet b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        final BitSet result = (BitSet) a.clone();
+        result.and(b);
+        return result;
+    }
+
+    /**
+     * Create a snapshot of the hosts of this task scheduler and the tasks running on them, with pseudo hosts added
+     * for each VM group as per the given counts and the autoscale rules. When called from within
+     * {@link AutoScaler#doAutoscale(AutoScalerInput)}, the tasks assigned in the current iteration are included as
+     * running tasks. This must be called from the scheduling iteration's thread.
+     *
+     * @param pseudoHostCounts The number of pseudo hosts to create for each VM group.
+     * @return the snapshot
+     */
+    /* package */ ClusterSnapshot createClusterSnapshot(Map<String, Integer> pseudoHostCounts) {
+        return new ClusterSnapshot(assignableVMs.getVmCollection().getAllVMs(), iterationAssignments,
+                assignableVMs.getActiveVmGroupAttributeName(), assignableVMs.getActiveVmGroups().getActiveVmGroups(),
+                resAllocsEvaluator.getResAllocs(),
+                assignableVMs.createPseudoHostLeases(pseudoHostCounts, autoScaler == null ? name -> null : autoScaler::getRule));
     }
 
-    /* package */ void removePseudoHosts(Map<String, List<String>> hostsMap) {
-        assignableVMs.removePseudoHosts(hostsMap);
+    /**
+     * Create an immutable snapshot of the state of the known hosts, following the given previous one, for readers
+     * that must not interfere with scheduling iterations. This must be called from the scheduling iteration's thread.
+     *
+     * @param previous The previous snapshot, or {@code null}.
+     * @param allTasks The tasks of the queue to include in the snapshot, or {@code null}.
+     * @return the new snapshot
+     */
+    /* package */ SchedulingStateSnapshot createStateSnapshot(SchedulingStateSnapshot previous,
+                                                         Map<TaskQueue.TaskState, Collection<QueuableTask>> allTasks) {
+        try (AutoCloseable ignored = stateMonitor.enter()) {
+            return new SchedulingStateSnapshot(previous, assignableVMs.getVmCollection().getAllVMs(), allTasks);
+        } catch (Exception e) {
+            logger.error("Unexpected error from state monitor: " + e.getMessage(), e);
+            throw new IllegalStateException(e);
+        }
     }
 
-    /* package */ void removePseudoAssignments() {
-        taskTracker.clearAssignedTasks(); // this should suffice for pseudo assignments
+    /**
+     * Create a task scheduler with the same configuration as this one and the hosts and running tasks of the given
+     * snapshot, for pseudo scheduling iterations that leave this task scheduler untouched. The new task scheduler
+     * must be shut down when no longer needed.
+     *
+     * @param snapshot The snapshot created by {@link #createClusterSnapshot(Map)}.
+     * @return the new task scheduler
+     */
+    /* package */ TaskScheduler createPseudoScheduler(ClusterSnapshot snapshot) {
+        return new TaskScheduler(builder, snapshot);
     }
 
     /**
@@ -1084,37 +1251,34 @@ public class TaskScheduler {
         }
     }
 
-    private EvalResult evalAssignments(TaskRequest task, BlockingQueue<AssignableVirtualMachine> virtualMachines) {
-        // This number below sort of controls minimum machines to eval, choose carefully.
-        // Having it too small increases overhead of getting next machine to evaluate on.
-        // Having it too high increases latency of thread before it returns when done
-        try {
-            int N = 10;
-            List<AssignableVirtualMachine> buf = new ArrayList<>(N);
-            List<TaskAssignmentResult> results = new ArrayList<>();
-            while (true) {
-                buf.clear();
-                int n = virtualMachines.drainTo(buf, N);
-                if (n == 0) {
-                    return new EvalResult(results, getSuccessfulResult(results), results.size(), null);
-                }
-                for (int m = 0; m < n; m++) {
-                    final AssignableVirtualMachine avm = buf.get(m);
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Evaluating task assignment on host " + avm.getHostname());
-                        logger.debug("CurrTotalRes on host {}: {}", avm.getHostname(), avm.getCurrTotalLease());
-                    }
-                    TaskAssignmentResult result = avm.tryRequest(task, builder.fitnessCalculator);
-                    results.add(result);
-                    if (result.isSuccessful() && builder.isFitnessGoodEnoughFunction.call(result.getFitness())) {
-                        // drain rest of the queue, nobody needs to do more work.
-                        virtualMachines.clear();
-                        // Instead of returning here, we finish computing on rest of the machines in buf
-                    }
-                }
-            }
-        } catch (Exception e) {
-            return new EvalResult(null, null, 0, e);
+    private void assignSuccessfulResult(TaskAssignmentResult result, VMCapacityIndex capacityIndex,
+                                        TaskEquivalenceClasses equivalenceClasses) {
+        result.assignResult();
+        capacityIndex.update(result.getAssignableVirtualMachine());
+        if (equivalenceClasses != null) {
+            equivalenceClasses.assigned(result.getAssignableVirtualMachine());
+        }
+        schedulingEventListener.onAssignment(result);
+    }
+
+    private boolean addExceptions(ParallelAssignmentEvaluator.Evaluation evaluation, SchedulingResult schedulingResult) {
+        return addExceptions(evaluation.getExceptions(), schedulingResult);
+    }
+
+    private boolean addExceptions(List<Exception> exceptions, SchedulingResult schedulingResult) {
+        for (Exception e : exceptions) {
+            logger.warn("Error during concurrent task assignment eval - " + e.getMessage(), e);
+            schedulingResult.addException(e);
+        }
+        return !schedulingResult.getExceptions().isEmpty();
+    }
+
+    private static void addFailures(ParallelAssignmentEvaluator.Evaluation evaluation,
+                                    List<TaskAssignmentResult> failures, TaskFailureSummary failureSummary) {
+        if (failureSummary != null) {
+            evaluation.addFailuresTo(failureSummary);
+        } else {
+            evaluation.addAssignmentResultsTo(failures);
         }
     }
 
@@ -1207,6 +1371,32 @@ public class TaskScheduler {
         };
     }
 
+    /**
+     * Mark the given tasks as assigned, the same as calling the task assigner action for each of them, while holding
+     * the state monitor once. The tasks are launched into the usage tracked queue of the task tracker, if any,
+     * together, once the tasks of all hosts are assigned.
+     *
+     * @param tasksByHostname The tasks to mark as assigned, by the name of the host they are assigned to.
+     * @throws IllegalStateException if called concurrently with a scheduling iteration.
+     */
+    /* package */ void assignTasksIntl(Map<String, ? extends Collection<? extends TaskRequest>> tasksByHostname)
+            throws IllegalStateException {
+        try (AutoCloseable ignored = stateMonitor.enter()) {
+            taskTracker.startRunningTasksBatch();
+            try {
+                for (Map.Entry<String, ? extends Collection<? extends TaskRequest>> entry : tasksByHostname.entrySet()) {
+                    for (TaskRequest request : entry.getValue())
+                        assignableVMs.setTaskAssigned(request, entry.getKey());
+                }
+            } finally {
+                taskTracker.endRunningTasksBatch();
+            }
+        } catch (Exception e) {
+            logger.error("Unexpected error from state monitor: " + e.getMessage(), e);
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Get the task unassigner action. Call this object's {@code call()} method to unassign an assignment you
      * have previously set for each task that completes so that internal state is maintained correctly. Pass two
@@ -1309,7 +1499,7 @@ public class TaskScheduler {
      */
     public void shutdown() {
         if (isShutdown.compareAndSet(false, true)) {
-            executorService.shutdown();
+            assignmentEvaluator.shutdown();
             if (autoScaler != null) {
                 autoScaler.shutdown();
             }
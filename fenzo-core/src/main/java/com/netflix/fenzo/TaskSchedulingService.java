@@ -33,11 +33,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
@@ -74,11 +76,20 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class TaskSchedulingService {
 
-    private static class RemoveTaskRequest {
+    /**
+     * A request to remove a task, for {@link #removeTasks(Collection)}.
+     */
+    public static class RemoveTaskRequest {
         private final String taskId;
         private final QAttributes qAttributes;
         private final String hostname;
 
+        /**
+         * @param taskId The Id of the task to be removed.
+         * @param qAttributes The queue attributes of the queue that the task belongs to.
+         * @param hostname The name of the VM where the task was assigned resources from, or, <code>null</code> if it
+         *                 was not assigned any resources.
+         */
         public RemoveTaskRequest(String taskId, QAttributes qAttributes, String hostname) {
             this.taskId = taskId;
             this.qAttributes = qAttributes;
@@ -86,18 +97,52 @@ public class TaskSchedulingService {
         }
     }
 
-    private static class SetReadyTimeRequest {
+    /**
+     * A request to set the ready time of a task, for {@link #setTaskReadyTimes(Collection)}.
+     */
+    public static class SetReadyTimeRequest {
         private final String taskId;
         private final QAttributes qAttributes;
         private final long when;
 
-        private SetReadyTimeRequest(String taskId, QAttributes qAttributes, long when) {
+        /**
+         * @param taskId The Id of the task.
+         * @param qAttributes The queue attributes of the queue that the task belongs to.
+         * @param when The wall clock time in millis when the task is ready for consideration for assignment.
+         */
+        public SetReadyTimeRequest(String taskId, QAttributes qAttributes, long when) {
             this.taskId = taskId;
             this.qAttributes = qAttributes;
             this.when = when;
         }
     }
 
+    // Commands of the task command log, each one with a collection of tasks. Consecutive commands of the same kind
+    // are applied together.
+    private static class InitializeRunningTasksCommand {
+        private final Map<String, ? extends Collection<QueuableTask>> tasksByHostname;
+
+        private InitializeRunningTasksCommand(Map<String, ? extends Collection<QueuableTask>> tasksByHostname) {
+            this.tasksByHostname = tasksByHostname;
+        }
+    }
+
+    private static class RemoveTasksCommand {
+        private final Collection<RemoveTaskRequest> requests;
+
+        private RemoveTasksCommand(Collection<RemoveTaskRequest> requests) {
+            this.requests = requests;
+        }
+    }
+
+    private static class SetReadyTimesCommand {
+        private final Collection<SetReadyTimeRequest> requests;
+
+        private SetReadyTimesCommand(Collection<SetReadyTimeRequest> requests) {
+            this.requests = requests;
+        }
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(TaskSchedulingService.class);
     private final TaskScheduler taskScheduler;
     private final Action1<SchedulingResult> schedulingResultCallback;
@@ -106,14 +151,19 @@ public class TaskSchedulingService {
     private final long loopIntervalMillis;
     private final Action0 preHook;
     private final BlockingQueue<VirtualMachineLease> leaseBlockingQueue = new LinkedBlockingQueue<>();
-    private final BlockingQueue<Map<String, QueuableTask>> addRunningTasksQueue = new LinkedBlockingQueue<>();
-    private final BlockingQueue<RemoveTaskRequest> removeTasksQueue = new LinkedBlockingQueue<>();
-    private final BlockingQueue<SetReadyTimeRequest> setReadyTimeQueue = new LinkedBlockingQueue<>();
+    private final CommandLog<Object> taskCommands = new CommandLog<>();
     private final BlockingQueue<Action1<Map<TaskQueue.TaskState, Collection<QueuableTask>>>> taskMapRequest = new LinkedBlockingQueue<>(10);
     private final BlockingQueue<Action1<Map<String, Map<VMResource, Double[]>>>> resStatusRequest = new LinkedBlockingQueue<>(10);
     private final BlockingQueue<Action1<List<VirtualMachineCurrentState>>> vmCurrStateRequest = new LinkedBlockingQueue<>(10);
     private final AtomicLong lastSchedIterationAt = new AtomicLong();
     private final long maxSchedIterDelay;
+    private final ExecutorService shortfallExecutorService;
+    private final SchedulingTrigger schedulingTrigger;
+    private final SchedulingResultStage resultStage;
+    private final boolean stateSnapshots;
+    private final boolean snapshotAllTasks;
+    private volatile SchedulingStateSnapshot stateSnapshot = null;
+    private volatile boolean started = false;
     private volatile Func1<QueuableTask, List<String>> taskToClusterAutoScalerMapGetter = null;
 
     private TaskSchedulingService(Builder builder) {
@@ -126,6 +176,21 @@ public class TaskSchedulingService {
         loopIntervalMillis = builder.loopIntervalMillis;
         preHook = builder.preHook;
         maxSchedIterDelay = Math.max(builder.maxDelayMillis, loopIntervalMillis);
+        if (builder.incrementalScheduling)
+            taskScheduler.useIncrementalScheduling();
+        shortfallExecutorService = builder.asyncShortfallEvaluation ?
+                Executors.newSingleThreadExecutor(
+                        ThreadFactoryBuilder.newBuilder().withNameFormat("fenzo-shortfall").build()) :
+                null;
+        stateSnapshots = builder.stateSnapshots;
+        snapshotAllTasks = builder.snapshotAllTasks;
+        resultStage = builder.maxPendingResults > 0 ?
+                new SchedulingResultStage(schedulingResultCallback, builder.maxPendingResults) :
+                null;
+        schedulingTrigger = builder.eventDrivenScheduling ?
+                new SchedulingTrigger(executorService, () -> scheduleOnce(true), builder.batchWindowMillis,
+                        builder.maxLatencyMillis) :
+                null;
     }
 
     /**
@@ -134,17 +199,69 @@ public class TaskSchedulingService {
      * specified via {@link Builder#withMaxDelayMillis(long)}. The delay between consecutive iterations is longer if the
      * service notices no change since the previous iteration. Changes include additions of new tasks and additions of
      * new leases.
+     * <P>
+     * If this service was built with {@link Builder#withEventDrivenScheduling(long, long)}, iterations instead run
+     * when changes are noticed, and at most after the delay specified via {@link Builder#withMaxDelayMillis(long)}
+     * since the previous iteration.
      */
     public void start() {
-        executorService.scheduleWithFixedDelay(TaskSchedulingService.this::scheduleOnce, 0, loopIntervalMillis, TimeUnit.MILLISECONDS);
+        if (resultStage != null)
+            resultStage.start();
+        if (schedulingTrigger == null) {
+            executorService.scheduleWithFixedDelay(() -> scheduleOnce(false), 0, loopIntervalMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        taskQueue.setTaskQueuedListener(schedulingTrigger::signal);
+        started = true;
+        // the first iteration picks up changes from before the start
+        executorService.execute(this::heartbeat);
+    }
+
+    // Run an iteration if none ran for the max delay, for the duties that are not triggered by changes, such as
+    // autoscaling and expiring leases, and check again when the max delay next passes.
+    private void heartbeat() {
+        long waitMillis = lastSchedIterationAt.get() + maxSchedIterDelay - System.currentTimeMillis();
+        if (waitMillis <= 0L) {
+            scheduleOnce(true);
+            waitMillis = maxSchedIterDelay;
+        }
+        try {
+            executorService.schedule(this::heartbeat, waitMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Scheduling heartbeat stopped: " + e.getMessage());
+        }
+    }
+
+    private void signalChange() {
+        if (started)
+            schedulingTrigger.signal();
     }
 
     /**
      * Mark this scheduler as shutdown and prevent any further scheduling iterations from starting. This may let an
      * already running scheduling iteration to complete.
+     * <P>
+     * If this service was built with {@link Builder#withPipelinedResultCallback(int)}, this waits for the running
+     * iteration to complete, unless called from the scheduling result callback, and the results waiting for the
+     * callback are handed to it before the callback's thread exits, since their tasks are already assigned.
      */
     public void shutdown() {
         executorService.shutdown();
+        if (shortfallExecutorService != null)
+            shortfallExecutorService.shutdown();
+        if (resultStage != null) {
+            // the running iteration may be waiting for the callback to take its result, unless called from it
+            if (!resultStage.isStageThread()) {
+                try {
+                    while (!executorService.awaitTermination(maxSchedIterDelay, TimeUnit.MILLISECONDS))
+                        logger.info("Waiting for the running scheduling iteration to complete");
+                } catch (InterruptedException e) {
+                    logger.warn("Interrupted waiting for the running scheduling iteration to complete");
+                    Thread.currentThread().interrupt();
+                }
+            }
+            resultStage.shutdown();
+        }
     }
 
     public boolean isShutdown() {
@@ -156,17 +273,50 @@ public class TaskSchedulingService {
     }
 
     /* package */ Map<String, Integer> requestPseudoScheduling(final InternalTaskQueue pTaskQueue, Map<String, Integer> groupCounts) {
+        return pseudoSchedule(taskScheduler.createClusterSnapshot(groupCounts), pTaskQueue);
+    }
+
+    /**
+     * Request a pseudo scheduling iteration to be run with the given queue and number of pseudo hosts for each VM
+     * group. The iteration runs on a snapshot of the task scheduler's hosts, and of the pseudo hosts, taken right
+     * away. It runs on a separate
+     * thread if this service was built with {@link Builder#withAsyncShortfallEvaluation()}, concurrently with the
+     * next scheduling iterations, and on the calling thread otherwise. This must be called from the scheduling
+     * iteration's thread.
+     *
+     * @param pTaskQueue The queue with the tasks to schedule.
+     * @param groupCounts The number of pseudo hosts to create for each VM group.
+     * @param callback The action to call with the number of pseudo hosts of each group that were assigned tasks.
+     */
+    /* package */ void requestPseudoScheduling(final InternalTaskQueue pTaskQueue, Map<String, Integer> groupCounts,
+                                               Action1<Map<String, Integer>> callback) {
+        final ClusterSnapshot snapshot = taskScheduler.createClusterSnapshot(groupCounts);
+        if (shortfallExecutorService == null) {
+            callback.call(pseudoSchedule(snapshot, pTaskQueue));
+            return;
+        }
+        try {
+            shortfallExecutorService.execute(() -> callback.call(pseudoSchedule(snapshot, pTaskQueue)));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Pseudo scheduling not run: " + e.getMessage());
+            callback.call(Collections.emptyMap());
+        }
+    }
+
+    private Map<String, Integer> pseudoSchedule(ClusterSnapshot snapshot, final InternalTaskQueue pTaskQueue) {
         Map<String, Integer> pseudoSchedulingResult = new HashMap<>();
             try {
-                logger.debug("Creating pseudo hosts");
-                final Map<String, List<String>> pseudoHosts = taskScheduler.createPseudoHosts(groupCounts);
-                logger.debug("Created " + pseudoHosts.size() + " pseudoHost groups");
-                int pHostsAdded = 0;
-                for(Map.Entry<String, List<String>> entry: pseudoHosts.entrySet()) {
-                    logger.debug("Pseudo hosts for group " + entry.getKey() + ": " + entry.getValue());
-                    pHostsAdded += entry.getValue() == null? 0 : entry.getValue().size();
-                }
+                // the pseudo iteration runs on its own task scheduler, leaving the hosts and task tracker of the
+                // real one untouched
+                final TaskScheduler pseudoScheduler = taskScheduler.createPseudoScheduler(snapshot);
                 try {
+                    final Map<String, List<String>> pseudoHosts = snapshot.getPseudoHosts();
+                    logger.debug("Created " + pseudoHosts.size() + " pseudoHost groups");
+                    int pHostsAdded = 0;
+                    for(Map.Entry<String, List<String>> entry: pseudoHosts.entrySet()) {
+                        logger.debug("Pseudo hosts for group " + entry.getKey() + ": " + entry.getValue());
+                        pHostsAdded += entry.getValue() == null? 0 : entry.getValue().size();
+                    }
                     Map<String, String> hostnameToGrpMap = new HashMap<>();
                     for (Map.Entry<String, List<String>> entry : pseudoHosts.entrySet()) {
                         for (String h : entry.getValue())
@@ -185,10 +335,9 @@ public class TaskSchedulingService {
                             }
                         }
                     }
-                    // temporarily replace usage tracker in taskTracker to the pseudoQ and then put back the original one
-                    taskScheduler.getTaskTracker().setUsageTrackedQueue(pTaskQueue.getUsageTracker());
+                    pseudoScheduler.getTaskTracker().setUsageTrackedQueue(pTaskQueue.getUsageTracker());
                     logger.debug("Scheduling with pseudoQ");
-                    final SchedulingResult schedulingResult = taskScheduler.pseudoScheduleOnce(pTaskQueue);
+                    final SchedulingResult schedulingResult = pseudoScheduler.pseudoScheduleOnce(pTaskQueue);
                     final Map<String, VMAssignmentResult> resultMap = schedulingResult.getResultMap();
                     Map<String, Integer> result = new HashMap<>();
                     if (!resultMap.isEmpty()) {
@@ -207,7 +356,11 @@ public class TaskSchedulingService {
                         logger.debug("No pseudo assignments made, looking for failures");
                         final Map<TaskRequest, List<TaskAssignmentResult>> failures = schedulingResult.getFailures();
                         if (failures == null || failures.isEmpty()) {
-                            logger.debug("No failures found for pseudo assignments");
+                            final Map<TaskRequest, TaskFailureSummary> summaries = schedulingResult.getFailureSummaries();
+                            if (summaries.isEmpty())
+                                logger.debug("No failures found for pseudo assignments");
+                            else
+                                logger.debug("Pseudo assignment failure summaries: " + summaries.values());
                         } else {
                             for (Map.Entry<TaskRequest, List<TaskAssignmentResult>> entry: failures.entrySet()) {
                                 final List<TaskAssignmentResult> tars = entry.getValue();
@@ -235,9 +388,7 @@ public class TaskSchedulingService {
                     throw e;
                 }
                 finally {
-                    taskScheduler.removePseudoHosts(pseudoHosts);
-                    taskScheduler.removePseudoAssignments();
-                    taskScheduler.getTaskTracker().setUsageTrackedQueue(taskQueue.getUsageTracker());
+                    pseudoScheduler.shutdown();
                 }
             }
             catch (Exception e) {
@@ -246,7 +397,7 @@ public class TaskSchedulingService {
         return pseudoSchedulingResult;
     }
 
-    private void scheduleOnce() {
+    private void scheduleOnce(boolean triggered) {
         try {
             taskScheduler.checkIfShutdown();
         }
@@ -258,11 +409,9 @@ public class TaskSchedulingService {
         try {
             // check if next scheduling iteration is actually needed right away
             final boolean qModified = taskQueue.reset();
-            addPendingRunningTasks();
-            removeTasks();
-            setTaskReadyTimes();
+            applyTaskCommands();
             final boolean newLeaseExists = leaseBlockingQueue.peek() != null;
-            if (qModified || newLeaseExists || doNextIteration()) {
+            if (triggered || qModified || newLeaseExists || doNextIteration()) {
                 taskScheduler.setTaskToClusterAutoScalerMapGetter(taskToClusterAutoScalerMapGetter);
                 lastSchedIterationAt.set(System.currentTimeMillis());
                 if (preHook != null)
@@ -273,58 +422,108 @@ public class TaskSchedulingService {
                 // mark end of scheduling iteration before assigning tasks.
                 taskQueue.getUsageTracker().reset();
                 assignTasks(schedulingResult, taskScheduler);
-                schedulingResultCallback.call(schedulingResult);
+                callSchedulingResultCallback(schedulingResult);
                 doPendingActions();
+                if (stateSnapshots)
+                    publishStateSnapshot();
             }
         }
         catch (Exception e) {
             SchedulingResult result = new SchedulingResult(null);
             result.addException(e);
-            schedulingResultCallback.call(result);
+            callSchedulingResultCallback(result);
         }
     }
 
-    private void addPendingRunningTasks() {
-        // add any pending running tasks
-        if (addRunningTasksQueue.peek() != null) {
-            List<Map<String, QueuableTask>> r = new LinkedList<>();
-            addRunningTasksQueue.drainTo(r);
-            for (Map<String, QueuableTask> m: r) {
-                for (Map.Entry<String, QueuableTask> entry: m.entrySet())
-                    taskScheduler.getTaskAssignerIntl().call(entry.getValue(), entry.getKey());
+    // With a result stage, the callback is called from the stage's thread, and this returns once the stage accepts
+    // the result, so that the next iteration can run while the callback handles this result.
+    private void callSchedulingResultCallback(SchedulingResult schedulingResult) {
+        if (resultStage == null)
+            schedulingResultCallback.call(schedulingResult);
+        else
+            resultStage.submit(schedulingResult);
+    }
+
+    // Apply the commands logged since the previous iteration, in the order they were logged. Consecutive commands of
+    // the same kind are applied together, for one update of the task tracker and of each queue bucket.
+    private void applyTaskCommands() {
+        final Collection<Object> commands = taskCommands.takeAll();
+        if (commands.isEmpty())
+            return;
+        final Map<String, List<QueuableTask>> runningTasks = new HashMap<>();
+        final List<RemoveTaskRequest> removals = new ArrayList<>();
+        final List<SetReadyTimeRequest> readyTimes = new ArrayList<>();
+        for (Object command : commands) {
+            if (command instanceof InitializeRunningTasksCommand) {
+                if (!removals.isEmpty() || !readyTimes.isEmpty())
+                    applyTaskCommands(runningTasks, removals, readyTimes);
+                for (Map.Entry<String, ? extends Collection<QueuableTask>> entry :
+                        ((InitializeRunningTasksCommand) command).tasksByHostname.entrySet())
+                    runningTasks.computeIfAbsent(entry.getKey(), h -> new ArrayList<>()).addAll(entry.getValue());
+            } else if (command instanceof RemoveTasksCommand) {
+                if (!runningTasks.isEmpty() || !readyTimes.isEmpty())
+                    applyTaskCommands(runningTasks, removals, readyTimes);
+                removals.addAll(((RemoveTasksCommand) command).requests);
+            } else if (command instanceof SetReadyTimesCommand) {
+                if (!runningTasks.isEmpty() || !removals.isEmpty())
+                    applyTaskCommands(runningTasks, removals, readyTimes);
+                readyTimes.addAll(((SetReadyTimesCommand) command).requests);
             }
         }
+        applyTaskCommands(runningTasks, removals, readyTimes);
     }
 
-    private void removeTasks() {
-        if (removeTasksQueue.peek() != null) {
-            List<RemoveTaskRequest> l = new LinkedList<>();
-            removeTasksQueue.drainTo(l);
-            for (RemoveTaskRequest r: l) {
-                // remove it from the queue and call taskScheduler to unassign it if hostname is not null
-                try {
-                    taskQueue.getUsageTracker().removeTask(r.taskId, r.qAttributes);
-                } catch (TaskQueueException e1) {
-                    // shouldn't happen since we're calling outside of scheduling iteration
-                    logger.warn("Unexpected to get exception outside of scheduling iteration: " + e1.getMessage(), e1);
-                }
-                if (r.hostname != null)
-                    taskScheduler.getTaskUnAssigner().call(r.taskId, r.hostname);
+    private void applyTaskCommands(Map<String, List<QueuableTask>> runningTasks, List<RemoveTaskRequest> removals,
+                                   List<SetReadyTimeRequest> readyTimes) {
+        if (!runningTasks.isEmpty()) {
+            taskScheduler.assignTasksIntl(runningTasks);
+            runningTasks.clear();
+        }
+        if (!removals.isEmpty()) {
+            removeTasksIntl(removals);
+            removals.clear();
+        }
+        if (!readyTimes.isEmpty()) {
+            setTaskReadyTimesIntl(readyTimes);
+            readyTimes.clear();
+        }
+    }
+
+    private void removeTasksIntl(List<RemoveTaskRequest> requests) {
+        // remove them from the queue, a bucket at a time, and call taskScheduler to unassign those with a hostname
+        final Map<Integer, Map<String, List<String>>> bucketTaskIds = new HashMap<>();
+        final Map<Integer, Map<String, QAttributes>> bucketQAttributes = new HashMap<>();
+        for (RemoveTaskRequest r : requests) {
+            final int tier = r.qAttributes.getTierNumber();
+            final String bucket = r.qAttributes.getBucketName();
+            bucketTaskIds.computeIfAbsent(tier, t -> new HashMap<>())
+                    .computeIfAbsent(bucket, b -> new ArrayList<>()).add(r.taskId);
+            bucketQAttributes.computeIfAbsent(tier, t -> new HashMap<>()).putIfAbsent(bucket, r.qAttributes);
+        }
+        final List<Exception> exceptions = new ArrayList<>();
+        for (Map.Entry<Integer, Map<String, List<String>>> tierEntry : bucketTaskIds.entrySet()) {
+            for (Map.Entry<String, List<String>> entry : tierEntry.getValue().entrySet()) {
+                final QAttributes qAttributes = bucketQAttributes.get(tierEntry.getKey()).get(entry.getKey());
+                taskQueue.getUsageTracker().removeTasks(entry.getValue(), qAttributes, exceptions);
             }
         }
+        for (Exception e : exceptions) {
+            // shouldn't happen since we're calling outside of scheduling iteration
+            logger.warn("Unexpected to get exception outside of scheduling iteration: " + e.getMessage(), e);
+        }
+        for (RemoveTaskRequest r : requests) {
+            if (r.hostname != null)
+                taskScheduler.getTaskUnAssigner().call(r.taskId, r.hostname);
+        }
     }
 
-    private void setTaskReadyTimes() {
-        if (setReadyTimeQueue.peek() != null) {
-            List<SetReadyTimeRequest> l = new LinkedList<>();
-            setReadyTimeQueue.drainTo(l);
-            l.forEach(r -> {
-                try {
-                    taskQueue.getUsageTracker().setTaskReadyTime(r.taskId, r.qAttributes, r.when);
-                } catch (TaskQueueException e) {
-                    logger.warn("Unexpected to get exception outside of scheduling iteration: " + e.getMessage(), e);
-                }
-            });
+    private void setTaskReadyTimesIntl(List<SetReadyTimeRequest> requests) {
+        for (SetReadyTimeRequest r : requests) {
+            try {
+                taskQueue.getUsageTracker().setTaskReadyTime(r.taskId, r.qAttributes, r.when);
+            } catch (TaskQueueException e) {
+                logger.warn("Unexpected to get exception outside of scheduling iteration: " + e.getMessage(), e);
+            }
         }
     }
 
@@ -352,6 +551,31 @@ public class TaskSchedulingService {
         }
     }
 
+    private void publishStateSnapshot() {
+        Map<TaskQueue.TaskState, Collection<QueuableTask>> allTasks = null;
+        if (snapshotAllTasks) {
+            try {
+                allTasks = taskQueue.getAllTasks();
+            } catch (TaskQueueException e) {
+                logger.warn("Unexpected when trying to get task list for state snapshot: " + e.getMessage(), e);
+                return;
+            }
+        }
+        stateSnapshot = taskScheduler.createStateSnapshot(stateSnapshot, allTasks);
+    }
+
+    /**
+     * Get the latest snapshot of the state of this service, published at the end of a scheduling iteration. Unlike
+     * {@link #requestResourceStatus(Action1)}, {@link #requestVmCurrentStates(Action1)}, and
+     * {@link #requestAllTasks(Action1)}, this returns right away, without waiting for or interfering with scheduling
+     * iterations, and may be called concurrently from any number of threads. Snapshots are published only if this
+     * service was built with {@link Builder#withStateSnapshots(boolean)}.
+     * @return the latest snapshot, or {@code null} if no snapshot was published yet.
+     */
+    public SchedulingStateSnapshot getStateSnapshot() {
+        return stateSnapshot;
+    }
+
     private boolean doNextIteration() {
         return (System.currentTimeMillis() - lastSchedIterationAt.get()) > maxSchedIterDelay;
     }
@@ -384,6 +608,7 @@ public class TaskSchedulingService {
         if (leases != null && !leases.isEmpty()) {
             for(VirtualMachineLease l: leases)
                 leaseBlockingQueue.offer(l);
+            signalChange();
         }
     }
 
@@ -399,6 +624,7 @@ public class TaskSchedulingService {
     public void requestAllTasks(Action1<Map<TaskQueue.TaskState, Collection<QueuableTask>>> action) throws TaskQueueException {
         if (!taskMapRequest.offer(action))
             throw new TaskQueueException("Too many pending actions submitted for getting tasks collection");
+        signalChange();
     }
 
     /**
@@ -411,6 +637,7 @@ public class TaskSchedulingService {
     public void requestResourceStatus(Action1<Map<String, Map<VMResource, Double[]>>> action) throws TaskQueueException {
         if (!resStatusRequest.offer(action))
             throw new TaskQueueException("Too many pending actions submitted for getting resource status");
+        signalChange();
     }
 
     /**
@@ -423,6 +650,12 @@ public class TaskSchedulingService {
     public void requestVmCurrentStates(Action1<List<VirtualMachineCurrentState>> action) throws TaskQueueException {
         if (!vmCurrStateRequest.offer(action))
             throw new TaskQueueException("Too many pending actions submitted for getting VM current state");
+        signalChange();
+    }
+
+    private void appendTaskCommand(Object command) {
+        taskCommands.append(command);
+        signalChange();
     }
 
     /**
@@ -436,7 +669,21 @@ public class TaskSchedulingService {
      * @param hostname The name of the VM that the task is running on.
      */
     public void initializeRunningTask(QueuableTask task, String hostname) {
-        addRunningTasksQueue.offer(Collections.singletonMap(hostname, task));
+        appendTaskCommand(new InitializeRunningTasksCommand(
+                Collections.singletonMap(hostname, Collections.singletonList(task))));
+    }
+
+    /**
+     * Mark the given tasks as running, the same as calling {@link #initializeRunningTask(QueuableTask, String)} for
+     * each of them. This is more efficient for a large number of tasks, such as when initializing all tasks running
+     * from before a restart of the system. The tasks are applied together, with one update of the queue for each
+     * queue bucket.
+     * @param tasksByHostname The tasks to mark as running, by the name of the VM that they are running on. The map is
+     *                        not copied and must not be changed after this call.
+     */
+    public void initializeRunningTasks(Map<String, ? extends Collection<QueuableTask>> tasksByHostname) {
+        if (tasksByHostname != null && !tasksByHostname.isEmpty())
+            appendTaskCommand(new InitializeRunningTasksCommand(tasksByHostname));
     }
 
     /**
@@ -450,7 +697,20 @@ public class TaskSchedulingService {
      *                 not assigned any resources.
      */
     public void removeTask(String taskId, QAttributes qAttributes, String hostname) {
-        removeTasksQueue.offer(new RemoveTaskRequest(taskId, qAttributes, hostname));
+        appendTaskCommand(new RemoveTasksCommand(
+                Collections.singletonList(new RemoveTaskRequest(taskId, qAttributes, hostname))));
+    }
+
+    /**
+     * Mark the given tasks to be removed, the same as calling {@link #removeTask(String, QAttributes, String)} for
+     * each of them. This is more efficient for a large number of tasks, such as the tasks of a job being killed. The
+     * tasks are removed together, with one update of the queue for each queue bucket.
+     * @param requests The requests to remove tasks. The collection is not copied and must not be changed after this
+     *                 call.
+     */
+    public void removeTasks(Collection<RemoveTaskRequest> requests) {
+        if (requests != null && !requests.isEmpty())
+            appendTaskCommand(new RemoveTasksCommand(requests));
     }
 
     /**
@@ -463,7 +723,19 @@ public class TaskSchedulingService {
      * @param when The wall clock time in millis when the task is ready for consideration for assignment.
      */
     public void setTaskReadyTime(String taskId, QAttributes attributes, long when) {
-        setReadyTimeQueue.offer(new SetReadyTimeRequest(taskId, attributes, when));
+        appendTaskCommand(new SetReadyTimesCommand(
+                Collections.singletonList(new SetReadyTimeRequest(taskId, attributes, when))));
+    }
+
+    /**
+     * Set the ready times of the given tasks, the same as calling {@link #setTaskReadyTime(String, QAttributes, long)}
+     * for each of them.
+     * @param requests The requests to set ready times. The collection is not copied and must not be changed after
+     *                 this call.
+     */
+    public void setTaskReadyTimes(Collection<SetReadyTimeRequest> requests) {
+        if (requests != null && !requests.isEmpty())
+            appendTaskCommand(new SetReadyTimesCommand(requests));
     }
 
     /**
@@ -490,10 +762,21 @@ public class TaskSchedulingService {
         private Action0 preHook = null;
         private long maxDelayMillis = 5000L;
         private boolean optimizingShortfallEvaluator = false;
+        private boolean incrementalScheduling = false;
+        private boolean asyncShortfallEvaluation = false;
+        private boolean eventDrivenScheduling = false;
+        private int maxPendingResults = 0;
+        private boolean stateSnapshots = false;
+        private boolean snapshotAllTasks = false;
+        private long batchWindowMillis = 0L;
+        private long maxLatencyMillis = 0L;
 
         public Builder() {
             ThreadFactory threadFactory = ThreadFactoryBuilder.newBuilder().withNameFormat("fenzo-main").build();
-            executorService = new ScheduledThreadPoolExecutor(1, threadFactory);
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+            // delayed heartbeats and triggered iterations don't run after shutdown
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executorService = executor;
         }
 
         /**
@@ -584,6 +867,100 @@ public class TaskSchedulingService {
             return this;
         }
 
+        /**
+         * Schedule incrementally, evaluating a task that could not be assigned in the previous scheduling iteration
+         * only on the VMs that may have gained resources since then. A task that failed on a VM for lack of resources
+         * can not be assigned to that VM until resources become available on it, for example, from a new lease or from
+         * the removal of a task assigned to it. Tasks new to the queue, and VMs on which a task failed for other
+         * reasons, such as a constraint, are always evaluated. This saves repeatedly evaluating the tasks pending in
+         * the queue on a large number of VMs that can't fit them.
+         * <P>
+         * The failures reported in the {@link SchedulingResult} for a task on a VM that wasn't evaluated again are
+         * the ones from the iteration in which the task was last evaluated on that VM. This has no effect with
+         * {@link TaskScheduler.Builder#withCompactFailureReporting(int) compact failure reporting}, which does not keep
+         * the failure of a task on each VM.
+         * @return this same {@code Builder}, suitable for further chaining or to build the {@link TaskSchedulingService}.
+         */
+        public Builder withIncrementalScheduling() {
+            this.incrementalScheduling = true;
+            return this;
+        }
+
+        /**
+         * Run the pseudo scheduling iterations of the optimizing shortfall evaluator, set with
+         * {@link #withOptimizingShortfallEvaluator()}, on a separate thread, concurrently with the next scheduling
+         * iterations, instead of from within the scheduling iteration that found the tasks failing assignments. The
+         * pseudo iteration works on a snapshot of the hosts and running tasks taken at the end of that iteration.
+         * Autoscaling of that iteration completes once the pseudo iteration does, and the autoscaling of later
+         * iterations is skipped until then.
+         * @return this same {@code Builder}, suitable for further chaining or to build the {@link TaskSchedulingService}.
+         */
+        public Builder withAsyncShortfallEvaluation() {
+            this.asyncShortfallEvaluation = true;
+            return this;
+        }
+
+        /**
+         * Run scheduling iterations when changes arrive, instead of checking for changes every loop interval set with
+         * {@link #withLoopIntervalMillis(long)}. Changes are new tasks in the queue, new leases, and tasks initialized
+         * as running, removed, or given a new ready time. An iteration runs once no new change arrives for the given
+         * micro-batching window, coalescing a burst of changes into one iteration, and at most the given maximum
+         * latency after the first change of the burst. Requests for tasks, resource status, and VM states also trigger
+         * an iteration, at the end of which they are served.
+         * <P>
+         * Without changes, an iteration runs after the delay set with {@link #withMaxDelayMillis(long)} since the
+         * previous one, for duties that don't depend on changes, such as autoscaling, expiring leases, and
+         * considering tasks whose ready time has passed. The loop interval is not used in this mode.
+         * @param batchWindowMillis The time, in millis, to wait for more changes after a change before running an
+         *                          iteration.
+         * @param maxLatencyMillis The maximum time, in millis, from the first change of a burst to the iteration
+         *                         that handles it. Values lower than the batching window are taken as the window.
+         * @return this same {@code Builder}, suitable for further chaining or to build the {@link TaskSchedulingService}.
+         */
+        public Builder withEventDrivenScheduling(long batchWindowMillis, long maxLatencyMillis) {
+            this.eventDrivenScheduling = true;
+            this.batchWindowMillis = batchWindowMillis;
+            this.maxLatencyMillis = maxLatencyMillis;
+            return this;
+        }
+
+        /**
+         * Pipeline the scheduling loop, calling the scheduling result callback, set with
+         * {@link #withSchedulingResultCallback(Action1)}, from a separate thread, so that the next scheduling
+         * iteration can start while the callback handles the result of the previous one, for example, by launching
+         * its tasks. The tasks of a result are assigned, and their resources marked as used, before the result is
+         * handed to the callback, the same as without pipelining. Results are handed to the callback in the order of
+         * the iterations that produced them.
+         * <P>
+         * At most the given number of results wait for the callback. A scheduling iteration that completes while as
+         * many results are waiting blocks until the callback catches up, so that a slow callback slows down the
+         * scheduling loop instead of piling up results.
+         * @param maxPendingResults The maximum number of results waiting for the callback, at least 1.
+         * @return this same {@code Builder}, suitable for further chaining or to build the {@link TaskSchedulingService}.
+         */
+        public Builder withPipelinedResultCallback(int maxPendingResults) {
+            if (maxPendingResults < 1)
+                throw new IllegalArgumentException("Max pending results must be at least 1: " + maxPendingResults);
+            this.maxPendingResults = maxPendingResults;
+            return this;
+        }
+
+        /**
+         * Publish an immutable snapshot of the state of the service at the end of each scheduling iteration, for
+         * {@link TaskSchedulingService#getStateSnapshot()}. Readers of the snapshot, such as dashboards polling the
+         * state of hosts, get consistent state without waiting for or interfering with scheduling iterations. Creating
+         * the snapshot adds work to each iteration, proportional to the number of hosts, and to the number of tasks
+         * on hosts whose leases or tasks changed since the previous snapshot.
+         * @param includeAllTasks Whether to include all tasks of the queue in the snapshot, which adds work
+         *                        proportional to the number of tasks in the queue.
+         * @return this same {@code Builder}, suitable for further chaining or to build the {@link TaskSchedulingService}.
+         */
+        public Builder withStateSnapshots(boolean includeAllTasks) {
+            this.stateSnapshots = true;
+            this.snapshotAllTasks = includeAllTasks;
+            return this;
+        }
+
         /**
          * Creates a {@link TaskSchedulingService} based on the various builder methods you have chained.
          *
@@ -600,6 +977,8 @@ public class TaskSchedulingService {
             if (optimizingShortfallEvaluator) {
                 taskScheduler.getAutoScaler().useOptimizingShortfallAnalyzer();
                 taskScheduler.getAutoScaler().setSchedulingService(schedulingService);
+                if (asyncShortfallEvaluation)
+                    taskScheduler.getAutoScaler().useAsyncShortfallEvaluation();
             }
             return schedulingService;
         }
@@ -23,9 +23,17 @@ import com.netflix.fenzo.sla.ResAllocs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.netflix.fenzo.functions.Func1;
+
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Class to keep track of task assignments.
@@ -130,16 +138,132 @@ public class TaskTracker {
         }
     }
 
+    private static class CoTaskAttributeCountsKey {
+        private final String taskId;
+        private final Func1<String, Set<String>> coTasksGetter;
+        private final String hostAttributeName;
+
+        CoTaskAttributeCountsKey(String taskId, Func1<String, Set<String>> coTasksGetter, String hostAttributeName) {
+            this.taskId = taskId;
+            this.coTasksGetter = coTasksGetter;
+            this.hostAttributeName = hostAttributeName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CoTaskAttributeCountsKey that = (CoTaskAttributeCountsKey) o;
+            return taskId.equals(that.taskId) && coTasksGetter == that.coTasksGetter &&
+                    Objects.equals(hostAttributeName, that.hostAttributeName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(taskId, System.identityHashCode(coTasksGetter), hostAttributeName);
+        }
+    }
+
+    // A group of co-tasks of a constraint, by the identity of the constraint's co-tasks getter, the host attribute
+    // name, and the co-task IDs, since getters may return a new set for each call
+    private static class CoTaskGroupKey {
+        private final Func1<String, Set<String>> coTasksGetter;
+        private final String hostAttributeName;
+        private final Set<String> coTasks;
+        private final int hashCode;
+
+        CoTaskGroupKey(Func1<String, Set<String>> coTasksGetter, String hostAttributeName, Set<String> coTasks) {
+            this.coTasksGetter = coTasksGetter;
+            this.hostAttributeName = hostAttributeName;
+            this.coTasks = coTasks;
+            this.hashCode = Objects.hash(System.identityHashCode(coTasksGetter), hostAttributeName, coTasks);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CoTaskGroupKey that = (CoTaskGroupKey) o;
+            return coTasksGetter == that.coTasksGetter && Objects.equals(hostAttributeName, that.hostAttributeName) &&
+                    coTasks.equals(that.coTasks);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(TaskTracker.class);
     private final Map<String, ActiveTask> runningTasks = new HashMap<>();
     private final Map<String, ActiveTask> assignedTasks = new HashMap<>();
     private final Map<String, TaskGroupUsage> taskGroupUsages = new HashMap<>();
     private UsageTrackedQueue usageTrackedQueue = null;
+    // Tasks launched into the usage tracked queue are held here while a batch of running tasks is being added
+    private List<QueuableTask> launchBatch = null;
+    // Co-task counts of the current scheduling iteration. Constraints are evaluated concurrently, so lookups may
+    // come from multiple threads. Counts are updated only from the scheduling thread between evaluations.
+    private final ConcurrentMap<CoTaskAttributeCountsKey, CoTaskAttributeCounts> coTaskAttributeCounts =
+            new ConcurrentHashMap<>();
+    // Counts of each co-task group, and the counts of the groups each co-task is in, so that an assignment updates
+    // only the groups of the assigned task. Both are guarded by coTaskGroupCounts.
+    private final Map<CoTaskGroupKey, CoTaskAttributeCounts> coTaskGroupCounts = new HashMap<>();
+    private final Map<String, List<CoTaskAttributeCounts>> coTaskGroupsByTask = new HashMap<>();
+    private final TaskTrackerState taskTrackerState = new TaskTrackerState() {
+        @Override
+        public Map<String, ActiveTask> getAllRunningTasks() {
+            return TaskTracker.this.getAllRunningTasks();
+        }
+
+        @Override
+        public Map<String, ActiveTask> getAllCurrentlyAssignedTasks() {
+            return getAllAssignedTasks();
+        }
+
+        @Override
+        public CoTaskAttributeCounts getCoTaskAttributeCounts(String taskId, Func1<String, Set<String>> coTasksGetter,
+                                                              String hostAttributeName) {
+            return coTaskAttributeCounts.computeIfAbsent(
+                    new CoTaskAttributeCountsKey(taskId, coTasksGetter, hostAttributeName),
+                    k -> getCoTaskGroupCounts(coTasksGetter, coTasksGetter.call(taskId), hostAttributeName)
+            );
+        }
+    };
 
     // package scoped
     TaskTracker() {
     }
 
+    private CoTaskAttributeCounts getCoTaskGroupCounts(Func1<String, Set<String>> coTasksGetter, Set<String> coTasks,
+                                                       String hostAttributeName) {
+        final CoTaskGroupKey key = new CoTaskGroupKey(coTasksGetter, hostAttributeName, coTasks);
+        synchronized (coTaskGroupCounts) {
+            CoTaskAttributeCounts counts = coTaskGroupCounts.get(key);
+            if (counts == null) {
+                counts = new CoTaskAttributeCounts(coTasks, hostAttributeName, taskTrackerState);
+                coTaskGroupCounts.put(key, counts);
+                for (String coTask : coTasks)
+                    coTaskGroupsByTask.computeIfAbsent(coTask, k -> new ArrayList<>(1)).add(counts);
+            }
+            return counts;
+        }
+    }
+
+    private void clearCoTaskAttributeCounts() {
+        coTaskAttributeCounts.clear();
+        synchronized (coTaskGroupCounts) {
+            coTaskGroupCounts.clear();
+            coTaskGroupsByTask.clear();
+        }
+    }
+
+    /**
+     * Get the state of the tracked tasks for evaluating constraints and fitness.
+     */
+    /* package */ TaskTrackerState getTaskTrackerState() {
+        return taskTrackerState;
+    }
+
     /* package */ void setUsageTrackedQueue(UsageTrackedQueue t) {
         usageTrackedQueue = t;
     }
@@ -147,8 +271,11 @@ public class TaskTracker {
     boolean addRunningTask(TaskRequest request, AssignableVirtualMachine avm) {
         final boolean added = runningTasks.put(request.getId(), new ActiveTask(request, avm)) == null;
         if(added) {
+            clearCoTaskAttributeCounts();
             addUsage(request);
-            if (usageTrackedQueue != null && request instanceof QueuableTask)
+            if (launchBatch != null && usageTrackedQueue != null && request instanceof QueuableTask)
+                launchBatch.add((QueuableTask) request);
+            else if (usageTrackedQueue != null && request instanceof QueuableTask)
                 try {
                     usageTrackedQueue.launchTask((QueuableTask)request);
                 } catch (TaskQueueException e) {
@@ -159,9 +286,31 @@ public class TaskTracker {
         return added;
     }
 
+    /**
+     * Start a batch of running tasks being added. Tasks added with {@link #addRunningTask(TaskRequest, AssignableVirtualMachine)}
+     * are launched into the usage tracked queue together, when the batch ends with {@link #endRunningTasksBatch()}.
+     */
+    void startRunningTasksBatch() {
+        launchBatch = new ArrayList<>();
+    }
+
+    void endRunningTasksBatch() {
+        final List<QueuableTask> tasks = launchBatch;
+        launchBatch = null;
+        if (tasks != null && !tasks.isEmpty() && usageTrackedQueue != null) {
+            final List<Exception> exceptions = new ArrayList<>();
+            usageTrackedQueue.launchTasks(tasks, exceptions);
+            for (Exception e : exceptions) {
+                // We don't expect this to happen since we call this only outside scheduling iteration
+                logger.warn("Unexpected: " + e.getMessage());
+            }
+        }
+    }
+
     boolean removeRunningTask(String taskId) {
         final ActiveTask removed = runningTasks.remove(taskId);
         if(removed != null) {
+            clearCoTaskAttributeCounts();
             final TaskRequest task = removed.getTaskRequest();
             final TaskGroupUsage usage = taskGroupUsages.get(task.taskGroupName());
             if(usage==null)
@@ -189,6 +338,8 @@ public class TaskTracker {
         final boolean assigned = assignedTasks.put(request.getId(), new ActiveTask(request, avm)) == null;
         if(assigned) {
             addUsage(request);
+            if (!runningTasks.containsKey(request.getId()))
+                addToCoTaskAttributeCounts(request.getId(), avm);
             if (usageTrackedQueue != null && request instanceof QueuableTask)
                 try {
                     usageTrackedQueue.assignTask((QueuableTask) request);
@@ -200,6 +351,16 @@ public class TaskTracker {
         return assigned;
     }
 
+    private void addToCoTaskAttributeCounts(String taskId, AssignableVirtualMachine avm) {
+        synchronized (coTaskGroupCounts) {
+            final List<CoTaskAttributeCounts> groups = coTaskGroupsByTask.get(taskId);
+            if (groups != null) {
+                for (CoTaskAttributeCounts counts : groups)
+                    counts.addAssignedTask(taskId, avm.getCurrTotalLease());
+            }
+        }
+    }
+
     private void addUsage(TaskRequest request) {
         TaskGroupUsage usage = taskGroupUsages.get(request.taskGroupName());
         if(usage==null) {
@@ -210,6 +371,7 @@ public class TaskTracker {
     }
 
     void clearAssignedTasks() {
+        clearCoTaskAttributeCounts();
         for(ActiveTask t: assignedTasks.values())
             taskGroupUsages.get(t.getTaskRequest().taskGroupName()).subtractUsage(t.getTaskRequest());
         assignedTasks.clear();
@@ -16,7 +16,10 @@
 
 package com.netflix.fenzo;
 
+import com.netflix.fenzo.functions.Func1;
+
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The state of the tasks that are tracked by the task scheduler. The task scheduler passes an object that
@@ -40,4 +43,21 @@ public interface TaskTrackerState {
      * @return a Map of all assigned tasks
      */
     public Map<String, TaskTracker.ActiveTask> getAllCurrentlyAssignedTasks();
+
+    /**
+     * Get the counts of the co-tasks of a task by the value of a host attribute, for the co-tasks that are running
+     * or currently assigned. The task scheduler computes these once per co-task group in a scheduling iteration and
+     * keeps them up to date as tasks are assigned. Co-task groups are identified by the instance of the set returned
+     * by {@code coTasksGetter}, so the counts are shared by all tasks for which it returns the same set.
+     *
+     * @param taskId the ID of the task whose co-tasks to count
+     * @param coTasksGetter a single-argument function that, given a task ID, returns the set of task IDs of its
+     *                      co-tasks
+     * @param hostAttributeName the name of the host attribute to count co-tasks by
+     * @return the counts of the co-tasks by host attribute value
+     */
+    default CoTaskAttributeCounts getCoTaskAttributeCounts(String taskId, Func1<String, Set<String>> coTasksGetter,
+                                                           String hostAttributeName) {
+        return new CoTaskAttributeCounts(coTasksGetter.call(taskId), hostAttributeName, this);
+    }
 }
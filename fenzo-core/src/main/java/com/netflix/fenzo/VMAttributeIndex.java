@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.functions.Func1;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An inverted index from host attribute name and value to the VMs of a scheduling iteration that have that value.
+ * VMs are identified by their position in the list of VMs the index was created with, the same as in
+ * {@link VMCapacityIndex}, so that the candidates from both indexes can be intersected. An attribute is indexed the
+ * first time a task's {@link HostAttributeConstraintEvaluator} asks for it.
+ * <P>
+ * Host attributes don't change during a scheduling iteration, so the index needs no updates as tasks get assigned.
+ * It is not thread safe; it is meant to be used from the scheduling iteration's thread only.
+ */
+class VMAttributeIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(VMAttributeIndex.class);
+    private final List<AssignableVirtualMachine> vms;
+    private final Map<String, Map<Integer, BitSet>> index = new HashMap<>();
+    private final TaskTrackerState taskTrackerState;
+    private final HostAttributeIds hostAttributeIds;
+
+    VMAttributeIndex(List<AssignableVirtualMachine> vms, TaskTracker taskTracker, HostAttributeIds hostAttributeIds) {
+        this.vms = vms;
+        taskTrackerState = taskTracker.getTaskTrackerState();
+        this.hostAttributeIds = hostAttributeIds;
+    }
+
+    // VMs by the identifier of their value of the attribute, from hostAttributeIds
+    private Map<Integer, BitSet> getValuesIndex(String attributeName) {
+        Map<Integer, BitSet> values = index.get(attributeName);
+        if (values == null) {
+            values = new HashMap<>();
+            final int nameId = hostAttributeIds.nameIdOf(attributeName);
+            int i = 0;
+            for (AssignableVirtualMachine avm : vms) {
+                final int valueId = avm.getAttributeValueId(nameId);
+                if (valueId != HostAttributeIds.NONE) {
+                    BitSet bitSet = values.get(valueId);
+                    if (bitSet == null) {
+                        bitSet = new BitSet(vms.size());
+                        values.put(valueId, bitSet);
+                    }
+                    bitSet.set(i);
+                }
+                i++;
+            }
+            index.put(attributeName, values);
+        }
+        return values;
+    }
+
+    static String getAttrValue(VirtualMachineLease lease, String attributeName) {
+        if (lease == null)
+            return null;
+        if (HostAttributeConstraintEvaluator.HOSTNAME_ATTRIBUTE.equals(attributeName))
+            return lease.hostname();
+        final Map<String, Protos.Attribute> attributeMap = lease.getAttributeMap();
+        if (attributeMap == null)
+            return null;
+        final Protos.Attribute attribute = attributeMap.get(attributeName);
+        return attribute == null ? null : attribute.getText().getValue();
+    }
+
+    /**
+     * Get the positions of the VMs that may satisfy the {@link HostAttributeConstraintEvaluator}s among the hard
+     * constraints of the given task.
+     *
+     * @param request The task request.
+     * @return The positions of the candidate VMs in the list of VMs this index was created with, or {@code null}
+     * if the task has no hard constraints that select hosts by attribute, in which case all VMs are candidates.
+     */
+    BitSet getCandidateVMs(TaskRequest request) {
+        final List<? extends ConstraintEvaluator> hardConstraints = request.getHardConstraints();
+        if (hardConstraints == null || hardConstraints.isEmpty())
+            return null;
+        BitSet result = null;
+        for (ConstraintEvaluator c : hardConstraints) {
+            if (!(c instanceof HostAttributeConstraintEvaluator))
+                continue;
+            final HostAttributeConstraintEvaluator evaluator = (HostAttributeConstraintEvaluator) c;
+            final BitSet allowed = new BitSet(vms.size());
+            try {
+                final Func1<String, Boolean> predicate =
+                        evaluator.getHostAttributeValuePredicate(request, taskTrackerState);
+                if (predicate == null)
+                    continue;
+                if (HostAttributeConstraintEvaluator.HOSTNAME_ATTRIBUTE.equals(evaluator.getHostAttributeName())) {
+                    // hostnames aren't interned, each host has its own value
+                    for (int i = 0; i < vms.size(); i++) {
+                        final String hostname = vms.get(i).getHostname();
+                        if (hostname != null && !hostname.isEmpty() && predicate.call(hostname))
+                            allowed.set(i);
+                    }
+                } else {
+                    for (Map.Entry<Integer, BitSet> entry : getValuesIndex(evaluator.getHostAttributeName()).entrySet()) {
+                        if (predicate.call(hostAttributeIds.valueOf(entry.getKey())))
+                            allowed.or(entry.getValue());
+                    }
+                }
+            } catch (RuntimeException e) {
+                // let the constraint's evaluation on each host report the problem
+                logger.warn("Can't get hosts for constraint " + c.getName() + " of task " + request.getId() +
+                        ": " + e.getMessage());
+                continue;
+            }
+            if (result == null)
+                result = allowed;
+            else
+                result.and(allowed);
+        }
+        if (result != null && logger.isDebugEnabled())
+            logger.debug("Task {}: {} of {} hosts satisfy host attribute constraints", request.getId(),
+                    result.cardinality(), vms.size());
+        return result;
+    }
+}
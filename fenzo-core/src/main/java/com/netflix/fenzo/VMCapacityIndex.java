@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the VMs of a scheduling iteration, bucketed by their currently available CPUs and memory. Buckets are
+ * powers of two wide, so a task's request selects the buckets that may hold a VM large enough for it, and VMs in all
+ * other buckets are skipped without being looked at. VMs from the selected buckets are then checked exactly with
+ * {@link AssignableVirtualMachine#hasCapacityFor(TaskRequest)}. Candidates are returned in the same order as the list
+ * of VMs the index was created with, so that evaluating only the candidates produces the same assignments as
+ * evaluating all of the VMs.
+ * <P>
+ * The index must be told via {@link #update(AssignableVirtualMachine)} when a task is assigned to a VM. It is not
+ * thread safe; it is meant to be used from the scheduling iteration's thread only.
+ */
+class VMCapacityIndex {
+
+    private static final int CPU_BUCKETS = 16;
+    private static final int MEMORY_BUCKETS = 32;
+    // guards against floating point differences between (total - used) here and (used + request > total) in the VM
+    private static final double SLACK = 1.0e-9;
+
+    private final List<AssignableVirtualMachine> vms;
+    private final Map<AssignableVirtualMachine, Integer> positions;
+    private final BitSet[][] buckets = new BitSet[CPU_BUCKETS][MEMORY_BUCKETS];
+    private final int[] cpuBucketOf;
+    private final int[] memoryBucketOf;
+
+    VMCapacityIndex(List<AssignableVirtualMachine> vms) {
+        this.vms = vms instanceof ArrayList ? vms : new ArrayList<>(vms);
+        positions = new IdentityHashMap<>(vms.size());
+        cpuBucketOf = new int[vms.size()];
+        memoryBucketOf = new int[vms.size()];
+        for (int i = 0; i < this.vms.size(); i++) {
+            final AssignableVirtualMachine avm = this.vms.get(i);
+            positions.put(avm, i);
+            cpuBucketOf[i] = bucketOf(avm.getCurrAvailableCpus(), CPU_BUCKETS);
+            memoryBucketOf[i] = bucketOf(avm.getCurrAvailableMemory(), MEMORY_BUCKETS);
+            getBucket(cpuBucketOf[i], memoryBucketOf[i]).set(i);
+        }
+    }
+
+    private BitSet getBucket(int cpuBucket, int memoryBucket) {
+        BitSet bucket = buckets[cpuBucket][memoryBucket];
+        if (bucket == null) {
+            bucket = new BitSet(vms.size());
+            buckets[cpuBucket][memoryBucket] = bucket;
+        }
+        return bucket;
+    }
+
+    // bucket 0 holds values less than 1, bucket k>0 holds values in [2^(k-1), 2^k), the last bucket is unbounded
+    private static int bucketOf(double value, int numBuckets) {
+        if (value < 1.0)
+            return 0;
+        return Math.min(numBuckets - 1, 1 + Math.getExponent(value));
+    }
+
+    private static boolean mayFit(int bucket, int numBuckets, double request) {
+        if (bucket == numBuckets - 1)
+            return true;
+        return Math.scalb(1.0, bucket) * (1.0 + SLACK) >= request;
+    }
+
+    private static int lowestBucketFor(double request, int numBuckets) {
+        int b = 0;
+        while (!mayFit(b, numBuckets, request))
+            b++;
+        return b;
+    }
+
+    /**
+     * Get the VMs that have enough resources available for the given task, in the order of the VMs this index was
+     * created with.
+     *
+     * @param request The task request to find VMs for.
+     * @return List of VMs whose available resources can fit the task.
+     */
+    List<AssignableVirtualMachine> getFittingVMs(TaskRequest request) {
+        return getFittingVMs(request, null);
+    }
+
+    /**
+     * Get the VMs that have enough resources available for the given task from among the given candidates, in the
+     * order of the VMs this index was created with.
+     *
+     * @param request The task request to find VMs for.
+     * @param candidateVMs Positions of the VMs to consider in the list of VMs this index was created with, or
+     *                     {@code null} to consider all VMs.
+     * @return List of candidate VMs whose available resources can fit the task.
+     */
+    List<AssignableVirtualMachine> getFittingVMs(TaskRequest request, BitSet candidateVMs) {
+        final int minCpuBucket = lowestBucketFor(request.getCPUs(), CPU_BUCKETS);
+        final int minMemoryBucket = lowestBucketFor(request.getMemory(), MEMORY_BUCKETS);
+        final BitSet candidates = new BitSet(vms.size());
+        for (int c = minCpuBucket; c < CPU_BUCKETS; c++) {
+            for (int m = minMemoryBucket; m < MEMORY_BUCKETS; m++) {
+                if (buckets[c][m] != null)
+                    candidates.or(buckets[c][m]);
+            }
+        }
+        if (candidateVMs != null)
+            candidates.and(candidateVMs);
+        List<AssignableVirtualMachine> result = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final AssignableVirtualMachine avm = vms.get(i);
+            if (avm.hasCapacityFor(request))
+                result.add(avm);
+        }
+        return result;
+    }
+
+    /**
+     * Get the VMs that do not have enough resources available for the given task, which is the complement of
+     * {@link #getFittingVMs(TaskRequest)}. This is used to evaluate, for failure reporting, the VMs that were skipped
+     * when a task could not be assigned.
+     *
+     * @param request The task request.
+     * @return List of VMs whose available resources can not fit the task.
+     */
+    List<AssignableVirtualMachine> getNonFittingVMs(TaskRequest request) {
+        return getNonFittingVMs(request, null);
+    }
+
+    /**
+     * Get the VMs that are not returned by {@link #getFittingVMs(TaskRequest, BitSet)} for the same arguments, which
+     * are the VMs that are not candidates as well as the candidates without enough resources available for the task.
+     *
+     * @param request The task request.
+     * @param candidateVMs Positions of the candidate VMs in the list of VMs this index was created with, or
+     *                     {@code null} if all VMs are candidates.
+     * @return List of VMs that are not candidates or whose available resources can not fit the task.
+     */
+    List<AssignableVirtualMachine> getNonFittingVMs(TaskRequest request, BitSet candidateVMs) {
+        return getNonFittingVMs(request, candidateVMs, null);
+    }
+
+    /**
+     * Get the VMs that are not returned by {@link #getFittingVMs(TaskRequest, BitSet)} for the same request and
+     * candidates, from among the given VMs only.
+     *
+     * @param request The task request.
+     * @param candidateVMs Positions of the candidate VMs in the list of VMs this index was created with, or
+     *                     {@code null} if all VMs are candidates.
+     * @param includedVMs Positions of the VMs to return results from, or {@code null} to include all VMs.
+     * @return List of included VMs that are not candidates or whose available resources can not fit the task.
+     */
+    List<AssignableVirtualMachine> getNonFittingVMs(TaskRequest request, BitSet candidateVMs, BitSet includedVMs) {
+        List<AssignableVirtualMachine> result = new ArrayList<>();
+        for (int i = 0; i < vms.size(); i++) {
+            if (includedVMs != null && !includedVMs.get(i))
+                continue;
+            final AssignableVirtualMachine avm = vms.get(i);
+            if ((candidateVMs != null && !candidateVMs.get(i)) || !avm.hasCapacityFor(request))
+                result.add(avm);
+        }
+        return result;
+    }
+
+    /**
+     * Move the given VM to the bucket for its currently available resources. Call this after assigning a task to
+     * the VM.
+     *
+     * @param avm The VM whose resources changed.
+     */
+    void update(AssignableVirtualMachine avm) {
+        final Integer position = positions.get(avm);
+        if (position == null)
+            return;
+        final int i = position;
+        final int cpuBucket = bucketOf(avm.getCurrAvailableCpus(), CPU_BUCKETS);
+        final int memoryBucket = bucketOf(avm.getCurrAvailableMemory(), MEMORY_BUCKETS);
+        if (cpuBucket != cpuBucketOf[i] || memoryBucket != memoryBucketOf[i]) {
+            buckets[cpuBucketOf[i]][memoryBucketOf[i]].clear(i);
+            cpuBucketOf[i] = cpuBucket;
+            memoryBucketOf[i] = memoryBucket;
+            getBucket(cpuBucket, memoryBucket).set(i);
+        }
+    }
+}
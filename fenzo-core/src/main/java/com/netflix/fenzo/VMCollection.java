@@ -21,6 +21,8 @@ import org.apache.mesos.Protos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -28,34 +30,95 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+/**
+ * The collection of all known VMs, grouped by the value of the grouping attribute of their leases. VMs are kept in
+ * an array at an index that stays the same for as long as the VM is in the collection, with indices of removed VMs
+ * reused for new ones, and are looked up by hostname through a map of hostname to index. The list of all VMs, and the
+ * indices of the VMs of each group, are cached until VMs are added, removed, or moved to another group, so that
+ * getting them in each scheduling iteration does not copy the collection. A hostname is in at most one group.
+ * Changes to the collection are synchronized, reads are not.
+ */
 class VMCollection {
     private static final String defaultGroupName = "DEFAULT";
     private static final Logger logger = LoggerFactory.getLogger(VMCollection.class);
-    private final ConcurrentMap<String, ConcurrentMap<String, AssignableVirtualMachine>> vms;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int[] NO_INDICES = new int[0];
     private final Func1<String, AssignableVirtualMachine> newVmCreator;
     private final String groupingAttrName;
+    private final ConcurrentMap<String, Integer> hostnameToIndex = new ConcurrentHashMap<>();
+    private final Set<String> groups = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, int[]> groupIndices = new ConcurrentHashMap<>();
+    // the VM and its group at each index, null if the index is free
+    private volatile AssignableVirtualMachine[] vmsByIndex = new AssignableVirtualMachine[INITIAL_CAPACITY];
+    private volatile String[] groupsByIndex = new String[INITIAL_CAPACITY];
+    // indices below maxIndex that are free, in freeIndices[0..numFreeIndices-1]
+    private int[] freeIndices = new int[INITIAL_CAPACITY];
+    private int numFreeIndices = 0;
+    private int maxIndex = 0;
+    private volatile int numVMs = 0;
+    private volatile List<AssignableVirtualMachine> allVMs = Collections.emptyList();
 
     VMCollection(Func1<String, AssignableVirtualMachine> func1, String groupingAttrName) {
-        vms = new ConcurrentHashMap<>();
         this.newVmCreator = func1;
         this.groupingAttrName = groupingAttrName;
     }
 
-    Collection<AssignableVirtualMachine> getAllVMs() {
-        List<AssignableVirtualMachine> result = new LinkedList<>();
-        vms.values().forEach(m -> result.addAll(m.values()));
-        return result;
+    /**
+     * Get all VMs, in order of their index. The returned list is not modifiable and does not change when VMs are
+     * added or removed later, it is created again only after such changes.
+     *
+     * @return the list of all VMs.
+     */
+    List<AssignableVirtualMachine> getAllVMs() {
+        List<AssignableVirtualMachine> result = allVMs;
+        if (result != null)
+            return result;
+        synchronized (this) {
+            if (allVMs == null) {
+                final AssignableVirtualMachine[] array = new AssignableVirtualMachine[numVMs];
+                int n = 0;
+                for (int i = 0; i < maxIndex; i++) {
+                    if (vmsByIndex[i] != null)
+                        array[n++] = vmsByIndex[i];
+                }
+                allVMs = Collections.unmodifiableList(Arrays.asList(array));
+            }
+            return allVMs;
+        }
     }
 
     Collection<String> getGroups() {
-        return Collections.unmodifiableCollection(vms.keySet());
+        return Collections.unmodifiableCollection(groups);
+    }
+
+    /**
+     * Get the indices of the VMs in the given group, in increasing order. The returned array must not be modified.
+     *
+     * @param group The name of the group.
+     * @return the indices of the VMs of the group.
+     */
+    private int[] getGroupIndices(String group) {
+        int[] result = groupIndices.get(group);
+        if (result != null)
+            return result;
+        synchronized (this) {
+            result = groupIndices.get(group);
+            if (result == null) {
+                final List<Integer> indices = new ArrayList<>();
+                for (int i = 0; i < maxIndex; i++) {
+                    if (vmsByIndex[i] != null && group.equals(groupsByIndex[i]))
+                        indices.add(i);
+                }
+                result = indices.isEmpty() ? NO_INDICES : indices.stream().mapToInt(Integer::intValue).toArray();
+                groupIndices.put(group, result);
+            }
+            return result;
+        }
     }
 
     /**
@@ -67,22 +130,53 @@ class VMCollection {
     Map<String, List<String>> clonePseudoVMsForGroups(Map<String, Integer> groupCounts,
                                                       Func1<String, AutoScaleRule> ruleGetter,
                                                       Predicate<VirtualMachineLease> vmFilter
+    ) {
+        final Map<String, List<VirtualMachineLease>> leases = clonePseudoVMLeasesForGroups(groupCounts, ruleGetter, vmFilter);
+        Map<String, List<String>> result = new HashMap<>();
+        for (Map.Entry<String, List<VirtualMachineLease>> entry: leases.entrySet()) {
+            List<String> hostnames = new LinkedList<>();
+            result.put(entry.getKey(), hostnames);
+            for (VirtualMachineLease lease: entry.getValue()) {
+                addLease(lease);
+                if(logger.isDebugEnabled())
+                    logger.debug("Added cloned lease for " + lease.hostname());
+                hostnames.add(lease.hostname());
+                // update total lease on the newly added VMs so they are available for use
+                getVmByName(lease.hostname()).ifPresent(AssignableVirtualMachine::updateCurrTotalLease);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create leases for <code>n</code> pseudo VMs for each group by cloning a VM in each group. The leases are not
+     * added to this collection.
+     * @param groupCounts Map with keys contain group names and values containing number of agents to clone
+     * @param ruleGetter Getter function for autoscale rules
+     * @return Map with keys containing group names and values containing the leases of the pseudo VMs to add.
+     */
+    Map<String, List<VirtualMachineLease>> clonePseudoVMLeasesForGroups(Map<String, Integer> groupCounts,
+                                                                        Func1<String, AutoScaleRule> ruleGetter,
+                                                                        Predicate<VirtualMachineLease> vmFilter
     ) {
         if (groupCounts == null || groupCounts.isEmpty())
             return Collections.emptyMap();
         InternalVMCloner vmCloner = new InternalVMCloner();
-        Map<String, List<String>> result = new HashMap<>();
+        Map<String, List<VirtualMachineLease>> result = new HashMap<>();
         long now = System.currentTimeMillis();
         for (String g: groupCounts.keySet()) {
-            List<String> hostnames = new LinkedList<>();
-            result.put(g, hostnames);
-            final ConcurrentMap<String, AssignableVirtualMachine> avmsMap = vms.get(g);
-            if (avmsMap != null) {
-                final List<AssignableVirtualMachine> vmsList = avmsMap.values()
-                        .stream()
-                        .filter(avm -> vmFilter.test(avm.getCurrTotalLease()))
-                        .collect(Collectors.toList());
-                if (vmsList != null && !vmsList.isEmpty()) {
+            List<VirtualMachineLease> pseudoLeases = new LinkedList<>();
+            result.put(g, pseudoLeases);
+            final int[] indices = getGroupIndices(g);
+            if (indices.length > 0) {
+                final AssignableVirtualMachine[] avms = vmsByIndex;
+                final List<AssignableVirtualMachine> vmsList = new ArrayList<>(indices.length);
+                for (int index: indices) {
+                    final AssignableVirtualMachine avm = avms[index];
+                    if (avm != null && vmFilter.test(avm.getCurrTotalLease()))
+                        vmsList.add(avm);
+                }
+                if (!vmsList.isEmpty()) {
                     // NOTE: a shortcoming here is that the attributes of VMs across a group may not be homogeneous.
                     // By creating one lease object and cloning from it, we pick one combination of the attributes
                     // and replicate across all the newly created pseudo VMs. It may be possible to capture the
@@ -112,12 +206,9 @@ class VMCollection {
                     }
                     for (int i = 0; i < n; i++) {
                         final String hostname = createHostname(g, i);
-                        addLease(vmCloner.cloneLease(lease, hostname, now));
+                        pseudoLeases.add(vmCloner.cloneLease(lease, hostname, now));
                         if(logger.isDebugEnabled())
-                            logger.debug("Added cloned lease for " + hostname);
-                        hostnames.add(hostname);
-                        // update total lease on the newly added VMs so they are available for use
-                        getVmByName(hostname).ifPresent(AssignableVirtualMachine::updateCurrTotalLease);
+                            logger.debug("Created cloned lease for " + hostname);
                     }
                 }
             }
@@ -129,43 +220,55 @@ class VMCollection {
         return AssignableVirtualMachine.PseuoHostNamePrefix + g + "-" + i;
     }
 
-    /**
-     * Remove VM of given name from the given group. This is generally unsafe and intended only to be used by whoever
-     * uses {@link VMCollection#clonePseudoVMsForGroups(Map, Func1, Predicate)}.
-     * @param name
-     * @param group
-     */
-    /* package */ AssignableVirtualMachine unsafeRemoveVm(String name, String group) {
-        final ConcurrentMap<String, AssignableVirtualMachine> vmsMap = vms.get(group);
-        if (vmsMap != null) {
-            return vmsMap.remove(name);
-        }
-        return null;
-    }
-
     Optional<AssignableVirtualMachine> getVmByName(String name) {
-        return vms.values().stream()
-                .flatMap(
-                        (Function<ConcurrentMap<String, AssignableVirtualMachine>, Stream<AssignableVirtualMachine>>) m
-                                -> m.values().stream()
-                )
-                .filter(avm -> name.equals(avm.getHostname()))
-                .findFirst();
+        final Integer index = hostnameToIndex.get(name);
+        if (index == null)
+            return Optional.empty();
+        final AssignableVirtualMachine[] avms = vmsByIndex;
+        final AssignableVirtualMachine avm = index < avms.length ? avms[index] : null;
+        // the index may have been reused for another host since it was looked up
+        return avm != null && name.equals(avm.getHostname()) ? Optional.of(avm) : Optional.empty();
     }
 
     AssignableVirtualMachine create(String host) {
         return create(host, defaultGroupName);
     }
 
-    AssignableVirtualMachine create(String host, String group) {
-        vms.putIfAbsent(group, new ConcurrentHashMap<>());
-        AssignableVirtualMachine prev = null;
-        if (!defaultGroupName.equals(group)) {
-            if (vms.get(defaultGroupName) != null)
-                prev = vms.get(defaultGroupName).remove(host);
+    /**
+     * Get the VM of the given host, creating it in the given group if it doesn't exist. A VM that exists in another
+     * group is moved to the given group, unless the given group is the default group.
+     */
+    synchronized AssignableVirtualMachine create(String host, String group) {
+        groups.add(group);
+        final Integer index = hostnameToIndex.get(host);
+        if (index != null) {
+            final String prevGroup = groupsByIndex[index];
+            if (!group.equals(prevGroup) && !defaultGroupName.equals(group)) {
+                groupsByIndex[index] = group;
+                groupIndices.remove(prevGroup);
+                groupIndices.remove(group);
+            }
+            return vmsByIndex[index];
         }
-        vms.get(group).putIfAbsent(host, prev == null? newVmCreator.call(host) : prev);
-        return vms.get(group).get(host);
+        final AssignableVirtualMachine avm = newVmCreator.call(host);
+        final int newIndex = allocateIndex();
+        vmsByIndex[newIndex] = avm;
+        groupsByIndex[newIndex] = group;
+        hostnameToIndex.put(host, newIndex);
+        numVMs++;
+        groupIndices.remove(group);
+        allVMs = null;
+        return avm;
+    }
+
+    private int allocateIndex() {
+        if (numFreeIndices > 0)
+            return freeIndices[--numFreeIndices];
+        if (maxIndex == vmsByIndex.length) {
+            groupsByIndex = Arrays.copyOf(groupsByIndex, maxIndex * 2);
+            vmsByIndex = Arrays.copyOf(vmsByIndex, maxIndex * 2);
+        }
+        return maxIndex++;
     }
 
     AssignableVirtualMachine getOrCreate(String host) {
@@ -176,50 +279,64 @@ class VMCollection {
     }
 
     private AssignableVirtualMachine getOrCreate(String host, String group) {
-        vms.putIfAbsent(group, new ConcurrentHashMap<>());
-        final AssignableVirtualMachine avm = vms.get(group).get(host);
-        if (avm != null)
-            return avm;
-        if (logger.isDebugEnabled())
+        final Integer index = hostnameToIndex.get(host);
+        if (index != null && (defaultGroupName.equals(group) || group.equals(groupsByIndex[index]))) {
+            final Optional<AssignableVirtualMachine> vmByName = getVmByName(host);
+            if (vmByName.isPresent())
+                return vmByName.get();
+        }
+        if (index == null && logger.isDebugEnabled())
             logger.debug("Creating new host " + host);
         return create(host, group);
     }
 
     boolean addLease(VirtualMachineLease l) {
+        final AssignableVirtualMachine avm = getOrCreate(l.hostname(), getGroup(l));
+        return avm.addLease(l);
+    }
+
+    /**
+     * Add leases of one host at once, with {@link AssignableVirtualMachine#addLeases(List)}. The group of a host
+     * that is not known yet is taken from the first lease.
+     *
+     * @param hostname The host of the leases.
+     * @param leases The leases to add, not empty.
+     * @return the number of leases for which {@link #addLease(VirtualMachineLease)} would have returned {@code true}.
+     */
+    int addLeases(String hostname, List<VirtualMachineLease> leases) {
+        final AssignableVirtualMachine avm = getOrCreate(hostname, getGroup(leases.get(0)));
+        return avm.addLeases(leases);
+    }
+
+    private String getGroup(VirtualMachineLease l) {
         String group = l.getAttributeMap() == null? null :
                 l.getAttributeMap().get(groupingAttrName) == null?
                         null :
                         l.getAttributeMap().get(groupingAttrName).getText().getValue();
-        if (group == null)
-            group = defaultGroupName;
-        final AssignableVirtualMachine avm = getOrCreate(l.hostname(), group);
-        return avm.addLease(l);
+        return group == null? defaultGroupName : group;
     }
 
     public int size() {
-        final Optional<Integer> size = vms.values().stream().map(Map::size).reduce((i1, i2) -> i1 + i2);
-        return size.orElse(0);
+        return numVMs;
     }
 
     public int size(String group) {
-        final ConcurrentMap<String, AssignableVirtualMachine> m = vms.get(group);
-        return m == null? 0 : m.size();
+        return getGroupIndices(group).length;
     }
 
-    public AssignableVirtualMachine remove(AssignableVirtualMachine avm) {
-        final String group = avm.getAttrValue(groupingAttrName);
-        AssignableVirtualMachine removed = null;
-        if (group != null) {
-            final ConcurrentMap<String, AssignableVirtualMachine> m = vms.get(group);
-            if (m != null) {
-                removed = m.remove(avm.getHostname());
-            }
-        }
-        if (removed != null)
-            return removed;
-        final ConcurrentMap<String, AssignableVirtualMachine> m = vms.get(defaultGroupName);
-        if (m != null)
-            m.remove(avm.getHostname());
-        return null;
+    public synchronized AssignableVirtualMachine remove(AssignableVirtualMachine avm) {
+        final Integer index = hostnameToIndex.get(avm.getHostname());
+        if (index == null || vmsByIndex[index] != avm)
+            return null;
+        hostnameToIndex.remove(avm.getHostname());
+        groupIndices.remove(groupsByIndex[index]);
+        vmsByIndex[index] = null;
+        groupsByIndex[index] = null;
+        if (numFreeIndices == freeIndices.length)
+            freeIndices = Arrays.copyOf(freeIndices, numFreeIndices * 2);
+        freeIndices[numFreeIndices++] = index;
+        numVMs--;
+        allVMs = null;
+        return avm;
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+/**
+ * Helpers to get amounts of the scalar {@link VMResource}s that are tracked as per VM totals, which are
+ * {@link VMResource#CPU}, {@link VMResource#Memory}, {@link VMResource#Network}, and {@link VMResource#Disk}.
+ * Amounts of any other resource are returned as 0.0.
+ */
+final class VMResourceAmounts {
+
+    private VMResourceAmounts() {
+    }
+
+    static double ofRequest(TaskRequest request, VMResource resource) {
+        switch (resource) {
+            case CPU:
+                return request.getCPUs();
+            case Memory:
+                return request.getMemory();
+            case Network:
+                return request.getNetworkMbps();
+            case Disk:
+                return request.getDisk();
+            default:
+                return 0.0;
+        }
+    }
+
+    static double ofLease(VirtualMachineLease lease, VMResource resource) {
+        switch (resource) {
+            case CPU:
+                return lease.cpuCores();
+            case Memory:
+                return lease.memoryMB();
+            case Network:
+                return lease.networkMbps();
+            case Disk:
+                return lease.diskMB();
+            default:
+                return 0.0;
+        }
+    }
+
+    /**
+     * Add the amounts requested by the given task, multiplied by {@code sign}, into the given array indexed by
+     * {@link VMResource#ordinal()}.
+     */
+    static void add(double[] amounts, TaskRequest request, double sign) {
+        amounts[VMResource.CPU.ordinal()] += sign * request.getCPUs();
+        amounts[VMResource.Memory.ordinal()] += sign * request.getMemory();
+        amounts[VMResource.Network.ordinal()] += sign * request.getNetworkMbps();
+        amounts[VMResource.Disk.ordinal()] += sign * request.getDisk();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the {@link AssignableVirtualMachine#getResourceGeneration()} of the VMs of consecutive scheduling
+ * iterations, to find the VMs that may have gained resources since the previous iteration. A VM that was not
+ * available for assignments in the previous iteration counts as having gained resources. Any other VM whose
+ * generation did not change can only have lost resources since then, to assignments, expired leases, and so on.
+ * <P>
+ * This is not thread safe; it is meant to be used from the scheduling iteration's thread only.
+ */
+class VMResourceGenerations {
+
+    private Map<AssignableVirtualMachine, Long> generations = new IdentityHashMap<>();
+
+    /**
+     * Get the VMs that may have gained resources since the previous call, and remember the current generations of the
+     * given VMs for the next call.
+     *
+     * @param vms The VMs available for assignments in the scheduling iteration being started.
+     * @return Positions in {@code vms} of the VMs that may have gained resources.
+     */
+    BitSet getChangedVMs(List<AssignableVirtualMachine> vms) {
+        final BitSet changed = new BitSet(vms.size());
+        final Map<AssignableVirtualMachine, Long> current = new IdentityHashMap<>(vms.size());
+        int i = 0;
+        for (AssignableVirtualMachine avm : vms) {
+            final long generation = avm.getResourceGeneration();
+            final Long lastGeneration = generations.get(avm);
+            if (lastGeneration == null || lastGeneration != generation)
+                changed.set(i);
+            current.put(avm, generation);
+            i++;
+        }
+        generations = current;
+        return changed;
+    }
+
+    /**
+     * Forget the generations of all VMs, so that all of them count as changed in the next call to
+     * {@link #getChangedVMs(List)}.
+     */
+    void clear() {
+        generations = new IdentityHashMap<>();
+    }
+}
@@ -82,10 +82,63 @@ public interface VirtualMachineCurrentState {
      */
     Collection<TaskRequest> getRunningTasks();
 
+    /**
+     * Get the total amount of a resource on this host, which is the amount available in
+     * {@link #getCurrAvailableResources()} plus the amount used by {@link #getRunningTasks()}. This is supported
+     * for {@link VMResource#CPU}, {@link VMResource#Memory}, {@link VMResource#Network}, and
+     * {@link VMResource#Disk}, other resources return 0.0. Fenzo's implementation maintains this value as tasks are
+     * assigned and removed, so that fitness calculators can get it without iterating over tasks.
+     *
+     * @param resource the resource to get the total of
+     * @return the total amount of the resource on this host
+     */
+    default double getTotalResource(VMResource resource) {
+        double total = VMResourceAmounts.ofLease(getCurrAvailableResources(), resource);
+        for (TaskRequest r : getRunningTasks()) {
+            total += VMResourceAmounts.ofRequest(r, resource);
+        }
+        return total;
+    }
+
+    /**
+     * Get the amount of a resource used on this host by {@link #getRunningTasks()} and
+     * {@link #getTasksCurrentlyAssigned()}. This is supported for the same resources as
+     * {@link #getTotalResource(VMResource)}, and is similarly maintained by Fenzo's implementation.
+     *
+     * @param resource the resource to get the used amount of
+     * @return the amount of the resource used on this host
+     */
+    default double getUsedResource(VMResource resource) {
+        double used = 0.0;
+        for (TaskRequest r : getRunningTasks()) {
+            used += VMResourceAmounts.ofRequest(r, resource);
+        }
+        for (TaskAssignmentResult r : getTasksCurrentlyAssigned()) {
+            used += VMResourceAmounts.ofRequest(r.getRequest(), resource);
+        }
+        return used;
+    }
+
     /**
      * Returns the time until which the given host remains disabled.
      *
      * @return time until which the host will remain disabled or 0 if the host is enabled
      */
     long getDisabledUntil();
+
+    /**
+     * Check whether the value of the given attribute on this host is the given value. For
+     * {@link HostAttributeConstraintEvaluator#HOSTNAME_ATTRIBUTE}, this compares the hostname. Fenzo's implementation
+     * compares identifiers of attribute values interned by the task scheduler, which keeps the identifiers of each
+     * host's values of the attributes that constraints query in an array, instead of looking up the attribute in the
+     * host's attribute map and comparing strings. The default implementation compares strings.
+     *
+     * @param attributeName the name of the attribute
+     * @param value the value of the attribute to check for
+     * @return {@code true} if the host has the attribute with the given, non-empty, value, {@code false} otherwise
+     */
+    default boolean hasAttributeValue(String attributeName, String value) {
+        final String hostValue = VMAttributeIndex.getAttrValue(getCurrAvailableResources(), attributeName);
+        return hostValue != null && !hostValue.isEmpty() && hostValue.equals(value);
+    }
 }
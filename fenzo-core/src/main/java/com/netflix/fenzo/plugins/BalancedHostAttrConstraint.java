@@ -16,15 +16,14 @@
 
 package com.netflix.fenzo.plugins;
 
-import com.netflix.fenzo.ConstraintEvaluator;
+import com.netflix.fenzo.CoTaskAttributeCounts;
+import com.netflix.fenzo.HostAttributeConstraintEvaluator;
 import com.netflix.fenzo.TaskRequest;
-import com.netflix.fenzo.TaskTracker;
 import com.netflix.fenzo.TaskTrackerState;
 import com.netflix.fenzo.VMTaskFitnessCalculator;
 import com.netflix.fenzo.VirtualMachineCurrentState;
 import com.netflix.fenzo.functions.Func1;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -32,7 +31,7 @@ import java.util.Set;
  * A balanced host attribute constraint attempts to distribute co-tasks evenly among host types, where their
  * types are determined by the values of particular host attributes.
  */
-public class BalancedHostAttrConstraint implements ConstraintEvaluator {
+public class BalancedHostAttrConstraint implements HostAttributeConstraintEvaluator {
     private final String name;
     private final Func1<String, Set<String>> coTasksGetter;
     private final String hostAttributeName;
@@ -72,50 +71,50 @@ public class BalancedHostAttrConstraint implements ConstraintEvaluator {
 
     @Override
     public Result evaluate(TaskRequest taskRequest, VirtualMachineCurrentState targetVM, TaskTrackerState taskTrackerState) {
-        Set<String> coTasks = coTasksGetter.call(taskRequest.getId());
         String targetHostAttrVal = AttributeUtilities.getAttrValue(targetVM.getCurrAvailableResources(), hostAttributeName);
         if(targetHostAttrVal==null || targetHostAttrVal.isEmpty()) {
             return new Result(false, hostAttributeName + " attribute unavailable on host " + targetVM.getCurrAvailableResources().hostname());
         }
-        Map<String, Integer> usedAttribsMap = null;
-        try {
-            usedAttribsMap = getUsedAttributesMap(coTasks, taskTrackerState);
-        } catch (Exception e) {
-            return new Result(false, e.getMessage());
-        }
-        final Integer integer = usedAttribsMap.get(targetHostAttrVal);
-        if(integer==null || usedAttribsMap.isEmpty())
-            return new Result(true, "");
-        int min=Integer.MAX_VALUE;
-        int max=Integer.MIN_VALUE;
-        for(Integer i: usedAttribsMap.values()) {
-            min = Math.min(min, i);
-            max = Math.max(max, i);
-        }
-        min = expectedValues>usedAttribsMap.size()? 0 : min;
-        if(min == max || integer<max)
+        CoTaskAttributeCounts counts = taskTrackerState.getCoTaskAttributeCounts(taskRequest.getId(), coTasksGetter, hostAttributeName);
+        if(counts.getMissingAttributeCoTask()!=null)
+            return new Result(false, hostAttributeName+" attribute unavailable on host " + counts.getMissingAttributeHost() +
+                    " running co-task " + counts.getMissingAttributeCoTask()); // indicate missing attribute in host
+        if(isBalancedWith(counts, targetHostAttrVal))
             return new Result(true, "");
         return new Result(false, "Would further imbalance by host attribute " + hostAttributeName);
     }
 
-    private Map<String, Integer> getUsedAttributesMap(Set<String> coTasks, TaskTrackerState taskTrackerState) throws Exception {
-        Map<String, Integer> usedAttribsMap = new HashMap<>();
-        for(String coTask: coTasks) {
-            TaskTracker.ActiveTask activeTask = taskTrackerState.getAllRunningTasks().get(coTask);
-            if(activeTask==null)
-                activeTask = taskTrackerState.getAllCurrentlyAssignedTasks().get(coTask);
-            if(activeTask!=null) {
-                String usedAttrVal = AttributeUtilities.getAttrValue(activeTask.getTotalLease(), hostAttributeName);
-                if(usedAttrVal==null || usedAttrVal.isEmpty())
-                    throw new Exception(hostAttributeName+" attribute unavailable on host " + activeTask.getTotalLease().hostname() +
-                            " running co-task " + coTask); // indicate missing attribute in host
-                if(usedAttribsMap.get(usedAttrVal)==null)
-                    usedAttribsMap.put(usedAttrVal, 1);
-                else
-                    usedAttribsMap.put(usedAttrVal, usedAttribsMap.get(usedAttrVal)+1);
-            }
-        }
-        return usedAttribsMap;
+    private boolean isBalancedWith(CoTaskAttributeCounts counts, String hostAttrVal) {
+        final int used = counts.getCount(hostAttrVal);
+        if(used == 0)
+            return true;
+        int min = expectedValues>counts.getCounts().size()? 0 : counts.getMinCount();
+        int max = counts.getMaxCount();
+        return min == max || used<max;
+    }
+
+    @Override
+    public String getHostAttributeName() {
+        return hostAttributeName;
+    }
+
+    /**
+     * Returns a predicate that accepts the host attribute values on which assigning the task would not further
+     * imbalance its co-tasks, using the same rules as {@link #evaluate(TaskRequest, VirtualMachineCurrentState,
+     * TaskTrackerState)}.
+     *
+     * @param taskRequest      describes the task being considered for assignment
+     * @param taskTrackerState describes the state of tasks previously assigned or already running throughout
+     *                         the system
+     * @return a predicate that accepts host attribute values that keep the co-tasks balanced
+     */
+    @Override
+    public Func1<String, Boolean> getHostAttributeValuePredicate(TaskRequest taskRequest, TaskTrackerState taskTrackerState) {
+        final CoTaskAttributeCounts counts =
+                taskTrackerState.getCoTaskAttributeCounts(taskRequest.getId(), coTasksGetter, hostAttributeName);
+        if(counts.getMissingAttributeCoTask()!=null)
+            return value -> false; // no host satisfies the constraint, see evaluate()
+        return value -> isBalancedWith(counts, value);
     }
 
     /**
@@ -141,13 +140,10 @@ public class BalancedHostAttrConstraint implements ConstraintEvaluator {
                 if(targetHostAttrVal==null || targetHostAttrVal.isEmpty()) {
                     return 0.0;
                 }
-                Set<String> coTasks = coTasksGetter.call(taskRequest.getId());
-                Map<String, Integer> usedAttribsMap = null;
-                try {
-                    usedAttribsMap = getUsedAttributesMap(coTasks, taskTrackerState);
-                } catch (Exception e) {
+                CoTaskAttributeCounts counts = taskTrackerState.getCoTaskAttributeCounts(taskRequest.getId(), coTasksGetter, hostAttributeName);
+                if(counts.getMissingAttributeCoTask()!=null)
                     return 0.0;
-                }
+                Map<String, Integer> usedAttribsMap = counts.getCounts();
                 final Integer integer = usedAttribsMap.get(targetHostAttrVal);
                 if(integer==null)
                     return 1.0;
@@ -16,15 +16,11 @@
 
 package com.netflix.fenzo.plugins;
 
-import com.netflix.fenzo.TaskAssignmentResult;
 import com.netflix.fenzo.TaskRequest;
 import com.netflix.fenzo.TaskTrackerState;
+import com.netflix.fenzo.VMResource;
 import com.netflix.fenzo.VMTaskFitnessCalculator;
 import com.netflix.fenzo.VirtualMachineCurrentState;
-import com.netflix.fenzo.VirtualMachineLease;
-import com.netflix.fenzo.functions.Func1;
-
-import java.util.Iterator;
 
 /**
  * A collection of bin packing fitness calculators.
@@ -42,19 +38,7 @@ public class BinPackingFitnessCalculators {
         }
         @Override
         public double calculateFitness(TaskRequest taskRequest, VirtualMachineCurrentState targetVM, TaskTrackerState taskTrackerState) {
-            return calculateResourceFitness(taskRequest, targetVM, taskTrackerState,
-                    new Func1<TaskRequest, Double>() {
-                        @Override
-                        public Double call(TaskRequest request) {
-                            return request.getCPUs();
-                        }
-                    },
-                    new Func1<VirtualMachineLease, Double>() {
-                        @Override
-                        public Double call(VirtualMachineLease l) {
-                            return l.cpuCores();
-                        }
-                    });
+            return calculateResourceFitness(taskRequest.getCPUs(), targetVM, VMResource.CPU);
         }
     };
 
@@ -69,19 +53,7 @@ public class BinPackingFitnessCalculators {
         }
         @Override
         public double calculateFitness(TaskRequest taskRequest, VirtualMachineCurrentState targetVM, TaskTrackerState taskTrackerState) {
-            return calculateResourceFitness(taskRequest, targetVM, taskTrackerState,
-                    new Func1<TaskRequest, Double>() {
-                        @Override
-                        public Double call(TaskRequest request) {
-                            return request.getMemory();
-                        }
-                    },
-                    new Func1<VirtualMachineLease, Double>() {
-                        @Override
-                        public Double call(VirtualMachineLease l) {
-                            return l.memoryMB();
-                        }
-                    });
+            return calculateResourceFitness(taskRequest.getMemory(), targetVM, VMResource.Memory);
         }
     };
 
@@ -113,19 +85,7 @@ public class BinPackingFitnessCalculators {
         }
         @Override
         public double calculateFitness(TaskRequest taskRequest, VirtualMachineCurrentState targetVM, TaskTrackerState taskTrackerState) {
-            return calculateResourceFitness(taskRequest, targetVM, taskTrackerState,
-                    new Func1<TaskRequest, Double>() {
-                        @Override
-                        public Double call(TaskRequest request) {
-                            return request.getNetworkMbps();
-                        }
-                    },
-                    new Func1<VirtualMachineLease, Double>() {
-                        @Override
-                        public Double call(VirtualMachineLease l) {
-                            return l.networkMbps();
-                        }
-                    });
+            return calculateResourceFitness(taskRequest.getNetworkMbps(), targetVM, VMResource.Network);
         }
     };
 
@@ -147,21 +107,9 @@ public class BinPackingFitnessCalculators {
         }
     };
 
-    private static double calculateResourceFitness(TaskRequest request, VirtualMachineCurrentState targetVM, TaskTrackerState taskTrackerState,
-                                                   Func1<TaskRequest, Double> taskResourceGetter,
-                                                   Func1<VirtualMachineLease, Double> leaseResourceGetter) {
-        double totalRes = leaseResourceGetter.call(targetVM.getCurrAvailableResources());
-        Iterator<TaskRequest> iterator = targetVM.getRunningTasks().iterator();
-        double oldJobsTotal=0.0;
-        while(iterator.hasNext())
-            oldJobsTotal += taskResourceGetter.call(iterator.next());
-        double usedResource = taskResourceGetter.call(request);
-        Iterator<TaskAssignmentResult> taskAssignmentResultIterator = targetVM.getTasksCurrentlyAssigned().iterator();
-        while(taskAssignmentResultIterator.hasNext())
-            usedResource += taskResourceGetter.call(taskAssignmentResultIterator.next().getRequest());
-        totalRes += oldJobsTotal;
-        usedResource += oldJobsTotal;
-        return usedResource / totalRes;
+    // running totals are maintained by the VM state, so this doesn't iterate over the tasks on the host
+    private static double calculateResourceFitness(double requested, VirtualMachineCurrentState targetVM, VMResource resource) {
+        return (requested + targetVM.getUsedResource(resource)) / targetVM.getTotalResource(resource);
     }
 
 }
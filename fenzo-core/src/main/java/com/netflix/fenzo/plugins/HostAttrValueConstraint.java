@@ -16,21 +16,17 @@
 
 package com.netflix.fenzo.plugins;
 
-import com.netflix.fenzo.ConstraintEvaluator;
+import com.netflix.fenzo.HostAttributeConstraintEvaluator;
 import com.netflix.fenzo.TaskRequest;
 import com.netflix.fenzo.TaskTrackerState;
 import com.netflix.fenzo.VirtualMachineCurrentState;
-import com.netflix.fenzo.VirtualMachineLease;
-import org.apache.mesos.Protos;
 import com.netflix.fenzo.functions.Func1;
 
-import java.util.Map;
-
 /**
  * A constraint that ensures that a task gets a host with an attribute of a specified value.
  */
-public class HostAttrValueConstraint implements ConstraintEvaluator {
-    private static final String HOSTNAME="HOSTNAME";
+public class HostAttrValueConstraint implements HostAttributeConstraintEvaluator {
+    private static final String HOSTNAME=HOSTNAME_ATTRIBUTE;
     private final String hostAttributeName;
     private final Func1<String, String> hostAttributeValueGetter;
 
@@ -62,28 +58,33 @@ public class HostAttrValueConstraint implements ConstraintEvaluator {
      */
     @Override
     public Result evaluate(TaskRequest taskRequest, VirtualMachineCurrentState targetVM, TaskTrackerState taskTrackerState) {
-        String targetHostAttrVal = getAttrValue(targetVM.getCurrAvailableResources());
+        String requiredAttrVal = hostAttributeValueGetter.call(taskRequest.getId());
+        // Fenzo's hosts match on the ids of interned values, see VirtualMachineCurrentState.hasAttributeValue()
+        if(targetVM.hasAttributeValue(hostAttributeName, requiredAttrVal))
+            return new Result(true, "");
+        String targetHostAttrVal = AttributeUtilities.getAttrValue(targetVM.getCurrAvailableResources(), hostAttributeName);
         if(targetHostAttrVal==null || targetHostAttrVal.isEmpty()) {
             return new Result(false, hostAttributeName + " attribute unavailable on host " + targetVM.getCurrAvailableResources().hostname());
         }
-        String requiredAttrVal = hostAttributeValueGetter.call(taskRequest.getId());
-        return targetHostAttrVal.equals(requiredAttrVal)?
-                new Result(true, "") :
-                new Result(false, "Host attribute " + hostAttributeName + ": required=" + requiredAttrVal + ", got=" + targetHostAttrVal);
+        return new Result(false, "Host attribute " + hostAttributeName + ": required=" + requiredAttrVal + ", got=" + targetHostAttrVal);
     }
 
-    private String getAttrValue(VirtualMachineLease lease) {
-        switch (hostAttributeName) {
-            case HOSTNAME:
-                return lease.hostname();
-            default:
-                Map<String,Protos.Attribute> attributeMap = lease.getAttributeMap();
-                if(attributeMap==null)
-                    return null;
-                Protos.Attribute attribute = attributeMap.get(hostAttributeName);
-                if(attribute==null)
-                    return null;
-                return attribute.getText().getValue();
-        }
+    @Override
+    public String getHostAttributeName() {
+        return hostAttributeName;
+    }
+
+    /**
+     * Returns a predicate that accepts only the host attribute value required for the task.
+     *
+     * @param taskRequest      describes the task being considered for assignment
+     * @param taskTrackerState describes the state of tasks already assigned or running on hosts throughout the
+     *                         system
+     * @return a predicate that accepts the required host attribute value
+     */
+    @Override
+    public Func1<String, Boolean> getHostAttributeValuePredicate(TaskRequest taskRequest, TaskTrackerState taskTrackerState) {
+        final String requiredAttrVal = hostAttributeValueGetter.call(taskRequest.getId());
+        return value -> value.equals(requiredAttrVal);
     }
 }
@@ -16,9 +16,9 @@
 
 package com.netflix.fenzo.plugins;
 
-import com.netflix.fenzo.ConstraintEvaluator;
+import com.netflix.fenzo.CoTaskAttributeCounts;
+import com.netflix.fenzo.HostAttributeConstraintEvaluator;
 import com.netflix.fenzo.TaskRequest;
-import com.netflix.fenzo.TaskTracker;
 import com.netflix.fenzo.TaskTrackerState;
 import com.netflix.fenzo.VirtualMachineCurrentState;
 import com.netflix.fenzo.functions.Func1;
@@ -38,7 +38,7 @@ import java.util.Set;
  * If you construct this evaluator without passing in a host attribute name, it will use the host name as the
  * host attribute by which it uniquely identifies hosts.
  */
-public class UniqueHostAttrConstraint implements ConstraintEvaluator {
+public class UniqueHostAttrConstraint implements HostAttributeConstraintEvaluator {
     private final Func1<String, Set<String>> coTasksGetter;
     private final String hostAttributeName;
     private final String name;
@@ -95,26 +95,40 @@ public class UniqueHostAttrConstraint implements ConstraintEvaluator {
      */
     @Override
     public Result evaluate(TaskRequest taskRequest, VirtualMachineCurrentState targetVM, TaskTrackerState taskTrackerState) {
-        Set<String> coTasks = coTasksGetter.call(taskRequest.getId());
         String targetHostAttrVal = AttributeUtilities.getAttrValue(targetVM.getCurrAvailableResources(), hostAttributeName);
         if(targetHostAttrVal==null || targetHostAttrVal.isEmpty()) {
             return new Result(false, hostAttributeName + " attribute unavailable on host " + targetVM.getCurrAvailableResources().hostname());
         }
-        for(String coTask: coTasks) {
-            TaskTracker.ActiveTask activeTask = taskTrackerState.getAllRunningTasks().get(coTask);
-            if(activeTask==null)
-                activeTask = taskTrackerState.getAllCurrentlyAssignedTasks().get(coTask);
-            if(activeTask!=null) {
-                String usedAttrVal = AttributeUtilities.getAttrValue(activeTask.getTotalLease(), hostAttributeName);
-                if(usedAttrVal==null || usedAttrVal.isEmpty())
-                    return new Result(false, hostAttributeName+" attribute unavailable on host " + activeTask.getTotalLease().hostname() +
-                            " running co-task " + coTask);
-                if(usedAttrVal.equals(targetHostAttrVal)) {
-                    return new Result(false, hostAttributeName+" " + targetHostAttrVal + " already used for another co-task " + coTask);
-                }
-            }
-        }
+        CoTaskAttributeCounts counts = taskTrackerState.getCoTaskAttributeCounts(taskRequest.getId(), coTasksGetter, hostAttributeName);
+        if(counts.getMissingAttributeCoTask()!=null)
+            return new Result(false, hostAttributeName+" attribute unavailable on host " + counts.getMissingAttributeHost() +
+                    " running co-task " + counts.getMissingAttributeCoTask());
+        String coTask = counts.getCoTask(targetHostAttrVal);
+        if(coTask != null)
+            return new Result(false, hostAttributeName+" " + targetHostAttrVal + " already used for another co-task " + coTask);
         return new Result(true, "");
     }
 
+    @Override
+    public String getHostAttributeName() {
+        return hostAttributeName;
+    }
+
+    /**
+     * Returns a predicate that rejects the host attribute values already used by hosts that are assigned co-tasks
+     * of the specified task request.
+     *
+     * @param taskRequest      describes the task being considered for assignment
+     * @param taskTrackerState describes the state of tasks previously assigned or already running throughout
+     *                         the system
+     * @return a predicate that accepts host attribute values not used by any co-task of {@code taskRequest}
+     */
+    @Override
+    public Func1<String, Boolean> getHostAttributeValuePredicate(TaskRequest taskRequest, TaskTrackerState taskTrackerState) {
+        final CoTaskAttributeCounts counts =
+                taskTrackerState.getCoTaskAttributeCounts(taskRequest.getId(), coTasksGetter, hostAttributeName);
+        if(counts.getMissingAttributeCoTask()!=null)
+            return value -> false; // no host satisfies the constraint, see evaluate()
+        return value -> counts.getCount(value) == 0;
+    }
 }
@@ -27,15 +27,23 @@ import java.util.*;
  * An adapter class to transform a Mesos resource offer to a Fenzo {@link VirtualMachineLease}. Pass a Mesos
  * {@link org.apache.mesos.Protos.Offer Offer} to the {@code VMLeaseObject} constructor to transform it into an
  * object that implements the {@link VirtualMachineLease} interface.
+ * <P>
+ * The lease reads the offer lazily. The constructor only reads the cpus, memory, network, and disk scalars. The map
+ * of all scalars, the port ranges, and the attribute map are created from the offer when first asked for.
  */
 public class VMLeaseObject implements VirtualMachineLease {
     private static final Logger logger = LoggerFactory.getLogger(VMLeaseObject.class);
+
     private final Protos.Offer offer;
     private final String hostname;
     private final String vmID;
-    private final Map<String, Protos.Attribute> attributeMap;
-    private final Map<String, Double> scalarResources;
-    private final Map<String, List<Range>> rangeResources;
+    private volatile Map<String, Protos.Attribute> attributeMap = null;
+    private final double cpus;
+    private final double memory;
+    private final double network;
+    private final double disk;
+    private volatile Map<String, Double> scalarResources = null;
+    private volatile List<Range> portRanges = null;
     private final long offeredTime;
 
     public VMLeaseObject(Protos.Offer offer) {
@@ -43,37 +51,55 @@ public class VMLeaseObject implements VirtualMachineLease {
         hostname = offer.getHostname();
         this.vmID = offer.getSlaveId().getValue();
         offeredTime = System.currentTimeMillis();
-        scalarResources = new HashMap<>();
-        rangeResources = new HashMap<>();
-        // parse out resources from offer
         // expects network bandwidth to come in as consumable scalar resource named "network"
-        for (Protos.Resource resource : offer.getResourcesList()) {
-            switch (resource.getType()) {
-                case SCALAR:
-                    scalarResources.put(resource.getName(), resource.getScalar().getValue());
-                    break;
-                case RANGES:
-                    List<Range> ranges = new ArrayList<>();
-                    for (Protos.Value.Range range : resource.getRanges().getRangeList()) {
-                        ranges.add(new Range((int)range.getBegin(), (int) range.getEnd()));
-                    }
-                    rangeResources.put(resource.getName(), ranges);
-                    break;
-                default:
-                    logger.debug("Unknown resource type " + resource.getType() + " for resource " + resource.getName() +
-                            " in offer, hostname=" + hostname + ", offerId=" + offer.getId());
+        double cpus=0.0;
+        double memory=0.0;
+        double network=0.0;
+        double disk=0.0;
+        for (int i = 0; i < offer.getResourcesCount(); i++) {
+            final Protos.Resource resource = offer.getResources(i);
+            if (resource.getType() == Protos.Value.Type.SCALAR) {
+                switch (resource.getName()) {
+                    case "cpus":
+                        cpus = resource.getScalar().getValue();
+                        break;
+                    case "mem":
+                        memory = resource.getScalar().getValue();
+                        break;
+                    case "network":
+                        network = resource.getScalar().getValue();
+                        break;
+                    case "disk":
+                        disk = resource.getScalar().getValue();
+                        break;
+                }
+            }
+            else if (resource.getType() != Protos.Value.Type.RANGES && logger.isDebugEnabled()) {
+                logger.debug("Unknown resource type " + resource.getType() + " for resource " + resource.getName() +
+                        " in offer, hostname=" + hostname + ", offerId=" + offer.getId());
             }
         }
-        if(offer.getAttributesCount()>0) {
-            Map<String, Protos.Attribute> attributeMap = new HashMap<>();
-            for(Protos.Attribute attribute: offer.getAttributesList()) {
-                attributeMap.put(attribute.getName(), attribute);
+        this.cpus = cpus;
+        this.memory = memory;
+        this.network = network;
+        this.disk = disk;
+    }
+
+    private Map<String, Double> getScalarResources() {
+        Map<String, Double> scalars = scalarResources;
+        if (scalars == null) {
+            scalars = new HashMap<>();
+            for (int i = 0; i < offer.getResourcesCount(); i++) {
+                final Protos.Resource resource = offer.getResources(i);
+                if (resource.getType() == Protos.Value.Type.SCALAR)
+                    scalars.put(resource.getName(), resource.getScalar().getValue());
             }
-            this.attributeMap = Collections.unmodifiableMap(attributeMap);
-        } else {
-            this.attributeMap = Collections.emptyMap();
+            scalars = Collections.unmodifiableMap(scalars);
+            scalarResources = scalars;
         }
+        return scalars;
     }
+
     @Override
     public String hostname() {
         return hostname;
@@ -84,19 +110,19 @@ public class VMLeaseObject implements VirtualMachineLease {
     }
     @Override
     public double cpuCores() {
-        return scalarResources.get("cpus")==null? 0.0 : scalarResources.get("cpus");
+        return cpus;
     }
     @Override
     public double memoryMB() {
-        return scalarResources.get("mem")==null? 0.0 : scalarResources.get("mem");
+        return memory;
     }
     @Override
     public double networkMbps() {
-        return scalarResources.get("network")==null? 0.0 : scalarResources.get("network");
+        return network;
     }
     @Override
     public double diskMB() {
-        return scalarResources.get("disk")==null? 0.0 : scalarResources.get("disk");
+        return disk;
     }
     public Protos.Offer getOffer(){
         return offer;
@@ -111,32 +137,59 @@ public class VMLeaseObject implements VirtualMachineLease {
     }
     @Override
     public List<Range> portRanges() {
-        return rangeResources.get("ports")==null? Collections.<Range>emptyList() : rangeResources.get("ports");
+        List<Range> ranges = portRanges;
+        if (ranges == null) {
+            ranges = Collections.emptyList();
+            for (int i = 0; i < offer.getResourcesCount(); i++) {
+                final Protos.Resource resource = offer.getResources(i);
+                if (resource.getType() == Protos.Value.Type.RANGES && "ports".equals(resource.getName())) {
+                    ranges = new ArrayList<>(resource.getRanges().getRangeCount());
+                    for (Protos.Value.Range range : resource.getRanges().getRangeList()) {
+                        ranges.add(new Range((int)range.getBegin(), (int) range.getEnd()));
+                    }
+                }
+            }
+            portRanges = ranges;
+        }
+        return ranges;
     }
     @Override
     public Map<String, Protos.Attribute> getAttributeMap() {
-        return attributeMap;
+        Map<String, Protos.Attribute> attributes = attributeMap;
+        if (attributes == null) {
+            if (offer.getAttributesCount() == 0) {
+                attributes = Collections.emptyMap();
+            } else {
+                attributes = new HashMap<>();
+                for (Protos.Attribute attribute : offer.getAttributesList()) {
+                    attributes.put(attribute.getName(), attribute);
+                }
+                attributes = Collections.unmodifiableMap(attributes);
+            }
+            attributeMap = attributes;
+        }
+        return attributes;
     }
 
     @Override
     public Double getScalarValue(String name) {
-        return scalarResources.get(name);
+        return getScalarResources().get(name);
     }
 
     @Override
     public Map<String, Double> getScalarValues() {
-        return Collections.unmodifiableMap(scalarResources);
+        return getScalarResources();
     }
 
     @Override
     public String toString() {
         return "VMLeaseObject{" +
                 "offer=" + offer +
-                ", scalars: " + scalarResources.toString() +
-                ", ranges: " + rangeResources.toString() +
+                ", scalars: " + getScalarResources() +
+                ", ports: " + portRanges() +
                 ", hostname='" + hostname + '\'' +
                 ", vmID='" + vmID + '\'' +
-                ", attributeMap=" + attributeMap +
+                ", attributeMap=" + getAttributeMap() +
                 ", offeredTime=" + offeredTime +
                 '}';
     }
@@ -16,6 +16,8 @@
 
 package com.netflix.fenzo.queues;
 
+import com.netflix.fenzo.functions.Action0;
+
 import java.util.Collection;
 import java.util.Map;
 
@@ -65,4 +67,14 @@ public interface InternalTaskQueue extends TaskQueue {
      * @throws TaskQueueException when called concurrently with a scheduling iteration in progress.
      */
     Map<TaskState, Collection<QueuableTask>> getAllTasks() throws TaskQueueException;
+
+    /**
+     * Set the action to call each time a task is queued with {@link #queueTask(QueuableTask)}, for example, to wake up
+     * a scheduling loop that waits for changes. The action is called from the thread queuing the task, after the task
+     * is held for the next {@link #reset()}, and must return quickly. Implementations that do not support this may
+     * ignore it, the default.
+     * @param listener The action to call when a task is queued, or {@code null} to not call any.
+     */
+    default void setTaskQueuedListener(Action0 listener) {
+    }
 }
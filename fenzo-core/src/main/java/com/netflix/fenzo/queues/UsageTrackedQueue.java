@@ -20,6 +20,7 @@ import com.netflix.fenzo.VMResource;
 import com.netflix.fenzo.sla.ResAllocs;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -49,6 +50,7 @@ public interface UsageTrackedQueue {
         private double memory=0.0;
         private double networkMbps=0.0;
         private double disk=0.0;
+        private long version=0L;
 
         public ResUsage() {
             resAllocsWrapper = new ResAllocs() {
@@ -84,6 +86,7 @@ public interface UsageTrackedQueue {
             memory += task.getMemory();
             networkMbps += task.getNetworkMbps();
             disk += task.getDisk();
+            version++;
         }
 
         public void remUsage(QueuableTask task) {
@@ -91,6 +94,7 @@ public interface UsageTrackedQueue {
             memory -= task.getMemory();
             networkMbps -= task.getNetworkMbps();
             disk -= task.getDisk();
+            version++;
         }
 
         public ResAllocs getResAllocsWrapper() {
@@ -113,6 +117,15 @@ public interface UsageTrackedQueue {
             return disk;
         }
 
+        /**
+         * Get the version of this usage, which changes each time the usage changes. Values computed from the usage can
+         * be cached along with the version they were computed at.
+         * @return The version of this usage.
+         */
+        public long getVersion() {
+            return version;
+        }
+
         public double getDominantResUsageFrom(ResAllocs totalResources) {
             double tCPU = totalResources.getCores();
             double max = tCPU > 0.0 ? cpus / tCPU : cpus;
@@ -190,6 +203,40 @@ public interface UsageTrackedQueue {
      */
     QueuableTask removeTask(String id, QAttributes qAttributes) throws TaskQueueException;
 
+    /**
+     * Mark the given tasks as launched, as with {@link #launchTask(QueuableTask)} for each of them. Implementations
+     * may update the usage totals once for each queue, instead of once for each task. A task that can not be launched
+     * does not keep the other tasks from being launched.
+     * @param tasks The tasks to launch.
+     * @param exceptions The list to add exceptions to, for tasks that could not be launched.
+     */
+    default void launchTasks(Collection<QueuableTask> tasks, List<Exception> exceptions) {
+        for (QueuableTask t : tasks) {
+            try {
+                launchTask(t);
+            } catch (TaskQueueException e) {
+                exceptions.add(e);
+            }
+        }
+    }
+
+    /**
+     * Remove the given tasks of a queue, as with {@link #removeTask(String, QAttributes)} for each of them.
+     * Implementations may update the usage totals once for the queue, instead of once for each task.
+     * @param ids The ids of the tasks to remove.
+     * @param qAttributes The queue attributes of all of the tasks to remove.
+     * @param exceptions The list to add exceptions to, for tasks that could not be removed.
+     */
+    default void removeTasks(Collection<String> ids, QAttributes qAttributes, List<Exception> exceptions) {
+        for (String id : ids) {
+            try {
+                removeTask(id, qAttributes);
+            } catch (TaskQueueException e) {
+                exceptions.add(e);
+            }
+        }
+    }
+
     /**
      * Set the ready for the given task.
      * @see QueuableTask#getReadyAt()
@@ -30,9 +30,45 @@ import java.util.function.BiFunction;
 /**
  * A queue bucket is a collection of tasks in one bucket. Generally, all tasks in the bucket are associated
  * with a single entity for scheduling purposes such as capacity guarantees.
+ * <P>
+ * Queued tasks that are not ready yet, as per {@link QueuableTask#getReadyAt()}, are held in a min-heap of their
+ * ready times, apart from the ready tasks. They move to the ready tasks when a scheduling iteration starts after their
+ * ready time, and keep their queue order among them. So a scheduling iteration does not visit tasks that are not ready,
+ * and setting the ready time of a task takes logarithmic time. The ready time of a queued task is expected to change
+ * only via {@link #setTaskReadyTime(String, QAttributes, long)}. A ready time set on the task directly is seen only
+ * when the task is visited, that is, a ready task is skipped until its new ready time, and a task that is not ready is
+ * not visited before its previous ready time.
  */
 class QueueBucket implements UsageTrackedQueue {
     private static final Logger logger = LoggerFactory.getLogger(QueueBucket.class);
+
+    private static class QueuedTask {
+        private final QueuableTask task;
+        private final long sequence;
+        // the heap node of this task while it is not ready, null while it is in readyTasks or after it is dequeued
+        private DelayedTask delayed;
+
+        private QueuedTask(QueuableTask task, long sequence) {
+            this.task = task;
+            this.sequence = sequence;
+        }
+    }
+
+    // Heap nodes are replaced instead of updated when a ready time changes, the replaced node stays in the heap as stale
+    private static class DelayedTask {
+        private final QueuedTask queuedTask;
+        private final long readyAt;
+
+        private DelayedTask(QueuedTask queuedTask, long readyAt) {
+            this.queuedTask = queuedTask;
+            this.readyAt = readyAt;
+        }
+
+        private boolean isStale() {
+            return queuedTask.delayed != this;
+        }
+    }
+
     private final int tierNumber;
     private final String name;
 
@@ -42,16 +78,29 @@ class QueueBucket implements UsageTrackedQueue {
     private ResAllocs effectiveUsage;
 
     private final LinkedHashMap<String, QueuableTask> queuedTasks;
+    private final Map<String, QueuedTask> queueIndex;
+    // ready tasks by their queue order
+    private final TreeMap<Long, QueuableTask> readyTasks;
+    private final PriorityQueue<DelayedTask> delayedTasks;
+    private int numStaleDelayedTasks = 0;
+    private long nextSequence = 0L;
+    private long iterationStartTime = 0L;
     private final LinkedHashMap<String, QueuableTask> launchedTasks;
     // Assigned tasks is a temporary holder for tasks being assigned resources during scheduling
     // iteration. These tasks are duplicate entries of tasks in queuedTasks, which cannot be removed from queuedTasks
     // collection in order to keep the iterator on queuedTasks consistent throughout the scheduling iteration. Remember
     // that scheduler's taskTracker will trigger call into assignTask() during the scheduling iteration.
     private final LinkedHashMap<String, QueuableTask> assignedTasks;
-    private Iterator<Map.Entry<String, QueuableTask>> iterator = null;
+    private Iterator<QueuableTask> iterator = null;
     private ResAllocs tierResources;
     private final BiFunction<Integer, String, Double> allocsShareGetter;
     private final ResUsage tierUsage;
+    // The dominant usage share is cached along with the versions of the usages it was computed from. Without tier
+    // resources, the share is computed from the tier usage, so it changes with every assignment in the tier.
+    private double dominantUsageShare = 0.0;
+    private boolean dominantUsageShareValid = false;
+    private long dominantUsageShareVersion = -1L;
+    private long dominantUsageShareTierVersion = -1L;
 
     QueueBucket(int tierNumber, String name, ResUsage tierUsage, BiFunction<Integer, String, Double> allocsShareGetter) {
         this.tierNumber = tierNumber;
@@ -61,6 +110,9 @@ class QueueBucket implements UsageTrackedQueue {
         this.emptyBucketGuarantees = ResAllocsUtil.emptyOf(name);
         bucketGuarantees = emptyBucketGuarantees;
         queuedTasks = new LinkedHashMap<>();
+        queueIndex = new HashMap<>();
+        readyTasks = new TreeMap<>();
+        delayedTasks = new PriorityQueue<>((t1, t2) -> Long.compare(t1.readyAt, t2.readyAt));
         launchedTasks = new LinkedHashMap<>();
         assignedTasks = new LinkedHashMap<>();
         this.allocsShareGetter = allocsShareGetter == null ?
@@ -70,6 +122,8 @@ class QueueBucket implements UsageTrackedQueue {
 
     void setBucketGuarantees(ResAllocs bucketGuarantees) {
         this.bucketGuarantees = bucketGuarantees == null ? emptyBucketGuarantees : bucketGuarantees;
+        // the guarantees are set when the tier's SLA changes, which may change the share of allocations of the bucket
+        dominantUsageShareValid = false;
         updateEffectiveUsage();
     }
 
@@ -86,19 +140,78 @@ class QueueBucket implements UsageTrackedQueue {
         if (launchedTasks.get(t.getId()) != null)
             throw new TaskQueueException("Task already launched, can't queue, id=" + t.getId());
         queuedTasks.put(t.getId(), t);
+        final QueuedTask queuedTask = new QueuedTask(t, nextSequence++);
+        queueIndex.put(t.getId(), queuedTask);
+        index(queuedTask);
+    }
+
+    private void index(QueuedTask queuedTask) {
+        final long readyAt = queuedTask.task.getReadyAt();
+        if (readyAt <= 0L) {
+            queuedTask.delayed = null;
+            readyTasks.put(queuedTask.sequence, queuedTask.task);
+        } else {
+            queuedTask.delayed = new DelayedTask(queuedTask, readyAt);
+            delayedTasks.add(queuedTask.delayed);
+        }
+    }
+
+    private void unindex(QueuedTask queuedTask) {
+        if (queuedTask.delayed == null) {
+            readyTasks.remove(queuedTask.sequence);
+        } else {
+            queuedTask.delayed = null;
+            numStaleDelayedTasks++;
+            if (numStaleDelayedTasks > delayedTasks.size() / 2)
+                removeStaleDelayedTasks();
+        }
+    }
+
+    private void removeStaleDelayedTasks() {
+        delayedTasks.removeIf(DelayedTask::isStale);
+        numStaleDelayedTasks = 0;
+    }
+
+    private void dequeue(String taskId) {
+        final QueuedTask queuedTask = queueIndex.remove(taskId);
+        if (queuedTask != null)
+            unindex(queuedTask);
+    }
+
+    // Move the tasks whose ready time has passed from the heap to the ready tasks
+    private void moveReadyTasks(long now) {
+        while (!delayedTasks.isEmpty() && delayedTasks.peek().readyAt <= now) {
+            final DelayedTask delayedTask = delayedTasks.poll();
+            if (delayedTask.isStale()) {
+                numStaleDelayedTasks--;
+                continue;
+            }
+            final QueuedTask queuedTask = delayedTask.queuedTask;
+            final long readyAt = queuedTask.task.getReadyAt();
+            if (readyAt > now) {
+                // ready time was moved later on the task directly
+                queuedTask.delayed = new DelayedTask(queuedTask, readyAt);
+                delayedTasks.add(queuedTask.delayed);
+            } else {
+                queuedTask.delayed = null;
+                readyTasks.put(queuedTask.sequence, queuedTask.task);
+            }
+        }
     }
 
     @Override
     public Assignable<QueuableTask> nextTaskToLaunch() throws TaskQueueException {
         if (iterator == null) {
-            iterator = queuedTasks.entrySet().iterator();
             if (!assignedTasks.isEmpty())
                 throw new TaskQueueException(assignedTasks.size() + " tasks still assigned but not launched");
+            iterationStartTime = System.currentTimeMillis();
+            moveReadyTasks(iterationStartTime);
+            iterator = readyTasks.values().iterator();
         }
         while (iterator.hasNext()) {
-            final Map.Entry<String, QueuableTask> nextTask = iterator.next();
-            if (nextTask.getValue().getReadyAt() <= System.currentTimeMillis())
-                return Assignable.success(nextTask.getValue());
+            final QueuableTask nextTask = iterator.next();
+            if (nextTask.getReadyAt() <= iterationStartTime)
+                return Assignable.success(nextTask);
         }
         return null;
     }
@@ -121,13 +234,44 @@ class QueueBucket implements UsageTrackedQueue {
     public boolean launchTask(QueuableTask t) throws TaskQueueException {
         if (iterator != null)
             throw new ConcurrentModificationException("Must reset before launching tasks");
+        if (launch(t)) {
+            updateEffectiveUsage();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Launch the given tasks, as with {@link #launchTask(QueuableTask)}, updating the effective usage once.
+     * @return The tasks whose usage was added to the totals of this bucket.
+     */
+    List<QueuableTask> launchBatch(Collection<QueuableTask> tasks, List<Exception> exceptions) {
+        if (iterator != null)
+            throw new ConcurrentModificationException("Must reset before launching tasks");
+        final List<QueuableTask> usageAdded = new ArrayList<>(tasks.size());
+        for (QueuableTask t : tasks) {
+            try {
+                if (launch(t))
+                    usageAdded.add(t);
+            } catch (TaskQueueException e) {
+                exceptions.add(e);
+            }
+        }
+        if (!usageAdded.isEmpty())
+            updateEffectiveUsage();
+        return usageAdded;
+    }
+
+    // Launch the task, adding its usage to the totals, but without updating the effective usage
+    private boolean launch(QueuableTask t) throws TaskQueueException {
         if (launchedTasks.get(t.getId()) != null)
             throw new TaskQueueException("Task already launched, id=" + t.getId());
-        queuedTasks.remove(t.getId());
+        if (queuedTasks.remove(t.getId()) != null)
+            dequeue(t.getId());
         final QueuableTask removed = assignedTasks.remove(t.getId());
         launchedTasks.put(t.getId(), t);
         if (removed == null) { // queueTask usage only if it was not assigned, happens when initializing tasks that were running previously
-            addUsage(t);
+            totals.addUsage(t);
             return true;
         }
         return false;
@@ -137,13 +281,45 @@ class QueueBucket implements UsageTrackedQueue {
     public QueuableTask removeTask(String id, QAttributes qAttributes) throws TaskQueueException {
         if (iterator != null)
             throw new TaskQueueException("Must reset before removing tasks");
+        final long usageVersion = totals.getVersion();
+        final QueuableTask removed = remove(id);
+        if (totals.getVersion() != usageVersion)
+            updateEffectiveUsage();
+        return removed;
+    }
+
+    /**
+     * Remove the given tasks, as with {@link #removeTask(String, QAttributes)}, updating the effective usage once.
+     * @return The tasks that were removed.
+     */
+    List<QueuableTask> removeBatch(Collection<String> ids, List<Exception> exceptions) {
+        if (iterator != null) {
+            exceptions.add(new TaskQueueException("Must reset before removing tasks"));
+            return Collections.emptyList();
+        }
+        final long usageVersion = totals.getVersion();
+        final List<QueuableTask> removed = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            final QueuableTask r = remove(id);
+            if (r != null)
+                removed.add(r);
+        }
+        if (totals.getVersion() != usageVersion)
+            updateEffectiveUsage();
+        return removed;
+    }
+
+    // Remove the task, removing its usage from the totals, but without updating the effective usage
+    private QueuableTask remove(String id) {
         QueuableTask removed = queuedTasks.remove(id);
-        if (removed == null) {
+        if (removed != null)
+            dequeue(id);
+        else {
             removed = assignedTasks.remove(id);
             if (removed == null)
                 removed = launchedTasks.remove(id);
             if (removed != null)
-                removeUsage(removed);
+                totals.remUsage(removed);
         }
         return removed;
     }
@@ -153,30 +329,36 @@ class QueueBucket implements UsageTrackedQueue {
         updateEffectiveUsage();
     }
 
-    private void removeUsage(QueuableTask removed) {
-        totals.remUsage(removed);
-        updateEffectiveUsage();
-    }
-
     private void updateEffectiveUsage() {
         effectiveUsage = ResAllocsUtil.ceilingOf(totals.getResAllocsWrapper(), bucketGuarantees);
     }
 
     @Override
     public double getDominantUsageShare() {
-        // If total tier capacity is not available, use current tier allocation as a base for share computation.
-        ResAllocs total = tierResources == null ? tierUsage.getResAllocsWrapper() : tierResources;
-        return totals.getDominantResUsageFrom(total) /
-                Math.max(TierSla.eps / 10.0, allocsShareGetter.apply(tierNumber, name));
+        final long tierVersion = tierResources == null ? tierUsage.getVersion() : -1L;
+        if (!dominantUsageShareValid || dominantUsageShareVersion != totals.getVersion() ||
+                dominantUsageShareTierVersion != tierVersion) {
+            // If total tier capacity is not available, use current tier allocation as a base for share computation.
+            ResAllocs total = tierResources == null ? tierUsage.getResAllocsWrapper() : tierResources;
+            dominantUsageShare = totals.getDominantResUsageFrom(total) /
+                    Math.max(TierSla.eps / 10.0, allocsShareGetter.apply(tierNumber, name));
+            dominantUsageShareVersion = totals.getVersion();
+            dominantUsageShareTierVersion = tierVersion;
+            dominantUsageShareValid = true;
+        }
+        return dominantUsageShare;
     }
 
     @Override
     public void setTaskReadyTime(String taskId, QAttributes qAttributes, long when) throws TaskQueueException {
         if (iterator != null)
             throw new TaskQueueException("Must reset before setting task ready time");
-        final QueuableTask task = queuedTasks.get(taskId);
-        if (task != null)
-            task.safeSetReadyAt(when);
+        final QueuedTask queuedTask = queueIndex.get(taskId);
+        if (queuedTask != null) {
+            unindex(queuedTask);
+            queuedTask.task.safeSetReadyAt(when);
+            index(queuedTask);
+        }
     }
 
     public boolean hasGuaranteedCapacityFor(QueuableTask task) {
@@ -222,11 +404,14 @@ class QueueBucket implements UsageTrackedQueue {
 
     @Override
     public void setTotalResources(Map<VMResource, Double> totalResourcesMap) {
-        this.tierResources = ResAllocsUtil.toResAllocs("tier", totalResourcesMap);
+        setTotalResources(ResAllocsUtil.toResAllocs("tier", totalResourcesMap));
     }
 
     public void setTotalResources(ResAllocs tierResources) {
-        this.tierResources = tierResources;
+        if (this.tierResources != tierResources) {
+            this.tierResources = tierResources;
+            dominantUsageShareValid = false;
+        }
     }
 
     int size() {
@@ -17,162 +17,283 @@
 package com.netflix.fenzo.queues.tiered;
 
 import com.netflix.fenzo.queues.UsageTrackedQueue;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
 /**
- * The buckets are sorted using a comparison method that makes it inconsistent with equals. This class maintains
- * the ordering while being able to also perform methods such as contains, add, and remove without depending on
- * comparisons being strictly consistent with equals. Comparisons use the bucket's resource usage values, where as
- * the equals is defined by the bucket name being equal. Duplicate entries with the same bucket name are not allowed.
- * There may be multiple buckets with the same resource usage values, and therefore, comparator returns 0 while the
- * equals check returns {@code true} only when the bucket name matches. The Collections classes such as SortedMap or
- * SortedSet cannot be used due to this inconsistency.
+ * The buckets are sorted by their dominant resource usage share, and then by name. The usage share of a bucket changes
+ * as tasks are assigned, launched, and removed in it. The usage shares of all buckets may change with the tier totals
+ * they are computed from, which, without tier capacity, is the tier's usage. So the buckets can not be kept in a
+ * sorted collection keyed by their usage share, such as SortedMap or SortedSet. Instead, they are kept in a binary
+ * search tree of their current order, a treap, with a handle to the tree node of each bucket, by bucket name. A bucket
+ * is positioned by comparing its current usage share with the current usage shares of buckets in the tree, and it is
+ * removed via its handle, without comparisons. After changing the usage of a bucket, {@link #update(QueueBucket)}
+ * positions it again. After changing the totals, {@link #reorder()} positions again only the buckets that are out of
+ * order, and {@link #resort()} positions all buckets again. Duplicate entries with the same bucket name are not
+ * allowed.
  * <P>
- * This implementation provides {@code O(logN)} performance for adding an item, constant-time performance for get,
- * and {@code O(logN+M)} performance for remove, where, {@code N} is the number of items in the collection and
- * {@code M} is the average number of items with same resource usage values.
+ * This implementation provides expected {@code O(logN)} performance for add, remove, and update, and constant-time
+ * performance for get, where {@code N} is the number of buckets in the collection.
  * <P>
  * This implementation is not synchronized. Invocations of methods of this class must be synchronized externally if
  * there is a chance of calling them concurrently.
  */
 class SortedBuckets {
-    // TODO performance can be improved by changing List<> here to a two level map - outer map will have keys
-    // of bucket's resource usage and values will be a Map<String, QueueBucket>.
-    private static final Logger logger = LoggerFactory.getLogger(SortedBuckets.class);
-    private final List<QueueBucket> buckets;
-    private final Map<String, QueueBucket> bucketMap;
-    private final Comparator<QueueBucket> comparator;
+
+    private static class Node {
+        private final QueueBucket bucket;
+        // heap order of the treap, derived from the bucket name so that the tree shape does not depend on chance
+        private final int priority;
+        private Node left;
+        private Node right;
+        private Node parent;
+
+        private Node(QueueBucket bucket) {
+            this.bucket = bucket;
+            int h = bucket.getName().hashCode() * 0x9E3779B9;
+            this.priority = h ^ (h >>> 16);
+        }
+    }
+
+    private Node root = null;
+    private final Map<String, Node> handles;
+    // written only by the scheduling iteration's thread, may be read from other threads
+    private volatile long numRepositions = 0L;
+    private volatile long numResorts = 0L;
+    private final Collection<QueueBucket> sortedView;
     private final UsageTrackedQueue.ResUsage parentUsage;
 
     SortedBuckets(final UsageTrackedQueue.ResUsage parentUsage) {
-        buckets = new ArrayList<>();
-        bucketMap = new HashMap<>();
-        comparator = new Comparator<QueueBucket>() {
+        handles = new HashMap<>();
+        sortedView = new AbstractCollection<QueueBucket>() {
+            @Override
+            public Iterator<QueueBucket> iterator() {
+                return new Iterator<QueueBucket>() {
+                    private Node next = root == null ? null : leftmost(root);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public QueueBucket next() {
+                        if (next == null)
+                            throw new NoSuchElementException();
+                        final Node n = next;
+                        next = successor(n);
+                        return n.bucket;
+                    }
+                };
+            }
+
             @Override
-            public int compare(QueueBucket o1, QueueBucket o2) {
-                return Double.compare(o1.getDominantUsageShare(), o2.getDominantUsageShare());
+            public int size() {
+                return handles.size();
             }
         };
         this.parentUsage = parentUsage;
     }
 
-    boolean add(QueueBucket bucket) {
-        if (bucketMap.containsKey(bucket.getName()))
-            return false;
-        if (buckets.isEmpty())
-            buckets.add(bucket);
-        else
-            buckets.add(findInsertionPoint(bucket, buckets), bucket);
-        bucketMap.put(bucket.getName(), bucket);
-        return true;
+    private static int compare(double share1, String name1, QueueBucket b2) {
+        final int c = Double.compare(share1, b2.getDominantUsageShare());
+        return c != 0 ? c : name1.compareTo(b2.getName());
     }
 
-    QueueBucket remove(String bucketName) {
-        final QueueBucket bucket = bucketMap.get(bucketName);
-        if (bucket == null)
-            return null;
-        final int index = findInsertionPoint(bucket, buckets);
-        if (index < 0)
-            throw new IllegalStateException("Unexpected: bucket with name=" + bucketName + " does not exist");
-        // we have now found a bucket that has the same position due to its usage value. The actual bucket we are
-        // interested in (with the same name) may be the same one or it may be to the left or right a few positions.
-        int remPos = buckets.get(index).getName().equals(bucketName)? index : -1;
-        if (remPos < 0)
-            remPos = findWalkingLeft(buckets, index, bucketName, bucket.getDominantUsageShare());
-        if (remPos < 0)
-            remPos = findWalkingRight(buckets, index, bucketName, bucket.getDominantUsageShare());
-        if (remPos < 0) {
-            logger.error("Unexpected: bucket with name=" + bucketName + " not found to remove, traversing " +
-                    buckets.size() + " buckets to remove it");
-            logger.warn("Invalid sorted buckets list: " + getBucketsListString());
-            removeBucketAndResort(bucketName);
-        }
-        else
-            buckets.remove(remPos);
-        bucketMap.remove(bucketName);
-        return bucket;
-    }
-
-    private void removeBucketAndResort(String bucketName) {
-        // workaround the problem: linear traversal of the list to remove the bucket and re-sort if needed
-        // also check on uniqueness of bucket names in the list
-        final HashSet<String> names = new HashSet<>();
-        if (!buckets.isEmpty()) {
-            final Iterator<QueueBucket> iterator = buckets.iterator();
-            QueueBucket prev = null;
-            boolean isSorted = true;
-            while (iterator.hasNext()) {
-                QueueBucket b = iterator.next();
-                if (!names.add(b.getName())) {
-                    logger.error("Bucket " + b.getName() + " already existed in the list, removing");
-                    isSorted = false;
-                    iterator.remove();
-                }
-                else if (b.getName().equals(bucketName)) {
-                    iterator.remove();
+    boolean add(QueueBucket bucket) {
+        if (handles.containsKey(bucket.getName()))
+            return false;
+        final Node node = new Node(bucket);
+        if (root == null)
+            root = node;
+        else {
+            final double share = bucket.getDominantUsageShare();
+            Node curr = root;
+            while (true) {
+                if (compare(share, bucket.getName(), curr.bucket) < 0) {
+                    if (curr.left == null) {
+                        curr.left = node;
+                        break;
+                    }
+                    curr = curr.left;
                 } else {
-                    if (prev != null) {
-                        final int compare = comparator.compare(prev, b);
-                        isSorted = isSorted && compare <= 0;
+                    if (curr.right == null) {
+                        curr.right = node;
+                        break;
                     }
-                    prev = b;
+                    curr = curr.right;
                 }
             }
-            logger.warn("Re-sorting buckets list");
-            resort();
+            node.parent = curr;
+            while (node.parent != null && node.priority > node.parent.priority)
+                rotateUp(node);
         }
+        handles.put(bucket.getName(), node);
+        return true;
     }
 
-    private String getBucketsListString() {
-        StringBuilder builder = new StringBuilder("[");
-        for (QueueBucket b: buckets) {
-            builder.append(b.getName()).append(":").append(b.getDominantUsageShare()).append(", ");
-        }
-        builder.append("]");
-        return builder.toString();
+    QueueBucket remove(String bucketName) {
+        final Node node = handles.remove(bucketName);
+        if (node == null)
+            return null;
+        unlink(node);
+        return node.bucket;
     }
 
-    QueueBucket get(String bucketName) {
-        return bucketMap.get(bucketName);
+    /**
+     * Position the given bucket again after its usage changed. Does nothing if the bucket is not in this collection.
+     *
+     * @param bucket The bucket to position again.
+     */
+    void update(QueueBucket bucket) {
+        final Node node = handles.get(bucket.getName());
+        if (node == null || node.bucket != bucket)
+            return;
+        final double share = bucket.getDominantUsageShare();
+        final Node prev = predecessor(node);
+        final Node next = successor(node);
+        if ((prev == null || compare(share, bucket.getName(), prev.bucket) > 0) &&
+                (next == null || compare(share, bucket.getName(), next.bucket) < 0))
+            return; // still in order
+        reposition(node);
     }
 
-    private int findWalkingRight(List<QueueBucket> buckets, int index, String bucketName, double dominantUsageShare) {
-        int pos = index;
-        while (++pos < buckets.size() && buckets.get(pos).getDominantUsageShare() == dominantUsageShare) {
-            if (buckets.get(pos).getName().equals(bucketName))
-                return pos;
-        }
-        return -1;
+    private void reposition(Node node) {
+        unlink(node);
+        handles.remove(node.bucket.getName());
+        add(node.bucket);
+        numRepositions++;
     }
 
-    private int findWalkingLeft(List<QueueBucket> buckets, int index, String bucketName, double dominantUsageShare) {
-        int pos = index;
-        while (--pos >= 0 && buckets.get(pos).getDominantUsageShare() == dominantUsageShare) {
-            if (buckets.get(pos).getName().equals(bucketName))
-                return pos;
+    /**
+     * Position again the buckets that are out of order, after changes to the totals that the usage shares of the
+     * buckets are computed from. Buckets are visited in their current order, and each bucket whose usage share is
+     * lower than that of a preceding bucket is positioned again. This takes {@code O(N + KlogN)} time for {@code K}
+     * buckets that are out of order, instead of the {@code O(NlogN)} time of {@link #resort()}.
+     */
+    void reorder() {
+        final List<Node> outOfOrder = new ArrayList<>();
+        Node last = null;
+        for (Node n = root == null ? null : leftmost(root); n != null; n = successor(n)) {
+            final double share = n.bucket.getDominantUsageShare();
+            if (last != null && compare(share, n.bucket.getName(), last.bucket) < 0)
+                outOfOrder.add(n);
+            else
+                last = n;
         }
-        return -1;
+        for (Node n : outOfOrder)
+            reposition(n);
     }
 
-    private int findInsertionPoint(QueueBucket bucket, List<QueueBucket> buckets) {
-        final int i = Collections.binarySearch(buckets, bucket, comparator);
-        if (i >= 0)
-            return i;
-        return -i - 1;
+    QueueBucket get(String bucketName) {
+        final Node node = handles.get(bucketName);
+        return node == null ? null : node.bucket;
+    }
+
+    /**
+     * @return A live, unmodifiable view of the buckets in their sorted order. The view must not be iterated while the
+     * collection is being changed.
+     */
+    Collection<QueueBucket> getSortedBuckets() {
+        return sortedView;
     }
 
     List<QueueBucket> getSortedList() {
-        return Collections.unmodifiableList(buckets);
+        return Collections.unmodifiableList(new ArrayList<>(sortedView));
+    }
+
+    int size() {
+        return handles.size();
+    }
+
+    /**
+     * @return The number of times a bucket was positioned again since this collection was created, by
+     * {@link #update(QueueBucket)} or {@link #reorder()}.
+     */
+    long getNumRepositions() {
+        return numRepositions;
+    }
+
+    /**
+     * @return The number of times all buckets were positioned again by {@link #resort()}.
+     */
+    long getNumResorts() {
+        return numResorts;
     }
 
     void resort() {
-        List<QueueBucket> old = new ArrayList<>(buckets);
-        bucketMap.clear();
-        buckets.clear();
-        for(QueueBucket b: old)
+        numResorts++;
+        final List<QueueBucket> old = new ArrayList<>(sortedView);
+        root = null;
+        handles.clear();
+        for (QueueBucket b : old)
             add(b);
     }
+
+    private void unlink(Node node) {
+        // rotate the node down until it has at most one child, keeping heap order, then splice it out
+        while (node.left != null && node.right != null)
+            rotateUp(node.left.priority > node.right.priority ? node.left : node.right);
+        final Node child = node.left != null ? node.left : node.right;
+        if (child != null)
+            child.parent = node.parent;
+        replaceChild(node.parent, node, child);
+        node.left = node.right = node.parent = null;
+    }
+
+    private void rotateUp(Node node) {
+        final Node parent = node.parent;
+        final Node grandParent = parent.parent;
+        if (node == parent.left) {
+            parent.left = node.right;
+            if (node.right != null)
+                node.right.parent = parent;
+            node.right = parent;
+        } else {
+            parent.right = node.left;
+            if (node.left != null)
+                node.left.parent = parent;
+            node.left = parent;
+        }
+        parent.parent = node;
+        node.parent = grandParent;
+        replaceChild(grandParent, parent, node);
+    }
+
+    private void replaceChild(Node parent, Node oldChild, Node newChild) {
+        if (parent == null)
+            root = newChild;
+        else if (parent.left == oldChild)
+            parent.left = newChild;
+        else
+            parent.right = newChild;
+    }
+
+    private static Node leftmost(Node node) {
+        while (node.left != null)
+            node = node.left;
+        return node;
+    }
+
+    private static Node rightmost(Node node) {
+        while (node.right != null)
+            node = node.right;
+        return node;
+    }
+
+    private static Node successor(Node node) {
+        if (node.right != null)
+            return leftmost(node.right);
+        while (node.parent != null && node == node.parent.right)
+            node = node.parent;
+        return node.parent;
+    }
+
+    private static Node predecessor(Node node) {
+        if (node.left != null)
+            return rightmost(node.left);
+        while (node.parent != null && node == node.parent.left)
+            node = node.parent;
+        return node.parent;
+    }
 }
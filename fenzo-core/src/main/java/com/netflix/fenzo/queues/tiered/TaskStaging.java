@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo.queues.tiered;
+
+import com.netflix.fenzo.queues.InvalidTierNumberException;
+import com.netflix.fenzo.queues.QueuableTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+
+/**
+ * A holding area for tasks being queued into a {@link TieredQueue}, until they are added to their tiers and buckets by
+ * the scheduling iteration's thread. Tasks are sorted into staging areas by tier and bucket when they are added, so
+ * that adding tasks from many threads contends only on the staging area of the same bucket. Each staging area is a
+ * lock-free stack, from which all of its tasks are taken with a single atomic operation. Tasks of a bucket are taken in
+ * the order they were added.
+ * <P>
+ * Tasks with invalid tier numbers are held apart and reported when the staged tasks are taken. The staging area of a
+ * bucket is removed once it is found empty after its tier dropped the bucket, so that the number of staging areas is
+ * bound by the number of buckets of the tiers, and of buckets with tasks added since the staged tasks were last taken.
+ */
+class TaskStaging {
+
+    interface BucketTasksConsumer {
+        void accept(int tierNumber, String bucketName, List<QueuableTask> tasks);
+    }
+
+    private static class Node {
+        private final QueuableTask task;
+        private final Node next;
+
+        private Node(QueuableTask task, Node next) {
+            this.task = task;
+            this.next = next;
+        }
+    }
+
+    // head of a staging area that was removed, to which no more tasks can be pushed
+    private static final Node CLOSED = new Node(null, null);
+
+    private static class BucketStaging {
+        private final String bucketName;
+        private final AtomicReference<Node> head = new AtomicReference<>();
+
+        private BucketStaging(String bucketName) {
+            this.bucketName = bucketName;
+        }
+
+        private boolean push(QueuableTask task) {
+            Node h;
+            do {
+                h = head.get();
+                if (h == CLOSED)
+                    return false;
+            } while (!head.compareAndSet(h, new Node(task, h)));
+            return true;
+        }
+
+        private boolean closeIfEmpty() {
+            return head.compareAndSet(null, CLOSED);
+        }
+
+        private List<QueuableTask> takeAll() {
+            Node n = head.getAndSet(null);
+            if (n == null)
+                return Collections.emptyList();
+            final List<QueuableTask> tasks = new ArrayList<>();
+            for (; n != null; n = n.next)
+                tasks.add(n.task);
+            Collections.reverse(tasks);
+            return tasks;
+        }
+    }
+
+    private final List<Map<String, BucketStaging>> tiers;
+    private final ConcurrentLinkedQueue<QueuableTask> invalidTierTasks = new ConcurrentLinkedQueue<>();
+
+    TaskStaging(int numTiers) {
+        tiers = new ArrayList<>(numTiers);
+        for (int i = 0; i < numTiers; i++)
+            tiers.add(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Stage the given task. This may be called concurrently from any thread.
+     *
+     * @param task The task to stage.
+     */
+    void add(QueuableTask task) {
+        final int tierNumber = task.getQAttributes().getTierNumber();
+        if (tierNumber < 0 || tierNumber >= tiers.size()) {
+            invalidTierTasks.offer(task);
+            return;
+        }
+        final String bucketName = task.getQAttributes().getBucketName();
+        final Map<String, BucketStaging> buckets = tiers.get(tierNumber);
+        while (true) {
+            BucketStaging bucketStaging = buckets.get(bucketName);
+            if (bucketStaging == null)
+                bucketStaging = buckets.computeIfAbsent(bucketName, BucketStaging::new);
+            if (bucketStaging.push(task))
+                return;
+            // closed by takeAll() after its bucket was dropped, stage in a new one
+            buckets.remove(bucketName, bucketStaging);
+        }
+    }
+
+    /**
+     * Take all staged tasks, a bucket at a time. Tasks staged concurrently with this call may be left for the next
+     * call. This must be called from one thread at a time.
+     *
+     * @param consumer Consumer of the tasks of each bucket, in the order they were staged.
+     * @param bucketExists Whether the given tier has a bucket of the given name. The staging areas with no tasks of
+     *                     buckets that don't exist are removed.
+     * @param invalidTierExceptions The list to add an exception to for each staged task with an invalid tier number.
+     * @return The number of tasks taken, including those with an invalid tier number.
+     */
+    int takeAll(BucketTasksConsumer consumer, BiPredicate<Integer, String> bucketExists,
+                List<Exception> invalidTierExceptions) {
+        int count = 0;
+        QueuableTask invalid;
+        while ((invalid = invalidTierTasks.poll()) != null) {
+            invalidTierExceptions.add(
+                    new InvalidTierNumberException(invalid.getQAttributes().getTierNumber(), tiers.size()));
+            count++;
+        }
+        for (int tierNumber = 0; tierNumber < tiers.size(); tierNumber++) {
+            final Map<String, BucketStaging> buckets = tiers.get(tierNumber);
+            for (BucketStaging bucketStaging : buckets.values()) {
+                final List<QueuableTask> tasks = bucketStaging.takeAll();
+                if (!tasks.isEmpty()) {
+                    consumer.accept(tierNumber, bucketStaging.bucketName, tasks);
+                    count += tasks.size();
+                } else if (!bucketExists.test(tierNumber, bucketStaging.bucketName) && bucketStaging.closeIfEmpty()) {
+                    buckets.remove(bucketStaging.bucketName, bucketStaging);
+                }
+            }
+        }
+        return count;
+    }
+
+    // for testing
+    int getNumBucketStagings() {
+        int n = 0;
+        for (Map<String, BucketStaging> buckets : tiers)
+            n += buckets.size();
+        return n;
+    }
+}
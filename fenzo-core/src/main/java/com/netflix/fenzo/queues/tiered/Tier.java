@@ -69,10 +69,10 @@ class Tier implements UsageTrackedQueue {
         this.tierSla = tierSla;
 
         if (tierSla == null) {
-            sortedBuckets.getSortedList().forEach(bucket -> bucket.setBucketGuarantees(null));
+            sortedBuckets.getSortedBuckets().forEach(bucket -> bucket.setBucketGuarantees(null));
             tierResources = ResAllocsUtil.emptyOf(tierName);
         } else {
-            sortedBuckets.getSortedList().forEach(bucket -> bucket.setBucketGuarantees(tierSla.getBucketAllocs(bucket.getName())));
+            sortedBuckets.getSortedBuckets().forEach(bucket -> bucket.setBucketGuarantees(tierSla.getBucketAllocs(bucket.getName())));
 
             // Always create a bucket, if there is SLA defined for it for proper accounting
             tierSla.getAllocsMap().keySet().forEach(this::getOrCreateBucket);
@@ -81,7 +81,7 @@ class Tier implements UsageTrackedQueue {
 
         this.effectiveUsedResources = ResAllocsUtil.emptyOf(tierName);
         this.lastEffectiveUsedResources.clear();
-        for (QueueBucket bucket : sortedBuckets.getSortedList()) {
+        for (QueueBucket bucket : sortedBuckets.getSortedBuckets()) {
             effectiveUsedResources = ResAllocsUtil.add(effectiveUsedResources, bucket.getEffectiveUsage());
             lastEffectiveUsedResources.put(bucket.getName(), bucket.getEffectiveUsage());
         }
@@ -97,6 +97,10 @@ class Tier implements UsageTrackedQueue {
         return getOrCreateBucket(t.getQAttributes().getBucketName());
     }
 
+    boolean hasBucket(String bucketName) {
+        return sortedBuckets.get(bucketName) != null;
+    }
+
     private QueueBucket getOrCreateBucket(String bucketName) {
         QueueBucket bucket = sortedBuckets.get(bucketName);
         if (bucket == null) {
@@ -116,9 +120,31 @@ class Tier implements UsageTrackedQueue {
         getOrCreateBucket(t).queueTask(t);
     }
 
+    /**
+     * Queue the given tasks of a bucket. A task that can not be queued, such as a duplicate, does not keep the other
+     * tasks from being queued.
+     * @param bucketName The name of the bucket of all the tasks.
+     * @param tasks The tasks to queue.
+     * @param exceptions The list to add exceptions to, for tasks that could not be queued.
+     * @return The number of tasks queued.
+     */
+    int queueTasks(String bucketName, List<QueuableTask> tasks, List<Exception> exceptions) {
+        final QueueBucket bucket = getOrCreateBucket(bucketName);
+        int queued = 0;
+        for (QueuableTask t : tasks) {
+            try {
+                bucket.queueTask(t);
+                queued++;
+            } catch (TaskQueueException e) {
+                exceptions.add(e);
+            }
+        }
+        return queued;
+    }
+
     @Override
     public Assignable<QueuableTask> nextTaskToLaunch() throws TaskQueueException {
-        for (QueueBucket bucket : sortedBuckets.getSortedList()) {
+        for (QueueBucket bucket : sortedBuckets.getSortedBuckets()) {
             final Assignable<QueuableTask> taskOrFailure = bucket.nextTaskToLaunch();
             if (taskOrFailure != null) {
                 if (taskOrFailure.hasFailure()) {
@@ -144,32 +170,32 @@ class Tier implements UsageTrackedQueue {
     @Override
     public void assignTask(QueuableTask t) throws TaskQueueException {
         // assigning the task changes resource usage and therefore, sorting order must be updated.
-        // We do this by removing the bucket from sortedBuckets, assigning the task in the bucket,
-        // then adding the bucket back into the sortedBuckets. It will then fall into its right new place.
-        // This operation therefore takes time complexity of O(log N).
-        final QueueBucket bucket = sortedBuckets.remove(t.getQAttributes().getBucketName());
+        // We do this by assigning the task in the bucket, then updating the bucket's position in sortedBuckets.
+        // The bucket's node is found there by its handle, looked up by bucket name, not by usage, so the lookup needs
+        // no comparisons, and moving the node to its new position takes time complexity of O(log N).
+        final QueueBucket bucket = sortedBuckets.get(t.getQAttributes().getBucketName());
         if (bucket == null)
             throw new TaskQueueException("Invalid to not find bucket to assign task id=" + t.getId());
         try {
             bucket.assignTask(t);
             addUsage(bucket, t);
         } finally {
-            sortedBuckets.add(bucket);
+            sortedBuckets.update(bucket);
         }
     }
 
     @Override
     public boolean launchTask(QueuableTask t) throws TaskQueueException {
         // launching the task changes the resource usage and therefore sorting order must be updated.
-        // We do this by removing the bucket from the sortedBuckets, launching the task in the bucket,
-        // then adding the bucket back into the sortedBuckets. It will then fall into its right new place.
-        // This operation therefore takes time complexity of O(log N).
+        // We do this by launching the task in the bucket, then updating the bucket's position in sortedBuckets,
+        // same as in assignTask() above. This operation therefore takes time complexity of O(log N).
         if (logger.isDebugEnabled())
             logger.debug("Adding " + t.getId() + ": to ordered buckets: " + getSortedListString());
         final String bucketName = t.getQAttributes().getBucketName();
-        QueueBucket bucket = sortedBuckets.remove(bucketName);
+        QueueBucket bucket = sortedBuckets.get(bucketName);
         if (bucket == null) {
             bucket = new QueueBucket(tierNumber, bucketName, totals, allocsShareGetter);
+            sortedBuckets.add(bucket);
         }
         try {
             if (bucket.launchTask(t)) {
@@ -177,32 +203,54 @@ class Tier implements UsageTrackedQueue {
                 return true;
             }
         } finally {
-            sortedBuckets.add(bucket);
+            sortedBuckets.update(bucket);
         }
         return false;
     }
 
+    @Override
+    public void launchTasks(Collection<QueuableTask> tasks, List<Exception> exceptions) {
+        // same as launchTask() above, with the usage totals updated and the bucket positioned again once per bucket
+        final Map<String, List<QueuableTask>> bucketTasks = new LinkedHashMap<>();
+        for (QueuableTask t : tasks)
+            bucketTasks.computeIfAbsent(t.getQAttributes().getBucketName(), k -> new ArrayList<>()).add(t);
+        for (Map.Entry<String, List<QueuableTask>> entry : bucketTasks.entrySet()) {
+            QueueBucket bucket = sortedBuckets.get(entry.getKey());
+            if (bucket == null) {
+                bucket = new QueueBucket(tierNumber, entry.getKey(), totals, allocsShareGetter);
+                sortedBuckets.add(bucket);
+            }
+            try {
+                final List<QueuableTask> usageAdded = bucket.launchBatch(entry.getValue(), exceptions);
+                if (!usageAdded.isEmpty()) {
+                    for (QueuableTask t : usageAdded)
+                        totals.addUsage(t);
+                    updateEffectiveBucketTotals(bucket);
+                }
+            } finally {
+                sortedBuckets.update(bucket);
+            }
+        }
+    }
+
     private void verifySortedBuckets() throws TaskQueueException {
-        if (sortedBuckets.getSortedList().isEmpty())
+        if (sortedBuckets.getSortedBuckets().isEmpty())
             return;
-        List<QueueBucket> list = new ArrayList<>(sortedBuckets.getSortedList());
-        if (list.size() > 1) {
-            QueueBucket prev = list.get(0);
-            for (int i = 1; i < list.size(); i++) {
-                if (list.get(i).getDominantUsageShare() < prev.getDominantUsageShare()) {
-                    final String msg = "Incorrect sorting order : " + getSortedListString();
-                    throw new TaskQueueException(msg);
-                }
-                prev = list.get(i);
+        QueueBucket prev = null;
+        for (QueueBucket bucket : sortedBuckets.getSortedBuckets()) {
+            if (prev != null && bucket.getDominantUsageShare() < prev.getDominantUsageShare()) {
+                final String msg = "Incorrect sorting order : " + getSortedListString();
+                throw new TaskQueueException(msg);
             }
+            prev = bucket;
         }
     }
 
     @Override
     public QueuableTask removeTask(String id, QAttributes qAttributes) throws TaskQueueException {
         // removing a task can change the resource usage and therefore the sorting order of queues. So, we take the
-        // same approach as in launchTask() above - remove the bucket and readd to keep sorting order updated.
-        final QueueBucket bucket = sortedBuckets.remove(qAttributes.getBucketName());
+        // same approach as in launchTask() above - update the bucket's position to keep sorting order updated.
+        final QueueBucket bucket = sortedBuckets.get(qAttributes.getBucketName());
         if (bucket == null)
             return null;
         final QueuableTask removed;
@@ -213,11 +261,34 @@ class Tier implements UsageTrackedQueue {
             }
         } finally {
             if (bucket.size() > 0 || (tierSla != null && tierSla.getBucketAllocs(bucket.getName()) != null))
-                sortedBuckets.add(bucket);
+                sortedBuckets.update(bucket);
+            else
+                sortedBuckets.remove(bucket.getName());
         }
         return removed;
     }
 
+    @Override
+    public void removeTasks(Collection<String> ids, QAttributes qAttributes, List<Exception> exceptions) {
+        // same as removeTask() above, with the usage totals updated and the bucket positioned again once
+        final QueueBucket bucket = sortedBuckets.get(qAttributes.getBucketName());
+        if (bucket == null)
+            return;
+        try {
+            final List<QueuableTask> removed = bucket.removeBatch(ids, exceptions);
+            if (!removed.isEmpty()) {
+                for (QueuableTask r : removed)
+                    totals.remUsage(r);
+                updateEffectiveBucketTotals(bucket);
+            }
+        } finally {
+            if (bucket.size() > 0 || (tierSla != null && tierSla.getBucketAllocs(bucket.getName()) != null))
+                sortedBuckets.update(bucket);
+            else
+                sortedBuckets.remove(bucket.getName());
+        }
+    }
+
     private void addUsage(QueueBucket bucket, QueuableTask t) {
         totals.addUsage(t);
         updateEffectiveBucketTotals(bucket);
@@ -264,14 +335,14 @@ class Tier implements UsageTrackedQueue {
                 logger.error(e.getMessage());
             }
         }
-        for (QueueBucket bucket : sortedBuckets.getSortedList()) {
+        for (QueueBucket bucket : sortedBuckets.getSortedBuckets()) {
             bucket.reset();
         }
     }
 
     private String getSortedListString() {
         StringBuilder b = new StringBuilder("Tier " + tierNumber + " sortedBs: [");
-        for (QueueBucket bucket : sortedBuckets.getSortedList()) {
+        for (QueueBucket bucket : sortedBuckets.getSortedBuckets()) {
             b.append(bucket.getName()).append(" (").append(bucket.getDominantUsageShare()).append("), ");
         }
         b.append("]");
@@ -297,14 +368,31 @@ class Tier implements UsageTrackedQueue {
         if (totalResMapChanged(currTotalResourcesMap, totalResourcesMap)) {
             currTotalResourcesMap.clear();
             currTotalResourcesMap.putAll(totalResourcesMap);
-            for (QueueBucket b : sortedBuckets.getSortedList()) {
+            for (QueueBucket b : sortedBuckets.getSortedBuckets()) {
                 b.setTotalResources(tierResources);
             }
-            logger.debug("Re-sorting buckets in tier " + tierNumber + " after totals changed");
-            sortedBuckets.resort();
+            // only buckets whose usage share crosses that of a neighbor need to be positioned again
+            if (logger.isDebugEnabled())
+                logger.debug("Re-ordering buckets in tier " + tierNumber + " after totals changed");
+            sortedBuckets.reorder();
         }
     }
 
+    /**
+     * @return The number of times a bucket of this tier was positioned again in the order of buckets, after a change
+     * in its usage share.
+     */
+    long getNumBucketRepositions() {
+        return sortedBuckets.getNumRepositions();
+    }
+
+    /**
+     * @return The number of times all buckets of this tier were sorted again.
+     */
+    long getNumBucketResorts() {
+        return sortedBuckets.getNumResorts();
+    }
+
     private boolean totalResMapChanged(Map<VMResource, Double> currTotalResourcesMap, Map<VMResource, Double> totalResourcesMap) {
         if (currTotalResourcesMap.size() != totalResourcesMap.size())
             return true;
@@ -322,7 +410,7 @@ class Tier implements UsageTrackedQueue {
     @Override
     public Map<TaskQueue.TaskState, Collection<QueuableTask>> getAllTasks() throws TaskQueueException {
         Map<TaskQueue.TaskState, Collection<QueuableTask>> result = new HashMap<>();
-        for (QueueBucket bucket : sortedBuckets.getSortedList()) {
+        for (QueueBucket bucket : sortedBuckets.getSortedBuckets()) {
             final Map<TaskQueue.TaskState, Collection<QueuableTask>> allTasks = bucket.getAllTasks();
             if (!allTasks.isEmpty()) {
                 for (TaskQueue.TaskState s : TaskQueue.TaskState.values()) {
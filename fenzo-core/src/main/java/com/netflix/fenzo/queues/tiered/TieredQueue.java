@@ -17,6 +17,7 @@
 package com.netflix.fenzo.queues.tiered;
 
 import com.netflix.fenzo.VMResource;
+import com.netflix.fenzo.functions.Action0;
 import com.netflix.fenzo.queues.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,10 +42,11 @@ public class TieredQueue implements InternalTaskQueue {
     private final List<Tier> tiers;
     private Iterator<Tier> iterator = null;
     private Tier currTier = null;
-    private final BlockingQueue<QueuableTask> tasksToQueue;
+    private final TaskStaging tasksToQueue;
     private final BlockingQueue<TieredQueueSlas> slasQueue;
     private final TierSlas tierSlas = new TierSlas();
     private final BiFunction<Integer, String, Double> allocsShareGetter = tierSlas::getBucketAllocation;
+    private volatile Action0 taskQueuedListener = null;
 
     /**
      * Construct a tiered queue system with the given number of tiers.
@@ -54,7 +56,7 @@ public class TieredQueue implements InternalTaskQueue {
         tiers = new ArrayList<>(numTiers);
         for ( int i=0; i<numTiers; i++ )
             tiers.add(new Tier(i, allocsShareGetter));
-        tasksToQueue = new LinkedBlockingQueue<>();
+        tasksToQueue = new TaskStaging(numTiers);
         slasQueue = new LinkedBlockingQueue<>();
     }
 
@@ -62,9 +64,48 @@ public class TieredQueue implements InternalTaskQueue {
         return tiers.size();
     }
 
+    /**
+     * Queue the given task. The task is held apart, in a staging area for its tier and bucket, until the next call to
+     * {@link #reset()} adds it to the bucket. This may be called concurrently from any thread without blocking.
+     * @param task The task to queue.
+     */
     @Override
     public void queueTask(QueuableTask task) {
-        tasksToQueue.offer(task);
+        tasksToQueue.add(task);
+        final Action0 listener = taskQueuedListener;
+        if (listener != null)
+            listener.call();
+    }
+
+    @Override
+    public void setTaskQueuedListener(Action0 listener) {
+        taskQueuedListener = listener;
+    }
+
+    /**
+     * Get the number of times a bucket was positioned again in the order of buckets of its tier, after a change in
+     * its dominant resource usage share, since this queue was created. The difference between two calls at the end of
+     * scheduling iterations, for example, from the scheduling result callback, gives the number for the iterations in
+     * between.
+     * @return The number of times a bucket was positioned again, across all tiers.
+     */
+    public long getNumBucketRepositions() {
+        long n = 0L;
+        for (Tier t : tiers)
+            n += t.getNumBucketRepositions();
+        return n;
+    }
+
+    /**
+     * Get the number of times all buckets of a tier were sorted again, such as after a change of SLAs, since this
+     * queue was created.
+     * @return The number of times the buckets of a tier were sorted again, across all tiers.
+     */
+    public long getNumBucketResorts() {
+        long n = 0L;
+        for (Tier t : tiers)
+            n += t.getNumBucketResorts();
+        return n;
     }
 
     @Override
@@ -86,13 +127,6 @@ public class TieredQueue implements InternalTaskQueue {
         }
     }
 
-    private void addInternal(QueuableTask task) throws TaskQueueException {
-        final int tierNumber = task.getQAttributes().getTierNumber();
-        if ( tierNumber >= tiers.size() )
-            throw new InvalidTierNumberException(tierNumber, tiers.size());
-        tiers.get(tierNumber).queueTask(task);
-    }
-
     /**
      * This implementation dynamically picks the next task to consider for resource assignment based on tiers and then
      * based on current dominant resource usage. The usage is updated with each resource assignment during the
@@ -132,21 +166,14 @@ public class TieredQueue implements InternalTaskQueue {
     public boolean reset() throws TaskQueueMultiException {
         setSlaInternal();
         iterator = null;
-        boolean queueChanged = false;
-        List<Exception> exceptions = new LinkedList<>();
-        if (tasksToQueue.peek() != null) {
-            final List<QueuableTask> toQueue = new LinkedList<>();
-            tasksToQueue.drainTo(toQueue);
-            if (!toQueue.isEmpty()) {
-                for (QueuableTask t : toQueue)
-                    try {
-                        addInternal(t);
-                        queueChanged = true;
-                    } catch (TaskQueueException e) {
-                        exceptions.add(e);
-                    }
-            }
-        }
+        final List<Exception> exceptions = new LinkedList<>();
+        final int[] queued = {0};
+        tasksToQueue.takeAll(
+                (tierNumber, bucketName, tasks) -> queued[0] += tiers.get(tierNumber).queueTasks(bucketName, tasks, exceptions),
+                (tierNumber, bucketName) -> tiers.get(tierNumber).hasBucket(bucketName),
+                exceptions
+        );
+        final boolean queueChanged = queued[0] > 0;
         if (!exceptions.isEmpty())
             throw new TaskQueueMultiException(exceptions);
         return queueChanged;
@@ -186,6 +213,24 @@ public class TieredQueue implements InternalTaskQueue {
                 return tiers.get(qAttributes.getTierNumber()).removeTask(id, qAttributes);
             }
 
+            @Override
+            public void launchTasks(Collection<QueuableTask> tasks, List<Exception> exceptions) {
+                final Map<Integer, List<QueuableTask>> tierTasks = new HashMap<>();
+                for (QueuableTask t : tasks)
+                    tierTasks.computeIfAbsent(t.getQAttributes().getTierNumber(), k -> new ArrayList<>()).add(t);
+                for (Map.Entry<Integer, List<QueuableTask>> entry : tierTasks.entrySet()) {
+                    if (entry.getKey() < 0 || entry.getKey() >= tiers.size())
+                        exceptions.add(new InvalidTierNumberException(entry.getKey(), tiers.size()));
+                    else
+                        tiers.get(entry.getKey()).launchTasks(entry.getValue(), exceptions);
+                }
+            }
+
+            @Override
+            public void removeTasks(Collection<String> ids, QAttributes qAttributes, List<Exception> exceptions) {
+                tiers.get(qAttributes.getTierNumber()).removeTasks(ids, qAttributes, exceptions);
+            }
+
             @Override
             public double getDominantUsageShare() {
                 return 0.0;
@@ -266,6 +266,58 @@ public class BasicSchedulerTests {
         Assert.assertEquals(2, resultMap.values().iterator().next().getTasksAssigned().size());
     }
 
+    // verify that interleaved offers of several hosts in one batch are combined per host
+    @Test
+    public void testInterleavedOffersOfSeveralHosts() throws Exception {
+        List<VirtualMachineLease> leases = new ArrayList<>();
+        leases.add(LeaseProvider.getLeaseOffer("host1", 2, 200, 1, 5));
+        leases.add(LeaseProvider.getLeaseOffer("host2", 2, 200, 1, 5));
+        leases.add(LeaseProvider.getLeaseOffer("host1", 1, 200, 6, 10));
+        leases.add(LeaseProvider.getLeaseOffer("host2", 1, 200, 6, 10));
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        taskRequests.add(TaskRequestProvider.getTaskRequest(3, 300, 6));
+        taskRequests.add(TaskRequestProvider.getTaskRequest(3, 300, 6));
+        Map<String,VMAssignmentResult> resultMap = taskScheduler.scheduleOnce(taskRequests, leases).getResultMap();
+        Assert.assertEquals(2, resultMap.size());
+        for (VMAssignmentResult result: resultMap.values()) {
+            Assert.assertEquals(1, result.getTasksAssigned().size());
+            Assert.assertEquals(2, result.getLeasesUsed().size());
+        }
+    }
+
+    // verify that a host keeps its attribute map while its offers have equal attributes
+    @Test
+    public void testAttributeMapKeptForEqualAttributes() throws Exception {
+        final List<VirtualMachineLease.Range> ports = Collections.singletonList(new VirtualMachineLease.Range(1, 10));
+        taskScheduler.scheduleOnce(Collections.emptyList(),
+                Collections.singletonList(LeaseProvider.getLeaseOffer("hostA", 4, 4000, ports, getZoneAttributes("zoneA"))));
+        final Map<String, Protos.Attribute> first = getAttributeMapOfHost("hostA");
+        taskScheduler.scheduleOnce(Collections.emptyList(),
+                Collections.singletonList(LeaseProvider.getLeaseOffer("hostA", 4, 4000, ports, getZoneAttributes("zoneA"))));
+        Assert.assertSame(first, getAttributeMapOfHost("hostA"));
+        taskScheduler.scheduleOnce(Collections.emptyList(),
+                Collections.singletonList(LeaseProvider.getLeaseOffer("hostA", 4, 4000, ports, getZoneAttributes("zoneB"))));
+        final Map<String, Protos.Attribute> changed = getAttributeMapOfHost("hostA");
+        Assert.assertNotSame(first, changed);
+        Assert.assertEquals("zoneB", changed.get("zone").getText().getValue());
+    }
+
+    private Map<String, Protos.Attribute> getZoneAttributes(String zone) {
+        final Map<String, Protos.Attribute> attributes = new HashMap<>();
+        attributes.put("zone", Protos.Attribute.newBuilder().setName("zone")
+                .setType(Protos.Value.Type.TEXT)
+                .setText(Protos.Value.Text.newBuilder().setValue(zone)).build());
+        return attributes;
+    }
+
+    private Map<String, Protos.Attribute> getAttributeMapOfHost(String hostname) {
+        for (VirtualMachineCurrentState state : taskScheduler.getVmCurrentStates()) {
+            if (hostname.equals(state.getHostname()))
+                return state.getCurrAvailableResources().getAttributeMap();
+        }
+        return null;
+    }
+
     @Test
     public void testMultipleHostsAndTasks() throws Exception {
         int numHosts=2;
@@ -283,6 +335,88 @@ public class BasicSchedulerTests {
         }
     }
 
+    // verify that hosts spanning several partitions of the parallel preparation of VMs are all available for assignments
+    @Test
+    public void testManyHostsWithConcurrentPreparation() throws Exception {
+        TaskScheduler taskScheduler = new TaskScheduler.Builder()
+                .withLeaseOfferExpirySecs(1000000)
+                .withLeaseRejectAction(virtualMachineLease -> System.out.println("Rejecting offer on host " + virtualMachineLease.hostname()))
+                .withMaxConcurrent(4)
+                .build();
+        int numHosts=1000;
+        List<VirtualMachineLease> leases = LeaseProvider.getLeases(numHosts, 4, 100, 1, 10);
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        for(int t=0; t<numHosts; t++)
+            taskRequests.add(TaskRequestProvider.getTaskRequest(4, 100, 1));
+        SchedulingResult result = taskScheduler.scheduleOnce(taskRequests, leases);
+        Assert.assertEquals(numHosts, result.getResultMap().size());
+        Assert.assertTrue(result.getFailures().isEmpty());
+        for(VMAssignmentResult r: result.getResultMap().values())
+            Assert.assertEquals(1, r.getTasksAssigned().size());
+        taskScheduler.shutdown();
+
+        // the totals and per group maxima prepared in partitions match the sums over all hosts, with more hosts than
+        // fit in a partition, spread across groups, and with disabled hosts and those of inactive groups not counted
+        final String groupAttrName = "asg";
+        final AssignableVMs assignableVMs = new AssignableVMs(new TaskTracker(), lease -> {}, null, 1000000, 0,
+                groupAttrName, false, groupAttrName);
+        assignableVMs.setActiveVmGroupAttributeName(groupAttrName);
+        assignableVMs.setActiveVmGroups(Arrays.asList("group0", "group1"));
+        final List<VirtualMachineLease.Range> ports = Collections.singletonList(new VirtualMachineLease.Range(1, 10));
+        leases = new ArrayList<>();
+        final List<VirtualMachineLease> inactiveGroupLeases = new ArrayList<>();
+        for(int i=0; i<numHosts; i++) {
+            final Map<String, Protos.Attribute> attributes = Collections.singletonMap(groupAttrName,
+                    Protos.Attribute.newBuilder().setName(groupAttrName).setType(Protos.Value.Type.TEXT)
+                            .setText(Protos.Value.Text.newBuilder().setValue("group" + (i % 3))).build());
+            leases.add(LeaseProvider.getLeaseOffer("host" + i, 1 + (i % 8), 100 * (1 + (i % 5)), 10 * (i % 4),
+                    i % 6, ports, attributes));
+            if(i % 3 == 2)
+                inactiveGroupLeases.add(LeaseProvider.getLeaseOffer("host" + i, 1 + (i % 8), 100 * (1 + (i % 5)),
+                        10 * (i % 4), i % 6, ports, attributes));
+        }
+        final ParallelAssignmentEvaluator evaluator =
+                new ParallelAssignmentEvaluator(4, 1, BinPackingFitnessCalculators.cpuMemBinPacker, f -> false);
+        try {
+            // the hosts must be known before they can be disabled, and the leases of inactive groups expire on each
+            // preparation, so they are offered again
+            assignableVMs.prepareAndGetOrderedVMs(leases, new AtomicInteger(), evaluator);
+            for(int i=0; i<numHosts; i+=7)
+                assignableVMs.disableUntil("host" + i, System.currentTimeMillis() + 1000000L);
+            assignableVMs.prepareAndGetOrderedVMs(inactiveGroupLeases, new AtomicInteger(), evaluator);
+        } finally {
+            evaluator.shutdown();
+        }
+        final double[] totals = new double[VMResource.values().length];
+        final Map<String, double[]> groupMaxima = new HashMap<>();
+        int numNotCounted = 0;
+        for(AssignableVirtualMachine avm: assignableVMs.getVmCollection().getAllVMs()) {
+            final double[] max = new double[VMResource.values().length];
+            avm.addMaxResourcesTo(max);
+            final String group = avm.getAttrValue(groupAttrName);
+            final double[] groupMax = groupMaxima.computeIfAbsent(group, g -> new double[VMResource.values().length]);
+            for(VMResource r: AssignableVirtualMachine.MAX_RESOURCES)
+                groupMax[r.ordinal()] = Math.max(groupMax[r.ordinal()], max[r.ordinal()]);
+            if(avm.isDisabled() || "group2".equals(group)) {
+                numNotCounted++;
+                continue;
+            }
+            for(VMResource r: AssignableVirtualMachine.MAX_RESOURCES)
+                totals[r.ordinal()] += max[r.ordinal()];
+        }
+        Assert.assertEquals(numHosts, assignableVMs.getVmCollection().getAllVMs().size());
+        Assert.assertTrue(numNotCounted > 0 && numNotCounted < numHosts);
+        Assert.assertEquals(3, groupMaxima.size());
+        final Map<VMResource, Double> totalResources = assignableVMs.getTotalResources();
+        for(VMResource r: AssignableVirtualMachine.MAX_RESOURCES) {
+            Assert.assertTrue(totals[r.ordinal()] > 0.0);
+            Assert.assertEquals("Total " + r, totals[r.ordinal()], totalResources.get(r), 0.001);
+            for(Map.Entry<String, double[]> entry: groupMaxima.entrySet())
+                Assert.assertEquals("Max " + r + " of " + entry.getKey(), entry.getValue()[r.ordinal()],
+                        assignableVMs.getMaxResources(entry.getKey()).get(r), 0.001);
+        }
+    }
+
     @Test
     public void testOfferReuse() throws Exception {
         List<VirtualMachineLease> leases = LeaseProvider.getLeases(1, 4, 100, 1, 10);
@@ -577,4 +711,128 @@ public class BasicSchedulerTests {
         schedulingResult = taskScheduler.scheduleOnce(taskRequests, leases);
         Assert.assertEquals(0, schedulingResult.getResultMap().size());
     }
+
+    // verify that the failures of a scheduling result are created during its iteration, from the state of the host at
+    // the time, and are not changed by later iterations
+    @Test
+    public void testFailuresCreatedDuringIteration() {
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        taskRequests.add(TaskRequestProvider.getTaskRequest(3, 10, 1));
+        taskRequests.add(TaskRequestProvider.getTaskRequest(3, 10, 1));
+        SchedulingResult schedulingResult = taskScheduler.scheduleOnce(taskRequests, LeaseProvider.getLeases(1, 4, 100, 1, 10));
+        Assert.assertEquals(1, schedulingResult.getResultMap().size());
+        final TaskAssignmentResult assigned = schedulingResult.getResultMap().values().iterator().next()
+                .getTasksAssigned().iterator().next();
+        final List<TaskAssignmentResult> failures = schedulingResult.getFailures().get(taskRequests.get(1));
+        Assert.assertNotNull(failures);
+        Assert.assertEquals(1, failures.size());
+        final List<AssignmentFailure> cpuFailures = failures.get(0).getFailures();
+        Assert.assertNotNull(cpuFailures);
+        Assert.assertEquals(VMResource.CPU, cpuFailures.get(0).getResource());
+        Assert.assertEquals(3.0, cpuFailures.get(0).getUsed(), 0.001);
+        Assert.assertEquals(4.0, cpuFailures.get(0).getAvailable(), 0.001);
+        taskScheduler.getTaskAssigner().call(assigned.getRequest(), assigned.getHostname());
+        taskScheduler.scheduleOnce(Collections.singletonList(TaskRequestProvider.getTaskRequest(1, 10, 1)),
+                LeaseProvider.getLeases(1, 1, 100, 1, 10));
+        Assert.assertSame(cpuFailures, failures.get(0).getFailures());
+        Assert.assertEquals(3.0, cpuFailures.get(0).getUsed(), 0.001);
+        Assert.assertEquals(4.0, cpuFailures.get(0).getAvailable(), 0.001);
+    }
+
+    // verify that with compact failure reporting, the failures of a task are counted by resource with a few samples
+    @Test
+    public void testCompactFailureReporting() {
+        TaskScheduler taskScheduler = new TaskScheduler.Builder()
+                .withLeaseOfferExpirySecs(1000000)
+                .withLeaseRejectAction(virtualMachineLease -> System.out.println("Rejecting offer on host " + virtualMachineLease.hostname()))
+                .withCompactFailureReporting(1)
+                .build();
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            taskRequests.add(TaskRequestProvider.getTaskRequest(3, 10, 0));
+        List<VirtualMachineLease> leases = LeaseProvider.getLeases(2, 4, 100, 1, 10);
+        SchedulingResult schedulingResult = taskScheduler.scheduleOnce(taskRequests, leases);
+        Assert.assertEquals(2, schedulingResult.getResultMap().size());
+        Assert.assertTrue(schedulingResult.getFailures().isEmpty());
+        final Map<TaskRequest, TaskFailureSummary> summaries = schedulingResult.getFailureSummaries();
+        Assert.assertEquals(1, summaries.size());
+        final TaskFailureSummary summary = summaries.get(taskRequests.get(2));
+        Assert.assertNotNull(summary);
+        Assert.assertEquals(2, summary.getNumResults());
+        Assert.assertEquals(Integer.valueOf(2), summary.getResourceFailureCounts().get(VMResource.CPU));
+        Assert.assertTrue(summary.getConstraintFailureCounts().isEmpty());
+        Assert.assertEquals(1, summary.getSampleResults().size());
+    }
+
+    // verify that tasks with the same resource requests as a task that didn't fit on any host get a summarized failure
+    // until a host gains resources
+    @Test
+    public void testFailedTaskShapeMemo() {
+        TaskScheduler taskScheduler = new TaskScheduler.Builder()
+                .withLeaseOfferExpirySecs(1000000)
+                .withLeaseRejectAction(virtualMachineLease -> System.out.println("Rejecting offer on host " + virtualMachineLease.hostname()))
+                .withFailedTaskShapeMemo()
+                .build();
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            taskRequests.add(TaskRequestProvider.getTaskRequest(3, 10, 0));
+        List<VirtualMachineLease> leases = LeaseProvider.getLeases(2, 4, 100, 1, 10);
+        leases.add(LeaseProvider.getLeaseOffer("host2", 2, 100, 1, 10));
+        SchedulingResult schedulingResult = taskScheduler.scheduleOnce(taskRequests, leases);
+        Assert.assertEquals(2, schedulingResult.getResultMap().size());
+        final Map<TaskRequest, List<TaskAssignmentResult>> failures = schedulingResult.getFailures();
+        Assert.assertEquals(3, failures.size());
+        Assert.assertEquals(3, failures.get(taskRequests.get(2)).size());
+        for (int i = 3; i < 5; i++) {
+            final List<TaskAssignmentResult> taskFailures = failures.get(taskRequests.get(i));
+            Assert.assertEquals(1, taskFailures.size());
+            Assert.assertEquals(1, taskFailures.get(0).getFailures().size());
+            Assert.assertEquals(VMResource.CPU, taskFailures.get(0).getFailures().get(0).getResource());
+        }
+        // no host gained resources, so the same task is not evaluated again
+        schedulingResult = taskScheduler.scheduleOnce(taskRequests.subList(2, 5), Collections.emptyList());
+        Assert.assertEquals(0, schedulingResult.getNumAllocations());
+        Assert.assertEquals(3, schedulingResult.getFailures().size());
+        // a new lease makes the tasks fit again
+        schedulingResult = taskScheduler.scheduleOnce(taskRequests.subList(2, 5), LeaseProvider.getLeases(3, 1, 4, 100, 1, 10));
+        Assert.assertEquals(1, schedulingResult.getResultMap().size());
+        Assert.assertEquals(2, schedulingResult.getFailures().size());
+    }
+
+    // tasks with the same resource requests are assigned to the same hosts as when each is evaluated on all hosts
+    @Test
+    public void testTaskEquivalenceClasses() {
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            taskRequests.add(TaskRequestProvider.getTaskRequest(1, 10, 0));
+        taskRequests.add(TaskRequestProvider.getTaskRequest(2, 10, 0));
+        for (int i = 0; i < 10; i++)
+            taskRequests.add(TaskRequestProvider.getTaskRequest(1, 10, 0));
+        final SchedulingResult[] results = new SchedulingResult[2];
+        for (int s = 0; s < 2; s++) {
+            TaskScheduler.Builder builder = new TaskScheduler.Builder()
+                    .withLeaseOfferExpirySecs(1000000)
+                    .withLeaseRejectAction(virtualMachineLease -> System.out.println("Rejecting offer on host " + virtualMachineLease.hostname()))
+                    .withFitnessCalculator(BinPackingFitnessCalculators.cpuBinPacker)
+                    .withFitnessGoodEnoughFunction(f -> false);
+            if (s == 1)
+                builder = builder.withTaskEquivalenceClasses();
+            List<VirtualMachineLease> leases = new ArrayList<>();
+            for (int h = 0; h < 40; h++)
+                leases.add(LeaseProvider.getLeaseOffer("host" + h, 1 + (h * 3) % 8, 1000, 1, 10));
+            results[s] = builder.build().scheduleOnce(taskRequests, leases);
+        }
+        Assert.assertEquals(results[0].getFailures().keySet(), results[1].getFailures().keySet());
+        Assert.assertEquals(results[0].getResultMap().keySet(), results[1].getResultMap().keySet());
+        for (String host : results[0].getResultMap().keySet()) {
+            Set<String> taskIds0 = new HashSet<>();
+            for (TaskAssignmentResult r : results[0].getResultMap().get(host).getTasksAssigned())
+                taskIds0.add(r.getTaskId());
+            Set<String> taskIds1 = new HashSet<>();
+            for (TaskAssignmentResult r : results[1].getResultMap().get(host).getTasksAssigned())
+                taskIds1.add(r.getTaskId());
+            Assert.assertEquals(taskIds0, taskIds1);
+        }
+        Assert.assertTrue(results[1].getNumAllocations() < results[0].getNumAllocations() / 2);
+    }
 }
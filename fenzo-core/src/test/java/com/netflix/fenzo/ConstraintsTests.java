@@ -30,6 +30,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConstraintsTests {
 
@@ -215,6 +216,62 @@ public class ConstraintsTests {
         }
     }
 
+    // Test that co-tasks are counted once per task, instead of for each host the task is evaluated on, and that
+    // the counts are kept up to date as co-tasks get assigned within the iteration.
+    @Test
+    public void testCoTasksCountedOncePerTask() throws Exception {
+        Map<String, TaskRequest> taskMap = new HashMap<>();
+        final Map<String, Set<String>> taskToCoTasksMap = new HashMap<>();
+        final AtomicInteger coTasksGetterCalls = new AtomicInteger();
+        BalancedHostAttrConstraint constraint = new BalancedHostAttrConstraint(new Func1<String, Set<String>>() {
+            @Override
+            public Set<String> call(String s) {
+                coTasksGetterCalls.incrementAndGet();
+                return taskToCoTasksMap.get(s);
+            }
+        }, zoneAttrName, 3);
+        List<TaskRequest> sixTasks = getThreeTasks(taskMap, taskToCoTasksMap, constraint, null);
+        sixTasks.addAll(getThreeTasks(taskMap, taskToCoTasksMap, constraint, null));
+        final Map<String, VMAssignmentResult> resultMap = getTaskScheduler().scheduleOnce(sixTasks, getThreeVMs()).getResultMap();
+        Assert.assertEquals(3, resultMap.size());
+        for(VMAssignmentResult r: resultMap.values()) {
+            Assert.assertEquals(2, r.getTasksAssigned().size());
+        }
+        Assert.assertEquals(sixTasks.size(), coTasksGetterCalls.get());
+    }
+
+    // Test that co-task counts are kept up to date when the co-tasks getter returns a new set for each call, and that
+    // unique constraint failures name a co-task already using the attribute value.
+    @Test
+    public void testUniqueConstraintWithNewCoTaskSets() throws Exception {
+        Map<String, TaskRequest> taskMap = new HashMap<>();
+        final Map<String, Set<String>> taskToCoTasksMap = new HashMap<>();
+        UniqueHostAttrConstraint zoneConstraint = new UniqueHostAttrConstraint(new Func1<String, Set<String>>() {
+            @Override
+            public Set<String> call(String s) {
+                return new HashSet<>(taskToCoTasksMap.get(s));
+            }
+        }, zoneAttrName);
+        List<TaskRequest> sixTasks = getThreeTasks(taskMap, taskToCoTasksMap, zoneConstraint, null);
+        sixTasks.addAll(getThreeTasks(taskMap, taskToCoTasksMap, zoneConstraint, null));
+        final SchedulingResult schedulingResult = getTaskScheduler().scheduleOnce(sixTasks, getThreeVMs());
+        Set<String> assigned = new HashSet<>();
+        for(VMAssignmentResult r: schedulingResult.getResultMap().values()) {
+            Assert.assertEquals(1, r.getTasksAssigned().size());
+            assigned.add(r.getTasksAssigned().iterator().next().getTaskId());
+        }
+        Assert.assertEquals(numZones, assigned.size());
+        Assert.assertEquals(sixTasks.size() - numZones, schedulingResult.getFailures().size());
+        for(List<TaskAssignmentResult> failures: schedulingResult.getFailures().values()) {
+            for(TaskAssignmentResult failure: failures) {
+                final String reason = failure.getConstraintFailure().getReason();
+                final String prefix = "already used for another co-task ";
+                Assert.assertTrue(reason, reason.contains(prefix));
+                Assert.assertTrue(reason, assigned.contains(reason.substring(reason.indexOf(prefix) + prefix.length())));
+            }
+        }
+    }
+
     // test that tasks that specify unique hosts land on separate hosts
     @Test
     public void testUniqueHostConstraint() throws Exception {
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.functions.Func1;
+import com.netflix.fenzo.plugins.BinPackingFitnessCalculators;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ParallelAssignmentEvaluatorTest {
+
+    private TaskScheduler getScheduler(int maxConcurrent, Func1<Double, Boolean> isFitnessGoodEnoughFunction) {
+        return new TaskScheduler.Builder()
+                .withLeaseOfferExpirySecs(1000000)
+                .withLeaseRejectAction(lease -> System.out.println("Rejecting offer on host " + lease.hostname()))
+                .withFitnessCalculator(BinPackingFitnessCalculators.cpuMemBinPacker)
+                .withFitnessGoodEnoughFunction(isFitnessGoodEnoughFunction)
+                .withMaxConcurrent(maxConcurrent)
+                .build();
+    }
+
+    private List<VirtualMachineLease> getLeases() {
+        List<VirtualMachineLease> leases = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            leases.add(LeaseProvider.getLeaseOffer("host" + i, 2 + (i % 7), 2000 + 1000 * (i % 5), 1, 100));
+        }
+        return leases;
+    }
+
+    private Map<String, String> getAssignments(SchedulingResult result) {
+        Map<String, String> assignments = new HashMap<>();
+        for (VMAssignmentResult r : result.getResultMap().values()) {
+            for (TaskAssignmentResult a : r.getTasksAssigned()) {
+                assignments.put(a.getTaskId(), r.getHostname());
+            }
+        }
+        return assignments;
+    }
+
+    // verify that evaluating segments of hosts concurrently picks the same hosts as evaluating them serially
+    @Test
+    public void testConcurrentEvalMatchesSerial() throws Exception {
+        final TaskScheduler serial = getScheduler(1, f -> f > 1.0);
+        final TaskScheduler concurrent = getScheduler(8, f -> f > 1.0);
+        try {
+            for (int iter = 0; iter < 3; iter++) {
+                List<TaskRequest> tasks = new ArrayList<>();
+                for (int t = 0; t < 50; t++) {
+                    tasks.add(TaskRequestProvider.getTaskRequest(1 + (t % 3), 500 + 100 * (t % 4), 1));
+                }
+                final SchedulingResult serialResult = serial.scheduleOnce(tasks, iter == 0 ? getLeases() : new ArrayList<>());
+                final SchedulingResult concurrentResult = concurrent.scheduleOnce(tasks, iter == 0 ? getLeases() : new ArrayList<>());
+                Assert.assertEquals(0, concurrentResult.getExceptions().size());
+                Assert.assertEquals(tasks.size(), getAssignments(concurrentResult).size());
+                Assert.assertEquals(getAssignments(serialResult), getAssignments(concurrentResult));
+                Assert.assertEquals(serialResult.getNumAllocations(), concurrentResult.getNumAllocations());
+            }
+        } finally {
+            serial.shutdown();
+            concurrent.shutdown();
+        }
+    }
+
+    // verify that evaluation stops early once a good enough assignment is found
+    @Test
+    public void testEarlyExitOnGoodEnoughFitness() throws Exception {
+        final TaskScheduler taskScheduler = getScheduler(4, f -> true);
+        try {
+            List<TaskRequest> tasks = new ArrayList<>();
+            for (int t = 0; t < 20; t++) {
+                tasks.add(TaskRequestProvider.getTaskRequest(1, 100, 1));
+            }
+            final List<VirtualMachineLease> leases = getLeases();
+            final SchedulingResult result = taskScheduler.scheduleOnce(tasks, leases);
+            Assert.assertEquals(tasks.size(), getAssignments(result).size());
+            Assert.assertTrue("Expected fewer allocation trials than tasks x hosts, got " + result.getNumAllocations(),
+                    result.getNumAllocations() < tasks.size() * leases.size());
+        } finally {
+            taskScheduler.shutdown();
+        }
+    }
+
+    // verify that with compact failure reporting, the failures of a task evaluated concurrently on all hosts are
+    // summarized with the given number of samples
+    @Test
+    public void testConcurrentEvalSummarizesFailures() throws Exception {
+        final TaskScheduler taskScheduler = new TaskScheduler.Builder()
+                .withLeaseOfferExpirySecs(1000000)
+                .withLeaseRejectAction(lease -> System.out.println("Rejecting offer on host " + lease.hostname()))
+                .withMaxConcurrent(4)
+                .withCompactFailureReporting(2)
+                .build();
+        try {
+            final TaskRequest task = TaskRequestProvider.getTaskRequest(1, 100, 1,
+                    Collections.singletonList(ConstraintsProvider.getHostAttributeHardConstraint("zone", "zone1")),
+                    null);
+            final List<VirtualMachineLease> leases = getLeases();
+            final SchedulingResult result = taskScheduler.scheduleOnce(Collections.singletonList(task), leases);
+            Assert.assertEquals(0, result.getExceptions().size());
+            Assert.assertEquals(0, result.getResultMap().size());
+            Assert.assertTrue(result.getFailures().isEmpty());
+            Assert.assertEquals(leases.size(), result.getNumAllocations());
+            final TaskFailureSummary summary = result.getFailureSummaries().get(task);
+            Assert.assertNotNull(summary);
+            Assert.assertEquals(leases.size(), summary.getNumResults());
+            Assert.assertEquals(Integer.valueOf(leases.size()),
+                    summary.getConstraintFailureCounts().get("HostAttributeHardConstraint"));
+            Assert.assertEquals(2, summary.getSampleResults().size());
+            for (TaskAssignmentResult r : summary.getSampleResults()) {
+                Assert.assertFalse(r.isSuccessful());
+                Assert.assertNotNull(r.getConstraintFailure());
+            }
+        } finally {
+            taskScheduler.shutdown();
+        }
+    }
+
+    // verify that the evaluator rejects evaluating a task while it is already in use
+    @Test
+    public void testReentrantUseRejected() throws Exception {
+        final ParallelAssignmentEvaluator evaluator =
+                new ParallelAssignmentEvaluator(2, 1, BinPackingFitnessCalculators.cpuMemBinPacker, f -> false);
+        try {
+            evaluator.runPartitions(1, p -> evaluator.evaluate(TaskRequestProvider.getTaskRequest(1, 100, 1),
+                    new ArrayList<>()));
+            Assert.fail("Expected re-entrant evaluation to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // the evaluator is usable again after the rejected call
+        Assert.assertNull(evaluator.evaluate(TaskRequestProvider.getTaskRequest(1, 100, 1), new ArrayList<>())
+                .getSuccessfulResult());
+        evaluator.shutdown();
+    }
+}
@@ -72,6 +72,27 @@ public class ScalarResourceTests {
         System.out.println(result.getFailures().values().iterator().next().get(0).getFailures().get(0));
     }
 
+    // Test that a failure reports the scalar usage at the time the task was evaluated, not after later assignments
+    @Test
+    public void testScalarFailureReportsUsageAtEvaluation() throws Exception {
+        final TaskScheduler scheduler = getScheduler();
+        final double scalarsOnHost = 4.0;
+        final List<TaskRequest> tasks = new ArrayList<>();
+        tasks.add(TaskRequestProvider.getTaskRequest(null, 1, 100, 1, 1, 1, null, null, null, Collections.singletonMap("gpu", 3.0)));
+        final TaskRequest failingTask = TaskRequestProvider.getTaskRequest(null, 1, 100, 1, 1, 1, null, null, null, Collections.singletonMap("gpu", 3.0));
+        tasks.add(failingTask);
+        tasks.add(TaskRequestProvider.getTaskRequest(null, 1, 100, 1, 1, 1, null, null, null, Collections.singletonMap("gpu", 1.0)));
+        final VirtualMachineLease host1 = LeaseProvider.getLeaseOffer("host1", 4.0, 4000.0, 100, 1024,
+                Collections.singletonList(new VirtualMachineLease.Range(1, 10)), null, Collections.singletonMap("gpu", scalarsOnHost));
+        final SchedulingResult result = scheduler.scheduleOnce(tasks, Collections.singletonList(host1));
+        Assert.assertEquals(1, result.getFailures().size());
+        Assert.assertEquals(2, result.getResultMap().values().iterator().next().getTasksAssigned().size());
+        final AssignmentFailure failure = result.getFailures().get(failingTask).get(0).getFailures().get(0);
+        Assert.assertEquals(VMResource.Other, failure.getResource());
+        Assert.assertEquals(3.0, failure.getUsed(), 0.0);
+        Assert.assertEquals(scalarsOnHost, failure.getAvailable(), 0.0);
+    }
+
     @Test
     public void testMultipleTasksScalarRequests() throws Exception {
         final TaskScheduler scheduler = getScheduler();
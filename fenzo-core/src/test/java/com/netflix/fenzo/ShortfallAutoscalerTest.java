@@ -93,28 +93,41 @@ public class ShortfallAutoscalerTest {
 
     private TaskSchedulingService getSchedulingService(TaskQueue queue, Action0 preHook, TaskScheduler scheduler,
                                                        Action1<SchedulingResult> resultCallback) {
-        return new TaskSchedulingService.Builder()
+        return getSchedulingService(queue, preHook, scheduler, resultCallback, false);
+    }
+
+    private TaskSchedulingService getSchedulingService(TaskQueue queue, Action0 preHook, TaskScheduler scheduler,
+                                                       Action1<SchedulingResult> resultCallback,
+                                                       boolean asyncShortfallEvaluation) {
+        final TaskSchedulingService.Builder builder = new TaskSchedulingService.Builder()
                 .withLoopIntervalMillis(20)
                 .withMaxDelayMillis(100)
                 .withPreSchedulingLoopHook(preHook)
                 .withSchedulingResultCallback(resultCallback)
                 .withTaskQueue(queue)
                 .withTaskScheduler(scheduler)
-                .withOptimizingShortfallEvaluator()
-                .build();
+                .withOptimizingShortfallEvaluator();
+        if (asyncShortfallEvaluation)
+            builder.withAsyncShortfallEvaluation();
+        return builder.build();
     }
 
     @Test
     public void testShortfallScaleUp1group() throws Exception {
-        testShortfallScaleUp1group(false);
+        testShortfallScaleUp1group(false, false);
     }
 
     @Test
     public void testShortfallScaleUp1groupWithActiveVms() throws Exception {
-        testShortfallScaleUp1group(true);
+        testShortfallScaleUp1group(true, false);
     }
 
-    private void testShortfallScaleUp1group(boolean useActiveVms) throws Exception {
+    @Test
+    public void testShortfallScaleUp1groupAsync() throws Exception {
+        testShortfallScaleUp1group(false, true);
+    }
+
+    private void testShortfallScaleUp1group(boolean useActiveVms, boolean asyncShortfallEvaluation) throws Exception {
         final AutoScaleRule rule = AutoScaleRuleProvider.createRule(hostAttrVal1, minIdle1, maxIdle1, coolDownSecs*100,
                 1, 1000);
         AtomicInteger scaleUpReceived = new AtomicInteger();
@@ -149,7 +162,7 @@ public class ShortfallAutoscalerTest {
             }
         };
         final TaskSchedulingService schedulingService = getSchedulingService(
-                queue, preHook, scheduler, resultCallback);
+                queue, preHook, scheduler, resultCallback, asyncShortfallEvaluation);
         final List<QueuableTask> requests = new ArrayList<>();
         for(int i = 0; i<rule.getMaxIdleHostsToKeep()*8* cpus1; i++)
             requests.add(QueuableTaskProvider.wrapTask(qA1, TaskRequestProvider .getTaskRequest(1, memMultiplier, 1)));
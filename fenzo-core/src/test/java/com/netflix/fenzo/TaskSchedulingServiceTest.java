@@ -17,6 +17,7 @@
 package com.netflix.fenzo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -508,6 +509,54 @@ public class TaskSchedulingServiceTest {
         Assert.assertTrue("Got tasks list too late", (gotTasksAt.get() - startAt) < (maxDelay + 2 * loopMillis));
     }
 
+    // Test that with incremental scheduling, a task that didn't fit on any host is not evaluated again until a host
+    // gains resources, while its failures continue to be reported for all hosts.
+    @Test
+    public void testIncrementalScheduling() throws Exception {
+        TaskQueue queue = TaskQueues.createTieredQueue(2);
+        final TaskScheduler scheduler = getScheduler();
+        final BlockingQueue<SchedulingResult> results = new LinkedBlockingQueue<>();
+        final TaskSchedulingService schedulingService = new TaskSchedulingService.Builder()
+                .withTaskQueue(queue)
+                .withLoopIntervalMillis(20L)
+                .withMaxDelayMillis(20L)
+                .withSchedulingResultCallback(results::offer)
+                .withTaskScheduler(scheduler)
+                .withIncrementalScheduling()
+                .build();
+        final List<VirtualMachineLease.Range> ports = Collections.singletonList(new VirtualMachineLease.Range(1, 10));
+        // the task fits within the largest cpus and memory of the hosts, but not on any one of them
+        schedulingService.addLeases(Arrays.asList(
+                LeaseProvider.getLeaseOffer("hostA", 4, 1000, ports),
+                LeaseProvider.getLeaseOffer("hostB", 1, 4000, ports)
+        ));
+        final QueuableTask task = QueuableTaskProvider.wrapTask(tier1bktA, TaskRequestProvider.getTaskRequest(2, 2000, 1));
+        queue.queueTask(task);
+        schedulingService.start();
+        try {
+            SchedulingResult result = results.poll(2000, TimeUnit.MILLISECONDS);
+            Assert.assertNotNull("Timeout waiting for scheduling result", result);
+            Assert.assertEquals(2, result.getNumAllocations());
+            Assert.assertEquals(2, result.getFailures().get(task).size());
+            for (int i = 0; i < 3; i++) {
+                result = results.poll(2000, TimeUnit.MILLISECONDS);
+                Assert.assertNotNull("Timeout waiting for scheduling result", result);
+                Assert.assertEquals(0, result.getNumAllocations());
+                Assert.assertEquals(2, result.getFailures().get(task).size());
+            }
+            // more memory on hostA makes the task fit there, and only hostA needs to be evaluated for it
+            schedulingService.addLeases(Collections.singletonList(LeaseProvider.getLeaseOffer("hostA", 0, 1000, Collections.emptyList())));
+            do {
+                result = results.poll(2000, TimeUnit.MILLISECONDS);
+                Assert.assertNotNull("Timeout waiting for assignment", result);
+            } while (result.getResultMap().isEmpty());
+            Assert.assertEquals(1, result.getNumAllocations());
+            Assert.assertEquals("hostA", result.getResultMap().keySet().iterator().next());
+        } finally {
+            schedulingService.shutdown();
+        }
+    }
+
     @Test
     public void testInitWithPrevRunningTasks() throws Exception {
         TaskQueue queue = TaskQueues.createTieredQueue(2);
@@ -541,6 +590,261 @@ public class TaskSchedulingServiceTest {
         Assert.assertEquals(hostname, ref.get());
     }
 
+    // Test that state snapshots are published after iterations, and that the changes since a snapshot have only the
+    // hosts that changed after it
+    @Test
+    public void testStateSnapshots() throws Exception {
+        TaskQueue queue = TaskQueues.createTieredQueue(2);
+        final TaskScheduler scheduler = getScheduler();
+        Action1<SchedulingResult> resultCallback = schedulingResult -> {
+            // no-op
+        };
+        final TaskSchedulingService schedulingService = new TaskSchedulingService.Builder()
+                .withTaskQueue(queue)
+                .withLoopIntervalMillis(20L)
+                .withMaxDelayMillis(100L)
+                .withSchedulingResultCallback(resultCallback)
+                .withTaskScheduler(scheduler)
+                .withStateSnapshots(true)
+                .build();
+        schedulingService.start();
+        try {
+            schedulingService.addLeases(Collections.singletonList(LeaseProvider.getLeaseOffer("hostA", 4, 4000, 1, 10)));
+            Thread.sleep(300L);
+            final SchedulingStateSnapshot first = schedulingService.getStateSnapshot();
+            Assert.assertNotNull(first);
+            Assert.assertEquals(1, first.getVmCurrentStates().size());
+            Assert.assertEquals("hostA", first.getVmCurrentStates().get(0).getHostname());
+            Assert.assertTrue(first.getResourceStatus().containsKey("hostA"));
+            Assert.assertNotNull(first.getAllTasks());
+            schedulingService.addLeases(Collections.singletonList(LeaseProvider.getLeaseOffer("hostB", 4, 4000, 1, 10)));
+            Thread.sleep(300L);
+            final SchedulingStateSnapshot second = schedulingService.getStateSnapshot();
+            Assert.assertTrue(second.getVersion() > first.getVersion());
+            Assert.assertEquals(2, second.getVmCurrentStates().size());
+            final SchedulingStateSnapshot.Delta delta = second.getChangesSince(first.getVersion());
+            Assert.assertNotNull(delta);
+            Assert.assertEquals(1, delta.getChangedVmStates().size());
+            Assert.assertEquals("hostB", delta.getChangedVmStates().get(0).getHostname());
+            Assert.assertTrue(delta.getRemovedHosts().isEmpty());
+            Assert.assertNull(second.getChangesSince(second.getVersion() + 1));
+        } finally {
+            schedulingService.shutdown();
+        }
+    }
+
+    // Test that a snapshot keeps the resources of a host at the time it was taken after the scheduler adds more
+    @Test
+    public void testStateSnapshotUnchangedByLaterIterations() throws Exception {
+        final TaskScheduler scheduler = getScheduler();
+        try {
+            scheduler.scheduleOnce(Collections.emptyList(),
+                    Collections.singletonList(LeaseProvider.getLeaseOffer("hostA", 4, 4000, 1, 10)));
+            final SchedulingStateSnapshot snapshot = scheduler.createStateSnapshot(null, null);
+            final VirtualMachineLease lease = snapshot.getVmCurrentStates().get(0).getCurrAvailableResources();
+            Assert.assertEquals(4.0, lease.cpuCores(), 0.0);
+            Assert.assertEquals(4000.0, lease.memoryMB(), 0.0);
+            Assert.assertEquals(1, lease.portRanges().size());
+            scheduler.scheduleOnce(Collections.emptyList(),
+                    Collections.singletonList(LeaseProvider.getLeaseOffer("hostA", 2, 1000, 20, 30)));
+            Assert.assertEquals(6.0, scheduler.getVmCurrentStates().get(0).getCurrAvailableResources().cpuCores(), 0.0);
+            Assert.assertEquals(4.0, lease.cpuCores(), 0.0);
+            Assert.assertEquals(4000.0, lease.memoryMB(), 0.0);
+            Assert.assertEquals(1, lease.portRanges().size());
+            Assert.assertSame(lease, snapshot.getVmCurrentStates().get(0).getCurrAvailableResources());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    // Test that with a pipelined result callback, iterations continue while the callback handles a result, until the
+    // max number of results are waiting for the callback
+    @Test
+    public void testPipelinedResultCallback() throws Exception {
+        TaskQueue queue = TaskQueues.createTieredQueue(2);
+        final TaskScheduler scheduler = getScheduler();
+        final CountDownLatch callbackLatch = new CountDownLatch(1);
+        final AtomicLong numIterations = new AtomicLong();
+        final AtomicLong numResults = new AtomicLong();
+        Action1<SchedulingResult> resultCallback = schedulingResult -> {
+            try {
+                callbackLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            numResults.incrementAndGet();
+        };
+        final TaskSchedulingService schedulingService = new TaskSchedulingService.Builder()
+                .withTaskQueue(queue)
+                .withLoopIntervalMillis(10L)
+                .withMaxDelayMillis(10L)
+                .withPreSchedulingLoopHook(numIterations::incrementAndGet)
+                .withPipelinedResultCallback(2)
+                .withSchedulingResultCallback(resultCallback)
+                .withTaskScheduler(scheduler)
+                .build();
+        schedulingService.start();
+        try {
+            // one result in the callback, two waiting, and the fourth iteration waiting to hand its result over
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (numIterations.get() < 4L && System.currentTimeMillis() < deadline)
+                Thread.sleep(10L);
+            Assert.assertEquals(4L, numIterations.get());
+            Thread.sleep(100L);
+            Assert.assertEquals(4L, numIterations.get());
+            Assert.assertEquals(0L, numResults.get());
+            callbackLatch.countDown();
+            deadline = System.currentTimeMillis() + 5000L;
+            while ((numResults.get() < 4L || numIterations.get() <= 4L) && System.currentTimeMillis() < deadline)
+                Thread.sleep(10L);
+            Assert.assertTrue(numResults.get() >= 4L);
+            Assert.assertTrue(numIterations.get() > 4L);
+        } finally {
+            schedulingService.shutdown();
+        }
+    }
+
+    // Test that with a pipelined result callback, the results of all iterations that ran are handed to the callback
+    // after shutdown, including those waiting for the callback and that of the iteration running at shutdown
+    @Test
+    public void testPipelinedResultsNotDroppedAtShutdown() throws Exception {
+        TaskQueue queue = TaskQueues.createTieredQueue(2);
+        final TaskScheduler scheduler = getScheduler();
+        final CountDownLatch callbackLatch = new CountDownLatch(1);
+        final AtomicLong numIterations = new AtomicLong();
+        final AtomicLong numResults = new AtomicLong();
+        Action1<SchedulingResult> resultCallback = schedulingResult -> {
+            try {
+                callbackLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            numResults.incrementAndGet();
+        };
+        final TaskSchedulingService schedulingService = new TaskSchedulingService.Builder()
+                .withTaskQueue(queue)
+                .withLoopIntervalMillis(10L)
+                .withMaxDelayMillis(10L)
+                .withPreSchedulingLoopHook(numIterations::incrementAndGet)
+                .withPipelinedResultCallback(2)
+                .withSchedulingResultCallback(resultCallback)
+                .withTaskScheduler(scheduler)
+                .build();
+        schedulingService.start();
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (numIterations.get() < 4L && System.currentTimeMillis() < deadline)
+            Thread.sleep(10L);
+        Assert.assertEquals(4L, numIterations.get());
+        new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            callbackLatch.countDown();
+        }).start();
+        // returns once the fourth iteration, waiting to hand its result over, completes
+        schedulingService.shutdown();
+        deadline = System.currentTimeMillis() + 5000L;
+        while (numResults.get() < 4L && System.currentTimeMillis() < deadline)
+            Thread.sleep(10L);
+        Assert.assertEquals(numIterations.get(), numResults.get());
+    }
+
+    // Test that with event driven scheduling, iterations run right away on new tasks and leases, and don't run while
+    // there are no changes
+    @Test
+    public void testEventDrivenScheduling() throws Exception {
+        TaskQueue queue = TaskQueues.createTieredQueue(2);
+        final TaskScheduler scheduler = getScheduler();
+        final AtomicLong numIterations = new AtomicLong();
+        final BlockingQueue<String> assignedTaskIds = new LinkedBlockingQueue<>();
+        Action1<SchedulingResult> resultCallback = schedulingResult -> {
+            numIterations.incrementAndGet();
+            schedulingResult.getResultMap().values().forEach(
+                    r -> r.getTasksAssigned().forEach(t -> assignedTaskIds.offer(t.getTaskId())));
+        };
+        final TaskSchedulingService schedulingService = new TaskSchedulingService.Builder()
+                .withTaskQueue(queue)
+                .withMaxDelayMillis(100000L)
+                .withEventDrivenScheduling(10L, 50L)
+                .withSchedulingResultCallback(resultCallback)
+                .withTaskScheduler(scheduler)
+                .build();
+        schedulingService.start();
+        try {
+            // the first iteration runs on start, a heartbeat may add another one before the check
+            final long startedAt = System.currentTimeMillis();
+            while (numIterations.get() == 0L && System.currentTimeMillis() - startedAt < 2000L)
+                Thread.sleep(5L);
+            Assert.assertTrue("Expected an iteration on start", numIterations.get() >= 1L);
+            for (int i = 0; i < 5; i++)
+                queue.queueTask(QueuableTaskProvider.wrapTask(tier1bktA, TaskRequestProvider.getTaskRequest(1, 100, 1)));
+            schedulingService.addLeases(LeaseProvider.getLeases(2, 4, 8000, 2000, 1, 100));
+            for (int i = 0; i < 5; i++) {
+                if (assignedTaskIds.poll(2000L, TimeUnit.MILLISECONDS) == null)
+                    Assert.fail("Timeout waiting for task assignments");
+            }
+            final long iterations = numIterations.get();
+            Thread.sleep(200L);
+            Assert.assertEquals(iterations, numIterations.get());
+        } finally {
+            schedulingService.shutdown();
+        }
+    }
+
+    // Test that tasks initialized and removed in bulk, across hosts and buckets, are applied in the order requested
+    @Test
+    public void testBulkInitAndRemoveTasks() throws Exception {
+        TaskQueue queue = TaskQueues.createTieredQueue(2);
+        final TaskScheduler scheduler = getScheduler();
+        Action1<SchedulingResult> resultCallback = schedulingResult -> {
+            // no-op
+        };
+        final long maxDelay = 500L;
+        final long loopMillis = 50L;
+        final TaskSchedulingService schedulingService = getSchedulingService(queue, scheduler, loopMillis, maxDelay, resultCallback);
+        final Map<String, List<QueuableTask>> runningTasks = new HashMap<>();
+        final List<TaskSchedulingService.RemoveTaskRequest> removeRequests = new ArrayList<>();
+        for (String hostname : Arrays.asList("hostA", "hostB")) {
+            final List<QueuableTask> tasks = new ArrayList<>();
+            for (QAttributes qAttributes : Arrays.asList(tier1bktA, tier1bktB, tier1bktD1)) {
+                for (int i = 0; i < 2; i++)
+                    tasks.add(QueuableTaskProvider.wrapTask(qAttributes, TaskRequestProvider.getTaskRequest(1, 100, 1)));
+            }
+            runningTasks.put(hostname, tasks);
+            // remove one task of each bucket on hostA, and none on hostB
+            if (hostname.equals("hostA")) {
+                for (int i = 0; i < tasks.size(); i += 2)
+                    removeRequests.add(new TaskSchedulingService.RemoveTaskRequest(
+                            tasks.get(i).getId(), tasks.get(i).getQAttributes(), hostname));
+            }
+        }
+        schedulingService.initializeRunningTasks(runningTasks);
+        schedulingService.removeTasks(removeRequests);
+        schedulingService.start();
+        final AtomicReference<Map<String, Integer>> ref = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        schedulingService.requestVmCurrentStates(
+                states -> {
+                    final Map<String, Integer> counts = new HashMap<>();
+                    for (VirtualMachineCurrentState state : states)
+                        counts.put(state.getHostname(), state.getRunningTasks().size());
+                    ref.set(counts);
+                    latch.countDown();
+                }
+        );
+        try {
+            if (!latch.await(maxDelay * 2, TimeUnit.MILLISECONDS)) {
+                Assert.fail("Timeout waiting for vm states");
+            }
+            Assert.assertEquals(3, ref.get().get("hostA").intValue());
+            Assert.assertEquals(6, ref.get().get("hostB").intValue());
+        } finally {
+            schedulingService.shutdown();
+        }
+    }
+
     // Test with a large number of tasks captured from a run that caused problems to tier buckets' sorting. Ensure that
     //
     @Test
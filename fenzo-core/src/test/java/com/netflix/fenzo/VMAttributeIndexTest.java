@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.functions.Func1;
+import com.netflix.fenzo.plugins.BalancedHostAttrConstraint;
+import com.netflix.fenzo.plugins.BinPackingFitnessCalculators;
+import com.netflix.fenzo.plugins.HostAttrValueConstraint;
+import com.netflix.fenzo.plugins.UniqueHostAttrConstraint;
+import org.apache.mesos.Protos;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VMAttributeIndexTest {
+
+    private static final String zoneAttrName = "Zone";
+    private static final String instanceAttrName = "InstanceId";
+    private static final int numZones = 3;
+    private static final int hostsPerZone = 3;
+
+    private TaskScheduler getScheduler() {
+        return new TaskScheduler.Builder()
+                .withLeaseOfferExpirySecs(1000000)
+                .withLeaseRejectAction(lease -> System.out.println("Rejecting offer on host " + lease.hostname()))
+                .build();
+    }
+
+    private List<VirtualMachineLease> getLeases() {
+        List<VirtualMachineLease> leases = new ArrayList<>();
+        for (int i = 0; i < numZones * hostsPerZone; i++) {
+            Map<String, Protos.Attribute> attributes = new HashMap<>();
+            attributes.put(zoneAttrName, Protos.Attribute.newBuilder().setName(zoneAttrName)
+                    .setType(Protos.Value.Type.TEXT)
+                    .setText(Protos.Value.Text.newBuilder().setValue(getZone(i))).build());
+            attributes.put(instanceAttrName, Protos.Attribute.newBuilder().setName(instanceAttrName)
+                    .setType(Protos.Value.Type.TEXT)
+                    .setText(Protos.Value.Text.newBuilder().setValue("instance" + i)).build());
+            leases.add(LeaseProvider.getLeaseOffer("host" + i, 4, 4000,
+                    Collections.singletonList(new VirtualMachineLease.Range(1, 10)), attributes));
+        }
+        return leases;
+    }
+
+    private static String getZone(int hostIndex) {
+        return "zone" + (hostIndex % numZones);
+    }
+
+    private static String getZoneOfHost(String hostname) {
+        return getZone(Integer.parseInt(hostname.substring("host".length())));
+    }
+
+    private Map<String, String> getAssignedZones(SchedulingResult result) {
+        Map<String, String> zones = new HashMap<>();
+        for (VMAssignmentResult r : result.getResultMap().values()) {
+            for (TaskAssignmentResult t : r.getTasksAssigned())
+                zones.put(t.getTaskId(), getZoneOfHost(r.getHostname()));
+        }
+        return zones;
+    }
+
+    // verify that a task with a host attribute value constraint is evaluated only on hosts with that value
+    @Test
+    public void testOnlyMatchingHostsEvaluated() throws Exception {
+        final TaskScheduler taskScheduler = getScheduler();
+        final TaskRequest task = TaskRequestProvider.getTaskRequest(1, 100, 1,
+                Collections.singletonList(new HostAttrValueConstraint(zoneAttrName, taskId -> "zone1")), null);
+        final SchedulingResult result = taskScheduler.scheduleOnce(Collections.singletonList(task), getLeases());
+        Assert.assertEquals("zone1", getAssignedZones(result).get(task.getId()));
+        Assert.assertTrue(result.getNumAllocations() <= hostsPerZone);
+    }
+
+    // verify that co-tasks with a unique zone constraint get distinct zones, and that a co-task that can't be
+    // assigned gets a constraint failure reported for every host
+    @Test
+    public void testUniqueZoneCoTasks() throws Exception {
+        final TaskScheduler taskScheduler = getScheduler();
+        final Set<String> coTasks = new HashSet<>();
+        final Func1<String, Set<String>> coTasksGetter = taskId -> coTasks;
+        final List<TaskRequest> tasks = new ArrayList<>();
+        for (int i = 0; i < numZones + 1; i++) {
+            final TaskRequest task = TaskRequestProvider.getTaskRequest(1, 100, 1,
+                    Collections.singletonList(new UniqueHostAttrConstraint(coTasksGetter, zoneAttrName)), null);
+            coTasks.add(task.getId());
+            tasks.add(task);
+        }
+        final SchedulingResult result = taskScheduler.scheduleOnce(tasks, getLeases());
+        final Map<String, String> zones = getAssignedZones(result);
+        Assert.assertEquals(numZones, zones.size());
+        Assert.assertEquals(numZones, new HashSet<>(zones.values()).size());
+        Assert.assertEquals(1, result.getFailures().size());
+        final List<TaskAssignmentResult> failures = result.getFailures().values().iterator().next();
+        Assert.assertEquals(numZones * hostsPerZone, failures.size());
+        for (TaskAssignmentResult r : failures)
+            Assert.assertNotNull(r.getConstraintFailure());
+    }
+
+    // verify that co-tasks with a balanced zone constraint are spread evenly across zones
+    @Test
+    public void testBalancedZoneCoTasks() throws Exception {
+        final TaskScheduler taskScheduler = getScheduler();
+        final Set<String> coTasks = new HashSet<>();
+        final Func1<String, Set<String>> coTasksGetter = taskId -> coTasks;
+        final List<TaskRequest> tasks = new ArrayList<>();
+        for (int i = 0; i < numZones * 2; i++) {
+            final TaskRequest task = TaskRequestProvider.getTaskRequest(1, 100, 1,
+                    Collections.singletonList(new BalancedHostAttrConstraint(coTasksGetter, zoneAttrName, numZones)),
+                    null);
+            coTasks.add(task.getId());
+            tasks.add(task);
+        }
+        final SchedulingResult result = taskScheduler.scheduleOnce(tasks, getLeases());
+        Assert.assertTrue(result.getFailures().isEmpty());
+        final Map<String, Integer> counts = new HashMap<>();
+        for (String zone : getAssignedZones(result).values())
+            counts.merge(zone, 1, Integer::sum);
+        Assert.assertEquals(numZones, counts.size());
+        for (Integer c : counts.values())
+            Assert.assertEquals(2, c.intValue());
+    }
+
+    // verify that hosts with the same attribute value have the same value id, that a task requiring a value no host
+    // has is not assigned, that only the attributes that are looked up are interned, and that each scheduler's VMs
+    // have their own ids
+    @Test
+    public void testAttributeValueIds() throws Exception {
+        final TaskScheduler taskScheduler = getScheduler();
+        final TaskRequest task = TaskRequestProvider.getTaskRequest(1, 100, 1,
+                Collections.singletonList(new HostAttrValueConstraint(zoneAttrName, taskId -> "zoneX")), null);
+        final SchedulingResult result = taskScheduler.scheduleOnce(Collections.singletonList(task), getLeases());
+        Assert.assertTrue(result.getResultMap().isEmpty());
+        for (VirtualMachineCurrentState state : taskScheduler.getVmCurrentStates()) {
+            Assert.assertTrue(state.hasAttributeValue(zoneAttrName, getZoneOfHost(state.getHostname())));
+            Assert.assertFalse(state.hasAttributeValue(zoneAttrName, "zoneX"));
+            Assert.assertTrue(
+                    state.hasAttributeValue(HostAttributeConstraintEvaluator.HOSTNAME_ATTRIBUTE, state.getHostname()));
+            Assert.assertFalse(state.hasAttributeValue("NoSuchAttribute", "zoneX"));
+        }
+
+        final AssignableVMs assignableVMs = new AssignableVMs(new TaskTracker(), lease -> {}, null, 1000000, 0, null,
+                false, null);
+        final ParallelAssignmentEvaluator evaluator =
+                new ParallelAssignmentEvaluator(1, 1, BinPackingFitnessCalculators.cpuMemBinPacker, f -> false);
+        final List<AssignableVirtualMachine> avms =
+                assignableVMs.prepareAndGetOrderedVMs(getLeases(), new AtomicInteger(), evaluator);
+        final HostAttributeIds ids = assignableVMs.getHostAttributeIds();
+        final int zoneNameId = ids.nameIdOf(zoneAttrName);
+        Assert.assertEquals(HostAttributeIds.NONE, ids.findValueId(zoneNameId, getZone(0)));
+        final Map<String, Integer> zoneIds = new HashMap<>();
+        for (AssignableVirtualMachine avm : avms) {
+            final int valueId = avm.getAttributeValueId(zoneNameId);
+            Assert.assertEquals(getZoneOfHost(avm.getHostname()), ids.valueOf(valueId));
+            final Integer zoneId = zoneIds.putIfAbsent(ids.valueOf(valueId), valueId);
+            if (zoneId != null)
+                Assert.assertEquals(zoneId.intValue(), valueId);
+            // hostnames are not interned
+            Assert.assertEquals(HostAttributeIds.NONE,
+                    avm.getAttributeValueId(ids.nameIdOf(HostAttributeConstraintEvaluator.HOSTNAME_ATTRIBUTE)));
+        }
+        Assert.assertEquals(numZones, zoneIds.size());
+        Assert.assertEquals(HostAttributeIds.NONE, ids.findValueId(zoneNameId, "zoneX"));
+        Assert.assertEquals(HostAttributeIds.NONE, ids.findValueId(ids.nameIdOf(instanceAttrName), "instance0"));
+        final HostAttributeIds otherIds =
+                new AssignableVMs(new TaskTracker(), lease -> {}, null, 1000000, 0, null, false, null).getHostAttributeIds();
+        Assert.assertEquals(HostAttributeIds.NONE, otherIds.findValueId(otherIds.nameIdOf(zoneAttrName), getZone(0)));
+    }
+}
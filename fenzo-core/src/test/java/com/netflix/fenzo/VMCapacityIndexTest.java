@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class VMCapacityIndexTest {
+
+    private TaskScheduler getScheduler() {
+        return new TaskScheduler.Builder()
+                .withLeaseOfferExpirySecs(1000000)
+                .withLeaseRejectAction(lease -> System.out.println("Rejecting offer on host " + lease.hostname()))
+                .build();
+    }
+
+    private List<VirtualMachineLease> getLeases() {
+        List<VirtualMachineLease> leases = new ArrayList<>();
+        leases.addAll(LeaseProvider.getLeases(0, 10, 2, 1000, 1, 10));
+        leases.addAll(LeaseProvider.getLeases(10, 2, 16, 16000, 1, 10));
+        return leases;
+    }
+
+    // verify that only hosts with enough resources are evaluated for a task
+    @Test
+    public void testOnlyFittingHostsEvaluated() throws Exception {
+        final TaskScheduler taskScheduler = getScheduler();
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        taskRequests.add(TaskRequestProvider.getTaskRequest(8, 1000, 1));
+        final SchedulingResult result = taskScheduler.scheduleOnce(taskRequests, getLeases());
+        Assert.assertEquals(1, result.getResultMap().size());
+        final String hostname = result.getResultMap().keySet().iterator().next();
+        Assert.assertTrue(hostname.equals("host10") || hostname.equals("host11"));
+        Assert.assertEquals(2, result.getNumAllocations());
+    }
+
+    // verify that the index tracks resources consumed by assignments within the same scheduling iteration
+    @Test
+    public void testIndexUpdatedOnAssignment() throws Exception {
+        final TaskScheduler taskScheduler = getScheduler();
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            taskRequests.add(TaskRequestProvider.getTaskRequest(8, 1000, 1));
+        }
+        taskRequests.add(TaskRequestProvider.getTaskRequest(1, 100, 1));
+        final SchedulingResult result = taskScheduler.scheduleOnce(taskRequests, getLeases());
+        int assigned = 0;
+        for (Map.Entry<String, VMAssignmentResult> entry : result.getResultMap().entrySet()) {
+            for (TaskAssignmentResult r : entry.getValue().getTasksAssigned()) {
+                assigned++;
+                if (r.getRequest().getCPUs() == 8) {
+                    Assert.assertTrue(entry.getKey().equals("host10") || entry.getKey().equals("host11"));
+                }
+            }
+        }
+        Assert.assertEquals(taskRequests.size(), assigned);
+        Assert.assertTrue(result.getFailures().isEmpty());
+    }
+
+    // verify that a task that does not fit on any host still gets a failure reported for every host
+    @Test
+    public void testFailuresReportedForAllHosts() throws Exception {
+        final TaskScheduler taskScheduler = getScheduler();
+        List<TaskRequest> taskRequests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            taskRequests.add(TaskRequestProvider.getTaskRequest(12, 1000, 1));
+        }
+        final List<VirtualMachineLease> leases = getLeases();
+        final SchedulingResult result = taskScheduler.scheduleOnce(taskRequests, leases);
+        Assert.assertEquals(2, result.getResultMap().size());
+        Assert.assertEquals(1, result.getFailures().size());
+        final List<TaskAssignmentResult> failures = result.getFailures().values().iterator().next();
+        Assert.assertEquals(leases.size(), failures.size());
+        Set<String> hosts = new HashSet<>();
+        for (TaskAssignmentResult r : failures) {
+            Assert.assertFalse(r.isSuccessful());
+            Assert.assertEquals(VMResource.CPU, r.getFailures().get(0).getResource());
+            hosts.add(r.getHostname());
+        }
+        Assert.assertEquals(leases.size(), hosts.size());
+    }
+}
@@ -124,6 +124,38 @@ public class VMCollectionTest {
         }
     }
 
+    // verify that VMs are listed in order of their index, that indices of removed VMs are reused, and that a VM moves
+    // from the default group to the group of its lease
+    @Test
+    public void testIndexedVMs() throws Exception {
+        final Map<String, AssignableVirtualMachine> avms = new HashMap<>();
+        VMCollection vms = createVmCollection(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new TaskTracker(), avms);
+        for (int i=0; i<3; i++)
+            vms.addLease(LeaseProvider.getLeaseOffer("host"+i, 4, 4000, 0, 0, ports, null));
+        final List<AssignableVirtualMachine> all = vms.getAllVMs();
+        Assert.assertEquals(3, all.size());
+        Assert.assertEquals("host0", all.get(0).getHostname());
+        Assert.assertEquals("host2", all.get(2).getHostname());
+        Assert.assertSame(all, vms.getAllVMs());
+        Assert.assertEquals(3, vms.size("DEFAULT"));
+
+        Assert.assertSame(avms.get("host1"), vms.remove(avms.get("host1")));
+        Assert.assertFalse(vms.getVmByName("host1").isPresent());
+        Assert.assertEquals(3, all.size());
+        vms.addLease(LeaseProvider.getLeaseOffer("host3", 4, 4000, 0, 0, ports, attributes1));
+        final List<AssignableVirtualMachine> after = vms.getAllVMs();
+        Assert.assertEquals(3, after.size());
+        Assert.assertEquals("host3", after.get(1).getHostname());
+        Assert.assertEquals(1, vms.size(attributeVal1));
+        Assert.assertEquals(2, vms.size("DEFAULT"));
+
+        vms.addLease(LeaseProvider.getLeaseOffer("host0", 4, 4000, 0, 0, ports, attributes1));
+        Assert.assertEquals(3, vms.size());
+        Assert.assertEquals(2, vms.size(attributeVal1));
+        Assert.assertEquals(1, vms.size("DEFAULT"));
+        Assert.assertSame(avms.get("host0"), vms.getVmByName("host0").get());
+    }
+
     private VMCollection createVmCollection(ConcurrentMap<String, String> vmIdTohostNames,
                                             ConcurrentMap<String, String> leasesToHostnames, TaskTracker taskTracker,
                                             Map<String, AssignableVirtualMachine> avms) {
@@ -0,0 +1,73 @@
+package com.netflix.fenzo.plugins;
+
+import java.util.List;
+
+import com.netflix.fenzo.VirtualMachineLease;
+import org.apache.mesos.Protos;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VMLeaseObjectTest {
+
+    private Protos.Offer getOffer(String offerId, String hostname, String zone) {
+        return Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue(offerId))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("agent-" + hostname))
+                .setHostname(hostname)
+                .addResources(Protos.Resource.newBuilder()
+                        .setName("cpus")
+                        .setType(Protos.Value.Type.SCALAR)
+                        .setScalar(Protos.Value.Scalar.newBuilder().setValue(4.0)))
+                .addResources(Protos.Resource.newBuilder()
+                        .setName("mem")
+                        .setType(Protos.Value.Type.SCALAR)
+                        .setScalar(Protos.Value.Scalar.newBuilder().setValue(1024.0)))
+                .addResources(Protos.Resource.newBuilder()
+                        .setName("gpu")
+                        .setType(Protos.Value.Type.SCALAR)
+                        .setScalar(Protos.Value.Scalar.newBuilder().setValue(1.0)))
+                .addResources(Protos.Resource.newBuilder()
+                        .setName("ports")
+                        .setType(Protos.Value.Type.RANGES)
+                        .setRanges(Protos.Value.Ranges.newBuilder()
+                                .addRange(Protos.Value.Range.newBuilder().setBegin(100).setEnd(200))
+                                .addRange(Protos.Value.Range.newBuilder().setBegin(300).setEnd(400))))
+                .addAttributes(Protos.Attribute.newBuilder()
+                        .setName("zone")
+                        .setType(Protos.Value.Type.TEXT)
+                        .setText(Protos.Value.Text.newBuilder().setValue(zone)))
+                .build();
+    }
+
+    @Test
+    public void testResourcesFromOffer() throws Exception {
+        final VMLeaseObject lease = new VMLeaseObject(getOffer("offer1", "host1", "zoneA"));
+        Assert.assertEquals("host1", lease.hostname());
+        Assert.assertEquals("agent-host1", lease.getVMID());
+        Assert.assertEquals("offer1", lease.getId());
+        Assert.assertEquals(4.0, lease.cpuCores(), 0.0);
+        Assert.assertEquals(1024.0, lease.memoryMB(), 0.0);
+        Assert.assertEquals(0.0, lease.networkMbps(), 0.0);
+        Assert.assertEquals(0.0, lease.diskMB(), 0.0);
+        Assert.assertEquals(1.0, lease.getScalarValue("gpu"), 0.0);
+        Assert.assertNull(lease.getScalarValue("network"));
+        Assert.assertEquals(3, lease.getScalarValues().size());
+        final List<VirtualMachineLease.Range> ports = lease.portRanges();
+        Assert.assertEquals(2, ports.size());
+        Assert.assertEquals(100, ports.get(0).getBeg());
+        Assert.assertEquals(400, ports.get(1).getEnd());
+        Assert.assertEquals("zoneA", lease.getAttributeMap().get("zone").getText().getValue());
+    }
+
+    // verify that the attribute map is created from the offer's attributes
+    @Test
+    public void testAttributeMapOfOffer() throws Exception {
+        final VMLeaseObject lease1 = new VMLeaseObject(getOffer("offer1", "host2", "zoneA"));
+        final VMLeaseObject lease2 = new VMLeaseObject(getOffer("offer2", "host2", "zoneB"));
+        Assert.assertSame(lease1.getAttributeMap(), lease1.getAttributeMap());
+        Assert.assertEquals(1, lease1.getAttributeMap().size());
+        Assert.assertEquals("zoneA", lease1.getAttributeMap().get("zone").getText().getValue());
+        Assert.assertEquals("zoneB", lease2.getAttributeMap().get("zone").getText().getValue());
+    }
+}
@@ -1,11 +1,18 @@
 package com.netflix.fenzo.queues.tiered;
 
+import com.netflix.fenzo.TaskRequestProvider;
+import com.netflix.fenzo.queues.Assignable;
+import com.netflix.fenzo.queues.QAttributes;
 import com.netflix.fenzo.queues.QueuableTask;
+import com.netflix.fenzo.queues.TaskQueueException;
 import com.netflix.fenzo.queues.UsageTrackedQueue.ResUsage;
 import com.netflix.fenzo.sla.ResAllocs;
 import com.netflix.fenzo.sla.ResAllocsBuilder;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.BiFunction;
 
 import static com.netflix.fenzo.sla.ResAllocsUtil.hasEqualResources;
@@ -77,4 +84,40 @@ public class QueueBucketTest {
         queueBucket.setTotalResources(generator.createResAllocs(8));
         assertThat(queueBucket.getDominantUsageShare(), is(equalTo(0.125)));
     }
+
+    @Test
+    public void testTasksNotReadyAreSkippedUntilReady() throws Exception {
+        final QAttributes qAttributes = new QAttributes.QAttributesAdaptor(0, BUCKET_NAME);
+        final List<QueuableTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(QueuableTaskProvider.wrapTask(qAttributes, TaskRequestProvider.getTaskRequest(1, 100, 1)));
+        }
+        final long future = System.currentTimeMillis() + 1000000L;
+        tasks.get(1).safeSetReadyAt(future);
+        for (QueuableTask t : tasks) {
+            queueBucket.queueTask(t);
+        }
+        queueBucket.setTaskReadyTime(tasks.get(2).getId(), qAttributes, future);
+        assertThat(getReadyTasks(), is(equalTo(Arrays.asList(tasks.get(0), tasks.get(3)))));
+
+        // ready tasks keep their queue order
+        queueBucket.setTaskReadyTime(tasks.get(2).getId(), qAttributes, System.currentTimeMillis() - 1);
+        assertThat(getReadyTasks(), is(equalTo(Arrays.asList(tasks.get(0), tasks.get(2), tasks.get(3)))));
+
+        queueBucket.setTaskReadyTime(tasks.get(0).getId(), qAttributes, future);
+        queueBucket.removeTask(tasks.get(3).getId(), qAttributes);
+        queueBucket.setTaskReadyTime(tasks.get(1).getId(), qAttributes, 0L);
+        assertThat(getReadyTasks(), is(equalTo(Arrays.asList(tasks.get(1), tasks.get(2)))));
+        assertThat(queueBucket.size(), is(equalTo(3)));
+    }
+
+    private List<QueuableTask> getReadyTasks() throws TaskQueueException {
+        final List<QueuableTask> result = new ArrayList<>();
+        Assignable<QueuableTask> next;
+        while ((next = queueBucket.nextTaskToLaunch()) != null) {
+            result.add(next.getTask());
+        }
+        queueBucket.reset();
+        return result;
+    }
 }
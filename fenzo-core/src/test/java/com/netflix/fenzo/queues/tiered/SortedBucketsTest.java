@@ -20,6 +20,8 @@ import com.netflix.fenzo.TaskRequestProvider;
 import com.netflix.fenzo.queues.QAttributes;
 import com.netflix.fenzo.queues.QueuableTask;
 import com.netflix.fenzo.queues.UsageTrackedQueue;
+import com.netflix.fenzo.sla.ResAllocs;
+import com.netflix.fenzo.sla.ResAllocsBuilder;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -65,6 +67,70 @@ public class SortedBucketsTest {
         }
     }
 
+    @Test
+    public void testUpdateAfterUsageChange() throws Exception {
+        UsageTrackedQueue.ResUsage parentUsage = new UsageTrackedQueue.ResUsage();
+        QAttributes parent = new QAttributes.QAttributesAdaptor(1, "Parent");
+        parentUsage.addUsage(QueuableTaskProvider.wrapTask(parent, TaskRequestProvider.getTaskRequest(100, 1000, 100)));
+        SortedBuckets sortedBuckets = new SortedBuckets(parentUsage);
+
+        final QueueBucket a = new QueueBucket(1, "A", parentUsage, null);
+        final QAttributes attrA = new QAttributes.QAttributesAdaptor(1, "A");
+        a.launchTask(QueuableTaskProvider.wrapTask(attrA, TaskRequestProvider.getTaskRequest(10, 100, 10)));
+        sortedBuckets.add(a);
+
+        final QueueBucket b = new QueueBucket(1, "B", parentUsage, null);
+        final QAttributes attrB = new QAttributes.QAttributesAdaptor(1, "B");
+        b.launchTask(QueuableTaskProvider.wrapTask(attrB, TaskRequestProvider.getTaskRequest(20, 200, 20)));
+        sortedBuckets.add(b);
+
+        final QueueBucket c = new QueueBucket(1, "C", parentUsage, null);
+        sortedBuckets.add(c);
+        Assert.assertEquals(Arrays.asList(c, a, b), sortedBuckets.getSortedList());
+
+        final QueuableTask bigTask = QueuableTaskProvider.wrapTask(new QAttributes.QAttributesAdaptor(1, "C"),
+                TaskRequestProvider.getTaskRequest(30, 300, 30));
+        c.launchTask(bigTask);
+        sortedBuckets.update(c);
+        Assert.assertEquals(Arrays.asList(a, b, c), sortedBuckets.getSortedList());
+
+        // a bucket can be removed after its usage changed, before it is updated
+        c.removeTask(bigTask.getId(), bigTask.getQAttributes());
+        Assert.assertSame(c, sortedBuckets.remove("C"));
+        Assert.assertNull(sortedBuckets.get("C"));
+        Assert.assertEquals(Arrays.asList(a, b), sortedBuckets.getSortedList());
+        Assert.assertFalse(sortedBuckets.add(a));
+    }
+
+    @Test
+    public void testReorderAfterTotalsChange() throws Exception {
+        UsageTrackedQueue.ResUsage parentUsage = new UsageTrackedQueue.ResUsage();
+        SortedBuckets sortedBuckets = new SortedBuckets(parentUsage);
+        final ResAllocs tierResources = new ResAllocsBuilder("tier").withCores(100).withMemory(1000)
+                .withNetworkMbps(100).withDisk(100).build();
+        final QueueBucket[] buckets = new QueueBucket[4];
+        for (int i = 0; i < buckets.length; i++) {
+            final String name = "B" + i;
+            buckets[i] = new QueueBucket(1, name, parentUsage, null);
+            buckets[i].setTotalResources(tierResources);
+            buckets[i].launchTask(QueuableTaskProvider.wrapTask(new QAttributes.QAttributesAdaptor(1, name),
+                    TaskRequestProvider.getTaskRequest(10 * (i + 1), 100, 10)));
+            sortedBuckets.add(buckets[i]);
+        }
+        Assert.assertEquals(Arrays.asList(buckets), sortedBuckets.getSortedList());
+
+        // halve the totals of the first bucket only, moving it past the second bucket
+        buckets[0].setTotalResources(new ResAllocsBuilder("tier").withCores(40).withMemory(1000)
+                .withNetworkMbps(100).withDisk(100).build());
+        sortedBuckets.reorder();
+        Assert.assertEquals(Arrays.asList(buckets[1], buckets[0], buckets[2], buckets[3]), sortedBuckets.getSortedList());
+        Assert.assertEquals(1, sortedBuckets.getNumRepositions());
+
+        sortedBuckets.reorder();
+        Assert.assertEquals(1, sortedBuckets.getNumRepositions());
+        Assert.assertEquals(0, sortedBuckets.getNumResorts());
+    }
+
     @Test
     public void testDominantResourceUsageRebalancing() throws Exception {
         TieredQueue queue = new TieredQueue(3);
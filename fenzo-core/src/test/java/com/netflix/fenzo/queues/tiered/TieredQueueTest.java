@@ -26,8 +26,10 @@ import com.netflix.fenzo.sla.ResAllocsBuilder;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
@@ -83,6 +85,93 @@ public class TieredQueueTest {
         Assert.assertEquals(0, tier3);
     }
 
+    @Test
+    public void testQueueTasksConcurrently() throws Exception {
+        final int numThreads = 4;
+        final int tasksPerThread = 2000;
+        final TieredQueue queue = new TieredQueue(2);
+        final List<List<QueuableTask>> threadTasks = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < numThreads; i++) {
+            // each thread queues tasks into its own bucket and into buckets shared by all threads
+            final List<QueuableTask> tasks = new ArrayList<>();
+            final QAttributes own = new QAttributes.QAttributesAdaptor(i % 2, "T" + i);
+            for (int t = 0; t < tasksPerThread; t++) {
+                final QAttributes qAttributes = t % 2 == 0 ? own : new QAttributes.QAttributesAdaptor(t % 3 == 0 ? 0 : 1, "S");
+                tasks.add(QueuableTaskProvider.wrapTask(qAttributes, TaskRequestProvider.getTaskRequest(1, 100, 1)));
+            }
+            threadTasks.add(tasks);
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                tasks.forEach(queue::queueTask);
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+        // a duplicate and a task with an invalid tier number fail, without failing the other tasks
+        queue.queueTask(threadTasks.get(0).get(0));
+        queue.queueTask(QueuableTaskProvider.wrapTask(new QAttributes.QAttributesAdaptor(2, "A"),
+                TaskRequestProvider.getTaskRequest(1, 100, 1)));
+        try {
+            queue.reset();
+            Assert.fail("Expected exceptions for a duplicate task and for an invalid tier number");
+        } catch (TaskQueueMultiException e) {
+            Assert.assertEquals(2, e.getExceptions().size());
+        }
+
+        // tasks queued by each thread into each bucket are in the order they were queued
+        final Map<String, List<String>> expected = new HashMap<>();
+        final Map<String, String> taskKeys = new HashMap<>();
+        for (int i = 0; i < numThreads; i++) {
+            for (QueuableTask t : threadTasks.get(i)) {
+                final String key = i + ":" + t.getQAttributes().getTierNumber() + t.getQAttributes().getBucketName();
+                expected.computeIfAbsent(key, k -> new ArrayList<>()).add(t.getId());
+                taskKeys.put(t.getId(), key);
+            }
+        }
+        final Map<String, List<String>> actual = new HashMap<>();
+        Assignable<QueuableTask> taskOrFailure;
+        while ((taskOrFailure = queue.next()) != null) {
+            final String id = taskOrFailure.getTask().getId();
+            actual.computeIfAbsent(taskKeys.get(id), k -> new ArrayList<>()).add(id);
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    // Test that the staging area of a bucket is removed once the bucket is dropped, and that tasks of the bucket staged
+    // after that are still taken
+    @Test
+    public void testStagingOfDroppedBuckets() throws Exception {
+        final TaskStaging staging = new TaskStaging(2);
+        final List<Exception> exceptions = new ArrayList<>();
+        final Map<String, Integer> taken = new HashMap<>();
+        final TaskStaging.BucketTasksConsumer consumer =
+                (tierNumber, bucketName, tasks) -> taken.merge(bucketName, tasks.size(), Integer::sum);
+        for (int i = 0; i < 100; i++)
+            staging.add(QueuableTaskProvider.wrapTask(new QAttributes.QAttributesAdaptor(i % 2, "job" + i),
+                    TaskRequestProvider.getTaskRequest(1, 100, 1)));
+        Assert.assertEquals(100, staging.takeAll(consumer, (tierNumber, bucketName) -> true, exceptions));
+        Assert.assertEquals(100, taken.size());
+        Assert.assertEquals(100, staging.getNumBucketStagings());
+        // buckets still in their tiers keep their staging areas
+        Assert.assertEquals(0, staging.takeAll(consumer, (tierNumber, bucketName) -> true, exceptions));
+        Assert.assertEquals(100, staging.getNumBucketStagings());
+        Assert.assertEquals(0, staging.takeAll(consumer, (tierNumber, bucketName) -> false, exceptions));
+        Assert.assertEquals(0, staging.getNumBucketStagings());
+        staging.add(QueuableTaskProvider.wrapTask(new QAttributes.QAttributesAdaptor(1, "job1"),
+                TaskRequestProvider.getTaskRequest(1, 100, 1)));
+        Assert.assertEquals(1, staging.takeAll(consumer, (tierNumber, bucketName) -> false, exceptions));
+        Assert.assertEquals(2, taken.get("job1").intValue());
+        Assert.assertTrue(exceptions.isEmpty());
+    }
+
     @Test
     public void testAddRunningTasks() throws Exception {
         InternalTaskQueue queue = new TieredQueue(3);
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.functions.Func1;
+import com.netflix.fenzo.plugins.BalancedHostAttrConstraint;
+import com.netflix.fenzo.plugins.BinPackingFitnessCalculators;
+import com.netflix.fenzo.plugins.HostAttrValueConstraint;
+import com.netflix.fenzo.plugins.SpreadingFitnessCalculators;
+import com.netflix.fenzo.plugins.UniqueHostAttrConstraint;
+import org.apache.mesos.Protos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single {@link TaskScheduler#scheduleOnce(List, List)} call assigning a batch of tasks to a fresh set of
+ * hosts. A new scheduler is created for each invocation so that every call starts from the same state, the time to
+ * create it is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScheduleOnceBenchmark {
+
+    private static final String ZONE_ATTR = "zone";
+    private static final int NUM_ZONES = 3;
+    private static final int CO_TASKS_GROUP_SIZE = 10;
+    private static final int HOST_CPUS = 8;
+    private static final double HOST_MEMORY = 8000.0;
+
+    @Param({"100", "1000", "5000"})
+    public int numHosts;
+
+    @Param({"100", "1000"})
+    public int numTasks;
+
+    /**
+     * Hard constraint set on every task: none, a host attribute value, unique hosts for co-tasks, or co-tasks
+     * balanced across zones.
+     */
+    @Param({"none", "hostAttrValue", "uniqueHost", "balancedZone"})
+    public String constraint;
+
+    @Param({"default", "cpuBinPacker", "cpuMemBinPacker", "cpuMemSpreader"})
+    public String fitnessCalculator;
+
+    private List<VirtualMachineLease> leases;
+    private List<TaskRequest> tasks;
+    private TaskScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        leases = new ArrayList<>(numHosts);
+        for (int i = 0; i < numHosts; i++) {
+            final String hostname = "host" + i;
+            final Map<String, Protos.Attribute> attributes = new HashMap<>();
+            attributes.put(ZONE_ATTR, Protos.Attribute.newBuilder().setName(ZONE_ATTR)
+                    .setType(Protos.Value.Type.TEXT)
+                    .setText(Protos.Value.Text.newBuilder().setValue(zoneOf(i))).build());
+            leases.add(LeaseProvider.getLeaseOffer(hostname, HOST_CPUS, HOST_MEMORY,
+                    Collections.singletonList(new VirtualMachineLease.Range(1, 100)), attributes));
+        }
+        tasks = createTasks();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpScheduler() {
+        TaskScheduler.Builder builder = new TaskScheduler.Builder()
+                .withLeaseOfferExpirySecs(1000000)
+                .withLeaseRejectAction(lease -> {});
+        final VMTaskFitnessCalculator calculator = getFitnessCalculator();
+        if (calculator != null)
+            builder = builder.withFitnessCalculator(calculator);
+        scheduler = builder.build();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownScheduler() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public SchedulingResult scheduleOnce() {
+        return scheduler.scheduleOnce(tasks, leases);
+    }
+
+    private static String zoneOf(int hostIndex) {
+        return "zone" + (hostIndex % NUM_ZONES);
+    }
+
+    private VMTaskFitnessCalculator getFitnessCalculator() {
+        switch (fitnessCalculator) {
+            case "cpuBinPacker":
+                return BinPackingFitnessCalculators.cpuBinPacker;
+            case "cpuMemBinPacker":
+                return BinPackingFitnessCalculators.cpuMemBinPacker;
+            case "cpuMemSpreader":
+                return SpreadingFitnessCalculators.cpuMemSpreader;
+            default:
+                return null;
+        }
+    }
+
+    private List<TaskRequest> createTasks() {
+        // constraints are created before the task IDs are known, these maps are filled in as the tasks are created
+        final Map<String, String> taskZones = new HashMap<>();
+        final Map<String, Set<String>> coTasks = new HashMap<>();
+        final Func1<String, Set<String>> coTasksGetter = coTasks::get;
+        final List<TaskRequest> result = new ArrayList<>(numTasks);
+        Set<String> group = null;
+        for (int t = 0; t < numTasks; t++) {
+            final ConstraintEvaluator evaluator;
+            switch (constraint) {
+                case "hostAttrValue":
+                    evaluator = new HostAttrValueConstraint(ZONE_ATTR, taskZones::get);
+                    break;
+                case "uniqueHost":
+                    evaluator = new UniqueHostAttrConstraint(coTasksGetter);
+                    break;
+                case "balancedZone":
+                    evaluator = new BalancedHostAttrConstraint(coTasksGetter, ZONE_ATTR, NUM_ZONES);
+                    break;
+                default:
+                    evaluator = null;
+            }
+            final TaskRequest task = TaskRequestProvider.getTaskRequest(1, 1000, 1,
+                    evaluator == null ? null : Collections.singletonList(evaluator), null);
+            result.add(task);
+            taskZones.put(task.getId(), zoneOf(t));
+            if (t % CO_TASKS_GROUP_SIZE == 0)
+                group = new HashSet<>();
+            group.add(task.getId());
+            coTasks.put(task.getId(), group);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo;
+
+import com.netflix.fenzo.plugins.BinPackingFitnessCalculators;
+import com.netflix.fenzo.plugins.SpreadingFitnessCalculators;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluating a single task on a single host with {@link AssignableVirtualMachine#tryRequest(TaskRequest,
+ * VMTaskFitnessCalculator)}, for a host with a varying number of running tasks, and for tasks that do and do not
+ * fit on the host.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TryRequestBenchmark {
+
+    private static final String HOSTNAME = "host0";
+
+    @Param({"0", "10", "100"})
+    public int numRunningTasks;
+
+    @Param({"true", "false"})
+    public boolean fits;
+
+    @Param({"default", "cpuMemBinPacker", "cpuMemSpreader"})
+    public String fitnessCalculator;
+
+    private AssignableVirtualMachine avm;
+    private TaskRequest request;
+    private VMTaskFitnessCalculator calculator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        avm = new AssignableVirtualMachine(DefaultPreferentialNamedConsumableResourceEvaluator.INSTANCE,
+                new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), HOSTNAME, lease -> {}, 1000000,
+                new TaskTracker());
+        avm.addLease(LeaseProvider.getLeaseOffer(HOSTNAME, 64, 64000, 1, 1000));
+        for (int i = 0; i < numRunningTasks; i++)
+            avm.setAssignedTask(TaskRequestProvider.getTaskRequest(0.5, 500, 0));
+        avm.updateCurrTotalLease();
+        avm.prepareForScheduling();
+        request = fits ?
+                TaskRequestProvider.getTaskRequest(1, 1000, 1) :
+                TaskRequestProvider.getTaskRequest(128, 1000, 1);
+        switch (fitnessCalculator) {
+            case "cpuMemBinPacker":
+                calculator = BinPackingFitnessCalculators.cpuMemBinPacker;
+                break;
+            case "cpuMemSpreader":
+                calculator = SpreadingFitnessCalculators.cpuMemSpreader;
+                break;
+            default:
+                calculator = new DefaultFitnessCalculator();
+        }
+    }
+
+    @Benchmark
+    public TaskAssignmentResult tryRequest() {
+        return avm.tryRequest(request, calculator);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo.queues.tiered;
+
+import com.netflix.fenzo.TaskRequestProvider;
+import com.netflix.fenzo.queues.QAttributes;
+import com.netflix.fenzo.queues.QueuableTask;
+import com.netflix.fenzo.queues.TaskQueueException;
+import com.netflix.fenzo.queues.UsageTrackedQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the operations of {@link SortedBuckets} used by a tier as tasks are launched in its buckets. Buckets start
+ * with different usages so that they are spread across the sorted list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SortedBucketsBenchmark {
+
+    private static final int TIER = 0;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int numBuckets;
+
+    private SortedBuckets sortedBuckets;
+    private List<QueueBucket> buckets;
+    private List<QueuableTask> extraTasks;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws TaskQueueException {
+        final Random random = new Random(42);
+        final UsageTrackedQueue.ResUsage tierUsage = new UsageTrackedQueue.ResUsage();
+        sortedBuckets = new SortedBuckets(tierUsage);
+        buckets = new ArrayList<>(numBuckets);
+        extraTasks = new ArrayList<>(numBuckets);
+        for (int i = 0; i < numBuckets; i++) {
+            final String name = "bucket" + i;
+            final QAttributes qAttributes = new QAttributes.QAttributesAdaptor(TIER, name);
+            final QueueBucket bucket = new QueueBucket(TIER, name, tierUsage, null);
+            final QueuableTask task = QueuableTaskProvider.wrapTask(qAttributes,
+                    TaskRequestProvider.getTaskRequest(1 + random.nextInt(16), 1000 + random.nextInt(16000), 0));
+            tierUsage.addUsage(task);
+            bucket.launchTask(task);
+            sortedBuckets.add(bucket);
+            buckets.add(bucket);
+            extraTasks.add(QueuableTaskProvider.wrapTask(qAttributes, TaskRequestProvider.getTaskRequest(1, 1000, 0)));
+        }
+    }
+
+    @Benchmark
+    public boolean removeAndAdd() {
+        final QueueBucket bucket = nextBucket();
+        sortedBuckets.remove(bucket.getName());
+        return sortedBuckets.add(bucket);
+    }
+
+    /**
+     * Re-position a bucket by removing and adding it around launching a task in it and again around removing that
+     * task.
+     */
+    @Benchmark
+    public boolean reorderOnUsageChange() throws TaskQueueException {
+        final int index = next;
+        final QueueBucket bucket = nextBucket();
+        final QueuableTask task = extraTasks.get(index);
+        sortedBuckets.remove(bucket.getName());
+        bucket.launchTask(task);
+        sortedBuckets.add(bucket);
+        sortedBuckets.remove(bucket.getName());
+        bucket.removeTask(task.getId(), task.getQAttributes());
+        return sortedBuckets.add(bucket);
+    }
+
+    /**
+     * Re-position a bucket after launching a task in it and again after removing that task, as a tier does when
+     * the usage of a bucket changes.
+     */
+    @Benchmark
+    public int updateOnUsageChange() throws TaskQueueException {
+        final int index = next;
+        final QueueBucket bucket = nextBucket();
+        final QueuableTask task = extraTasks.get(index);
+        bucket.launchTask(task);
+        sortedBuckets.update(bucket);
+        bucket.removeTask(task.getId(), task.getQAttributes());
+        sortedBuckets.update(bucket);
+        return sortedBuckets.size();
+    }
+
+    @Benchmark
+    public SortedBuckets resort() {
+        sortedBuckets.resort();
+        return sortedBuckets;
+    }
+
+    private QueueBucket nextBucket() {
+        final QueueBucket bucket = buckets.get(next);
+        next = (next + 1) % numBuckets;
+        return bucket;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.fenzo.queues.tiered;
+
+import com.netflix.fenzo.TaskRequestProvider;
+import com.netflix.fenzo.queues.Assignable;
+import com.netflix.fenzo.queues.QAttributes;
+import com.netflix.fenzo.queues.QueuableTask;
+import com.netflix.fenzo.queues.TaskQueueException;
+import com.netflix.fenzo.queues.TaskQueueMultiException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TieredQueue#next()} and {@link TieredQueue#reset()} the way a scheduling iteration of
+ * {@code TaskSchedulingService} uses them: new tasks are added to the queue by a reset, and then all tasks are
+ * iterated with next, optionally assigning each one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TieredQueueBenchmark {
+
+    private static final int NUM_TIERS = 2;
+
+    public abstract static class QueueState {
+        @Param({"10", "100", "1000"})
+        public int numBuckets;
+
+        @Param({"10", "100"})
+        public int tasksPerBucket;
+
+        TieredQueue queue;
+
+        void createQueue() throws TaskQueueMultiException {
+            queue = new TieredQueue(NUM_TIERS);
+            for (QueuableTask t : createTasks(numBuckets, tasksPerBucket))
+                queue.queueTask(t);
+            queue.reset();
+        }
+    }
+
+    /**
+     * A queue that is created once, for benchmarks that do not modify it.
+     */
+    @State(Scope.Thread)
+    public static class TrialQueue extends QueueState {
+        @Setup(Level.Trial)
+        public void setUp() throws TaskQueueMultiException {
+            createQueue();
+        }
+    }
+
+    /**
+     * A queue that is created for each invocation, for benchmarks that assign its tasks.
+     */
+    @State(Scope.Thread)
+    public static class InvocationQueue extends QueueState {
+        @Setup(Level.Invocation)
+        public void setUp() throws TaskQueueMultiException {
+            createQueue();
+        }
+    }
+
+    /**
+     * A queue created once that is given a task for each bucket to add in each invocation, which are removed
+     * after the invocation.
+     */
+    @State(Scope.Thread)
+    public static class QueueWithNewTasks extends QueueState {
+        List<QueuableTask> newTasks;
+
+        @Setup(Level.Trial)
+        public void setUp() throws TaskQueueMultiException {
+            createQueue();
+        }
+
+        @Setup(Level.Invocation)
+        public void addNewTasks() {
+            newTasks = createTasks(numBuckets, 1);
+            for (QueuableTask t : newTasks)
+                queue.queueTask(t);
+        }
+
+        @TearDown(Level.Invocation)
+        public void removeNewTasks() throws TaskQueueException {
+            for (QueuableTask t : newTasks)
+                queue.getUsageTracker().removeTask(t.getId(), t.getQAttributes());
+        }
+    }
+
+    @Benchmark
+    public int nextAll(TrialQueue state) throws TaskQueueException, TaskQueueMultiException {
+        state.queue.reset();
+        state.queue.getUsageTracker().reset();
+        int count = 0;
+        while (state.queue.next() != null)
+            count++;
+        return count;
+    }
+
+    @Benchmark
+    public int nextAndAssignAll(InvocationQueue state) throws TaskQueueException {
+        int count = 0;
+        Assignable<QueuableTask> taskOrFailure;
+        while ((taskOrFailure = state.queue.next()) != null) {
+            if (!taskOrFailure.hasFailure()) {
+                state.queue.getUsageTracker().assignTask(taskOrFailure.getTask());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public boolean reset(QueueWithNewTasks state) throws TaskQueueMultiException {
+        return state.queue.reset();
+    }
+
+    private static List<QueuableTask> createTasks(int numBuckets, int tasksPerBucket) {
+        final List<QueuableTask> tasks = new ArrayList<>(numBuckets * tasksPerBucket);
+        for (int b = 0; b < numBuckets; b++) {
+            final QAttributes qAttributes = new QAttributes.QAttributesAdaptor(b % NUM_TIERS, "bucket" + b);
+            for (int t = 0; t < tasksPerBucket; t++)
+                tasks.add(QueuableTaskProvider.wrapTask(qAttributes, TaskRequestProvider.getTaskRequest(1, 1000, 1)));
+        }
+        return tasks;
+    }
+}